@@ -47,6 +47,7 @@ public class Configuration
 	public static final String PREFS_KEY_TRUSTED_PEER_ONLY = "trusted_peer_only";
 	public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
 	private static final String PREFS_KEY_LABS_QR_PAYMENT_REQUEST = "labs_qr_payment_request";
+	private static final String PREFS_KEY_LABS_SESSION_KEY_CACHE = "labs_session_key_cache";
 
 	private static final String PREFS_KEY_LAST_VERSION = "last_version";
 	private static final String PREFS_KEY_LAST_USED = "last_used";
@@ -65,6 +66,12 @@ public class Configuration
 	public static final String PREFS_KEY_AUTOSYNC_SWITCH = "auto_sync_switch";
 	public static final String PREFS_KEY_AUTOSYNC_CHARGE = "auto_sync_charging";
 	public static final String PREFS_KEY_AUTOSYNC_WIFI = "auto_sync_wifi";
+	private static final String PREFS_KEY_SYNC_LAST_SUCCESS = "sync_last_success";
+	private static final String PREFS_KEY_SYNC_LAST_ATTEMPT = "sync_last_attempt";
+	private static final String PREFS_KEY_SYNC_FAILURES = "sync_failures";
+	private static final String PREFS_KEY_SYNC_BUDGET_DAY = "sync_budget_day";
+	private static final String PREFS_KEY_SYNC_BUDGET_USED = "sync_budget_used";
+	private static final String PREFS_KEY_SYNC_MAX_INTERVAL = "sync_max_interval";
 
 	private static final int PREFS_DEFAULT_BTC_SHIFT = 0;
 	private static final int PREFS_DEFAULT_BTC_PRECISION = 4;
@@ -188,6 +195,11 @@ public class Configuration
 		return prefs.getBoolean(PREFS_KEY_LABS_QR_PAYMENT_REQUEST, false);
 	}
 
+	public boolean getSessionKeyCacheEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_LABS_SESSION_KEY_CACHE, false);
+	}
+
 	public boolean versionCodeCrossed(final int currentVersionCode, final int triggeringVersionCode)
 	{
 		final boolean wasBelow = lastVersionCode < triggeringVersionCode;
@@ -234,6 +246,80 @@ public class Configuration
 			prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 	}
 
+	public boolean getAutosyncEnabled()
+	{
+		return prefs.getBoolean(PREFS_KEY_AUTOSYNC_SWITCH, false);
+	}
+
+	public boolean getAutosyncChargingOnly()
+	{
+		return prefs.getBoolean(PREFS_KEY_AUTOSYNC_CHARGE, false);
+	}
+
+	public boolean getAutosyncWifiOnly()
+	{
+		return prefs.getBoolean(PREFS_KEY_AUTOSYNC_WIFI, false);
+	}
+
+	public long getLastSyncSuccessTime()
+	{
+		return prefs.getLong(PREFS_KEY_SYNC_LAST_SUCCESS, 0);
+	}
+
+	public long getLastSyncAttemptTime()
+	{
+		return prefs.getLong(PREFS_KEY_SYNC_LAST_ATTEMPT, 0);
+	}
+
+	public int getSyncFailures()
+	{
+		return prefs.getInt(PREFS_KEY_SYNC_FAILURES, 0);
+	}
+
+	public long getSyncBudgetUsed(final long day)
+	{
+		return prefs.getLong(PREFS_KEY_SYNC_BUDGET_DAY, -1) == day ? prefs.getLong(PREFS_KEY_SYNC_BUDGET_USED, 0) : 0;
+	}
+
+	/**
+	 * @return longest interval between syncs the last session's activity suggested, or {@link Long#MAX_VALUE}
+	 */
+	public long getSyncMaxInterval()
+	{
+		return prefs.getLong(PREFS_KEY_SYNC_MAX_INTERVAL, Long.MAX_VALUE);
+	}
+
+	public void setSyncMaxInterval(final long maxIntervalMs)
+	{
+		if (maxIntervalMs != Long.MAX_VALUE)
+			prefs.edit().putLong(PREFS_KEY_SYNC_MAX_INTERVAL, maxIntervalMs).commit();
+		else
+			prefs.edit().remove(PREFS_KEY_SYNC_MAX_INTERVAL).commit();
+	}
+
+	/**
+	 * Any session that caught up counts as success. Only autosync sessions count as attempts, can fail and use up budget.
+	 */
+	public void recordSyncSession(final boolean autosync, final boolean success, final long day, final long budgetMs)
+	{
+		final long now = System.currentTimeMillis();
+		final Editor edit = prefs.edit();
+		if (success)
+		{
+			edit.putLong(PREFS_KEY_SYNC_LAST_SUCCESS, now);
+			edit.putInt(PREFS_KEY_SYNC_FAILURES, 0);
+		}
+		if (autosync)
+		{
+			edit.putLong(PREFS_KEY_SYNC_LAST_ATTEMPT, now);
+			if (!success)
+				edit.putInt(PREFS_KEY_SYNC_FAILURES, getSyncFailures() + 1);
+			edit.putLong(PREFS_KEY_SYNC_BUDGET_DAY, day);
+			edit.putLong(PREFS_KEY_SYNC_BUDGET_USED, getSyncBudgetUsed(day) + budgetMs);
+		}
+		edit.commit();
+	}
+
 	public ExchangeRate getCachedExchangeRate()
 	{
 		if (prefs.contains(PREFS_KEY_CACHED_EXCHANGE_CURRENCY) && prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE_COIN)
@@ -65,6 +65,15 @@ public final class Constants
 
 		/** Filename of the block checkpoints file. */
 		public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".txt";
+
+		/** Filename of the persisted exchange rate table. */
+		public static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+
+		/** Filename of the exchange rate time series. */
+		public static final String EXCHANGE_RATE_HISTORY_FILENAME = "exchange-rate-history";
+
+		/** Directory of the HTTP response cache, inside the cache dir. */
+		public static final String HTTP_CACHE_DIRNAME = "http";
 	}
 
 	/** Maximum size of backups. Files larger will be rejected. */
@@ -140,6 +149,7 @@ public final class Constants
 	public static final String WEBMARKET_APP_URL = "https://play.google.com/store/apps/details?id=%s";
 
 	public static final int HTTP_TIMEOUT_MS = 15 * (int) DateUtils.SECOND_IN_MILLIS;
+	public static final long HTTP_CACHE_MAX_SIZE = 1024 * 1024;
 	public static final int PEER_TIMEOUT_MS = 15 * (int) DateUtils.SECOND_IN_MILLIS;
 
 	public static final long LAST_USAGE_THRESHOLD_JUST_MS = DateUtils.HOUR_IN_MILLIS;
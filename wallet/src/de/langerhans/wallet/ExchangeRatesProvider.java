@@ -17,30 +17,18 @@
 
 package de.langerhans.wallet;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.math.RoundingMode;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.io.File;
 import java.util.Currency;
-import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.dogecoin.dogecoinj.core.Coin;
 import com.dogecoin.dogecoinj.utils.Fiat;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,12 +40,13 @@ import android.database.MatrixCursor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
-import android.text.format.DateUtils;
-
-import com.google.common.base.Charsets;
 
+import de.langerhans.wallet.exchangerate.ExchangeRateHistory;
+import de.langerhans.wallet.exchangerate.ExchangeRateSources;
+import de.langerhans.wallet.exchangerate.ExchangeRatesFetcher;
+import de.langerhans.wallet.exchangerate.ExchangeRatesRefresher;
+import de.langerhans.wallet.exchangerate.ExchangeRatesStore;
 import de.langerhans.wallet.util.GenericUtils;
-import de.langerhans.wallet.util.Io;
 
 /**
  * @author Andreas Schildbach
@@ -96,40 +85,13 @@ public class ExchangeRatesProvider extends ContentProvider
 	private static final String QUERY_PARAM_OFFLINE = "offline";
 
 	private Configuration config;
-	private String userAgent;
+	private ExchangeRatesRefresher refresher;
+	private ExchangeRatesStore store;
+	private final AtomicBoolean storeLoaded = new AtomicBoolean(false);
 
+	/** Persisted rate from a previous run, served until the first refresh succeeds. */
 	@CheckForNull
-	private Map<String, ExchangeRate> exchangeRates = null;
-	private long lastUpdated = 0;
-	private double dogeBtcConversion = -1;
-
-	private static final URL BITCOINAVERAGE_URL;
-	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
-	private static final String BITCOINAVERAGE_SOURCE = "BitcoinAverage.com";
-	private static final URL BLOCKCHAININFO_URL;
-	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
-	private static final String BLOCKCHAININFO_SOURCE = "blockchain.info";
-	private static final URL CRYPTSY_URL;
-	private static final URL BTER_URL;
-
-	// https://bitmarket.eu/api/ticker
-
-	static
-	{
-		try
-		{
-			BITCOINAVERAGE_URL = new URL("https://api.bitcoinaverage.com/custom/abw");
-			BLOCKCHAININFO_URL = new URL("https://blockchain.info/ticker");
-			CRYPTSY_URL = new URL("https://api.cryptsy.com/api/v2/markets/132/");
-			BTER_URL = new URL("http://data.bter.com/api/1/ticker/DOGE_BTC");
-		}
-		catch (final MalformedURLException x)
-		{
-			throw new RuntimeException(x); // cannot happen
-		}
-	}
-
-	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private Map<String, ExchangeRate> cachedExchangeRates = null;
 
 	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -140,13 +102,15 @@ public class ExchangeRatesProvider extends ContentProvider
 
 		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
 
-		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+		final ExchangeRatesFetcher fetcher = new ExchangeRatesFetcher(ExchangeRateSources.createDefault(WalletApplication.httpClient(context)));
+		this.refresher = new ExchangeRatesRefresher(fetcher, config, refreshListener);
+		this.store = new ExchangeRatesStore(new File(context.getFilesDir(), Constants.Files.EXCHANGE_RATES_FILENAME));
 
 		final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
 		if (cachedExchangeRate != null)
 		{
-			exchangeRates = new TreeMap<String, ExchangeRate>();
-			exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
+			cachedExchangeRates = new TreeMap<String, ExchangeRate>();
+			cachedExchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
 		}
 
 		return true;
@@ -163,8 +127,6 @@ public class ExchangeRatesProvider extends ContentProvider
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
-		final long now = System.currentTimeMillis();
-		int provider = config.getExchangeProvider();
 		boolean forceRefresh = config.getExchangeForceRefresh();
 		if (forceRefresh) {
 			config.setExchangeForceRefresh(false);
@@ -172,55 +134,26 @@ public class ExchangeRatesProvider extends ContentProvider
 
 		final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
 
-		if (!offline && (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS) || forceRefresh)
+		// loaded lazily, so that processes not interested in exchange rates don't pay for it
+		if (storeLoaded.compareAndSet(false, true))
 		{
-			double newDogeBtcConversion = -1;
-			if ((dogeBtcConversion == -1 && newDogeBtcConversion == -1) || forceRefresh)
-				newDogeBtcConversion = requestDogeBtcConversion(provider);
-
-			if (newDogeBtcConversion != -1)
-				dogeBtcConversion = newDogeBtcConversion;
-
-			if (dogeBtcConversion == -1)
-				return null;
-
-			Map<String, ExchangeRate> newExchangeRates = null;
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BITCOINAVERAGE_URL, dogeBtcConversion, userAgent, BITCOINAVERAGE_SOURCE, BITCOINAVERAGE_FIELDS);
-			if (newExchangeRates == null)
-				newExchangeRates = requestExchangeRates(BLOCKCHAININFO_URL, dogeBtcConversion, userAgent, BLOCKCHAININFO_SOURCE, BLOCKCHAININFO_FIELDS);
-
-			if (newExchangeRates != null)
-			{
-				String providerUrl;
-				switch (provider) {
-					case 0:
-						providerUrl = "http://www.cryptsy.com";
-						break;
-					case 1:
-						providerUrl = "http://www.bter.com";
-						break;
-					default:
-						providerUrl = "";
-						break;
-				}
-				double mBTCRate = dogeBtcConversion*1000;
-				String strmBTCRate = String.format(Locale.US, "%.4f", mBTCRate).replace(',', '.');
-				newExchangeRates.put("mBTC", new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(Fiat.parseFiat("mBTC", strmBTCRate)), providerUrl));
-				newExchangeRates.put("DOGE", new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(Fiat.parseFiat("DOGE", "1")), "priceofdoge.com"));
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
-
-				final ExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-				if (exchangeRateToCache != null)
-					config.setCachedExchangeRate(exchangeRateToCache);
-			}
+			final ExchangeRatesRefresher.Snapshot persistedSnapshot = store.load();
+			if (persistedSnapshot != null)
+				refresher.seed(persistedSnapshot);
 		}
 
-		if (exchangeRates == null || dogeBtcConversion == -1)
-			return null;
+		// never block on the network, the refresher will notify once it has new rates
+		if (!offline || forceRefresh)
+			refresher.maybeRefresh(forceRefresh);
+
+		final ExchangeRatesRefresher.Snapshot snapshot = refresher.get();
+		final Map<String, ExchangeRate> exchangeRates = snapshot != null ? snapshot.rates : cachedExchangeRates;
 
 		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		if (exchangeRates == null)
+			return cursor; // empty for now, loaders will be notified
 
 		if (selection == null)
 		{
@@ -248,7 +181,7 @@ public class ExchangeRatesProvider extends ContentProvider
 		else if (selection.equals(KEY_CURRENCY_CODE))
 		{
 			final String selectionArg = selectionArgs[0];
-			final ExchangeRate exchangeRate = bestExchangeRate(selectionArg);
+			final ExchangeRate exchangeRate = bestExchangeRate(exchangeRates, selectionArg);
 			if (exchangeRate != null)
 			{
 				final com.dogecoin.dogecoinj.utils.ExchangeRate rate = exchangeRate.rate;
@@ -260,7 +193,29 @@ public class ExchangeRatesProvider extends ContentProvider
 		return cursor;
 	}
 
-	private ExchangeRate bestExchangeRate(final String currencyCode)
+	private final ExchangeRatesRefresher.Listener refreshListener = new ExchangeRatesRefresher.Listener()
+	{
+		@Override
+		public void onExchangeRatesRefreshed(final ExchangeRatesRefresher.Snapshot snapshot)
+		{
+			store.save(snapshot);
+
+			final ExchangeRate exchangeRateToCache = bestExchangeRate(snapshot.rates, config.getExchangeCurrencyCode());
+			if (exchangeRateToCache != null)
+			{
+				config.setCachedExchangeRate(exchangeRateToCache);
+
+				final ExchangeRateHistory history = WalletApplication.exchangeRateHistory(getContext());
+				history.record(snapshot.time, exchangeRateToCache.rate.fiat);
+				history.save();
+			}
+
+			final Context context = getContext();
+			context.getContentResolver().notifyChange(contentUri(context.getPackageName(), false), null);
+		}
+	};
+
+	private ExchangeRate bestExchangeRate(final Map<String, ExchangeRate> exchangeRates, final String currencyCode)
 	{
 		ExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
 		if (rate != null)
@@ -320,206 +275,4 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		throw new UnsupportedOperationException();
 	}
-
-	private static Map<String, ExchangeRate> requestExchangeRates(final URL url, double dogeBtcConversion, final String userAgent, final String source, final String... fields)
-	{
-		final long start = System.currentTimeMillis();
-
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
-		try
-		{
-			connection = (HttpURLConnection) url.openConnection();
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.addRequestProperty("User-Agent", userAgent);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
-			{
-				final String contentEncoding = connection.getContentEncoding();
-
-				InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
-				if ("gzip".equalsIgnoreCase(contentEncoding))
-					is = new GZIPInputStream(is);
-
-				reader = new InputStreamReader(is, Charsets.UTF_8);
-				final StringBuilder content = new StringBuilder();
-				final long length = Io.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
-				{
-					final String currencyCode = i.next();
-					if (!"timestamp".equals(currencyCode))
-					{
-						final JSONObject o = head.getJSONObject(currencyCode);
-
-						for (final String field : fields)
-						{
-							final String rate = o.optString(field, null);
-
-							if (rate != null)
-							{
-								try
-								{
-									final double btcRate = Double.parseDouble(Fiat.parseFiat(currencyCode, rate).toPlainString());
-									DecimalFormat df = new DecimalFormat("#.########");
-									df.setRoundingMode(RoundingMode.HALF_UP);
-									DecimalFormatSymbols dfs = new DecimalFormatSymbols();
-									dfs.setDecimalSeparator('.');
-									dfs.setGroupingSeparator(',');
-									df.setDecimalFormatSymbols(dfs);
-									final Fiat dogeRate = Fiat.parseFiat(currencyCode, df.format(btcRate*dogeBtcConversion));
-
-									if (dogeRate.signum() > 0)
-									{
-										rates.put(currencyCode, new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(dogeRate), source));
-										break;
-									}
-								}
-								catch (final NumberFormatException x)
-								{
-									log.warn("problem fetching {} exchange rate from {} ({}): {}", currencyCode, url, contentEncoding, x.getMessage());
-								}
-							}
-						}
-					}
-				}
-
-				log.info("fetched exchange rates from {} ({}), {} chars, took {} ms", url, contentEncoding, length, System.currentTimeMillis()
-						- start);
-
-				return rates;
-			}
-			else
-			{
-				log.warn("http status {} when fetching exchange rates from {}", responseCode, url);
-			}
-		}
-		catch (final Exception x)
-		{
-			log.warn("problem fetching exchange rates from " + url, x);
-		}
-		finally
-		{
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
-
-		return null;
-	}
-
-	private static double requestDogeBtcConversion(int provider) {
-		HttpURLConnection connection = null;
-		Reader reader = null;
-		URL providerUrl;
-		switch (provider) {
-			case 0:
-				providerUrl = CRYPTSY_URL;
-				break;
-			case 1:
-				providerUrl = BTER_URL;
-				break;
-			default:
-				providerUrl = CRYPTSY_URL;
-				break;
-		}
-
-		try
-		{
-			connection = (HttpURLConnection) providerUrl.openConnection();
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK)
-			{
-				reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024));
-				final StringBuilder content = new StringBuilder();
-				Io.copy(reader, content);
-
-				try
-				{
-					final JSONObject json = new JSONObject(content.toString());
-					double rate;
-					boolean success;
-					switch (provider) {
-						case 0:
-							success = json.getBoolean("success");
-							if (!success) {
-								return -1;
-							}
-                            rate = json.getJSONObject("data")
-                                    .getJSONObject("last_trade")
-									.getDouble("price");
-							break;
-						case 1:
-							success = json.getString("result").equals("true"); // Eww bad API!
-							if (!success) {
-								return -1;
-							}
-							rate = Double.valueOf(
-									json.getString("last"));
-							break;
-						default:
-							return -1;
-					}
-					return rate;
-				} catch (NumberFormatException e)
-				{
-					log.debug("Couldn't get the current exchnage rate from provider " + String.valueOf(provider));
-					return -1;
-				}
-
-			}
-			else
-			{
-				log.debug("http status " + responseCode + " when fetching " + providerUrl);
-			}
-		}
-		catch (final Exception x)
-		{
-			log.debug("problem reading exchange rates", x);
-		}
-		finally
-		{
-			if (reader != null)
-			{
-				try
-				{
-					reader.close();
-				}
-				catch (final IOException x)
-				{
-					// swallow
-				}
-			}
-
-			if (connection != null)
-				connection.disconnect();
-		}
-
-		return -1;
-	}
 }
@@ -22,8 +22,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
@@ -37,7 +39,6 @@ import com.dogecoin.dogecoinj.crypto.MnemonicCode;
 import com.dogecoin.dogecoinj.store.UnreadableWalletException;
 import com.dogecoin.dogecoinj.store.WalletProtobufSerializer;
 import com.dogecoin.dogecoinj.utils.Threading;
-import com.dogecoin.dogecoinj.wallet.Protos;
 import com.dogecoin.dogecoinj.wallet.WalletFiles;
 import de.langerhans.wallet.service.AutosyncReceiver;
 import org.slf4j.Logger;
@@ -47,9 +48,12 @@ import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.app.Application;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
+import android.content.res.AssetManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.StrictMode;
 import android.preference.PreferenceManager;
@@ -65,9 +69,22 @@ import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 import de.langerhans.wallet.service.BlockchainService;
 import de.langerhans.wallet.service.BlockchainServiceImpl;
+import de.langerhans.wallet.service.BlockchainStateStore;
+import de.langerhans.wallet.service.SyncScheduler;
+import de.langerhans.wallet.exchangerate.ExchangeRateHistory;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
+import de.langerhans.wallet.util.BackupDiscovery;
+import de.langerhans.wallet.util.BlockTransactionIndex;
 import de.langerhans.wallet.util.CrashReporter;
+import de.langerhans.wallet.util.HttpClient;
+import de.langerhans.wallet.util.HttpResponseCache;
 import de.langerhans.wallet.util.Io;
+import de.langerhans.wallet.util.KeyBackup;
 import de.langerhans.wallet.util.LinuxSecureRandom;
+import de.langerhans.wallet.util.MemoryPressure;
+import de.langerhans.wallet.util.SessionKeyCache;
 import de.langerhans.wallet.R;
 
 /**
@@ -85,6 +102,13 @@ public class WalletApplication extends Application
 	private File walletFile;
 	private Wallet wallet;
 	private PackageInfo packageInfo;
+	private final MemoryPressure memoryPressure = new MemoryPressure();
+	private final BlockchainStateStore blockchainStateStore = new BlockchainStateStore();
+	private final BlockTransactionIndex blockTransactionIndex = new BlockTransactionIndex();
+	private final BackgroundExecutors backgroundExecutors = new BackgroundExecutors();
+	private final SessionKeyCache sessionKeyCache = new SessionKeyCache();
+	private final BackupDiscovery backupDiscovery = new BackupDiscovery();
+	private KeyBackup keyBackup;
 
 	public static final String ACTION_WALLET_CHANGED = WalletApplication.class.getPackage().getName() + ".wallet_changed";
 
@@ -126,12 +150,15 @@ public class WalletApplication extends Application
 		config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this));
 		activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
 
+		registerReceiver(screenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+
 		blockchainServiceIntent = new Intent(this, BlockchainServiceImpl.class);
 		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this,
 				BlockchainServiceImpl.class);
 		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
 
 		walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
+		keyBackup = new KeyBackup(getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF));
 
 		loadWalletFromProtobuf();
 
@@ -145,12 +172,17 @@ public class WalletApplication extends Application
 
 		afterLoadWallet();
 
+		// autosync reschedules itself from then on
+		if (autosyncAlarmIntent(this, PendingIntent.FLAG_NO_CREATE) == null)
+			scheduleStartBlockchainService(this);
+
 		cleanupFiles();
 	}
 
 	private void afterLoadWallet()
 	{
 		wallet.autosaveToFile(walletFile, 10, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		blockTransactionIndex.attach(wallet);
 
 		// clean up spam
 		wallet.cleanup();
@@ -249,6 +281,56 @@ public class WalletApplication extends Application
 		return wallet;
 	}
 
+	public MemoryPressure getMemoryPressure()
+	{
+		return memoryPressure;
+	}
+
+	public BlockchainStateStore getBlockchainStateStore()
+	{
+		return blockchainStateStore;
+	}
+
+	public BlockTransactionIndex getBlockTransactionIndex()
+	{
+		return blockTransactionIndex;
+	}
+
+	public BackgroundExecutors getBackgroundExecutors()
+	{
+		return backgroundExecutors;
+	}
+
+	public SessionKeyCache getSessionKeyCache()
+	{
+		return sessionKeyCache;
+	}
+
+	public BackupDiscovery getBackupDiscovery()
+	{
+		return backupDiscovery;
+	}
+
+	@Override
+	public void onTrimMemory(final int level)
+	{
+		super.onTrimMemory(level);
+
+		// also covers the app going to background
+		if (MemoryPressure.Level.fromTrimLevel(level).atLeast(MemoryPressure.Level.LIGHT) && sessionKeyCache.clear())
+			memoryPressure.record(level, "wiped session key");
+	}
+
+	private final BroadcastReceiver screenOffReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			if (sessionKeyCache.clear())
+				log.info("wiped session key because screen went off");
+		}
+	};
+
 	private void loadWalletFromProtobuf()
 	{
 		if (walletFile.exists())
@@ -388,39 +470,33 @@ public class WalletApplication extends Application
 		log.debug("wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
 	}
 
+	/**
+	 * Takes the keys for the key backup right away, and writes it on a background thread.
+	 */
 	public void backupWallet()
 	{
-		final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-		// strip redundant
-		builder.clearTransaction();
-		builder.clearLastSeenBlockHash();
-		builder.setLastSeenBlockHeight(-1);
-		builder.clearLastSeenBlockTimeSecs();
-		final Protos.Wallet walletProto = builder.build();
+		keyBackup.prepare(wallet);
 
-		OutputStream os = null;
-
-		try
-		{
-			os = openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, Context.MODE_PRIVATE);
-			walletProto.writeTo(os);
-		}
-		catch (final IOException x)
-		{
-			log.error("problem writing key backup", x);
-		}
-		finally
+		backgroundExecutors.submit(Pool.IO, Priority.NORMAL, new Runnable()
 		{
-			try
-			{
-				os.close();
-			}
-			catch (final IOException x)
+			@Override
+			public void run()
 			{
-				// swallow
+				try
+				{
+					keyBackup.write();
+				}
+				catch (final IOException x)
+				{
+					log.error("problem writing key backup", x);
+				}
 			}
-		}
+		});
+	}
+
+	public KeyBackup getKeyBackup()
+	{
+		return keyBackup;
 	}
 
 	private void migrateBackup()
@@ -546,6 +622,103 @@ public class WalletApplication extends Application
 		return httpUserAgent(packageInfo().versionName);
 	}
 
+	private static HttpResponseCache httpResponseCache;
+
+	/**
+	 * Shared by the whole process. Content providers are created before the application, so this takes a context.
+	 */
+	public static synchronized HttpResponseCache httpResponseCache(@Nonnull final Context context)
+	{
+		if (httpResponseCache == null)
+			httpResponseCache = new HttpResponseCache(new File(context.getCacheDir(), Constants.Files.HTTP_CACHE_DIRNAME),
+					Constants.HTTP_CACHE_MAX_SIZE);
+		return httpResponseCache;
+	}
+
+	public HttpResponseCache httpResponseCache()
+	{
+		return httpResponseCache(this);
+	}
+
+	private static HttpClient httpClient;
+
+	/**
+	 * Shared by the whole process, so connections and TLS sessions can be reused. Pinned requests only trust the keystore from
+	 * the assets.
+	 */
+	public static synchronized HttpClient httpClient(@Nonnull final Context context)
+	{
+		if (httpClient == null)
+		{
+			final AssetManager assets = context.getApplicationContext().getAssets();
+			httpClient = new HttpClient(httpUserAgent(packageInfoFromContext(context).versionName), httpResponseCache(context),
+					new HttpClient.TrustStoreLoader()
+					{
+						@Override
+						public KeyStore load() throws IOException, GeneralSecurityException
+						{
+							final InputStream is = assets.open("ssl-keystore");
+							try
+							{
+								final KeyStore keystore = KeyStore.getInstance("BKS");
+								keystore.load(is, "password".toCharArray());
+								return keystore;
+							}
+							finally
+							{
+								is.close();
+							}
+						}
+					});
+		}
+		return httpClient;
+	}
+
+	public HttpClient httpClient()
+	{
+		return httpClient(this);
+	}
+
+	private static ExchangeRateHistory exchangeRateHistory;
+
+	/**
+	 * Shared by the whole process, written by the exchange rates provider. Loaded in the background on first use, until then it
+	 * has no rates.
+	 */
+	public static synchronized ExchangeRateHistory exchangeRateHistory(@Nonnull final Context context)
+	{
+		if (exchangeRateHistory == null)
+		{
+			final ExchangeRateHistory history = new ExchangeRateHistory(new File(context.getFilesDir(),
+					Constants.Files.EXCHANGE_RATE_HISTORY_FILENAME));
+			final Runnable load = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					history.load();
+				}
+			};
+
+			try
+			{
+				((WalletApplication) context.getApplicationContext()).getBackgroundExecutors().submit(Pool.IO, Priority.HIGH, load);
+			}
+			catch (final RejectedExecutionException x)
+			{
+				new Thread(load, "exchange rate history").start();
+			}
+
+			exchangeRateHistory = history;
+		}
+		return exchangeRateHistory;
+	}
+
+	public ExchangeRateHistory getExchangeRateHistory()
+	{
+		return exchangeRateHistory(this);
+	}
+
 	public int maxConnectedPeers()
 	{
 		final int memoryClass = activityManager.getMemoryClass();
@@ -561,21 +734,18 @@ public class WalletApplication extends Application
 		final long lastUsedAgo = config.getLastUsedAgo();
 
 		// apply some backoff
-		final long alarmInterval;
-		if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
-			alarmInterval = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
-		else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
-			alarmInterval = AlarmManager.INTERVAL_HALF_DAY;
-		else
-			alarmInterval = AlarmManager.INTERVAL_DAY;
+		final long alarmInterval = SyncScheduler.usageInterval(lastUsedAgo, config.getSyncMaxInterval());
 
 		log.info("last used {} minutes ago, rescheduling blockchain sync in roughly {} minutes", lastUsedAgo / DateUtils.MINUTE_IN_MILLIS,
 				alarmInterval / DateUtils.MINUTE_IN_MILLIS);
 
+		scheduleAutosyncAlarm(context, alarmInterval);
+	}
+
+	public static void scheduleAutosyncAlarm(@Nonnull final Context context, final long alarmInterval)
+	{
 		final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-		final Intent startIntent = new Intent(context, AutosyncReceiver.class);
-		startIntent.setAction("de.langerhans.wallet.AUTOSYNC_ACTION");
-		final PendingIntent alarmIntent = PendingIntent.getBroadcast(context, 0, startIntent, 0);
+		final PendingIntent alarmIntent = autosyncAlarmIntent(context, 0);
 		alarmManager.cancel(alarmIntent);
 
 		// workaround for no inexact set() before KitKat
@@ -583,6 +753,13 @@ public class WalletApplication extends Application
 		alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, now + alarmInterval, AlarmManager.INTERVAL_DAY, alarmIntent);
 	}
 
+	private static PendingIntent autosyncAlarmIntent(final Context context, final int flags)
+	{
+		final Intent startIntent = new Intent(context, AutosyncReceiver.class);
+		startIntent.setAction(AutosyncReceiver.ACTION_AUTOSYNC);
+		return PendingIntent.getBroadcast(context, 0, startIntent, flags);
+	}
+
 	public void updateLocale()
 	{
 		final String locale = config.getLocale();
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.utils.Fiat;
+
+/**
+ * Time series of DOGE rates for a few currencies, in tiers of decreasing resolution: every 5 minutes for 2 days, hourly for
+ * 60 days and daily for 10 years. Each tier is a fixed size ring keeping the last rate of each interval, so memory is
+ * constant and lookups are a binary search. On disk, times and rates are delta encoded as variable length integers.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRateHistory
+{
+	private static final int MAGIC = 0x44584548; // DXEH
+	private static final int VERSION = 1;
+
+	private static final long[] TIER_INTERVALS_MS = { TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1) };
+	private static final int[] TIER_CAPACITIES = { 2 * 24 * 12, 60 * 24, 10 * 365 };
+	/** Samples further away than this many intervals don't count for a lookup. */
+	private static final int MAX_GAP_INTERVALS = 2;
+
+	/** Least recently recorded currencies are dropped beyond this. */
+	private static final int MAX_SERIES = 4;
+
+	private final File file;
+
+	// guarded by this
+	private final Map<String, Series> series = new LinkedHashMap<String, Series>();
+	private boolean dirty = false;
+	private boolean loaded = false;
+
+	// serializes writers of the file, held without holding this
+	private final Object saveLock = new Object();
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRateHistory.class);
+
+	public ExchangeRateHistory(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Records the rate of one DOGE at the given time. Rates older than the latest of their currency are ignored.
+	 */
+	public synchronized void record(final long time, @Nonnull final Fiat rate)
+	{
+		// move to the end, so the least recently recorded currency comes first
+		Series s = series.remove(rate.currencyCode);
+		if (s == null)
+			s = new Series();
+		series.put(rate.currencyCode, s);
+		trimSeries();
+
+		for (final Tier tier : s.tiers)
+			tier.add(time, rate.value);
+		dirty = true;
+	}
+
+	private void trimSeries()
+	{
+		final Iterator<String> i = series.keySet().iterator();
+		while (series.size() > MAX_SERIES)
+		{
+			log.info("dropping exchange rate history of {}", i.next());
+			i.remove();
+		}
+	}
+
+	/**
+	 * @return rate of one DOGE at the given time, from the finest tier that has a sample for the interval or close enough before
+	 *         it, or null
+	 */
+	@CheckForNull
+	public synchronized Fiat getRate(@Nonnull final String currencyCode, final long time)
+	{
+		final Series s = series.get(currencyCode);
+		if (s == null)
+			return null;
+
+		for (final Tier tier : s.tiers)
+		{
+			final int index = tier.floor(time);
+			if (index >= 0 && time - tier.time(index) <= MAX_GAP_INTERVALS * tier.intervalMs)
+				return Fiat.valueOf(currencyCode, tier.value(index));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Copies samples between from and to, e.g. for a chart, from the finest tier that reaches back to from or to the first
+	 * recorded rate. If there are more samples than fit into the arrays, every n-th is taken.
+	 *
+	 * @return number of samples copied
+	 */
+	public synchronized int getSamples(@Nonnull final String currencyCode, final long from, final long to, @Nonnull final long[] times,
+			@Nonnull final long[] values)
+	{
+		final Series s = series.get(currencyCode);
+		if (s == null)
+			return 0;
+
+		Tier tier = s.tiers[s.tiers.length - 1];
+		for (final Tier t : s.tiers)
+		{
+			// a tier that never overflowed has everything ever recorded
+			if (t.size > 0 && (t.time(0) <= from || t.size < t.capacity()))
+			{
+				tier = t;
+				break;
+			}
+		}
+
+		int start = tier.floor(from);
+		if (start < 0 || tier.time(start) < from)
+			start++;
+		int end = tier.floor(to) + 1;
+		if (end <= start)
+			return 0;
+
+		final int max = Math.min(times.length, values.length);
+		final int stride = (end - start + max - 1) / max;
+		int count = 0;
+		for (int i = start; i < end && count < max; i += stride)
+		{
+			times[count] = tier.time(i);
+			values[count] = tier.value(i);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the file without holding the lock, so lookups are not blocked meanwhile. Rates recorded in the meantime are kept, as
+	 * they are newer than anything on disk.
+	 */
+	public void load()
+	{
+		if (!file.exists())
+		{
+			synchronized (this)
+			{
+				loaded = true;
+			}
+			return;
+		}
+
+		final long start = System.currentTimeMillis();
+		final Map<String, Series> loadedSeries = new LinkedHashMap<String, Series>();
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (is.readInt() != MAGIC)
+				throw new IOException("bad magic");
+			if (is.readByte() != VERSION)
+				throw new IOException("unknown version");
+
+			final int numSeries = is.readUnsignedByte();
+			for (int i = 0; i < numSeries; i++)
+			{
+				final String currencyCode = is.readUTF();
+				final Series s = new Series();
+				for (final Tier tier : s.tiers)
+					tier.read(is);
+				loadedSeries.put(currencyCode, s);
+			}
+
+			log.info("loaded exchange rate history of {} currencies from {}, took {} ms", numSeries, file, System.currentTimeMillis() - start);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading exchange rate history from " + file, x);
+			loadedSeries.clear();
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		synchronized (this)
+		{
+			for (final Map.Entry<String, Series> entry : series.entrySet())
+			{
+				Series s = loadedSeries.remove(entry.getKey());
+				if (s == null)
+					s = new Series();
+				final Series recorded = entry.getValue();
+				for (int i = 0; i < s.tiers.length; i++)
+				{
+					final Tier tier = recorded.tiers[i];
+					for (int j = 0; j < tier.size; j++)
+						s.tiers[i].add(tier.time(j), tier.value(j));
+				}
+				loadedSeries.put(entry.getKey(), s);
+			}
+
+			series.clear();
+			series.putAll(loadedSeries);
+			trimSeries();
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Serializes under the lock, but writes and syncs the file without holding it. Does nothing while the file exists but has not
+	 * been loaded yet, so history on disk is not overwritten.
+	 *
+	 * @return true if the file was written, false if nothing was recorded since the last load or save, or writing failed
+	 */
+	public boolean save()
+	{
+		synchronized (saveLock)
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+			final int numSeries;
+
+			synchronized (this)
+			{
+				if (!dirty || (!loaded && file.exists()))
+					return false;
+
+				try
+				{
+					final DataOutputStream os = new DataOutputStream(bytes);
+					os.writeInt(MAGIC);
+					os.writeByte(VERSION);
+					os.writeByte(series.size());
+					for (final Map.Entry<String, Series> entry : series.entrySet())
+					{
+						os.writeUTF(entry.getKey());
+						for (final Tier tier : entry.getValue().tiers)
+							tier.write(os);
+					}
+					os.flush();
+				}
+				catch (final IOException x)
+				{
+					throw new RuntimeException(x); // cannot happen
+				}
+
+				numSeries = series.size();
+				dirty = false;
+			}
+
+			final File tempFile = new File(file.getPath() + ".tmp");
+			FileOutputStream fos = null;
+
+			try
+			{
+				fos = new FileOutputStream(tempFile);
+				bytes.writeTo(fos);
+				fos.flush();
+				fos.getFD().sync();
+				fos.close();
+				fos = null;
+
+				if (!tempFile.renameTo(file))
+					throw new IOException("cannot rename " + tempFile + " to " + file);
+
+				synchronized (this)
+				{
+					loaded = true;
+				}
+				log.info("saved exchange rate history of {} currencies to {}, {} bytes", numSeries, file, file.length());
+
+				return true;
+			}
+			catch (final IOException x)
+			{
+				log.warn("problem saving exchange rate history to " + file, x);
+				tempFile.delete();
+				synchronized (this)
+				{
+					dirty = true;
+				}
+				return false;
+			}
+			finally
+			{
+				if (fos != null)
+				{
+					try
+					{
+						fos.close();
+					}
+					catch (final IOException x)
+					{
+						// swallow
+					}
+				}
+			}
+		}
+	}
+
+	private static final class Series
+	{
+		public final Tier[] tiers = new Tier[TIER_INTERVALS_MS.length];
+
+		public Series()
+		{
+			for (int i = 0; i < tiers.length; i++)
+				tiers[i] = new Tier(TIER_INTERVALS_MS[i], TIER_CAPACITIES[i]);
+		}
+	}
+
+	/**
+	 * Ring of samples with ascending times, one per interval and stamped with the start of it. Indexes are logical, 0 is the
+	 * oldest sample.
+	 */
+	private static final class Tier
+	{
+		public final long intervalMs;
+		private final long[] times;
+		private final long[] values;
+		private int head = 0;
+		public int size = 0;
+
+		public Tier(final long intervalMs, final int capacity)
+		{
+			this.intervalMs = intervalMs;
+			this.times = new long[capacity];
+			this.values = new long[capacity];
+		}
+
+		public void add(final long time, final long value)
+		{
+			final long intervalStart = time - time % intervalMs;
+
+			if (size > 0)
+			{
+				final int last = physical(size - 1);
+				if (intervalStart < times[last])
+					return;
+
+				// keep the latest rate of each interval
+				if (intervalStart == times[last])
+				{
+					values[last] = value;
+					return;
+				}
+			}
+
+			times[head] = intervalStart;
+			values[head] = value;
+			head = (head + 1) % times.length;
+			if (size < times.length)
+				size++;
+		}
+
+		public int capacity()
+		{
+			return times.length;
+		}
+
+		public long time(final int index)
+		{
+			return times[physical(index)];
+		}
+
+		public long value(final int index)
+		{
+			return values[physical(index)];
+		}
+
+		/**
+		 * @return index of the last sample at or before the given time, or -1 if there is none
+		 */
+		public int floor(final long time)
+		{
+			int low = 0;
+			int high = size - 1;
+			while (low <= high)
+			{
+				final int mid = (low + high) >>> 1;
+				if (time(mid) <= time)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			return high;
+		}
+
+		public void write(final DataOutput os) throws IOException
+		{
+			writeVarLong(os, size);
+			long lastTime = 0;
+			long lastValue = 0;
+			for (int i = 0; i < size; i++)
+			{
+				final long time = time(i);
+				final long value = value(i);
+				writeVarLong(os, time - lastTime);
+				writeVarLong(os, zigZag(value - lastValue));
+				lastTime = time;
+				lastValue = value;
+			}
+		}
+
+		public void read(final DataInput is) throws IOException
+		{
+			final long numSamples = readVarLong(is);
+			if (numSamples < 0 || numSamples > Integer.MAX_VALUE)
+				throw new IOException("bad size: " + numSamples);
+
+			long time = 0;
+			long value = 0;
+			for (long i = 0; i < numSamples; i++)
+			{
+				time += readVarLong(is);
+				value += unZigZag(readVarLong(is));
+				add(time, value);
+			}
+		}
+
+		private int physical(final int index)
+		{
+			return (head - size + index + times.length) % times.length;
+		}
+	}
+
+	private static long zigZag(final long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(final long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarLong(final DataOutput os, long value) throws IOException
+	{
+		while ((value & ~0x7fL) != 0)
+		{
+			os.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		os.writeByte((int) value);
+	}
+
+	private static long readVarLong(final DataInput is) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			final int b = is.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("varint too long");
+	}
+}
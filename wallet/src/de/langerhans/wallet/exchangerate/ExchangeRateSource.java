@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A place to get exchange rates from. Implementations are registered with {@link ExchangeRateSources}.
+ *
+ * @param <T>
+ *            what the source delivers, e.g. a DOGE/BTC conversion or BTC rates by currency code
+ *
+ * @author Andreas Schildbach
+ */
+public interface ExchangeRateSource<T>
+{
+	/**
+	 * @return unique name, also shown to the user as the source of a rate
+	 */
+	@Nonnull
+	String getName();
+
+	/**
+	 * Blocks until the rates are fetched. Called from background threads, possibly concurrently, and may be interrupted.
+	 *
+	 * @throws IOException
+	 *             on any problem, including unexpected content
+	 */
+	@Nonnull
+	T fetch() throws IOException;
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dogecoin.dogecoinj.utils.Fiat;
+
+import de.langerhans.wallet.util.HttpClient;
+import de.langerhans.wallet.util.Io;
+
+/**
+ * Registry of exchange rate sources, together with their {@link SourceHealth}. DOGE/BTC sources deliver the conversion as a
+ * double, BTC sources deliver fiat rates by currency code at {@link Fiat#SMALLEST_UNIT_EXPONENT}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRateSources
+{
+	private final List<ExchangeRateSource<Double>> dogeBtcSources = new ArrayList<ExchangeRateSource<Double>>();
+	private final List<ExchangeRateSource<Map<String, Long>>> btcSources = new ArrayList<ExchangeRateSource<Map<String, Long>>>();
+	private final Map<String, SourceHealth> health = new LinkedHashMap<String, SourceHealth>();
+
+	/**
+	 * Sources keep their order, which is also the order of the exchange provider preference.
+	 */
+	public synchronized void registerDogeBtc(@Nonnull final ExchangeRateSource<Double> source)
+	{
+		checkUnique(source);
+		dogeBtcSources.add(source);
+		health.put(source.getName(), new SourceHealth());
+	}
+
+	public synchronized void registerBtc(@Nonnull final ExchangeRateSource<Map<String, Long>> source)
+	{
+		checkUnique(source);
+		btcSources.add(source);
+		health.put(source.getName(), new SourceHealth());
+	}
+
+	public synchronized List<ExchangeRateSource<Double>> getDogeBtcSources()
+	{
+		return Collections.unmodifiableList(new ArrayList<ExchangeRateSource<Double>>(dogeBtcSources));
+	}
+
+	public synchronized List<ExchangeRateSource<Map<String, Long>>> getBtcSources()
+	{
+		return Collections.unmodifiableList(new ArrayList<ExchangeRateSource<Map<String, Long>>>(btcSources));
+	}
+
+	@Nonnull
+	public synchronized SourceHealth getHealth(@Nonnull final ExchangeRateSource<?> source)
+	{
+		return health.get(source.getName());
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (final Map.Entry<String, SourceHealth> entry : health.entrySet())
+		{
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(entry.getKey()).append(": ").append(entry.getValue());
+		}
+		return builder.toString();
+	}
+
+	private void checkUnique(final ExchangeRateSource<?> source)
+	{
+		if (health.containsKey(source.getName()))
+			throw new IllegalArgumentException("already registered: " + source.getName());
+	}
+
+	private static final String[] BITCOINAVERAGE_FIELDS = new String[] { "24h_avg", "last" };
+	private static final String[] BLOCKCHAININFO_FIELDS = new String[] { "15m" };
+
+	/**
+	 * @return registry with the built-in sources
+	 */
+	public static ExchangeRateSources createDefault(@Nonnull final HttpClient httpClient)
+	{
+		final ExchangeRateSources sources = new ExchangeRateSources();
+
+		sources.registerDogeBtc(new HttpExchangeRateSource<Double>("cryptsy.com", url("https://api.cryptsy.com/api/v2/markets/132/"),
+				httpClient)
+		{
+			@Override
+			protected Double parse(final Reader reader) throws IOException
+			{
+				final JSONObject json = readJson(reader);
+				try
+				{
+					if (!json.getBoolean("success"))
+						throw new IOException("api reported failure");
+					return json.getJSONObject("data").getJSONObject("last_trade").getDouble("price");
+				}
+				catch (final JSONException x)
+				{
+					throw new IOException(x.getMessage());
+				}
+			}
+		});
+
+		sources.registerDogeBtc(new HttpExchangeRateSource<Double>("bter.com", url("http://data.bter.com/api/1/ticker/DOGE_BTC"),
+				httpClient)
+		{
+			@Override
+			protected Double parse(final Reader reader) throws IOException
+			{
+				final JSONObject json = readJson(reader);
+				try
+				{
+					if (!json.getString("result").equals("true")) // Eww bad API!
+						throw new IOException("api reported failure");
+					return Double.valueOf(json.getString("last"));
+				}
+				catch (final JSONException x)
+				{
+					throw new IOException(x.getMessage());
+				}
+				catch (final NumberFormatException x)
+				{
+					throw new IOException(x.getMessage());
+				}
+			}
+		});
+
+		sources.registerBtc(new TickerSource("BitcoinAverage.com", url("https://api.bitcoinaverage.com/custom/abw"), BITCOINAVERAGE_FIELDS,
+				httpClient));
+		sources.registerBtc(new TickerSource("blockchain.info", url("https://blockchain.info/ticker"), BLOCKCHAININFO_FIELDS,
+				httpClient));
+
+		return sources;
+	}
+
+	/**
+	 * BTC ticker with one object of rate fields per currency code, see {@link ExchangeRatesParser}.
+	 */
+	private static final class TickerSource extends HttpExchangeRateSource<Map<String, Long>>
+	{
+		private final ExchangeRatesParser parser;
+
+		public TickerSource(final String name, final URL url, final String[] fields, final HttpClient httpClient)
+		{
+			super(name, url, httpClient);
+
+			this.parser = new ExchangeRatesParser(Fiat.SMALLEST_UNIT_EXPONENT, fields);
+		}
+
+		@Override
+		protected Map<String, Long> parse(final Reader reader) throws IOException
+		{
+			final Map<String, Long> rates = parser.parse(reader);
+			if (rates.isEmpty())
+				throw new IOException("no rates");
+			return rates;
+		}
+	}
+
+	private static JSONObject readJson(final Reader reader) throws IOException
+	{
+		final StringBuilder content = new StringBuilder();
+		Io.copy(reader, content);
+		try
+		{
+			return new JSONObject(content.toString());
+		}
+		catch (final JSONException x)
+		{
+			throw new IOException(x.getMessage());
+		}
+	}
+
+	private static URL url(final String url)
+	{
+		try
+		{
+			return new URL(url);
+		}
+		catch (final MalformedURLException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+}
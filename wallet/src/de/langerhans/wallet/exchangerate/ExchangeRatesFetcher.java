@@ -0,0 +1,399 @@
+/*
+ * Copyright 2011-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.utils.Fiat;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.langerhans.wallet.Constants;
+import de.langerhans.wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Fetches DOGE/BTC and BTC/fiat rates from all known sources in parallel, under one deadline, and combines them per currency
+ * using {@link RateAggregator}.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesFetcher
+{
+	public static final class SourceReport
+	{
+		public enum Status
+		{
+			OK, FAILED, NO_ANSWER, CIRCUIT_OPEN
+		}
+
+		public final String source;
+		public final Status status;
+		/** Time to answer, or -1 if the source was not asked or did not answer before the deadline. */
+		public final long latencyMs;
+		public final int numRates;
+
+		private SourceReport(final String source, final Status status, final long latencyMs, final int numRates)
+		{
+			this.source = source;
+			this.status = status;
+			this.latencyMs = latencyMs;
+			this.numRates = numRates;
+		}
+
+		@Override
+		public String toString()
+		{
+			if (status == Status.CIRCUIT_OPEN)
+				return source + ": skipped, circuit open";
+			else if (status == Status.NO_ANSWER)
+				return source + ": no answer";
+			else
+				return source + ": " + (status == Status.OK ? numRates + " rates" : "failed") + " in " + latencyMs + " ms";
+		}
+	}
+
+	public static final class Result
+	{
+		public final Map<String, ExchangeRate> rates;
+		public final double dogeBtcConversion;
+		public final List<SourceReport> reports;
+
+		private Result(final Map<String, ExchangeRate> rates, final double dogeBtcConversion, final List<SourceReport> reports)
+		{
+			this.rates = rates;
+			this.dogeBtcConversion = dogeBtcConversion;
+			this.reports = Collections.unmodifiableList(reports);
+		}
+	}
+
+	private static final Fiat ONE_DOGE = Fiat.parseFiat("DOGE", "1");
+	private static final long DEADLINE_MS = Constants.HTTP_TIMEOUT_MS;
+	private static final int FIAT_SCALE = Fiat.SMALLEST_UNIT_EXPONENT;
+	/** DOGE/BTC is a small number, keep plenty of digits. */
+	private static final int DOGEBTC_SCALE = 12;
+
+	private final ExchangeRateSources sources;
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("exchange-rates-%d")
+			.setDaemon(true).build());
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesFetcher.class);
+
+	public ExchangeRatesFetcher(@Nonnull final ExchangeRateSources sources)
+	{
+		this.sources = sources;
+	}
+
+	/**
+	 * Blocks until a majority of both the DOGE/BTC and the BTC/fiat sources answered, but at least two of each kind if there are,
+	 * or the deadline passed. An answer of the preferred DOGE/BTC source is enough for its kind. Sources with an open circuit are
+	 * skipped, unless all sources of a kind are.
+	 *
+	 * @param preferredProvider
+	 *            exchange provider preference, breaks ties between two disagreeing DOGE/BTC sources
+	 * @return combined rates, or null if not enough sources answered
+	 */
+	@CheckForNull
+	public Result fetch(final int preferredProvider)
+	{
+		final long start = System.currentTimeMillis();
+		final long deadline = start + DEADLINE_MS;
+
+		final CompletionService<Response> completionService = new ExecutorCompletionService<Response>(executor);
+		final List<Future<Response>> futures = new ArrayList<Future<Response>>();
+		final Map<String, SourceHealth> pendingSources = new LinkedHashMap<String, SourceHealth>();
+		final List<SourceReport> reports = new ArrayList<SourceReport>();
+
+		final List<ExchangeRateSource<Double>> allDogeBtcSources = sources.getDogeBtcSources();
+		final List<ExchangeRateSource<Double>> dogeBtcSources = select(allDogeBtcSources, reports, start);
+		for (final ExchangeRateSource<Double> source : dogeBtcSources)
+		{
+			futures.add(completionService.submit(dogeBtcTask(source)));
+			pendingSources.put(source.getName(), sources.getHealth(source));
+		}
+		final List<ExchangeRateSource<Map<String, Long>>> btcSources = select(sources.getBtcSources(), reports, start);
+		for (final ExchangeRateSource<Map<String, Long>> source : btcSources)
+		{
+			futures.add(completionService.submit(btcTask(source)));
+			pendingSources.put(source.getName(), sources.getHealth(source));
+		}
+		final int numDogeBtcSources = dogeBtcSources.size();
+		final int numBtcSources = btcSources.size();
+
+		final String preferredSource = preferredProvider >= 0 && preferredProvider < allDogeBtcSources.size() ? allDogeBtcSources.get(
+				preferredProvider).getName() : null;
+		boolean preferredAnswered = false;
+
+		final List<RateAggregator.Sample> dogeBtcSamples = new ArrayList<RateAggregator.Sample>(numDogeBtcSources);
+		final List<Response> btcResponses = new ArrayList<Response>(numBtcSources);
+
+		try
+		{
+			while (!pendingSources.isEmpty()
+					&& !((preferredAnswered || quorum(dogeBtcSamples.size(), numDogeBtcSources)) && quorum(btcResponses.size(), numBtcSources)))
+			{
+				final long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+
+				final Future<Response> future = completionService.poll(remaining, TimeUnit.MILLISECONDS);
+				if (future == null)
+					break;
+
+				final Response response = future.get();
+				pendingSources.remove(response.source);
+
+				if (response.dogeBtcConversion > 0)
+				{
+					dogeBtcSamples.add(new RateAggregator.Sample(response.source, response.dogeBtcConversion));
+					if (response.source.equals(preferredSource))
+						preferredAnswered = true;
+					reports.add(new SourceReport(response.source, SourceReport.Status.OK, response.latencyMs, 1));
+				}
+				else if (response.btcRates != null)
+				{
+					btcResponses.add(response);
+					reports.add(new SourceReport(response.source, SourceReport.Status.OK, response.latencyMs, response.btcRates.size()));
+				}
+				else
+				{
+					reports.add(new SourceReport(response.source, SourceReport.Status.FAILED, response.latencyMs, 0));
+				}
+			}
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (final ExecutionException x)
+		{
+			log.warn("problem fetching exchange rates", x); // cannot happen, tasks catch everything
+		}
+		finally
+		{
+			for (final Future<Response> future : futures)
+				future.cancel(true);
+		}
+
+		final long duration = System.currentTimeMillis() - start;
+		final boolean deadlinePassed = start + duration >= deadline;
+
+		// sources that were still pending only count as failed if they let us run into the deadline
+		for (final Map.Entry<String, SourceHealth> entry : pendingSources.entrySet())
+		{
+			if (deadlinePassed)
+				entry.getValue().recordFailure(start + duration);
+			else
+				entry.getValue().recordCancelled();
+			reports.add(new SourceReport(entry.getKey(), SourceReport.Status.NO_ANSWER, -1, 0));
+		}
+
+		log.info("exchange rate source health: {}", sources);
+
+		final RateAggregator.Result dogeBtc = RateAggregator.aggregate(dogeBtcSamples, preferredSource);
+		if (dogeBtc == null || btcResponses.isEmpty())
+		{
+			log.warn("not enough exchange rate sources answered, took {} ms: {}", duration, reports);
+			return null;
+		}
+		if (!dogeBtc.rejected.isEmpty())
+			log.info("DOGE/BTC {}", dogeBtc);
+
+		final Set<String> currencyCodes = new HashSet<String>();
+		for (final Response response : btcResponses)
+			currencyCodes.addAll(response.btcRates.keySet());
+
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+		final String dogeBtcSourceNames = Joiner.on(", ").join(dogeBtc.sources);
+		final long dogeBtcConversion = FixedPoint.fromDouble(dogeBtc.value, DOGEBTC_SCALE);
+
+		for (final String currencyCode : currencyCodes)
+		{
+			final List<RateAggregator.Sample> samples = new ArrayList<RateAggregator.Sample>(btcResponses.size());
+			for (final Response response : btcResponses)
+			{
+				final Long btcRate = response.btcRates.get(currencyCode);
+				if (btcRate != null)
+					samples.add(new RateAggregator.Sample(response.source, btcRate));
+			}
+
+			final RateAggregator.Result btcRate = RateAggregator.aggregate(samples, null);
+			if (btcRate == null)
+				continue;
+			if (!btcRate.rejected.isEmpty())
+				log.info("BTC/{} {}", currencyCode, btcRate);
+
+			try
+			{
+				final long btcRateValue = Math.round(btcRate.value);
+				final Fiat dogeRate = Fiat.valueOf(currencyCode, FixedPoint.multiply(btcRateValue, FIAT_SCALE, dogeBtcConversion, DOGEBTC_SCALE,
+						FIAT_SCALE));
+				if (dogeRate.signum() > 0)
+				{
+					final String source = Joiner.on(", ").join(btcRate.sources) + ", " + dogeBtcSourceNames;
+					rates.put(currencyCode, new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(dogeRate), source));
+				}
+			}
+			catch (final ArithmeticException x)
+			{
+				log.warn("problem converting {} exchange rate: {}", currencyCode, x.getMessage());
+			}
+		}
+
+		final Fiat mBtcRate = Fiat.valueOf("mBTC", FixedPoint.multiply(dogeBtcConversion, DOGEBTC_SCALE, 1000, 0, FIAT_SCALE));
+		rates.put("mBTC", new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(mBtcRate), dogeBtcSourceNames));
+		rates.put("DOGE", new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(ONE_DOGE), "priceofdoge.com"));
+
+		log.info("fetched {} exchange rates, took {} ms: {}", rates.size(), duration, reports);
+
+		return new Result(rates, dogeBtc.value, reports);
+	}
+
+	/**
+	 * A majority of the sources, but at least two if there are, so the aggregator has something to compare.
+	 */
+	private static boolean quorum(final int numAnswered, final int numSources)
+	{
+		return numAnswered > numSources / 2 && numAnswered >= Math.min(numSources, 2);
+	}
+
+	private static final class Response
+	{
+		public final String source;
+		public final long latencyMs;
+		public final double dogeBtcConversion;
+		@CheckForNull
+		public final Map<String, Long> btcRates;
+
+		public Response(final String source, final long latencyMs, final double dogeBtcConversion, @CheckForNull final Map<String, Long> btcRates)
+		{
+			this.source = source;
+			this.latencyMs = latencyMs;
+			this.dogeBtcConversion = dogeBtcConversion;
+			this.btcRates = btcRates;
+		}
+	}
+
+	/**
+	 * @return sources whose circuit allows a request, or all of them if none does
+	 */
+	private <T> List<ExchangeRateSource<T>> select(final List<ExchangeRateSource<T>> candidates, final List<SourceReport> reports, final long now)
+	{
+		final List<ExchangeRateSource<T>> selected = new ArrayList<ExchangeRateSource<T>>(candidates.size());
+		for (final ExchangeRateSource<T> source : candidates)
+			if (sources.getHealth(source).allowRequest(now))
+				selected.add(source);
+
+		// nothing to lose if all circuits are open
+		if (selected.isEmpty())
+			return candidates;
+
+		for (final ExchangeRateSource<T> source : candidates)
+			if (!selected.contains(source))
+				reports.add(new SourceReport(source.getName(), SourceReport.Status.CIRCUIT_OPEN, -1, 0));
+
+		return selected;
+	}
+
+	private Callable<Response> dogeBtcTask(final ExchangeRateSource<Double> source)
+	{
+		final SourceHealth health = sources.getHealth(source);
+
+		return new Callable<Response>()
+		{
+			@Override
+			public Response call()
+			{
+				final long start = System.currentTimeMillis();
+				try
+				{
+					final double dogeBtcConversion = source.fetch();
+					final long now = System.currentTimeMillis();
+					if (dogeBtcConversion > 0)
+						health.recordSuccess(now, now - start);
+					else
+						health.recordFailure(now);
+					return new Response(source.getName(), now - start, dogeBtcConversion, null);
+				}
+				catch (final Exception x)
+				{
+					return failed(source, health, start, x);
+				}
+			}
+		};
+	}
+
+	private Callable<Response> btcTask(final ExchangeRateSource<Map<String, Long>> source)
+	{
+		final SourceHealth health = sources.getHealth(source);
+
+		return new Callable<Response>()
+		{
+			@Override
+			public Response call()
+			{
+				final long start = System.currentTimeMillis();
+				try
+				{
+					final Map<String, Long> btcRates = source.fetch();
+					final long now = System.currentTimeMillis();
+					health.recordSuccess(now, now - start);
+					return new Response(source.getName(), now - start, -1, btcRates);
+				}
+				catch (final Exception x)
+				{
+					return failed(source, health, start, x);
+				}
+			}
+		};
+	}
+
+	private static Response failed(final ExchangeRateSource<?> source, final SourceHealth health, final long start, final Exception x)
+	{
+		final long now = System.currentTimeMillis();
+
+		// if cancelled, the fetch decides how to count this
+		if (!Thread.currentThread().isInterrupted())
+		{
+			log.warn("problem fetching exchange rates from " + source.getName(), x);
+			health.recordFailure(now);
+		}
+
+		return new Response(source.getName(), now - start, -1, null);
+	}
+}
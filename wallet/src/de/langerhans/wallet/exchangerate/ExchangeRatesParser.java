@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Streaming parser for BTC ticker JSON like <code>{"USD":{"24h_avg":250.12,"last":"250.50"},"timestamp":"..."}</code>. Reads
+ * straight from the reader into a reused buffer and parses rates to fixed-point longs, so apart from the currency codes and the
+ * result map it does not allocate. Instances are reusable, but parse one document at a time.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesParser
+{
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_DEPTH = 32;
+
+	private final String[] fields;
+	private final int scale;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private final StringBuilder token = new StringBuilder(32);
+	private final long[] fieldValues;
+	private Reader reader;
+	private int pos;
+	private int limit;
+	private long charsRead;
+
+	/**
+	 * @param scale
+	 *            decimal places of the parsed rates
+	 * @param fields
+	 *            names of the rate fields per currency, in order of preference
+	 */
+	public ExchangeRatesParser(final int scale, @Nonnull final String... fields)
+	{
+		this.scale = scale;
+		this.fields = fields;
+		this.fieldValues = new long[fields.length];
+	}
+
+	/**
+	 * @return rates by currency code, at the scale given to the constructor; currencies without a positive rate in any of the
+	 *         fields are left out
+	 */
+	public synchronized Map<String, Long> parse(@Nonnull final Reader reader) throws IOException
+	{
+		this.reader = reader;
+		this.pos = 0;
+		this.limit = 0;
+		this.charsRead = 0;
+
+		try
+		{
+			final Map<String, Long> rates = new TreeMap<String, Long>();
+
+			expect('{');
+			if (peek() == '}')
+			{
+				pos++;
+				return rates;
+			}
+
+			while (true)
+			{
+				readString(token);
+				expect(':');
+
+				if (peek() == '{' && !contentEquals(token, "timestamp"))
+				{
+					final String currencyCode = token.toString();
+					final long rate = readRate();
+					if (rate > 0)
+						rates.put(currencyCode, rate);
+				}
+				else
+				{
+					skipValue(0);
+				}
+
+				if (!next(','))
+					break;
+			}
+			expect('}');
+
+			return rates;
+		}
+		finally
+		{
+			this.reader = null;
+		}
+	}
+
+	/**
+	 * @return number of chars read by the last {@link #parse(Reader)}
+	 */
+	public synchronized long getCharsRead()
+	{
+		return charsRead;
+	}
+
+	private long readRate() throws IOException
+	{
+		Arrays.fill(fieldValues, 0);
+
+		expect('{');
+		if (peek() == '}')
+		{
+			pos++;
+			return 0;
+		}
+
+		while (true)
+		{
+			readString(token);
+			expect(':');
+
+			final int field = fieldIndex(token);
+			final char c = peek();
+			if (field >= 0 && (c == '"' || c == '-' || (c >= '0' && c <= '9')))
+			{
+				if (c == '"')
+					readString(token);
+				else
+					readScalar(token);
+
+				try
+				{
+					fieldValues[field] = FixedPoint.parse(token, scale);
+				}
+				catch (final NumberFormatException x)
+				{
+					// try next field
+				}
+			}
+			else
+			{
+				skipValue(1);
+			}
+
+			if (!next(','))
+				break;
+		}
+		expect('}');
+
+		for (final long value : fieldValues)
+			if (value > 0)
+				return value;
+		return 0;
+	}
+
+	private int fieldIndex(final CharSequence name)
+	{
+		for (int i = 0; i < fields.length; i++)
+			if (contentEquals(name, fields[i]))
+				return i;
+		return -1;
+	}
+
+	private void skipValue(final int depth) throws IOException
+	{
+		if (depth > MAX_DEPTH)
+			throw new IOException("nesting too deep");
+
+		final char c = peek();
+		if (c == '"')
+		{
+			readString(null);
+		}
+		else if (c == '{' || c == '[')
+		{
+			final char close = c == '{' ? '}' : ']';
+			pos++;
+			if (peek() == close)
+			{
+				pos++;
+				return;
+			}
+			while (true)
+			{
+				if (c == '{')
+				{
+					readString(null);
+					expect(':');
+				}
+				skipValue(depth + 1);
+				if (!next(','))
+					break;
+			}
+			expect(close);
+		}
+		else
+		{
+			readScalar(null);
+		}
+	}
+
+	/**
+	 * Reads a string into the builder, or just skips it if the builder is null.
+	 */
+	private void readString(final StringBuilder builder) throws IOException
+	{
+		expect('"');
+		if (builder != null)
+			builder.setLength(0);
+
+		while (true)
+		{
+			if (pos >= limit && !fill())
+				throw new IOException("unterminated string");
+
+			final char c = buffer[pos++];
+			if (c == '"')
+				return;
+
+			if (c == '\\')
+			{
+				if (pos >= limit && !fill())
+					throw new IOException("unterminated escape");
+
+				final char escaped = buffer[pos++];
+				final char unescaped;
+				switch (escaped)
+				{
+					case 'b':
+						unescaped = '\b';
+						break;
+					case 'f':
+						unescaped = '\f';
+						break;
+					case 'n':
+						unescaped = '\n';
+						break;
+					case 'r':
+						unescaped = '\r';
+						break;
+					case 't':
+						unescaped = '\t';
+						break;
+					case 'u':
+						int code = 0;
+						for (int i = 0; i < 4; i++)
+						{
+							if (pos >= limit && !fill())
+								throw new IOException("unterminated escape");
+							final int digit = Character.digit(buffer[pos++], 16);
+							if (digit < 0)
+								throw new IOException("malformed unicode escape");
+							code = (code << 4) | digit;
+						}
+						unescaped = (char) code;
+						break;
+					default:
+						unescaped = escaped;
+						break;
+				}
+
+				if (builder != null)
+					builder.append(unescaped);
+			}
+			else if (builder != null)
+			{
+				builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Reads a number or literal into the builder, or just skips it if the builder is null.
+	 */
+	private void readScalar(final StringBuilder builder) throws IOException
+	{
+		if (builder != null)
+			builder.setLength(0);
+
+		boolean any = false;
+		while (pos < limit || fill())
+		{
+			final char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c))
+				break;
+
+			if (builder != null)
+				builder.append(c);
+			pos++;
+			any = true;
+		}
+
+		if (!any)
+			throw new IOException("value expected");
+	}
+
+	/**
+	 * @return next non-whitespace char, without consuming it
+	 */
+	private char peek() throws IOException
+	{
+		while (true)
+		{
+			if (pos >= limit && !fill())
+				throw new IOException("unexpected end of input");
+
+			final char c = buffer[pos];
+			if (!isWhitespace(c))
+				return c;
+			pos++;
+		}
+	}
+
+	/**
+	 * Consumes the next non-whitespace char if it is the given one.
+	 */
+	private boolean next(final char expected) throws IOException
+	{
+		if (peek() != expected)
+			return false;
+
+		pos++;
+		return true;
+	}
+
+	private void expect(final char expected) throws IOException
+	{
+		final char c = peek();
+		if (c != expected)
+			throw new IOException("expected '" + expected + "' but got '" + c + "' at " + (charsRead - limit + pos));
+
+		pos++;
+	}
+
+	private boolean fill() throws IOException
+	{
+		final int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0)
+			return false;
+
+		pos = 0;
+		limit = n;
+		charsRead += n;
+		return true;
+	}
+
+	private static boolean isWhitespace(final char c)
+	{
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private static boolean contentEquals(final CharSequence a, final String b)
+	{
+		final int length = a.length();
+		if (length != b.length())
+			return false;
+
+		for (int i = 0; i < length; i++)
+			if (a.charAt(i) != b.charAt(i))
+				return false;
+		return true;
+	}
+}
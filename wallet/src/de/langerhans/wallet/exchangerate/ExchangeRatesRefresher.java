@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.text.format.DateUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.langerhans.wallet.Configuration;
+import de.langerhans.wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Owns fetching of exchange rates on a background thread and keeps the latest snapshot. Refreshes happen on demand when the
+ * snapshot is stale, and are rescheduled periodically for as long as someone keeps asking for rates. Failed refreshes are
+ * retried with exponential backoff.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesRefresher
+{
+	public interface Listener
+	{
+		/** Called on the refresher thread. */
+		void onExchangeRatesRefreshed(@Nonnull Snapshot snapshot);
+	}
+
+	public static final class Snapshot
+	{
+		public final Map<String, ExchangeRate> rates;
+		public final double dogeBtcConversion;
+		public final long time;
+
+		public Snapshot(@Nonnull final Map<String, ExchangeRate> rates, final double dogeBtcConversion, final long time)
+		{
+			this.rates = Collections.unmodifiableMap(rates);
+			this.dogeBtcConversion = dogeBtcConversion;
+			this.time = time;
+		}
+	}
+
+	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long RETRY_BASE_MS = DateUtils.MINUTE_IN_MILLIS;
+
+	private final ExchangeRatesFetcher fetcher;
+	private final Configuration config;
+	private final Listener listener;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+			.setNameFormat("exchange-rates-refresh").setDaemon(true).build());
+
+	@CheckForNull
+	private volatile Snapshot snapshot = null;
+	private volatile long lastDemandTime = 0;
+
+	// guarded by this
+	@CheckForNull
+	private ScheduledFuture<?> scheduled = null;
+	private long scheduledTime = 0;
+	private boolean running = false;
+	private int failures = 0;
+	private long retryTime = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesRefresher.class);
+
+	public ExchangeRatesRefresher(@Nonnull final ExchangeRatesFetcher fetcher, @Nonnull final Configuration config,
+			@Nonnull final Listener listener)
+	{
+		this.fetcher = fetcher;
+		this.config = config;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return latest snapshot, or null if no refresh has succeeded yet
+	 */
+	@CheckForNull
+	public Snapshot get()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * Starts from a previously persisted snapshot, unless a refresh already succeeded.
+	 */
+	public synchronized void seed(@Nonnull final Snapshot snapshot)
+	{
+		if (this.snapshot == null)
+			this.snapshot = snapshot;
+	}
+
+	/**
+	 * Refresh in the background if the snapshot is stale, or unconditionally if forced. Never blocks.
+	 */
+	public synchronized void maybeRefresh(final boolean force)
+	{
+		final long now = System.currentTimeMillis();
+		lastDemandTime = now;
+
+		if (running)
+			return;
+
+		if (!force)
+		{
+			final Snapshot snapshot = this.snapshot;
+			if (snapshot != null && now - snapshot.time < UPDATE_FREQ_MS)
+				return;
+			if (now < retryTime)
+				return;
+		}
+
+		schedule(0);
+	}
+
+	private void schedule(final long delayMs)
+	{
+		final long time = System.currentTimeMillis() + delayMs;
+		if (scheduled != null && !scheduled.isDone())
+		{
+			if (scheduledTime <= time)
+				return;
+			scheduled.cancel(false);
+		}
+
+		scheduledTime = time;
+		scheduled = executor.schedule(refreshRunnable, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable refreshRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			synchronized (ExchangeRatesRefresher.this)
+			{
+				running = true;
+				scheduled = null;
+			}
+
+			ExchangeRatesFetcher.Result result = null;
+			Snapshot newSnapshot = null;
+			try
+			{
+				result = fetcher.fetch(config.getExchangeProvider());
+			}
+			finally
+			{
+				final long now = System.currentTimeMillis();
+				final long nextDelayMs;
+
+				synchronized (ExchangeRatesRefresher.this)
+				{
+					running = false;
+
+					if (result != null)
+					{
+						newSnapshot = new Snapshot(result.rates, result.dogeBtcConversion, now);
+						snapshot = newSnapshot;
+						failures = 0;
+						retryTime = 0;
+						nextDelayMs = UPDATE_FREQ_MS;
+					}
+					else
+					{
+						failures++;
+						nextDelayMs = Math.min(RETRY_BASE_MS << Math.min(failures - 1, 10), UPDATE_FREQ_MS);
+						retryTime = now + nextDelayMs;
+					}
+
+					// keep refreshing only while rates are actually being asked for
+					if (now - lastDemandTime < UPDATE_FREQ_MS)
+						schedule(nextDelayMs);
+					else
+						log.info("no recent demand for exchange rates, not scheduling next refresh");
+				}
+			}
+
+			if (newSnapshot != null)
+				listener.onExchangeRatesRefreshed(newSnapshot);
+		}
+	};
+}
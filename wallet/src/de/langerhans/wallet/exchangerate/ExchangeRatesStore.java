@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.utils.Fiat;
+
+import de.langerhans.wallet.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * Persists an exchange rate {@link ExchangeRatesRefresher.Snapshot} in a compact binary file. Sources are stored once in a
+ * string table and referenced by index. The file is only rewritten if the rates, conversion or sources changed since it was
+ * last read or written.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ExchangeRatesStore
+{
+	private static final int MAGIC = 0x44584552; // DXER
+	private static final int VERSION = 1;
+	private static final int MAX_BODY_LENGTH = 256 * 1024; // a few hundred rates take a few kilobytes
+
+	private final File file;
+
+	// guarded by this
+	@CheckForNull
+	private byte[] lastBody = null;
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesStore.class);
+
+	public ExchangeRatesStore(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	@CheckForNull
+	public synchronized ExchangeRatesRefresher.Snapshot load()
+	{
+		if (!file.exists())
+			return null;
+
+		final long start = System.currentTimeMillis();
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() != MAGIC || is.readUnsignedByte() != VERSION)
+			{
+				log.info("ignoring {}, unknown format", file);
+				return null;
+			}
+
+			final long time = is.readLong();
+			final int bodyLength = is.readInt();
+			if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH)
+			{
+				log.info("ignoring {}, implausible length: {}", file, bodyLength);
+				return null;
+			}
+
+			final byte[] body = new byte[bodyLength];
+			is.readFully(body);
+
+			final ExchangeRatesRefresher.Snapshot snapshot = readBody(new DataInputStream(new ByteArrayInputStream(body)), time);
+			lastBody = body;
+
+			log.info("loaded {} exchange rates from {}, {} bytes, took {} ms", snapshot.rates.size(), file, file.length(),
+					System.currentTimeMillis() - start);
+
+			return snapshot;
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading exchange rates from " + file, x);
+			return null;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the file was written, false if nothing changed or writing failed
+	 */
+	public synchronized boolean save(@Nonnull final ExchangeRatesRefresher.Snapshot snapshot)
+	{
+		final byte[] body;
+		try
+		{
+			body = writeBody(snapshot);
+		}
+		catch (final IOException x)
+		{
+			throw new RuntimeException(x); // cannot happen, writing to memory
+		}
+
+		if (Arrays.equals(body, lastBody))
+			return false;
+
+		final File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = null;
+
+		try
+		{
+			fos = new FileOutputStream(tempFile);
+			final DataOutputStream os = new DataOutputStream(fos);
+			os.writeInt(MAGIC);
+			os.writeByte(VERSION);
+			os.writeLong(snapshot.time);
+			os.writeInt(body.length);
+			os.write(body);
+			os.flush();
+			fos.getFD().sync();
+			fos.close();
+			fos = null;
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+
+			lastBody = body;
+			log.info("saved {} exchange rates to {}, {} bytes", snapshot.rates.size(), file, file.length());
+
+			return true;
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving exchange rates to " + file, x);
+			tempFile.delete();
+			return false;
+		}
+		finally
+		{
+			if (fos != null)
+			{
+				try
+				{
+					fos.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	private static byte[] writeBody(final ExchangeRatesRefresher.Snapshot snapshot) throws IOException
+	{
+		final List<String> sources = new ArrayList<String>();
+		for (final ExchangeRate rate : snapshot.rates.values())
+			if (rate.source != null && !sources.contains(rate.source))
+				sources.add(rate.source);
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(snapshot.rates.size() * 24);
+		final DataOutputStream os = new DataOutputStream(bytes);
+
+		os.writeDouble(snapshot.dogeBtcConversion);
+
+		os.writeShort(sources.size());
+		for (final String source : sources)
+			os.writeUTF(source);
+
+		os.writeShort(snapshot.rates.size());
+		for (final ExchangeRate rate : snapshot.rates.values())
+		{
+			os.writeUTF(rate.getCurrencyCode());
+			os.writeLong(rate.rate.coin.value);
+			os.writeLong(rate.rate.fiat.value);
+			os.writeShort(rate.source != null ? sources.indexOf(rate.source) : -1);
+		}
+
+		os.flush();
+		return bytes.toByteArray();
+	}
+
+	private static ExchangeRatesRefresher.Snapshot readBody(final DataInputStream is, final long time) throws IOException
+	{
+		final double dogeBtcConversion = is.readDouble();
+
+		final int numSources = is.readUnsignedShort();
+		final String[] sources = new String[numSources];
+		for (int i = 0; i < numSources; i++)
+			sources[i] = is.readUTF();
+
+		final int numRates = is.readUnsignedShort();
+		final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+		for (int i = 0; i < numRates; i++)
+		{
+			final String currencyCode = is.readUTF();
+			final Coin coin = Coin.valueOf(is.readLong());
+			final Fiat fiat = Fiat.valueOf(currencyCode, is.readLong());
+			final int sourceIndex = is.readShort();
+			if (sourceIndex >= numSources)
+				throw new IOException("source index out of range: " + sourceIndex);
+
+			rates.put(currencyCode, new ExchangeRate(new com.dogecoin.dogecoinj.utils.ExchangeRate(coin, fiat), sourceIndex >= 0 ? sources[sourceIndex]
+					: null));
+		}
+
+		return new ExchangeRatesRefresher.Snapshot(rates, dogeBtcConversion, time);
+	}
+}
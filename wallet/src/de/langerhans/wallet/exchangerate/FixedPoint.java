@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.math.BigInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decimal fixed-point arithmetic on longs. A value v at scale s stands for v * 10^-s. All rounding is half up, away from zero.
+ *
+ * @author Andreas Schildbach
+ */
+public final class FixedPoint
+{
+	private static final int MAX_SCALE = 18;
+	private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+	static
+	{
+		long power = 1;
+		for (int i = 0; i <= MAX_SCALE; i++)
+		{
+			POWERS_OF_TEN[i] = power;
+			power *= 10;
+		}
+	}
+
+	private FixedPoint()
+	{
+	}
+
+	/**
+	 * Parses a JSON number, with optional fraction and exponent, to the given scale. Does not allocate.
+	 *
+	 * @throws NumberFormatException
+	 *             if the text is not a number or does not fit into a long at the given scale
+	 */
+	public static long parse(@Nonnull final CharSequence text, final int scale)
+	{
+		final int length = text.length();
+		int i = 0;
+
+		boolean negative = false;
+		if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+			negative = text.charAt(i++) == '-';
+
+		long value = 0;
+		int significantDigits = 0;
+		int fractionDigits = 0;
+		boolean anyDigit = false;
+		boolean inFraction = false;
+		boolean truncated = false;
+		int roundingDigit = 0; // first fraction digit that did not fit
+		int exponent = 0;
+
+		for (; i < length; i++)
+		{
+			final char c = text.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				anyDigit = true;
+				if (significantDigits < MAX_SCALE)
+				{
+					value = value * 10 + (c - '0');
+					if (value > 0)
+						significantDigits++;
+					if (inFraction)
+						fractionDigits++;
+				}
+				else if (!inFraction)
+				{
+					throw new NumberFormatException("out of range: " + text);
+				}
+				else if (!truncated)
+				{
+					truncated = true;
+					roundingDigit = c - '0';
+				}
+			}
+			else if (c == '.' && !inFraction)
+			{
+				inFraction = true;
+			}
+			else if ((c == 'e' || c == 'E') && anyDigit)
+			{
+				exponent = parseExponent(text, i + 1);
+				break;
+			}
+			else
+			{
+				throw new NumberFormatException("not a number: " + text);
+			}
+		}
+
+		if (!anyDigit)
+			throw new NumberFormatException("not a number: " + text);
+
+		// value * 10^(exponent - fractionDigits), wanted at scale
+		final int shift = scale + exponent - fractionDigits;
+		final long result;
+		if (shift > 0)
+			result = multiplyExactOrThrow(value, shift, text);
+		else if (shift == 0)
+			result = roundingDigit >= 5 ? value + 1 : value;
+		else if (-shift > MAX_SCALE)
+			result = 0;
+		else
+			result = divideRounded(value, POWERS_OF_TEN[-shift]);
+
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Multiplies a at scaleA with b at scaleB, giving a result at resultScale. Falls back to big integers if the intermediate
+	 * product does not fit into a long.
+	 *
+	 * @throws ArithmeticException
+	 *             if the result does not fit into a long
+	 */
+	public static long multiply(final long a, final int scaleA, final long b, final int scaleB, final int resultScale)
+	{
+		final int shift = resultScale - scaleA - scaleB;
+
+		final long product = a * b;
+		final boolean productFits = a == 0 || (product / a == b && !(a == -1 && b == Long.MIN_VALUE));
+
+		if (productFits && shift >= 0 && shift <= MAX_SCALE)
+			return multiplyExact(product, POWERS_OF_TEN[shift]);
+
+		if (productFits && shift < 0 && -shift <= MAX_SCALE)
+			return divideRounded(product, POWERS_OF_TEN[-shift]);
+
+		BigInteger result = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b));
+		if (shift >= 0)
+		{
+			result = result.multiply(BigInteger.TEN.pow(shift));
+		}
+		else
+		{
+			final BigInteger divisor = BigInteger.TEN.pow(-shift);
+			final BigInteger[] qr = result.abs().divideAndRemainder(divisor);
+			BigInteger q = qr[0];
+			if (qr[1].shiftLeft(1).compareTo(divisor) >= 0)
+				q = q.add(BigInteger.ONE);
+			result = result.signum() < 0 ? q.negate() : q;
+		}
+
+		if (result.bitLength() > 63)
+			throw new ArithmeticException("out of range");
+		return result.longValue();
+	}
+
+	/**
+	 * Converts a double to the given scale, rounding half up.
+	 */
+	public static long fromDouble(final double value, final int scale)
+	{
+		final double scaled = value * Math.pow(10, scale);
+		if (Double.isNaN(scaled) || Math.abs(scaled) >= Long.MAX_VALUE)
+			throw new ArithmeticException("out of range: " + value);
+		return Math.round(scaled);
+	}
+
+	private static long divideRounded(final long value, final long divisor)
+	{
+		final long quotient = value / divisor;
+		final long remainder = Math.abs(value % divisor);
+		if (remainder * 2 >= divisor)
+			return value < 0 ? quotient - 1 : quotient + 1;
+		return quotient;
+	}
+
+	private static long multiplyExactOrThrow(final long value, final int exponent, final CharSequence text)
+	{
+		if (exponent > MAX_SCALE)
+			throw new NumberFormatException("out of range: " + text);
+
+		try
+		{
+			return multiplyExact(value, POWERS_OF_TEN[exponent]);
+		}
+		catch (final ArithmeticException x)
+		{
+			throw new NumberFormatException("out of range: " + text);
+		}
+	}
+
+	private static long multiplyExact(final long a, final long b)
+	{
+		final long product = a * b;
+		if (a != 0 && (product / a != b || (a == -1 && b == Long.MIN_VALUE)))
+			throw new ArithmeticException("out of range");
+		return product;
+	}
+
+	private static int parseExponent(final CharSequence text, int i)
+	{
+		final int length = text.length();
+		boolean negative = false;
+		if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+'))
+			negative = text.charAt(i++) == '-';
+		if (i >= length)
+			throw new NumberFormatException("not a number: " + text);
+
+		int exponent = 0;
+		for (; i < length; i++)
+		{
+			final char c = text.charAt(i);
+			if (c < '0' || c > '9' || exponent > 1000)
+				throw new NumberFormatException("not a number: " + text);
+			exponent = exponent * 10 + (c - '0');
+		}
+		return negative ? -exponent : exponent;
+	}
+}
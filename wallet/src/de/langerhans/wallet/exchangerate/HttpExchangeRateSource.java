@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+import de.langerhans.wallet.util.HttpClient;
+
+/**
+ * Source that fetches a single URL through the shared {@link HttpClient}, and so through its response cache. Subclasses only
+ * parse the body.
+ *
+ * @author Andreas Schildbach
+ */
+public abstract class HttpExchangeRateSource<T> implements ExchangeRateSource<T>
+{
+	private final String name;
+	private final URL url;
+	private final HttpClient httpClient;
+
+	private static final Logger log = LoggerFactory.getLogger(HttpExchangeRateSource.class);
+
+	public HttpExchangeRateSource(@Nonnull final String name, @Nonnull final URL url, @Nonnull final HttpClient httpClient)
+	{
+		this.name = name;
+		this.url = url;
+		this.httpClient = httpClient;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public T fetch() throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		HttpURLConnection connection = null;
+		InputStream is = null;
+
+		try
+		{
+			connection = httpClient.open(url, false);
+
+			is = httpClient.get(connection);
+			if (is == null)
+				throw new IOException("http status " + connection.getResponseCode() + " when fetching " + url);
+
+			final Reader reader = new InputStreamReader(new BufferedInputStream(is, 1024), Charsets.UTF_8);
+			final T result = parse(reader);
+
+			log.info("fetched exchange rates from {} ({}), took {} ms", url, connection.getContentEncoding(), System.currentTimeMillis() - start);
+
+			return result;
+		}
+		finally
+		{
+			httpClient.release(connection, is);
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the content is not what was expected
+	 */
+	@Nonnull
+	protected abstract T parse(@Nonnull Reader reader) throws IOException;
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Combines the same rate as reported by several sources into one value, using the median and rejecting outliers.
+ *
+ * @author Andreas Schildbach
+ */
+public final class RateAggregator
+{
+	/** Samples deviating more than this fraction from the median are rejected. */
+	public static final double MAX_DEVIATION = 0.1;
+
+	public static final class Sample
+	{
+		public final String source;
+		public final double value;
+
+		public Sample(@Nonnull final String source, final double value)
+		{
+			this.source = source;
+			this.value = value;
+		}
+
+		@Override
+		public String toString()
+		{
+			return source + '=' + value;
+		}
+	}
+
+	public static final class Result
+	{
+		public final double value;
+		/** Sources that contributed to the value. */
+		public final List<String> sources;
+		/** Sources that were rejected as outliers. */
+		public final List<String> rejected;
+
+		private Result(final double value, final List<String> sources, final List<String> rejected)
+		{
+			this.value = value;
+			this.sources = Collections.unmodifiableList(sources);
+			this.rejected = Collections.unmodifiableList(rejected);
+		}
+
+		@Override
+		public String toString()
+		{
+			return value + " from " + sources + (rejected.isEmpty() ? "" : ", rejected " + rejected);
+		}
+	}
+
+	private RateAggregator()
+	{
+	}
+
+	/**
+	 * With three or more samples, samples too far from the median are rejected and the median of the rest is returned. Two
+	 * samples cannot outvote each other, so if they disagree the preferred source wins, if it is one of them.
+	 *
+	 * @return aggregated rate, or null if there are no usable samples
+	 */
+	@CheckForNull
+	public static Result aggregate(@Nonnull final List<Sample> samples, @CheckForNull final String preferredSource)
+	{
+		final List<Sample> valid = new ArrayList<Sample>(samples.size());
+		for (final Sample sample : samples)
+			if (sample.value > 0 && !Double.isInfinite(sample.value) && !Double.isNaN(sample.value))
+				valid.add(sample);
+
+		if (valid.isEmpty())
+			return null;
+
+		final double median = median(valid);
+		final List<String> sources = new ArrayList<String>(valid.size());
+		final List<String> rejected = new ArrayList<String>();
+
+		if (valid.size() == 2 && deviation(valid.get(0).value, median) > MAX_DEVIATION && preferredSource != null)
+		{
+			for (final Sample sample : valid)
+			{
+				if (sample.source.equals(preferredSource))
+				{
+					for (final Sample other : valid)
+						if (other != sample)
+							rejected.add(other.source);
+					sources.add(sample.source);
+					return new Result(sample.value, sources, rejected);
+				}
+			}
+		}
+
+		if (valid.size() < 3)
+		{
+			for (final Sample sample : valid)
+				sources.add(sample.source);
+			return new Result(median, sources, rejected);
+		}
+
+		final List<Sample> accepted = new ArrayList<Sample>(valid.size());
+		for (final Sample sample : valid)
+		{
+			if (deviation(sample.value, median) <= MAX_DEVIATION)
+			{
+				accepted.add(sample);
+				sources.add(sample.source);
+			}
+			else
+			{
+				rejected.add(sample.source);
+			}
+		}
+
+		// no consensus at all, fall back to the plain median
+		if (accepted.isEmpty())
+		{
+			for (final Sample sample : valid)
+				sources.add(sample.source);
+			rejected.clear();
+			return new Result(median, sources, rejected);
+		}
+
+		return new Result(median(accepted), sources, rejected);
+	}
+
+	private static double median(final List<Sample> samples)
+	{
+		final int size = samples.size();
+		final double[] values = new double[size];
+		for (int i = 0; i < size; i++)
+			values[i] = samples.get(i).value;
+		Arrays.sort(values);
+
+		if (size % 2 == 1)
+			return values[size / 2];
+		else
+			return (values[size / 2 - 1] + values[size / 2]) / 2;
+	}
+
+	private static double deviation(final double value, final double median)
+	{
+		return Math.abs(value - median) / median;
+	}
+}
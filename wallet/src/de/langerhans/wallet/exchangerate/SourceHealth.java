@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Success rate, latency and staleness of one exchange rate source, plus a circuit breaker. After a number of consecutive
+ * failures the circuit opens and the source is skipped. Once the cooldown has passed, a single trial request is let through;
+ * if it fails, the circuit opens again with a doubled cooldown.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SourceHealth
+{
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final int FAILURE_THRESHOLD = 3;
+	private static final long COOLDOWN_MIN_MS = TimeUnit.MINUTES.toMillis(2);
+	private static final long COOLDOWN_MAX_MS = TimeUnit.HOURS.toMillis(1);
+
+	private static final int WINDOW_SIZE = 32;
+
+	private final boolean[] outcomes = new boolean[WINDOW_SIZE];
+	private int outcomesHead = 0;
+	private int outcomesSize = 0;
+
+	private final long[] latencies = new long[WINDOW_SIZE];
+	private int latenciesHead = 0;
+	private int latenciesSize = 0;
+
+	private long lastSuccessTime = 0;
+	private int consecutiveFailures = 0;
+
+	private State state = State.CLOSED;
+	private long openUntil = 0;
+	private long cooldownMs = COOLDOWN_MIN_MS;
+	private boolean trialInFlight = false;
+
+	/**
+	 * @return true if the source should be asked now; in half open state, only the first caller gets true until the trial
+	 *         is recorded
+	 */
+	public synchronized boolean allowRequest(final long now)
+	{
+		if (state == State.OPEN && now >= openUntil)
+			state = State.HALF_OPEN;
+
+		if (state == State.CLOSED)
+			return true;
+
+		if (state == State.HALF_OPEN && !trialInFlight)
+		{
+			trialInFlight = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	public synchronized void recordSuccess(final long now, final long latencyMs)
+	{
+		pushOutcome(true);
+		latencies[latenciesHead] = latencyMs;
+		latenciesHead = (latenciesHead + 1) % WINDOW_SIZE;
+		if (latenciesSize < WINDOW_SIZE)
+			latenciesSize++;
+
+		lastSuccessTime = now;
+		consecutiveFailures = 0;
+		state = State.CLOSED;
+		cooldownMs = COOLDOWN_MIN_MS;
+		trialInFlight = false;
+	}
+
+	public synchronized void recordFailure(final long now)
+	{
+		pushOutcome(false);
+		consecutiveFailures++;
+
+		if (state == State.HALF_OPEN)
+		{
+			cooldownMs = Math.min(cooldownMs * 2, COOLDOWN_MAX_MS);
+			open(now);
+		}
+		else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD)
+		{
+			open(now);
+		}
+	}
+
+	/**
+	 * The request was given up without an outcome, e.g. because enough other sources had answered already.
+	 */
+	public synchronized void recordCancelled()
+	{
+		trialInFlight = false;
+	}
+
+	public synchronized State getState(final long now)
+	{
+		if (state == State.OPEN && now >= openUntil)
+			return State.HALF_OPEN;
+		return state;
+	}
+
+	/**
+	 * @return share of successful requests in the recent window, or NaN if nothing was recorded yet
+	 */
+	public synchronized double getSuccessRate()
+	{
+		if (outcomesSize == 0)
+			return Double.NaN;
+
+		int numSuccesses = 0;
+		for (int i = 0; i < outcomesSize; i++)
+			if (outcomes[i])
+				numSuccesses++;
+		return (double) numSuccesses / outcomesSize;
+	}
+
+	/**
+	 * @return latency percentile of recent successful requests, or -1 if there were none
+	 */
+	public synchronized long getLatencyPercentile(final int percentile)
+	{
+		if (latenciesSize == 0)
+			return -1;
+
+		final long[] sorted = Arrays.copyOf(latencies, latenciesSize);
+		Arrays.sort(sorted);
+		final int index = (int) Math.ceil(percentile / 100.0 * latenciesSize) - 1;
+		return sorted[Math.max(0, Math.min(index, latenciesSize - 1))];
+	}
+
+	/**
+	 * @return time since the last success, or -1 if the source never succeeded
+	 */
+	public synchronized long getStalenessMs(final long now)
+	{
+		return lastSuccessTime > 0 ? now - lastSuccessTime : -1;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final long now = System.currentTimeMillis();
+		final double successRate = getSuccessRate();
+		final long staleness = getStalenessMs(now);
+
+		final StringBuilder builder = new StringBuilder();
+		builder.append(getState(now));
+		builder.append(" success=").append(Double.isNaN(successRate) ? "-" : Math.round(successRate * 100) + "%");
+		builder.append(" p50=").append(getLatencyPercentile(50));
+		builder.append(" p90=").append(getLatencyPercentile(90));
+		builder.append(" stale_s=").append(staleness >= 0 ? staleness / 1000 : -1);
+		return builder.toString();
+	}
+
+	private void pushOutcome(final boolean success)
+	{
+		outcomes[outcomesHead] = success;
+		outcomesHead = (outcomesHead + 1) % WINDOW_SIZE;
+		if (outcomesSize < WINDOW_SIZE)
+			outcomesSize++;
+	}
+
+	private void open(final long now)
+	{
+		state = State.OPEN;
+		openUntil = now + cooldownMs;
+		trialInFlight = false;
+	}
+}
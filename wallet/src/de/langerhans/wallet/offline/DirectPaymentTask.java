@@ -24,10 +24,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import org.bitcoin.protocols.payments.Protos;
 import org.bitcoin.protocols.payments.Protos.Payment;
@@ -40,8 +39,8 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.Handler;
 import android.os.Looper;
-import de.langerhans.wallet.Constants;
 import de.langerhans.wallet.util.Bluetooth;
+import de.langerhans.wallet.util.HttpClient;
 import de.langerhans.wallet.R;
 
 /**
@@ -49,7 +48,7 @@ import de.langerhans.wallet.R;
  */
 public abstract class DirectPaymentTask
 {
-	private final Handler backgroundHandler;
+	private final Executor backgroundExecutor;
 	private final Handler callbackHandler;
 	private final ResultCallback resultCallback;
 
@@ -62,9 +61,9 @@ public abstract class DirectPaymentTask
 		void onFail(int messageResId, Object... messageArgs);
 	}
 
-	public DirectPaymentTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback)
+	public DirectPaymentTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback)
 	{
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundExecutor = backgroundExecutor;
 		this.callbackHandler = new Handler(Looper.myLooper());
 		this.resultCallback = resultCallback;
 	}
@@ -72,22 +71,21 @@ public abstract class DirectPaymentTask
 	public final static class HttpPaymentTask extends DirectPaymentTask
 	{
 		private final String url;
-		@CheckForNull
-		private final String userAgent;
+		private final HttpClient httpClient;
 
-		public HttpPaymentTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback, @Nonnull final String url,
-				@Nullable final String userAgent)
+		public HttpPaymentTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback, @Nonnull final String url,
+				@Nonnull final HttpClient httpClient)
 		{
-			super(backgroundHandler, resultCallback);
+			super(backgroundExecutor, resultCallback);
 
 			this.url = url;
-			this.userAgent = userAgent;
+			this.httpClient = httpClient;
 		}
 
 		@Override
 		public void send(@Nonnull final Payment payment)
 		{
-			super.backgroundHandler.post(new Runnable()
+			super.backgroundExecutor.execute(new Runnable()
 			{
 				@Override
 				public void run()
@@ -100,21 +98,14 @@ public abstract class DirectPaymentTask
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
-
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+						connection = httpClient.open(new URL(url), false);
 						connection.setUseCaches(false);
-						connection.setDoInput(true);
 						connection.setDoOutput(true);
 
 						connection.setRequestMethod("POST");
 						connection.setRequestProperty("Content-Type", PaymentProtocol.MIMETYPE_PAYMENT);
 						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTACK);
 						connection.setRequestProperty("Content-Length", Integer.toString(payment.getSerializedSize()));
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
 						connection.connect();
 
 						os = connection.getOutputStream();
@@ -123,11 +114,9 @@ public abstract class DirectPaymentTask
 
 						log.info("tx sent via http");
 
-						final int responseCode = connection.getResponseCode();
-						if (responseCode == HttpURLConnection.HTTP_OK)
+						is = httpClient.response(connection);
+						if (is != null)
 						{
-							is = connection.getInputStream();
-
 							final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(is);
 
 							final boolean ack = !"nack".equals(PaymentProtocol.parsePaymentAck(paymentAck).getMemo());
@@ -138,6 +127,7 @@ public abstract class DirectPaymentTask
 						}
 						else
 						{
+							final int responseCode = connection.getResponseCode();
 							final String responseMessage = connection.getResponseMessage();
 
 							log.info("got http error {}: {}", responseCode, responseMessage);
@@ -165,20 +155,7 @@ public abstract class DirectPaymentTask
 							}
 						}
 
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						httpClient.release(connection, is);
 					}
 				}
 			});
@@ -190,10 +167,10 @@ public abstract class DirectPaymentTask
 		private final BluetoothAdapter bluetoothAdapter;
 		private final String bluetoothMac;
 
-		public BluetoothPaymentTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback,
+		public BluetoothPaymentTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback,
 				@Nonnull final BluetoothAdapter bluetoothAdapter, @Nonnull final String bluetoothMac)
 		{
-			super(backgroundHandler, resultCallback);
+			super(backgroundExecutor, resultCallback);
 
 			this.bluetoothAdapter = bluetoothAdapter;
 			this.bluetoothMac = bluetoothMac;
@@ -202,7 +179,7 @@ public abstract class DirectPaymentTask
 		@Override
 		public void send(@Nonnull final Payment payment)
 		{
-			super.backgroundHandler.post(new Runnable()
+			super.backgroundExecutor.execute(new Runnable()
 			{
 				@Override
 				public void run()
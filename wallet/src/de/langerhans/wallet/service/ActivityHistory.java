@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.service;
+
+import android.text.format.DateUtils;
+
+/**
+ * Per-minute history of block, transaction and byte counters, kept in a fixed ring buffer, plus an exponentially weighted
+ * model of chain and wallet activity that decides when the blockchain service is idle.
+ *
+ * @author Andreas Schildbach
+ */
+public final class ActivityHistory
+{
+	/** Dogecoin targets one block per minute, so following the chain head looks like this. */
+	private static final double CHAIN_HEAD_BLOCKS_PER_MIN = 1.0;
+	/** Above this, we are still catching up. */
+	private static final double CATCH_UP_BLOCKS_PER_MIN = 2 * CHAIN_HEAD_BLOCKS_PER_MIN;
+	/** Above this, the wallet saw transactions recently enough that the user is probably waiting for more. */
+	private static final double ACTIVE_TRANSACTIONS_PER_MIN = 0.03;
+
+	private static final double BLOCKS_ALPHA = 0.5;
+	private static final double TRANSACTIONS_ALPHA = 0.15;
+	private static final double BYTES_ALPHA = 0.3;
+
+	private static final int MIN_COLLECT_HISTORY = 2;
+	private static final int CAPACITY = 60;
+
+	private static final long RESTART_DELAY_ACTIVE_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+
+	private final int[] blocks = new int[CAPACITY];
+	private final int[] transactions = new int[CAPACITY];
+	private final long[] bytes = new long[CAPACITY];
+	private int head = 0;
+	private int size = 0;
+
+	private double blocksPerMin;
+	private double transactionsPerMin;
+	private double bytesPerMin;
+	private long totalBytes;
+
+	public static final class Stats
+	{
+		/** Number of minutes covered by the window sums. */
+		public final int numMinutes;
+		public final int windowBlocks;
+		public final int windowTransactions;
+		public final long windowBytes;
+		public final double blocksPerMin;
+		public final double transactionsPerMin;
+		public final double bytesPerMin;
+		public final long totalBytes;
+		public final boolean idle;
+
+		private Stats(final int numMinutes, final int windowBlocks, final int windowTransactions, final long windowBytes,
+				final double blocksPerMin, final double transactionsPerMin, final double bytesPerMin, final long totalBytes, final boolean idle)
+		{
+			this.numMinutes = numMinutes;
+			this.windowBlocks = windowBlocks;
+			this.windowTransactions = windowTransactions;
+			this.windowBytes = windowBytes;
+			this.blocksPerMin = blocksPerMin;
+			this.transactionsPerMin = transactionsPerMin;
+			this.bytesPerMin = bytesPerMin;
+			this.totalBytes = totalBytes;
+			this.idle = idle;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%d/%d/%d blocks/txns/bytes in %d min, avg %.2f/%.2f/%.0f per min%s", windowBlocks, windowTransactions,
+					windowBytes, numMinutes, blocksPerMin, transactionsPerMin, bytesPerMin, idle ? ", idle" : "");
+		}
+	}
+
+	/**
+	 * Push the counters of the minute that just passed. Does not allocate.
+	 */
+	public synchronized void push(final int numBlocks, final int numTransactions, final long numBytes)
+	{
+		blocks[head] = numBlocks;
+		transactions[head] = numTransactions;
+		bytes[head] = numBytes;
+		head = (head + 1) % CAPACITY;
+
+		if (size == 0)
+		{
+			blocksPerMin = numBlocks;
+			transactionsPerMin = numTransactions;
+			bytesPerMin = numBytes;
+		}
+		else
+		{
+			blocksPerMin += BLOCKS_ALPHA * (numBlocks - blocksPerMin);
+			transactionsPerMin += TRANSACTIONS_ALPHA * (numTransactions - transactionsPerMin);
+			bytesPerMin += BYTES_ALPHA * (numBytes - bytesPerMin);
+		}
+
+		if (size < CAPACITY)
+			size++;
+
+		totalBytes += numBytes;
+	}
+
+	/**
+	 * Idle means we are following the chain head rather than catching up, and the wallet has not seen transactions for a while.
+	 */
+	public synchronized boolean isIdle()
+	{
+		if (size < MIN_COLLECT_HISTORY)
+			return false;
+
+		return blocksPerMin <= CATCH_UP_BLOCKS_PER_MIN && transactionsPerMin < ACTIVE_TRANSACTIONS_PER_MIN;
+	}
+
+	/**
+	 * Suggests how long the service may stay down at most before being started again, or {@link Long#MAX_VALUE} if the usage
+	 * based backoff should apply unchanged.
+	 */
+	public synchronized long maxRestartDelayMs()
+	{
+		// the wallet has been busy lately, check back soon
+		if (size > 0 && transactionsPerMin >= ACTIVE_TRANSACTIONS_PER_MIN / 2)
+			return RESTART_DELAY_ACTIVE_MS;
+
+		return Long.MAX_VALUE;
+	}
+
+	public synchronized Stats getStats()
+	{
+		int windowBlocks = 0;
+		int windowTransactions = 0;
+		long windowBytes = 0;
+		for (int i = 0; i < size; i++)
+		{
+			windowBlocks += blocks[i];
+			windowTransactions += transactions[i];
+			windowBytes += bytes[i];
+		}
+
+		return new Stats(size, windowBlocks, windowTransactions, windowBytes, blocksPerMin, transactionsPerMin, bytesPerMin, totalBytes, isIdle());
+	}
+
+	@Override
+	public String toString()
+	{
+		return getStats().toString();
+	}
+}
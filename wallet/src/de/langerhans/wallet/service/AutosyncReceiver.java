@@ -17,16 +17,19 @@
 
 package de.langerhans.wallet.service;
 
-import android.content.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
 import android.os.BatteryManager;
 import android.preference.PreferenceManager;
 import de.langerhans.wallet.Configuration;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import de.langerhans.wallet.WalletApplication;
 
 /**
@@ -34,6 +37,8 @@ import de.langerhans.wallet.WalletApplication;
  */
 public class AutosyncReceiver extends BroadcastReceiver
 {
+	public static final String ACTION_AUTOSYNC = "de.langerhans.wallet.AUTOSYNC_ACTION";
+
 	private static final Logger log = LoggerFactory.getLogger(AutosyncReceiver.class);
 
 	@Override
@@ -43,7 +48,7 @@ public class AutosyncReceiver extends BroadcastReceiver
 
 		// Workaround because Android sometime sucks hard...
 		if (intent.getAction() == null)
-			intent.setAction("de.langerhans.wallet.AUTOSYNC_ACTION");
+			intent.setAction(ACTION_AUTOSYNC);
 
 		final boolean bootCompleted = Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction());
 		final boolean packageReplaced = Intent.ACTION_MY_PACKAGE_REPLACED.equals(intent.getAction());
@@ -59,74 +64,54 @@ public class AutosyncReceiver extends BroadcastReceiver
 			return;
 		}
 
-		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-		final boolean prefsAutosyncSwitch = prefs.getBoolean(Configuration.PREFS_KEY_AUTOSYNC_SWITCH, false);
-		final boolean prefsAutosyncCharge = prefs.getBoolean(Configuration.PREFS_KEY_AUTOSYNC_CHARGE, false);
-		final boolean prefsAutosyncWiFi = prefs.getBoolean(Configuration.PREFS_KEY_AUTOSYNC_WIFI, false);
-
-		// determine WiFi state.
-		boolean wifiDontSync = false;
-		ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		NetworkInfo mWifi = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-		if (!mWifi.isConnected() && prefsAutosyncWiFi) {
-			wifiDontSync = true;
-		}
+		final Configuration config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
 
-		// Don't blindly start sync because we got WiFi...
-		if (intent.getAction().equals(WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION))
-		{
-			boolean justConnected = intent.getBooleanExtra(WifiManager.EXTRA_SUPPLICANT_CONNECTED, false);
-			if (justConnected)
-				wifiDontSync = true;
-		}
+		// determine network state
+		final ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		final NetworkInfo activeNetwork = connManager.getActiveNetworkInfo();
+		final SyncScheduler.NetworkType networkType;
+		if (activeNetwork == null || !activeNetwork.isConnected())
+			networkType = SyncScheduler.NetworkType.NONE;
+		else if (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI || activeNetwork.getType() == ConnectivityManager.TYPE_ETHERNET)
+			networkType = SyncScheduler.NetworkType.WIFI;
+		else
+			networkType = SyncScheduler.NetworkType.MOBILE;
+
+		final boolean wifiConnecting = WifiManager.SUPPLICANT_CONNECTION_CHANGE_ACTION.equals(intent.getAction())
+				&& intent.getBooleanExtra(WifiManager.EXTRA_SUPPLICANT_CONNECTED, false);
 
 		// determine power connected state
-		boolean powerDontSync = false;
-		int batteryStatus;
+		final int batteryStatus;
 		final Intent batteryChanged = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-		if (batteryChanged != null) {
+		if (batteryChanged != null)
 			batteryStatus = batteryChanged.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-		} else {
-			//If we didn't receive an Intent from this, we assume the device is not charging. Will prevent false positives.
+		else
+			// If we didn't receive an Intent from this, we assume the device is not charging. Will prevent false positives.
 			batteryStatus = BatteryManager.BATTERY_STATUS_DISCHARGING;
-		}
+		final boolean powerConnected = batteryStatus == BatteryManager.BATTERY_STATUS_CHARGING
+				|| batteryStatus == BatteryManager.BATTERY_STATUS_FULL;
 
-		boolean isPowerConnected = batteryStatus == BatteryManager.BATTERY_STATUS_CHARGING || batteryStatus == BatteryManager.BATTERY_STATUS_FULL;
-		if ((!isPowerConnected && prefsAutosyncCharge) || !prefsAutosyncCharge) {
-			powerDontSync = true;
-		}
+		final SyncScheduler.Decision decision = new SyncScheduler(config).decide(System.currentTimeMillis(), powerConnected, networkType,
+				wifiConnecting);
+		log.info("autosync decision: {}", decision);
 
-		if (!prefsAutosyncSwitch) //Case 1: Never AutoSync. We will check anyway later. Maybe the user changed their mind.
-		{
+		if (decision.action == SyncScheduler.Action.SYNC)
+			context.startService(new Intent(BlockchainService.ACTION_AUTOSYNC, null, context, BlockchainServiceImpl.class));
+		else if (decision.action == SyncScheduler.Action.STOP)
 			maybeStopService(context);
-			WalletApplication.scheduleStartBlockchainService(context);
-			return;
-		}
-		if (wifiDontSync) //Case 3: We have no WiFi and the user doesn't want to sync. Check back later.
-		{
-			maybeStopService(context);
-			WalletApplication.scheduleStartBlockchainService(context);
-			return;
-		}
-		if (powerDontSync) //Case 4: No power and user wants only to sync on power. Check pack later.
-		{
-			maybeStopService(context);
-			WalletApplication.scheduleStartBlockchainService(context);
-			return;
-		}
 
-		// All other cases: We can sync now.
-		final Intent serviceIntent = new Intent(context, BlockchainServiceImpl.class);
-		context.startService(serviceIntent);
-		WalletApplication.scheduleStartBlockchainService(context);
+		WalletApplication.scheduleAutosyncAlarm(context, decision.nextCheckMs);
 	}
 
-	private void maybeStopService(Context context)
+	private void maybeStopService(final Context context)
 	{
 		final Intent serviceIntent = new Intent(context, BlockchainServiceImpl.class);
-		try {
+		try
+		{
 			context.stopService(serviceIntent);
-		} catch (Exception e) {
+		}
+		catch (final Exception x)
+		{
 			log.debug("Tried to stop service which didn't run. Whatever :D");
 		}
 	}
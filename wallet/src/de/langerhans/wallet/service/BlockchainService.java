@@ -29,11 +29,7 @@ import com.dogecoin.dogecoinj.core.StoredBlock;
  */
 public interface BlockchainService
 {
-	public static final String ACTION_PEER_STATE = BlockchainService.class.getPackage().getName() + ".peer_state";
-	public static final String ACTION_PEER_STATE_NUM_PEERS = "num_peers";
-
-	public static final String ACTION_BLOCKCHAIN_STATE = BlockchainService.class.getPackage().getName() + ".blockchain_state";
-
+	public static final String ACTION_AUTOSYNC = BlockchainService.class.getPackage().getName() + ".autosync";
 	public static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName() + ".cancel_coins_received";
 	public static final String ACTION_RESET_BLOCKCHAIN = BlockchainService.class.getPackage().getName() + ".reset_blockchain";
 	public static final String ACTION_BROADCAST_TRANSACTION = BlockchainService.class.getPackage().getName() + ".broadcast_transaction";
@@ -41,6 +37,8 @@ public interface BlockchainService
 
 	BlockchainState getBlockchainState();
 
+	ActivityHistory.Stats getActivityStats();
+
 	@CheckForNull
 	List<Peer> getConnectedPeers();
 
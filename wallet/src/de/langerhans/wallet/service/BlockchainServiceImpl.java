@@ -43,6 +43,7 @@ import com.dogecoin.dogecoinj.core.Block;
 import com.dogecoin.dogecoinj.core.BlockChain;
 import com.dogecoin.dogecoinj.core.CheckpointManager;
 import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.core.Message;
 import com.dogecoin.dogecoinj.core.Peer;
 import com.dogecoin.dogecoinj.core.PeerEventListener;
 import com.dogecoin.dogecoinj.core.PeerGroup;
@@ -68,7 +69,6 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
-import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -76,12 +76,12 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import de.langerhans.wallet.AddressBookProvider;
 import de.langerhans.wallet.Configuration;
@@ -91,6 +91,7 @@ import de.langerhans.wallet.WalletBalanceWidgetProvider;
 import de.langerhans.wallet.service.BlockchainState.Impediment;
 import de.langerhans.wallet.ui.WalletActivity;
 import de.langerhans.wallet.util.CrashReporter;
+import de.langerhans.wallet.util.MemoryPressure;
 import de.langerhans.wallet.util.ThrottlingWalletChangeListener;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.R;
@@ -119,19 +120,27 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private static final int NOTIFICATION_ID_COINS_RECEIVED = 1;
 
 	private final Set<Impediment> impediments = EnumSet.noneOf(Impediment.class);
+	private volatile int numPeers = 0;
+	private volatile int blocksLeft = -1;
 	private int notificationCount = 0;
 	private Coin notificationAccumulatedAmount = Coin.ZERO;
 	private final List<Address> notificationAddresses = new LinkedList<Address>();
 	private AtomicInteger transactionsReceived = new AtomicInteger();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final ActivityHistory activityHistory = new ActivityHistory();
+	private final RecentBlocks recentBlocks = new RecentBlocks(RECENT_BLOCKS_CAPACITY);
 	private long serviceCreatedAt;
+	private boolean startedByAutosync = false;
+	private boolean usedInteractively = false;
+	private long onBatterySince = -1;
+	private long onBatteryMs = 0;
 	private boolean resetBlockchainOnShutdown = false;
 
-	private static final int MIN_COLLECT_HISTORY = 2;
-	private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
-	private static final int IDLE_TRANSACTION_TIMEOUT_MIN = 9;
-	private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
 	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 	private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final int MIN_CONNECTED_PEERS_UNDER_PRESSURE = 2;
+	private static final long SYNC_SESSION_CAUGHT_UP_MS = DateUtils.HOUR_IN_MILLIS;
+	private static final int RECENT_BLOCKS_CAPACITY = 64;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -287,8 +296,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 						nm.notify(NOTIFICATION_ID_CONNECTED, notification.getNotification());
 					}
 
-					// send broadcast
-					broadcastPeerState(numPeers);
+					// publish state
+					BlockchainServiceImpl.this.numPeers = numPeers;
+					publishBlockchainState();
 				}
 			});
 		}
@@ -301,7 +311,11 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		@Override
 		public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
 		{
-			config.maybeIncrementBestChainHeightEver(blockChain.getChainHead().getHeight());
+			BlockchainServiceImpl.this.blocksLeft = blocksLeft;
+
+			final StoredBlock chainHead = blockChain.getChainHead();
+			config.maybeIncrementBestChainHeightEver(chainHead.getHeight());
+			updateRecentBlocks(chainHead);
 
 			delayHandler.removeCallbacksAndMessages(null);
 
@@ -320,11 +334,22 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			{
 				lastMessageTime.set(System.currentTimeMillis());
 
-				broadcastBlockchainState();
+				publishBlockchainState();
 			}
 		};
 	};
 
+	private final PeerEventListener trafficListener = new AbstractPeerEventListener()
+	{
+		@Override
+		public Message onPreMessageReceived(final Peer peer, final Message m)
+		{
+			bytesReceived.addAndGet(m.getMessageSize());
+
+			return m;
+		}
+	};
+
 	private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
 	{
 		@Override
@@ -385,6 +410,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				peerGroup.addWallet(wallet);
 				peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
 				peerGroup.addEventListener(peerConnectivityListener);
+				peerGroup.addEventListener(trafficListener, Threading.SAME_THREAD); // needed for onPreMessageReceived()
 
 				final int maxConnectedPeers = application.maxConnectedPeers();
 
@@ -444,6 +470,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			{
 				log.info("stopping peergroup");
 				peerGroup.removeEventListener(peerConnectivityListener);
+				peerGroup.removeEventListener(trafficListener);
 				peerGroup.removeWallet(wallet);
 				peerGroup.stopAsync();
 				peerGroup = null;
@@ -452,32 +479,34 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				wakeLock.release();
 			}
 
-			broadcastBlockchainState();
+			publishBlockchainState();
 		}
 	};
 
-	private final static class ActivityHistoryEntry
+	private final BroadcastReceiver batteryReceiver = new BroadcastReceiver()
 	{
-		public final int numTransactionsReceived;
-		public final int numBlocksDownloaded;
-
-		public ActivityHistoryEntry(final int numTransactionsReceived, final int numBlocksDownloaded)
-		{
-			this.numTransactionsReceived = numTransactionsReceived;
-			this.numBlocksDownloaded = numBlocksDownloaded;
-		}
-
 		@Override
-		public String toString()
+		public void onReceive(final Context context, final Intent intent)
 		{
-			return numTransactionsReceived + "/" + numBlocksDownloaded;
+			final int batteryStatus = intent.getIntExtra(BatteryManager.EXTRA_STATUS, BatteryManager.BATTERY_STATUS_DISCHARGING);
+			final boolean powerConnected = batteryStatus == BatteryManager.BATTERY_STATUS_CHARGING
+					|| batteryStatus == BatteryManager.BATTERY_STATUS_FULL;
+
+			updateOnBatteryTime(System.currentTimeMillis(), powerConnected);
 		}
+	};
+
+	private void updateOnBatteryTime(final long now, final boolean powerConnected)
+	{
+		if (onBatterySince >= 0)
+			onBatteryMs += now - onBatterySince;
+
+		onBatterySince = powerConnected ? -1 : now;
 	}
 
 	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
 	{
 		private int lastChainHeight = 0;
-		private final List<ActivityHistoryEntry> activityHistory = new LinkedList<ActivityHistoryEntry>();
 
 		@Override
 		public void onReceive(final Context context, final Intent intent)
@@ -488,47 +517,17 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			{
 				final int numBlocksDownloaded = chainHeight - lastChainHeight;
 				final int numTransactionsReceived = transactionsReceived.getAndSet(0);
+				final long numBytesReceived = bytesReceived.getAndSet(0);
 
-				// push history
-				activityHistory.add(0, new ActivityHistoryEntry(numTransactionsReceived, numBlocksDownloaded));
-
-				// trim
-				while (activityHistory.size() > MAX_HISTORY_SIZE)
-					activityHistory.remove(activityHistory.size() - 1);
-
-				// print
-				final StringBuilder builder = new StringBuilder();
-				for (final ActivityHistoryEntry entry : activityHistory)
-				{
-					if (builder.length() > 0)
-						builder.append(", ");
-					builder.append(entry);
-				}
-				log.info("History of transactions/blocks: " + builder);
-
-				// determine if block and transaction activity is idling
-				boolean isIdle = false;
-				if (activityHistory.size() >= MIN_COLLECT_HISTORY)
-				{
-					isIdle = true;
-					for (int i = 0; i < activityHistory.size(); i++)
-					{
-						final ActivityHistoryEntry entry = activityHistory.get(i);
-						final boolean blocksActive = entry.numBlocksDownloaded > 0 && i <= IDLE_BLOCK_TIMEOUT_MIN;
-						final boolean transactionsActive = entry.numTransactionsReceived > 0 && i <= IDLE_TRANSACTION_TIMEOUT_MIN;
+				activityHistory.push(numBlocksDownloaded, numTransactionsReceived, numBytesReceived);
 
-						if (blocksActive || transactionsActive)
-						{
-							isIdle = false;
-							break;
-						}
-					}
-				}
+				if (log.isDebugEnabled())
+					log.debug("activity: {}", activityHistory);
 
 				// if idling, shutdown service
-				if (isIdle)
+				if (activityHistory.isIdle())
 				{
-					log.info("idling detected, stopping service");
+					log.info("idling detected, stopping service: {}", activityHistory);
 					stopSelf();
 				}
 			}
@@ -552,6 +551,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		log.debug(".onBind()");
 
+		usedInteractively = true;
+
 		return mBinder;
 	}
 
@@ -584,8 +585,6 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		peerConnectivityListener = new PeerConnectivityListener();
 
-		broadcastPeerState(0);
-
 		blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
 		final boolean blockChainFileExists = blockChainFile.exists();
 
@@ -638,6 +637,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new Error("blockchain cannot be created", x);
 		}
 
+		publishBlockchainState();
+
 		final IntentFilter intentFilter = new IntentFilter();
 		intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
 		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
@@ -647,6 +648,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		application.getWallet().addEventListener(walletEventListener, Threading.SAME_THREAD);
 
 		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+
+		// sticky, so this immediately tells us the current power state
+		registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
 	}
 
 	@Override
@@ -659,6 +663,11 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 			final String action = intent.getAction();
 
+			if (BlockchainService.ACTION_AUTOSYNC.equals(action))
+				startedByAutosync = true;
+			else
+				usedInteractively = true;
+
 			if (BlockchainService.ACTION_CANCEL_COINS_RECEIVED.equals(action))
 			{
 				notificationCount = 0;
@@ -703,7 +712,24 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		log.debug(".onDestroy()");
 
-		WalletApplication.scheduleStartBlockchainService(this);
+		final long now = System.currentTimeMillis();
+		unregisterReceiver(batteryReceiver);
+		updateOnBatteryTime(now, true);
+
+		// the user is not to be held against the autosync budget, but catching up counts no matter who asked for it
+		final boolean autosync = startedByAutosync && !usedInteractively;
+		final long chainHeadAge = now - blockChain.getChainHead().getHeader().getTimeSeconds() * DateUtils.SECOND_IN_MILLIS;
+		final boolean caughtUp = chainHeadAge < SYNC_SESSION_CAUGHT_UP_MS;
+		new SyncScheduler(config).recordSession(now, autosync, caughtUp, onBatteryMs);
+		log.info("{} sync session {}, chain head is {} minutes old, {} seconds on battery", autosync ? "autosync" : "interactive",
+				caughtUp ? "succeeded" : "failed", chainHeadAge / DateUtils.MINUTE_IN_MILLIS, onBatteryMs / DateUtils.SECOND_IN_MILLIS);
+
+		// the activity model shortens the interval the scheduler batches syncs into; if busy, check back sooner than planned,
+		// and the scheduler still decides whether to sync then
+		final long maxRestartDelayMs = activityHistory.maxRestartDelayMs();
+		config.setSyncMaxInterval(maxRestartDelayMs);
+		if (maxRestartDelayMs != Long.MAX_VALUE)
+			WalletApplication.scheduleAutosyncAlarm(this, maxRestartDelayMs);
 
 		unregisterReceiver(tickReceiver);
 
@@ -714,6 +740,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		if (peerGroup != null)
 		{
 			peerGroup.removeEventListener(peerConnectivityListener);
+			peerGroup.removeEventListener(trafficListener);
 			peerGroup.removeWallet(application.getWallet());
 			peerGroup.stopAsync();
 			peerGroup.awaitTerminated();
@@ -725,6 +752,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		delayHandler.removeCallbacksAndMessages(null);
 
+		numPeers = 0;
+		blocksLeft = -1;
+		publishBlockchainState();
+
 		try
 		{
 			blockStore.close();
@@ -758,11 +789,31 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		log.info("onTrimMemory({}) called", level);
 
-		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+		final MemoryPressure.Level pressure = MemoryPressure.Level.fromTrimLevel(level);
+		final MemoryPressure memoryPressure = application.getMemoryPressure();
+
+		if (pressure.atLeast(MemoryPressure.Level.MODERATE))
+		{
+			final int numBlocks = recentBlocks.clear();
+			if (numBlocks > 0)
+				memoryPressure.record(level, "dropped " + numBlocks + " cached recent blocks");
+		}
+
+		if (pressure.atLeast(MemoryPressure.Level.CRITICAL))
 		{
 			log.warn("low memory detected, stopping service");
+			memoryPressure.record(level, "stopped blockchain service");
 			stopSelf();
 		}
+		else if (pressure.atLeast(MemoryPressure.Level.SEVERE) && peerGroup != null)
+		{
+			final int maxConnections = peerGroup.getMaxConnections();
+			if (maxConnections > MIN_CONNECTED_PEERS_UNDER_PRESSURE)
+			{
+				peerGroup.setMaxConnections(MIN_CONNECTED_PEERS_UNDER_PRESSURE);
+				memoryPressure.record(level, "reduced max peers from " + maxConnections + " to " + MIN_CONNECTED_PEERS_UNDER_PRESSURE);
+			}
+		}
 	}
 
 	@Override
@@ -773,7 +824,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		final int bestChainHeight = chainHead.getHeight();
 		final boolean replaying = chainHead.getHeight() < config.getBestChainHeightEver();
 
-		return new BlockchainState(bestChainDate, bestChainHeight, replaying, impediments);
+		return new BlockchainState(bestChainDate, bestChainHeight, replaying, impediments, numPeers, blocksLeft);
+	}
+
+	@Override
+	public ActivityHistory.Stats getActivityStats()
+	{
+		return activityHistory.getStats();
 	}
 
 	@Override
@@ -788,19 +845,22 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	@Override
 	public List<StoredBlock> getRecentBlocks(final int maxBlocks)
 	{
-		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
+		if (recentBlocks.size() < Math.min(maxBlocks, RECENT_BLOCKS_CAPACITY))
+			updateRecentBlocks(blockChain.getChainHead());
+
+		final List<StoredBlock> blocks = recentBlocks.get(maxBlocks);
+		if (blocks.size() >= maxBlocks || blocks.isEmpty())
+			return blocks;
 
+		// asked for more than we cache, continue from the block store
 		try
 		{
-			StoredBlock block = blockChain.getChainHead();
+			StoredBlock block = blocks.get(blocks.size() - 1).getPrev(blockStore);
 
-			while (block != null)
+			while (block != null && blocks.size() < maxBlocks)
 			{
 				blocks.add(block);
 
-				if (blocks.size() >= maxBlocks)
-					break;
-
 				block = block.getPrev(blockStore);
 			}
 		}
@@ -812,20 +872,21 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		return blocks;
 	}
 
-	private void broadcastPeerState(final int numPeers)
+	private void updateRecentBlocks(final StoredBlock chainHead)
 	{
-		final Intent broadcast = new Intent(ACTION_PEER_STATE);
-		broadcast.setPackage(getPackageName());
-		broadcast.putExtra(ACTION_PEER_STATE_NUM_PEERS, numPeers);
-
-		LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+		try
+		{
+			recentBlocks.setChainHead(chainHead, blockStore);
+		}
+		catch (final BlockStoreException x)
+		{
+			log.info("problem updating recent blocks", x);
+			recentBlocks.clear();
+		}
 	}
 
-	private void broadcastBlockchainState()
+	private void publishBlockchainState()
 	{
-		final Intent broadcast = new Intent(ACTION_BLOCKCHAIN_STATE);
-		broadcast.setPackage(getPackageName());
-		getBlockchainState().putExtras(broadcast);
-		LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+		application.getBlockchainStateStore().publish(getBlockchainState());
 	}
 }
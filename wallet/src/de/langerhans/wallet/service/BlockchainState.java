@@ -17,55 +17,60 @@
 
 package de.langerhans.wallet.service;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Set;
 
-import android.content.Intent;
-
 /**
+ * Immutable snapshot of the blockchain service state, as published via {@link BlockchainStateStore}.
+ *
  * @author Andreas Schildbach
  */
 public class BlockchainState
 {
-	private static final String EXTRA_BEST_CHAIN_DATE = "best_chain_date";
-	private static final String EXTRA_BEST_CHAIN_HEIGHT = "best_chain_height";
-	private static final String EXTRA_REPLAYING = "replaying";
-	private static final String EXTRA_IMPEDIMENTS = "impediment";
-
 	public enum Impediment
 	{
 		STORAGE, NETWORK
 	}
 
+	/** Increases with every snapshot published to the {@link BlockchainStateStore}. */
+	public final long version;
 	public final Date bestChainDate;
 	public final int bestChainHeight;
 	public final boolean replaying;
-	public final EnumSet<Impediment> impediments;
+	public final Set<Impediment> impediments;
+	public final int numPeers;
+	/** Blocks left to download as reported by the download peer, or -1 if unknown. */
+	public final int blocksLeft;
 
-	public BlockchainState(final Date bestChainDate, final int bestChainHeight, final boolean replaying, final Set<Impediment> impediments)
+	public BlockchainState(final Date bestChainDate, final int bestChainHeight, final boolean replaying, final Set<Impediment> impediments,
+			final int numPeers, final int blocksLeft)
 	{
+		this(0, bestChainDate, bestChainHeight, replaying, impediments, numPeers, blocksLeft);
+	}
+
+	private BlockchainState(final long version, final Date bestChainDate, final int bestChainHeight, final boolean replaying,
+			final Set<Impediment> impediments, final int numPeers, final int blocksLeft)
+	{
+		this.version = version;
 		this.bestChainDate = bestChainDate;
 		this.bestChainHeight = bestChainHeight;
 		this.replaying = replaying;
-		this.impediments = EnumSet.copyOf(impediments);
+		this.impediments = Collections.unmodifiableSet(impediments.isEmpty() ? EnumSet.noneOf(Impediment.class) : EnumSet.copyOf(impediments));
+		this.numPeers = numPeers;
+		this.blocksLeft = blocksLeft;
 	}
 
-	public static BlockchainState fromIntent(final Intent intent)
+	BlockchainState withVersion(final long version)
 	{
-		final Date bestChainDate = (Date) intent.getSerializableExtra(EXTRA_BEST_CHAIN_DATE);
-		final int bestChainHeight = intent.getIntExtra(EXTRA_BEST_CHAIN_HEIGHT, -1);
-		final boolean replaying = intent.getBooleanExtra(EXTRA_REPLAYING, false);
-		final Set<Impediment> impediments = (Set<Impediment>) intent.getSerializableExtra(EXTRA_IMPEDIMENTS);
-
-		return new BlockchainState(bestChainDate, bestChainHeight, replaying, impediments);
+		return new BlockchainState(version, bestChainDate, bestChainHeight, replaying, impediments, numPeers, blocksLeft);
 	}
 
-	public void putExtras(final Intent intent)
+	@Override
+	public String toString()
 	{
-		intent.putExtra(EXTRA_BEST_CHAIN_DATE, bestChainDate);
-		intent.putExtra(EXTRA_BEST_CHAIN_HEIGHT, bestChainHeight);
-		intent.putExtra(EXTRA_REPLAYING, replaying);
-		intent.putExtra(EXTRA_IMPEDIMENTS, impediments);
+		return "v" + version + " height " + bestChainHeight + " (" + bestChainDate + ")" + (replaying ? " replaying" : "") + " peers " + numPeers
+				+ " left " + blocksLeft + " impediments " + impediments;
 	}
 }
@@ -17,36 +17,31 @@
 
 package de.langerhans.wallet.service;
 
-import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.Nonnull;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.Loader;
 import android.content.ServiceConnection;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
+import de.langerhans.wallet.WalletApplication;
 
 /**
+ * Delivers the latest {@link BlockchainState} snapshot from the {@link BlockchainStateStore}, and any newer one while started.
+ *
  * @author Andreas Schildbach
  */
-public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
+public class BlockchainStateLoader extends Loader<BlockchainState>
 {
-	private final LocalBroadcastManager broadcastManager;
-	private BlockchainService service;
-
-	private static final Logger log = LoggerFactory.getLogger(BlockchainStateLoader.class);
+	private final BlockchainStateStore store;
+	private boolean serviceBound = false;
 
 	public BlockchainStateLoader(final Context context)
 	{
 		super(context);
 
-		this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+		this.store = ((WalletApplication) context.getApplicationContext()).getBlockchainStateStore();
 	}
 
 	@Override
@@ -54,60 +49,68 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 	{
 		super.onStartLoading();
 
-		broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		store.addListener(listener);
 
-		final Context context = getContext();
-		context.bindService(new Intent(context, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+		final BlockchainState blockchainState = store.get();
+		if (blockchainState != null)
+		{
+			deliverResult(blockchainState);
+		}
+		else if (!serviceBound)
+		{
+			// nothing published yet, make sure the service is created so it will publish
+			final Context context = getContext();
+			serviceBound = context.bindService(new Intent(context, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+		}
 	}
 
 	@Override
 	protected void onStopLoading()
 	{
-		broadcastManager.unregisterReceiver(broadcastReceiver);
+		store.removeListener(listener);
 
 		super.onStopLoading();
 	}
 
 	@Override
-	public BlockchainState loadInBackground()
+	protected void onReset()
 	{
-		final BlockchainState blockchainState = service.getBlockchainState();
+		store.removeListener(listener);
+		unbindService();
 
-		getContext().unbindService(serviceConnection);
+		super.onReset();
+	}
 
-		return blockchainState;
+	private void unbindService()
+	{
+		if (serviceBound)
+		{
+			getContext().unbindService(serviceConnection);
+			serviceBound = false;
+		}
 	}
 
-	private final ServiceConnection serviceConnection = new ServiceConnection()
+	private final BlockchainStateStore.Listener listener = new BlockchainStateStore.Listener()
 	{
 		@Override
-		public void onServiceConnected(final ComponentName name, final IBinder binder)
+		public void onBlockchainStateChanged(@Nonnull final BlockchainState blockchainState)
 		{
-			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+			unbindService();
 
-			forceLoad();
+			deliverResult(blockchainState);
 		}
+	};
 
+	private final ServiceConnection serviceConnection = new ServiceConnection()
+	{
 		@Override
-		public void onServiceDisconnected(final ComponentName name)
+		public void onServiceConnected(final ComponentName name, final IBinder binder)
 		{
-			service = null;
 		}
-	};
 
-	private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
-	{
 		@Override
-		public void onReceive(final Context context, final Intent broadcast)
+		public void onServiceDisconnected(final ComponentName name)
 		{
-			try
-			{
-				deliverResult(BlockchainState.fromIntent(broadcast));
-			}
-			catch (final RejectedExecutionException x)
-			{
-				log.info("rejected execution: " + BlockchainStateLoader.this.toString());
-			}
 		}
 	};
 }
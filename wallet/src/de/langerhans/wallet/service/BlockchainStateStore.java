@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.service;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * In-process holder of the latest {@link BlockchainState}. Publishing is lock-free and can happen from any thread. Listeners
+ * are called on the main thread, and updates that arrive faster than they can be dispatched are coalesced into the latest
+ * snapshot.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BlockchainStateStore
+{
+	public interface Listener
+	{
+		void onBlockchainStateChanged(@Nonnull BlockchainState blockchainState);
+	}
+
+	private final AtomicReference<BlockchainState> state = new AtomicReference<BlockchainState>();
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * @return latest snapshot, or null if the blockchain service has not published anything yet
+	 */
+	@CheckForNull
+	public BlockchainState get()
+	{
+		return state.get();
+	}
+
+	public void publish(@Nonnull final BlockchainState blockchainState)
+	{
+		while (true)
+		{
+			final BlockchainState previous = state.get();
+			final BlockchainState next = blockchainState.withVersion(previous != null ? previous.version + 1 : 1);
+			if (state.compareAndSet(previous, next))
+				break;
+		}
+
+		if (dispatchPending.compareAndSet(false, true))
+			handler.post(dispatchRunnable);
+	}
+
+	public void addListener(@Nonnull final Listener listener)
+	{
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(@Nonnull final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private final Runnable dispatchRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			dispatchPending.set(false);
+
+			final BlockchainState blockchainState = state.get();
+			for (final Listener listener : listeners)
+				listener.onBlockchainStateChanged(blockchainState);
+		}
+	};
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.service;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.dogecoin.dogecoinj.core.StoredBlock;
+import com.dogecoin.dogecoinj.store.BlockStore;
+import com.dogecoin.dogecoinj.store.BlockStoreException;
+
+/**
+ * Bounded ring of the most recent blocks of the best chain, newest last. Entries always have consecutive heights, so a block
+ * can be looked up by its height without touching the block store.
+ *
+ * @author Andreas Schildbach
+ */
+public final class RecentBlocks
+{
+	private final StoredBlock[] ring;
+	private int head = 0; // index of the next slot to write
+	private int size = 0;
+
+	public RecentBlocks(final int capacity)
+	{
+		this.ring = new StoredBlock[capacity];
+	}
+
+	/**
+	 * Makes the given block the newest entry. Entries that are not its ancestors, e.g. because of a reorg, are dropped. Missing
+	 * ancestors are read from the block store, but never more than fit into the ring.
+	 */
+	public synchronized void setChainHead(@Nonnull final StoredBlock chainHead, @Nonnull final BlockStore blockStore)
+			throws BlockStoreException
+	{
+		final LinkedList<StoredBlock> missing = new LinkedList<StoredBlock>();
+		StoredBlock block = chainHead;
+
+		while (block != null && !contains(block.getHeight(), block.getHeader().getHash()))
+		{
+			missing.addFirst(block);
+
+			if (missing.size() >= ring.length)
+				break;
+
+			// common case: just one block on top of what we have, no need to read the block store
+			if (contains(block.getHeight() - 1, block.getHeader().getPrevBlockHash()))
+				break;
+
+			block = block.getPrev(blockStore);
+		}
+
+		if (missing.isEmpty())
+			return;
+
+		// drop everything from the fork point on, or everything if we cannot connect
+		final int forkHeight = missing.getFirst().getHeight();
+		final StoredBlock newest = newest();
+		if (newest != null && forkHeight > newest.getHeight() + 1)
+			clear();
+		else
+			while (size > 0 && newest().getHeight() >= forkHeight)
+				removeNewest();
+
+		for (final StoredBlock newBlock : missing)
+			add(newBlock);
+	}
+
+	/**
+	 * @return up to maxBlocks entries, newest first
+	 */
+	public synchronized List<StoredBlock> get(final int maxBlocks)
+	{
+		final int numBlocks = Math.min(maxBlocks, size);
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(numBlocks);
+		for (int i = 1; i <= numBlocks; i++)
+			blocks.add(ring[index(head - i)]);
+		return blocks;
+	}
+
+	/**
+	 * @return number of entries that were dropped
+	 */
+	public synchronized int clear()
+	{
+		final int numBlocks = size;
+		for (int i = 0; i < ring.length; i++)
+			ring[i] = null;
+		head = 0;
+		size = 0;
+		return numBlocks;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	private boolean contains(final int height, final Sha256Hash hash)
+	{
+		final StoredBlock newest = newest();
+		if (newest == null)
+			return false;
+
+		final int offset = newest.getHeight() - height;
+		if (offset < 0 || offset >= size)
+			return false;
+
+		return ring[index(head - 1 - offset)].getHeader().getHash().equals(hash);
+	}
+
+	@CheckForNull
+	private StoredBlock newest()
+	{
+		return size > 0 ? ring[index(head - 1)] : null;
+	}
+
+	private void removeNewest()
+	{
+		head = index(head - 1);
+		ring[head] = null;
+		size--;
+	}
+
+	private void add(final StoredBlock block)
+	{
+		ring[head] = block;
+		head = index(head + 1);
+		if (size < ring.length)
+			size++;
+	}
+
+	private int index(final int i)
+	{
+		return (i % ring.length + ring.length) % ring.length;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.service;
+
+import java.util.TimeZone;
+
+import javax.annotation.Nonnull;
+
+import android.text.format.DateUtils;
+import de.langerhans.wallet.Configuration;
+import de.langerhans.wallet.Constants;
+
+/**
+ * Decides whether an automatic blockchain sync should happen now, and when to check again. Syncs are batched into fewer,
+ * longer windows, back off after failed sessions and are limited by a daily budget while on battery.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SyncScheduler
+{
+	public enum Action
+	{
+		/** Start the blockchain service. */
+		SYNC,
+		/** Leave a running service alone, but don't start one. */
+		DEFER,
+		/** Stop a running service, syncing is not wanted right now. */
+		STOP
+	}
+
+	public enum NetworkType
+	{
+		NONE, WIFI, MOBILE
+	}
+
+	/** Dogecoin targets one block per minute. */
+	private static final long BLOCK_INTERVAL_MS = DateUtils.MINUTE_IN_MILLIS;
+
+	/** Blocks to accumulate before a sync is worth waking up the radio, depending on recent usage. */
+	private static final long BATCH_BLOCKS_JUST_USED = 15;
+	private static final long BATCH_BLOCKS_RECENTLY_USED = 12 * 60;
+	private static final long BATCH_BLOCKS_NOT_USED = 24 * 60;
+	/** Charging on WiFi is cheap, so we may keep fresher. */
+	private static final long BATCH_BLOCKS_CHEAP = 15;
+
+	private static final long BACKOFF_BASE_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+	private static final long BACKOFF_MAX_MS = 12 * DateUtils.HOUR_IN_MILLIS;
+
+	/** Service uptime allowed per day while on battery. */
+	private static final long DAILY_BUDGET_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+	private static final long WIFI_CONNECTING_DELAY_MS = 2 * DateUtils.MINUTE_IN_MILLIS;
+
+	public static final class Decision
+	{
+		public final Action action;
+		public final String reason;
+		public final long nextCheckMs;
+
+		public final boolean powerConnected;
+		public final NetworkType networkType;
+		public final long sinceLastSyncMs;
+		public final long blocksBehind;
+		public final long batchBlocks;
+		public final int failures;
+		public final long budgetUsedMs;
+
+		private Decision(final Action action, final String reason, final long nextCheckMs, final boolean powerConnected,
+				final NetworkType networkType, final long sinceLastSyncMs, final long blocksBehind, final long batchBlocks, final int failures,
+				final long budgetUsedMs)
+		{
+			this.action = action;
+			this.reason = reason;
+			this.nextCheckMs = nextCheckMs;
+			this.powerConnected = powerConnected;
+			this.networkType = networkType;
+			this.sinceLastSyncMs = sinceLastSyncMs;
+			this.blocksBehind = blocksBehind;
+			this.batchBlocks = batchBlocks;
+			this.failures = failures;
+			this.budgetUsedMs = budgetUsedMs;
+		}
+
+		/**
+		 * One line of key=value pairs, to be grepped out of the log for tuning.
+		 */
+		@Override
+		public String toString()
+		{
+			final StringBuilder builder = new StringBuilder();
+			builder.append("action=").append(action);
+			builder.append(" reason=").append(reason);
+			builder.append(" next_min=").append(nextCheckMs / DateUtils.MINUTE_IN_MILLIS);
+			builder.append(" power=").append(powerConnected);
+			builder.append(" network=").append(networkType);
+			builder.append(" since_sync_min=").append(sinceLastSyncMs >= 0 ? sinceLastSyncMs / DateUtils.MINUTE_IN_MILLIS : -1);
+			builder.append(" behind=").append(blocksBehind);
+			builder.append(" batch=").append(batchBlocks);
+			builder.append(" failures=").append(failures);
+			builder.append(" budget_min=").append(budgetUsedMs / DateUtils.MINUTE_IN_MILLIS).append('/')
+					.append(DAILY_BUDGET_MS / DateUtils.MINUTE_IN_MILLIS);
+			return builder.toString();
+		}
+	}
+
+	private final Configuration config;
+
+	public SyncScheduler(@Nonnull final Configuration config)
+	{
+		this.config = config;
+	}
+
+	public Decision decide(final long now, final boolean powerConnected, @Nonnull final NetworkType networkType, final boolean wifiConnecting)
+	{
+		final long lastSuccess = config.getLastSyncSuccessTime();
+		final long sinceLastSyncMs = lastSuccess > 0 ? now - lastSuccess : -1;
+		final long blocksBehind = lastSuccess > 0 ? Math.max(sinceLastSyncMs / BLOCK_INTERVAL_MS, 0) : Long.MAX_VALUE;
+		final int failures = config.getSyncFailures();
+		final long budgetUsedMs = config.getSyncBudgetUsed(day(now));
+
+		final long batchBlocks;
+		if (powerConnected && networkType == NetworkType.WIFI)
+			batchBlocks = BATCH_BLOCKS_CHEAP;
+		else
+			batchBlocks = Math.min(batchBlocks(config.getLastUsedAgo()), activityBatchBlocks(config.getSyncMaxInterval()));
+		final long batchIntervalMs = batchBlocks * BLOCK_INTERVAL_MS;
+
+		final Action action;
+		final String reason;
+		final long nextCheckMs;
+
+		if (!config.getAutosyncEnabled())
+		{
+			// check anyway later, maybe the user changed their mind
+			action = Action.STOP;
+			reason = "disabled";
+			nextCheckMs = batchIntervalMs;
+		}
+		else if (networkType == NetworkType.NONE)
+		{
+			action = Action.DEFER;
+			reason = "offline";
+			nextCheckMs = batchIntervalMs;
+		}
+		else if (wifiConnecting)
+		{
+			// don't blindly start sync because we got WiFi, the network is probably not up yet
+			action = Action.DEFER;
+			reason = "wifi_connecting";
+			nextCheckMs = WIFI_CONNECTING_DELAY_MS;
+		}
+		else if (config.getAutosyncWifiOnly() && networkType != NetworkType.WIFI)
+		{
+			action = Action.STOP;
+			reason = "no_wifi";
+			nextCheckMs = batchIntervalMs;
+		}
+		else if (config.getAutosyncChargingOnly() && !powerConnected)
+		{
+			// power connected broadcast will wake us up
+			action = Action.STOP;
+			reason = "not_charging";
+			nextCheckMs = batchIntervalMs;
+		}
+		else if (failures > 0 && now < config.getLastSyncAttemptTime() + backoffMs(failures))
+		{
+			action = Action.DEFER;
+			reason = "backoff";
+			nextCheckMs = config.getLastSyncAttemptTime() + backoffMs(failures) - now;
+		}
+		else if (!powerConnected && budgetUsedMs >= DAILY_BUDGET_MS)
+		{
+			action = Action.STOP;
+			reason = "budget";
+			nextCheckMs = untilNextDay(now);
+		}
+		else if (blocksBehind < batchBlocks)
+		{
+			action = Action.DEFER;
+			reason = "batching";
+			nextCheckMs = (batchBlocks - blocksBehind) * BLOCK_INTERVAL_MS;
+		}
+		else
+		{
+			action = Action.SYNC;
+			reason = lastSuccess > 0 ? "behind" : "never_synced";
+			nextCheckMs = batchIntervalMs;
+		}
+
+		return new Decision(action, reason, nextCheckMs, powerConnected, networkType, sinceLastSyncMs, blocksBehind, batchBlocks, failures,
+				budgetUsedMs);
+	}
+
+	/**
+	 * Record the outcome of a blockchain service session, no matter who started it, so the user catching up counts too. Only
+	 * sessions started by autosync can fail and are charged against the daily budget, with their time on battery.
+	 */
+	public void recordSession(final long now, final boolean autosync, final boolean success, final long onBatteryMs)
+	{
+		config.recordSyncSession(autosync, success, day(now), autosync ? onBatteryMs : 0);
+	}
+
+	/**
+	 * Interval between syncs if nothing else is known, with some backoff depending on when the app was last used, shortened if
+	 * the last session saw the wallet busy.
+	 */
+	public static long usageInterval(final long lastUsedAgo, final long maxIntervalMs)
+	{
+		return Math.min(batchBlocks(lastUsedAgo), activityBatchBlocks(maxIntervalMs)) * BLOCK_INTERVAL_MS;
+	}
+
+	private static long activityBatchBlocks(final long maxIntervalMs)
+	{
+		return maxIntervalMs != Long.MAX_VALUE ? Math.max(maxIntervalMs / BLOCK_INTERVAL_MS, 1) : Long.MAX_VALUE;
+	}
+
+	private static long batchBlocks(final long lastUsedAgo)
+	{
+		if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
+			return BATCH_BLOCKS_JUST_USED;
+		else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
+			return BATCH_BLOCKS_RECENTLY_USED;
+		else
+			return BATCH_BLOCKS_NOT_USED;
+	}
+
+	private static long backoffMs(final int failures)
+	{
+		final int shift = Math.min(failures - 1, 10);
+		return Math.min(BACKOFF_BASE_MS << shift, BACKOFF_MAX_MS);
+	}
+
+	/**
+	 * Days in local time, so the budget is renewed at midnight where the user is.
+	 */
+	private static long day(final long time)
+	{
+		return (time + TimeZone.getDefault().getOffset(time)) / DateUtils.DAY_IN_MILLIS;
+	}
+
+	private static long untilNextDay(final long now)
+	{
+		return DateUtils.DAY_IN_MILLIS - (now + TimeZone.getDefault().getOffset(now)) % DateUtils.DAY_IN_MILLIS;
+	}
+}
@@ -19,16 +19,12 @@ package de.langerhans.wallet.ui;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 
 import com.dogecoin.dogecoinj.core.Block;
-import com.dogecoin.dogecoinj.core.Sha256Hash;
 import com.dogecoin.dogecoinj.core.StoredBlock;
 import com.dogecoin.dogecoinj.core.Transaction;
 import com.dogecoin.dogecoinj.core.Wallet;
@@ -50,7 +46,6 @@ import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -67,6 +62,9 @@ import de.langerhans.wallet.Constants;
 import de.langerhans.wallet.WalletApplication;
 import de.langerhans.wallet.service.BlockchainService;
 import de.langerhans.wallet.service.BlockchainServiceImpl;
+import de.langerhans.wallet.service.BlockchainState;
+import de.langerhans.wallet.service.BlockchainStateStore;
+import de.langerhans.wallet.util.BlockTransactionIndex;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.R;
 
@@ -84,10 +82,8 @@ public final class BlockListFragment extends ListFragment
 	private BlockchainService service;
 
 	private BlockListAdapter adapter;
-	private Set<Transaction> transactions;
 
 	private static final int ID_BLOCK_LOADER = 0;
-	private static final int ID_TRANSACTION_LOADER = 1;
 
 	private static final int MAX_BLOCKS = 32;
 
@@ -130,7 +126,6 @@ public final class BlockListFragment extends ListFragment
 		super.onResume();
 
 		activity.registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
-		loaderManager.initLoader(ID_TRANSACTION_LOADER, null, transactionLoaderCallbacks);
 
 		adapter.notifyDataSetChanged();
 
@@ -145,7 +140,6 @@ public final class BlockListFragment extends ListFragment
 		{
 			resumed = false;
 
-			loaderManager.destroyLoader(ID_TRANSACTION_LOADER);
 			activity.unregisterReceiver(tickReceiver);
 		}
 		else
@@ -245,6 +239,7 @@ public final class BlockListFragment extends ListFragment
 		private static final int ROW_INSERT_INDEX = 1;
 		private final TransactionsListAdapter transactionsAdapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(),
 				false);
+		private final BlockTransactionIndex transactionIndex = application.getBlockTransactionIndex();
 		private final LayoutInflater inflater = LayoutInflater.from(activity);
 
 		private final List<StoredBlock> blocks = new ArrayList<StoredBlock>(MAX_BLOCKS);
@@ -317,29 +312,27 @@ public final class BlockListFragment extends ListFragment
 			final int transactionChildCount = row.getChildCount() - ROW_BASE_CHILD_COUNT;
 			int iTransactionView = 0;
 
-			if (transactions != null)
+			final List<Transaction> transactions = transactionIndex.get(header.getHash());
+			if (!transactions.isEmpty())
 			{
 				transactionsAdapter.setFormat(config.getFormat());
 
 				for (final Transaction tx : transactions)
 				{
-					if (tx.getAppearsInHashes().containsKey(header.getHash()))
+					final View view;
+					if (iTransactionView < transactionChildCount)
 					{
-						final View view;
-						if (iTransactionView < transactionChildCount)
-						{
-							view = row.getChildAt(ROW_INSERT_INDEX + iTransactionView);
-						}
-						else
-						{
-							view = inflater.inflate(R.layout.transaction_row_oneline, null);
-							row.addView(view, ROW_INSERT_INDEX + iTransactionView);
-						}
-
-						transactionsAdapter.bindView(view, tx);
-
-						iTransactionView++;
+						view = row.getChildAt(ROW_INSERT_INDEX + iTransactionView);
 					}
+					else
+					{
+						view = inflater.inflate(R.layout.transaction_row_oneline, null);
+						row.addView(view, ROW_INSERT_INDEX + iTransactionView);
+					}
+
+					transactionsAdapter.bindView(view, tx);
+
+					iTransactionView++;
 				}
 			}
 
@@ -353,14 +346,18 @@ public final class BlockListFragment extends ListFragment
 
 	private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>>
 	{
-		private LocalBroadcastManager broadcastManager;
+		private BlockchainStateStore blockchainStateStore;
+		private BlockTransactionIndex transactionIndex;
 		private BlockchainService service;
+		private int lastBestChainHeight = -1;
 
 		private BlockLoader(final Context context, final BlockchainService service)
 		{
 			super(context);
 
-			this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+			final WalletApplication application = (WalletApplication) context.getApplicationContext();
+			this.blockchainStateStore = application.getBlockchainStateStore();
+			this.transactionIndex = application.getBlockTransactionIndex();
 			this.service = service;
 		}
 
@@ -369,7 +366,7 @@ public final class BlockListFragment extends ListFragment
 		{
 			super.onStartLoading();
 
-			broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+			blockchainStateStore.addListener(blockchainStateListener);
 
 			forceLoad();
 		}
@@ -377,7 +374,7 @@ public final class BlockListFragment extends ListFragment
 		@Override
 		protected void onStopLoading()
 		{
-			broadcastManager.unregisterReceiver(broadcastReceiver);
+			blockchainStateStore.removeListener(blockchainStateListener);
 
 			super.onStopLoading();
 		}
@@ -385,14 +382,20 @@ public final class BlockListFragment extends ListFragment
 		@Override
 		public List<StoredBlock> loadInBackground()
 		{
+			transactionIndex.ensureBuilt();
+
 			return service.getRecentBlocks(MAX_BLOCKS);
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final BlockchainStateStore.Listener blockchainStateListener = new BlockchainStateStore.Listener()
 		{
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onBlockchainStateChanged(@Nonnull final BlockchainState blockchainState)
 			{
+				if (blockchainState.bestChainHeight == lastBestChainHeight)
+					return;
+				lastBestChainHeight = blockchainState.bestChainHeight;
+
 				try
 				{
 					forceLoad();
@@ -417,10 +420,6 @@ public final class BlockListFragment extends ListFragment
 		public void onLoadFinished(final Loader<List<StoredBlock>> loader, final List<StoredBlock> blocks)
 		{
 			adapter.replace(blocks);
-
-			final Loader<Set<Transaction>> transactionLoader = loaderManager.getLoader(ID_TRANSACTION_LOADER);
-			if (transactionLoader != null && transactionLoader.isStarted())
-				transactionLoader.forceLoad();
 		}
 
 		@Override
@@ -429,58 +428,4 @@ public final class BlockListFragment extends ListFragment
 			adapter.clear();
 		}
 	};
-
-	private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>>
-	{
-		private final Wallet wallet;
-
-		private TransactionsLoader(final Context context, final Wallet wallet)
-		{
-			super(context);
-
-			this.wallet = wallet;
-		}
-
-		@Override
-		public Set<Transaction> loadInBackground()
-		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
-
-			final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-			for (final Transaction tx : transactions)
-			{
-				final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-				if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-					filteredTransactions.add(tx);
-			}
-
-			return filteredTransactions;
-		}
-	}
-
-	private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>()
-	{
-		@Override
-		public Loader<Set<Transaction>> onCreateLoader(final int id, final Bundle args)
-		{
-			return new TransactionsLoader(activity, wallet);
-		}
-
-		@Override
-		public void onLoadFinished(final Loader<Set<Transaction>> loader, final Set<Transaction> transactions)
-		{
-			BlockListFragment.this.transactions = transactions;
-
-			adapter.notifyDataSetChanged();
-		}
-
-		@Override
-		public void onLoaderReset(final Loader<Set<Transaction>> loader)
-		{
-			BlockListFragment.this.transactions.clear(); // be nice
-			BlockListFragment.this.transactions = null;
-
-			adapter.notifyDataSetChanged();
-		}
-	};
 }
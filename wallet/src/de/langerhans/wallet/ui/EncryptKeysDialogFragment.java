@@ -40,8 +40,6 @@ import android.content.DialogInterface.OnShowListener;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -55,6 +53,9 @@ import android.widget.TextView;
 import com.google.protobuf.ByteString;
 
 import de.langerhans.wallet.WalletApplication;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
 import de.langerhans.wallet.R;
 
 /**
@@ -88,8 +89,7 @@ public class EncryptKeysDialogFragment extends DialogFragment
 	private Button positiveButton, negativeButton;
 
 	private final Handler handler = new Handler();
-	private HandlerThread backgroundThread;
-	private Handler backgroundHandler;
+	private BackgroundExecutors.Scope backgroundTasks;
 
 	private enum State
 	{
@@ -135,9 +135,7 @@ public class EncryptKeysDialogFragment extends DialogFragment
 	{
 		super.onCreate(savedInstanceState);
 
-		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-		backgroundThread.start();
-		backgroundHandler = new Handler(backgroundThread.getLooper());
+		backgroundTasks = application.getBackgroundExecutors().newScope();
 	}
 
 	@Override
@@ -227,7 +225,7 @@ public class EncryptKeysDialogFragment extends DialogFragment
 	@Override
 	public void onDestroy()
 	{
-		backgroundThread.getLooper().quit();
+		backgroundTasks.cancel(false);
 
 		super.onDestroy();
 	}
@@ -241,7 +239,10 @@ public class EncryptKeysDialogFragment extends DialogFragment
 		state = State.CRYPTING;
 		updateView();
 
-		backgroundHandler.post(new Runnable()
+		// the cached key is of no use with a new password
+		application.getSessionKeyCache().clear();
+
+		backgroundTasks.submit(Pool.CPU, Priority.HIGH, new Runnable()
 		{
 			@Override
 			public void run()
@@ -277,7 +277,7 @@ public final class ExchangeRatesFragment extends FancyListFragment implements On
 		{
 			final Cursor oldCursor = adapter.swapCursor(data);
 
-			if (data != null && oldCursor == null && defaultCurrency != null)
+			if (data != null && (oldCursor == null || oldCursor.getCount() == 0) && defaultCurrency != null)
 			{
 				final int defaultCurrencyPosition = findCurrencyCode(data, defaultCurrency);
 				if (defaultCurrencyPosition >= 0)
@@ -19,6 +19,8 @@ package de.langerhans.wallet.ui;
 
 import java.util.List;
 
+import javax.annotation.Nonnull;
+
 import com.dogecoin.dogecoinj.core.Transaction;
 import com.dogecoin.dogecoinj.core.Wallet;
 import com.dogecoin.dogecoinj.wallet.DeterministicUpgradeRequiresPassword;
@@ -26,18 +28,13 @@ import com.dogecoin.dogecoinj.wallet.DeterministicUpgradeRequiresPassword;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import de.langerhans.wallet.WalletApplication;
-import de.langerhans.wallet.service.BlockchainService;
 import de.langerhans.wallet.service.BlockchainState;
+import de.langerhans.wallet.service.BlockchainStateStore;
 import de.langerhans.wallet.ui.send.MaintenanceDialogFragment;
 
 /**
@@ -58,7 +55,7 @@ public class MaybeMaintenanceFragment extends Fragment
 	}
 
 	private Wallet wallet;
-	private LocalBroadcastManager broadcastManager;
+	private BlockchainStateStore blockchainStateStore;
 	private boolean dialogWasShown = false;
 
 	@Override
@@ -68,7 +65,7 @@ public class MaybeMaintenanceFragment extends Fragment
 
 		final WalletApplication application = ((AbstractWalletActivity) activity).getWalletApplication();
 		this.wallet = application.getWallet();
-		this.broadcastManager = LocalBroadcastManager.getInstance(activity);
+		this.blockchainStateStore = application.getBlockchainStateStore();
 	}
 
 	@Override
@@ -84,24 +81,22 @@ public class MaybeMaintenanceFragment extends Fragment
 	{
 		super.onResume();
 
-		broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+		blockchainStateStore.addListener(blockchainStateListener);
 	}
 
 	@Override
 	public void onPause()
 	{
-		broadcastManager.unregisterReceiver(broadcastReceiver);
+		blockchainStateStore.removeListener(blockchainStateListener);
 
 		super.onPause();
 	}
 
-	private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+	private final BlockchainStateStore.Listener blockchainStateListener = new BlockchainStateStore.Listener()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent broadcast)
+		public void onBlockchainStateChanged(@Nonnull final BlockchainState blockchainState)
 		{
-			final BlockchainState blockchainState = BlockchainState.fromIntent(broadcast);
-
 			if (!dialogWasShown && !blockchainState.replaying && maintenanceRecommended())
 			{
 				MaintenanceDialogFragment.show(getFragmentManager());
@@ -18,8 +18,10 @@
 package de.langerhans.wallet.ui;
 
 import java.net.InetAddress;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -34,26 +36,31 @@ import android.app.Activity;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.ServiceConnection;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
+import de.langerhans.wallet.WalletApplication;
+import de.langerhans.wallet.service.ActivityHistory;
 import de.langerhans.wallet.service.BlockchainService;
 import de.langerhans.wallet.service.BlockchainServiceImpl;
+import de.langerhans.wallet.service.BlockchainState;
+import de.langerhans.wallet.service.BlockchainStateStore;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
 import de.langerhans.wallet.util.WholeStringBuilder;
 import de.langerhans.wallet.R;
 
@@ -67,15 +74,17 @@ public final class PeerListFragment extends FancyListFragment
 
 	private BlockchainService service;
 	private ArrayAdapter<Peer> adapter;
+	private TextView activityView;
 
 	private final Handler handler = new Handler();
 
 	private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
 
 	private static final int ID_PEER_LOADER = 0;
-	private static final int ID_REVERSE_DNS_LOADER = 1;
 
 	private final Map<InetAddress, String> hostnames = new WeakHashMap<InetAddress, String>();
+	private final Set<InetAddress> reverseDnsPending = new HashSet<InetAddress>();
+	private BackgroundExecutors.Scope backgroundTasks;
 
 	private static final Logger log = LoggerFactory.getLogger(PeerListFragment.class);
 
@@ -101,6 +110,8 @@ public final class PeerListFragment extends FancyListFragment
 	{
 		super.onCreate(savedInstanceState);
 
+		backgroundTasks = ((WalletApplication) activity.getApplication()).getBackgroundExecutors().newScope();
+
 		adapter = new ArrayAdapter<Peer>(activity, 0)
 		{
 			private final LayoutInflater inflater = LayoutInflater.from(activity);
@@ -150,6 +161,16 @@ public final class PeerListFragment extends FancyListFragment
 		setListAdapter(adapter);
 	}
 
+	@Override
+	public View onCreateView(final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState)
+	{
+		final View view = inflater.inflate(R.layout.peer_list_content, container, false);
+
+		activityView = (TextView) view.findViewById(R.id.peer_list_activity);
+
+		return view;
+	}
+
 	@Override
 	public void onResume()
 	{
@@ -162,25 +183,15 @@ public final class PeerListFragment extends FancyListFragment
 			{
 				adapter.notifyDataSetChanged();
 
-				final Loader<String> loader = loaderManager.getLoader(ID_REVERSE_DNS_LOADER);
-				final boolean loaderRunning = loader != null && loader.isStarted();
+				updateActivity();
 
-				if (!loaderRunning)
+				for (int i = 0; i < adapter.getCount(); i++)
 				{
-					for (int i = 0; i < adapter.getCount(); i++)
-					{
-						final Peer peer = adapter.getItem(i);
-						final InetAddress address = peer.getAddress().getAddr();
+					final Peer peer = adapter.getItem(i);
+					final InetAddress address = peer.getAddress().getAddr();
 
-						if (!hostnames.containsKey(address))
-						{
-							final Bundle args = new Bundle();
-							args.putSerializable("address", address);
-							loaderManager.initLoader(ID_REVERSE_DNS_LOADER, args, reverseDnsLoaderCallbacks).forceLoad();
-
-							break;
-						}
-					}
+					if (!hostnames.containsKey(address) && reverseDnsPending.add(address))
+						lookupHostname(address);
 				}
 
 				handler.postDelayed(this, REFRESH_MS);
@@ -192,16 +203,64 @@ public final class PeerListFragment extends FancyListFragment
 	public void onPause()
 	{
 		handler.removeCallbacksAndMessages(null);
+		// results of lookups still running would be dropped from the handler
+		reverseDnsPending.clear();
 
 		super.onPause();
 	}
 
+	private void lookupHostname(final InetAddress address)
+	{
+		try
+		{
+			backgroundTasks.submit(Pool.NETWORK, Priority.LOW, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final String hostname = address.getCanonicalHostName();
+
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							hostnames.put(address, hostname);
+							reverseDnsPending.remove(address);
+						}
+					});
+				}
+			});
+		}
+		catch (final RejectedExecutionException x)
+		{
+			// try again on next refresh
+			reverseDnsPending.remove(address);
+		}
+	}
+
+	private void updateActivity()
+	{
+		final ActivityHistory.Stats stats = service != null ? service.getActivityStats() : null;
+
+		if (stats != null && stats.numMinutes > 0)
+		{
+			activityView.setText(getString(R.string.peer_list_activity, stats.blocksPerMin, stats.transactionsPerMin,
+					Formatter.formatShortFileSize(activity, (long) stats.bytesPerMin)));
+			activityView.setVisibility(View.VISIBLE);
+		}
+		else
+		{
+			activityView.setVisibility(View.GONE);
+		}
+	}
+
 	@Override
 	public void onDestroy()
 	{
 		activity.unbindService(serviceConnection);
 
-		loaderManager.destroyLoader(ID_REVERSE_DNS_LOADER);
+		backgroundTasks.cancel(true);
 
 		super.onDestroy();
 	}
@@ -227,14 +286,15 @@ public final class PeerListFragment extends FancyListFragment
 
 	private static class PeerLoader extends AsyncTaskLoader<List<Peer>>
 	{
-		private LocalBroadcastManager broadcastManager;
+		private BlockchainStateStore blockchainStateStore;
 		private BlockchainService service;
+		private int lastNumPeers = -1;
 
 		private PeerLoader(final Context context, @Nonnull final BlockchainService service)
 		{
 			super(context);
 
-			this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+			this.blockchainStateStore = ((WalletApplication) context.getApplicationContext()).getBlockchainStateStore();
 			this.service = service;
 		}
 
@@ -243,7 +303,7 @@ public final class PeerListFragment extends FancyListFragment
 		{
 			super.onStartLoading();
 
-			broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_PEER_STATE));
+			blockchainStateStore.addListener(blockchainStateListener);
 
 			forceLoad();
 		}
@@ -251,7 +311,7 @@ public final class PeerListFragment extends FancyListFragment
 		@Override
 		protected void onStopLoading()
 		{
-			broadcastManager.unregisterReceiver(broadcastReceiver);
+			blockchainStateStore.removeListener(blockchainStateListener);
 
 			super.onStopLoading();
 		}
@@ -262,11 +322,15 @@ public final class PeerListFragment extends FancyListFragment
 			return service.getConnectedPeers();
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final BlockchainStateStore.Listener blockchainStateListener = new BlockchainStateStore.Listener()
 		{
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onBlockchainStateChanged(@Nonnull final BlockchainState blockchainState)
 			{
+				if (blockchainState.numPeers == lastNumPeers)
+					return;
+				lastNumPeers = blockchainState.numPeers;
+
 				try
 				{
 					forceLoad();
@@ -305,47 +369,4 @@ public final class PeerListFragment extends FancyListFragment
 			adapter.clear();
 		}
 	};
-
-	private static class ReverseDnsLoader extends AsyncTaskLoader<String>
-	{
-		public final InetAddress address;
-
-		public ReverseDnsLoader(final Context context, @Nonnull final InetAddress address)
-		{
-			super(context);
-
-			this.address = address;
-		}
-
-		@Override
-		public String loadInBackground()
-		{
-			return address.getCanonicalHostName();
-		}
-	}
-
-	private final LoaderCallbacks<String> reverseDnsLoaderCallbacks = new LoaderCallbacks<String>()
-	{
-		@Override
-		public Loader<String> onCreateLoader(final int id, final Bundle args)
-		{
-			final InetAddress address = (InetAddress) args.getSerializable("address");
-
-			return new ReverseDnsLoader(activity, address);
-		}
-
-		@Override
-		public void onLoadFinished(final Loader<String> loader, final String hostname)
-		{
-			final InetAddress address = ((ReverseDnsLoader) loader).address;
-			hostnames.put(address, hostname);
-
-			loaderManager.destroyLoader(ID_REVERSE_DNS_LOADER);
-		}
-
-		@Override
-		public void onLoaderReset(final Loader<String> loader)
-		{
-		}
-	};
 }
@@ -44,7 +44,15 @@ public class ProgressDialogFragment extends DialogFragment
 	public static void dismissProgress(final FragmentManager fm)
 	{
 		final DialogFragment fragment = (DialogFragment) fm.findFragmentByTag(FRAGMENT_TAG);
-		fragment.dismiss();
+		if (fragment != null)
+			fragment.dismiss();
+	}
+
+	public static void updateProgress(final FragmentManager fm, @Nonnull final String message)
+	{
+		final DialogFragment fragment = (DialogFragment) fm.findFragmentByTag(FRAGMENT_TAG);
+		if (fragment != null && fragment.getDialog() != null)
+			((ProgressDialog) fragment.getDialog()).setMessage(message);
 	}
 
 	private static ProgressDialogFragment instance(@Nonnull final String message)
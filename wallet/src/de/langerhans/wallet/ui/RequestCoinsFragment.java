@@ -76,6 +76,7 @@ import de.langerhans.wallet.offline.AcceptBluetoothService;
 import de.langerhans.wallet.ui.send.SendCoinsActivity;
 import de.langerhans.wallet.util.BitmapFragment;
 import de.langerhans.wallet.util.Bluetooth;
+import de.langerhans.wallet.util.MemoryPressure;
 import de.langerhans.wallet.util.Nfc;
 import de.langerhans.wallet.util.Qr;
 import de.langerhans.wallet.R;
@@ -295,6 +296,19 @@ public final class RequestCoinsFragment extends Fragment implements NfcAdapter.C
 		super.onPause();
 	}
 
+	@Override
+	public void onTrimMemory(final int level)
+	{
+		// bitmap is recreated by updateView() on resume
+		if (!isResumed() && qrCodeBitmap != null && MemoryPressure.Level.fromTrimLevel(level).atLeast(MemoryPressure.Level.LIGHT))
+		{
+			qrCodeBitmap = null;
+			if (qrView != null)
+				qrView.setImageBitmap(null);
+			application.getMemoryPressure().record(level, "dropped payment request qr bitmap");
+		}
+	}
+
 	@Override
 	public void onSaveInstanceState(final Bundle outState)
 	{
@@ -18,7 +18,6 @@
 package de.langerhans.wallet.ui;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -44,10 +43,8 @@ import android.widget.EditText;
 import com.google.common.base.Charsets;
 
 import de.langerhans.wallet.Configuration;
-import de.langerhans.wallet.Constants;
 import de.langerhans.wallet.WalletApplication;
 import de.langerhans.wallet.util.Crypto;
-import de.langerhans.wallet.util.Io;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.R;
 
@@ -176,14 +173,18 @@ public final class RestoreWalletActivity extends AbstractWalletActivity
 		try
 		{
 			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(cipher, Charsets.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			Io.copy(cipherIn, cipherText, Constants.BACKUP_MAX_CHARS);
-			cipherIn.close();
-
-			final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-			final InputStream is = new ByteArrayInputStream(plainText);
+			final InputStream is = Crypto.decryptStream(cipherIn, password.toCharArray());
+			final Wallet wallet;
+			try
+			{
+				wallet = WalletUtils.restoreWalletFromProtobufOrBase58(is);
+			}
+			finally
+			{
+				is.close();
+			}
 
-			restoreWallet(WalletUtils.restoreWalletFromProtobufOrBase58(is));
+			restoreWallet(wallet);
 
 			log.info("successfully restored encrypted wallet from external source");
 		}
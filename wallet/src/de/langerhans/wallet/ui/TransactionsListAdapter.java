@@ -24,7 +24,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.dogecoin.dogecoinj.core.Address;
 import com.dogecoin.dogecoinj.core.Coin;
@@ -35,6 +37,7 @@ import com.dogecoin.dogecoinj.core.TransactionConfidence;
 import com.dogecoin.dogecoinj.core.TransactionConfidence.ConfidenceType;
 import com.dogecoin.dogecoinj.core.Wallet;
 import com.dogecoin.dogecoinj.utils.ExchangeRate;
+import com.dogecoin.dogecoinj.utils.Fiat;
 import com.dogecoin.dogecoinj.utils.MonetaryFormat;
 import com.dogecoin.dogecoinj.wallet.DefaultCoinSelector;
 
@@ -51,6 +54,7 @@ import android.widget.BaseAdapter;
 import android.widget.TextView;
 import de.langerhans.wallet.AddressBookProvider;
 import de.langerhans.wallet.Constants;
+import de.langerhans.wallet.exchangerate.ExchangeRateHistory;
 import de.langerhans.wallet.util.CircularProgressView;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.R;
@@ -67,6 +71,10 @@ public class TransactionsListAdapter extends BaseAdapter
 
 	private final List<Transaction> transactions = new ArrayList<Transaction>();
 	private MonetaryFormat format;
+	@CheckForNull
+	private ExchangeRateHistory exchangeRateHistory = null;
+	@CheckForNull
+	private String exchangeCurrencyCode = null;
 	private boolean showEmptyText = false;
 	private boolean showBackupWarning = false;
 
@@ -110,6 +118,17 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Transactions that don't carry their own exchange rate show their value at the historic rate of this currency, if known.
+	 */
+	public void setExchangeRateHistory(@Nullable final ExchangeRateHistory exchangeRateHistory, @Nullable final String currencyCode)
+	{
+		this.exchangeRateHistory = exchangeRateHistory;
+		this.exchangeCurrencyCode = currencyCode;
+
+		notifyDataSetChanged();
+	}
+
 	public void clear()
 	{
 		transactions.clear();
@@ -371,7 +390,7 @@ public class TransactionsListAdapter extends BaseAdapter
 		final View rowExtendFiat = row.findViewById(R.id.transaction_row_extend_fiat);
 		if (rowExtendFiat != null)
 		{
-			final ExchangeRate exchangeRate = tx.getExchangeRate();
+			final ExchangeRate exchangeRate = exchangeRate(tx);
 			if (exchangeRate != null)
 			{
 				rowExtendFiat.setVisibility(View.VISIBLE);
@@ -445,6 +464,20 @@ public class TransactionsListAdapter extends BaseAdapter
 		}
 	}
 
+	@CheckForNull
+	private ExchangeRate exchangeRate(final Transaction tx)
+	{
+		final ExchangeRate exchangeRate = tx.getExchangeRate();
+		if (exchangeRate != null)
+			return exchangeRate;
+
+		if (exchangeRateHistory == null || exchangeCurrencyCode == null)
+			return null;
+
+		final Fiat rate = exchangeRateHistory.getRate(exchangeCurrencyCode, tx.getUpdateTime().getTime());
+		return rate != null && rate.signum() > 0 ? new ExchangeRate(rate) : null;
+	}
+
 	private String resolveLabel(@Nonnull final String address)
 	{
 		final String cachedLabel = labelCache.get(address);
@@ -469,4 +502,11 @@ public class TransactionsListAdapter extends BaseAdapter
 
 		notifyDataSetChanged();
 	}
+
+	public void clearCaches()
+	{
+		transactionCache.clear();
+
+		clearLabelCache();
+	}
 }
@@ -74,8 +74,10 @@ import android.widget.ListView;
 import de.langerhans.wallet.AddressBookProvider;
 import de.langerhans.wallet.Configuration;
 import de.langerhans.wallet.Constants;
+import de.langerhans.wallet.ExchangeRatesProvider.ExchangeRate;
 import de.langerhans.wallet.WalletApplication;
 import de.langerhans.wallet.util.BitmapFragment;
+import de.langerhans.wallet.util.MemoryPressure;
 import de.langerhans.wallet.util.Qr;
 import de.langerhans.wallet.util.ThrottlingWalletChangeListener;
 import de.langerhans.wallet.util.WalletUtils;
@@ -190,6 +192,16 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
 		super.onPause();
 	}
 
+	@Override
+	public void onTrimMemory(final int level)
+	{
+		if (MemoryPressure.Level.fromTrimLevel(level).atLeast(MemoryPressure.Level.LIGHT))
+		{
+			adapter.clearCaches();
+			application.getMemoryPressure().record(level, "dropped transaction and label caches");
+		}
+	}
+
 	@Override
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
@@ -491,13 +503,20 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
 	@Override
 	public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
 	{
-		if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key))
+		if (Configuration.PREFS_KEY_BTC_PRECISION.equals(key) || Configuration.PREFS_KEY_EXCHANGE_CURRENCY.equals(key))
 			updateView();
 	}
 
 	private void updateView()
 	{
 		adapter.setFormat(config.getFormat());
+		String exchangeCurrencyCode = config.getExchangeCurrencyCode();
+		if (exchangeCurrencyCode == null)
+		{
+			final ExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
+			exchangeCurrencyCode = cachedExchangeRate != null ? cachedExchangeRate.getCurrencyCode() : null;
+		}
+		adapter.setExchangeRateHistory(application.getExchangeRateHistory(), exchangeCurrencyCode);
 		adapter.clearLabelCache();
 	}
 }
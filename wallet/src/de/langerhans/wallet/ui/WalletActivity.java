@@ -18,16 +18,15 @@
 package de.langerhans.wallet.ui;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
@@ -37,7 +36,9 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnull;
 
@@ -90,11 +91,15 @@ import de.langerhans.wallet.ui.InputParser.StringInputParser;
 import de.langerhans.wallet.ui.preference.PreferenceActivity;
 import de.langerhans.wallet.ui.send.SendCoinsActivity;
 import de.langerhans.wallet.ui.send.SweepWalletActivity;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
+import de.langerhans.wallet.util.BackupDiscovery;
 import de.langerhans.wallet.util.CrashReporter;
 import de.langerhans.wallet.util.Crypto;
-import de.langerhans.wallet.util.HttpGetThread;
-import de.langerhans.wallet.util.Io;
+import de.langerhans.wallet.util.HttpGetTask;
 import de.langerhans.wallet.util.Iso8601Format;
+import de.langerhans.wallet.util.KeyImporter;
 import de.langerhans.wallet.util.Nfc;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.util.WholeStringBuilder;
@@ -114,6 +119,9 @@ public final class WalletActivity extends AbstractWalletActivity
 	private WalletApplication application;
 	private Configuration config;
 	private Wallet wallet;
+	private BackupDiscovery backupDiscovery;
+	private BackgroundExecutors.Scope backgroundTasks;
+	private boolean destroyed = false;
 
 	private Handler handler = new Handler();
 
@@ -127,12 +135,18 @@ public final class WalletActivity extends AbstractWalletActivity
 		application = getWalletApplication();
 		config = application.getConfiguration();
 		wallet = application.getWallet();
+		backupDiscovery = application.getBackupDiscovery();
+		backgroundTasks = application.getBackgroundExecutors().newScope();
 
 		setContentView(R.layout.wallet_content);
 
 		if (savedInstanceState == null)
 			checkAlerts();
 
+		// a restored progress dialog belongs to a task that was cancelled along with the previous instance
+		if (savedInstanceState != null)
+			ProgressDialogFragment.dismissProgress(getFragmentManager());
+
 		config.touchLastUsed();
 
 		handleIntent(getIntent());
@@ -173,6 +187,15 @@ public final class WalletActivity extends AbstractWalletActivity
 		super.onPause();
 	}
 
+	@Override
+	protected void onDestroy()
+	{
+		destroyed = true;
+		backgroundTasks.cancel(false);
+
+		super.onDestroy();
+	}
+
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
@@ -428,11 +451,14 @@ public final class WalletActivity extends AbstractWalletActivity
 				final String password = passwordView.getText().toString().trim();
 				passwordView.setText(null); // get rid of it asap
 
-				if (WalletUtils.BACKUP_FILE_FILTER.accept(file))
+				BackupDiscovery.Type type = backupDiscovery.getCached(file);
+				if (type == null)
+					type = backupDiscovery.classify(file); // not sniffed yet, reads a few kilobytes at most
+				if (type == BackupDiscovery.Type.PROTOBUF)
 					restoreWalletFromProtobuf(file);
-				else if (WalletUtils.KEYS_FILE_FILTER.accept(file))
+				else if (type == BackupDiscovery.Type.KEYS)
 					restorePrivateKeysFromBase58(file);
-				else if (Crypto.OPENSSL_FILE_FILTER.accept(file))
+				else if (type == BackupDiscovery.Type.ENCRYPTED)
 					restoreWalletFromEncrypted(file, password);
 			}
 		});
@@ -460,7 +486,8 @@ public final class WalletActivity extends AbstractWalletActivity
 			{
 				final File file = getItem(position);
 				final boolean isExternal = Constants.Files.EXTERNAL_WALLET_BACKUP_DIR.equals(file.getParentFile());
-				final boolean isEncrypted = Crypto.OPENSSL_FILE_FILTER.accept(file);
+				// not sniffed yet shows as unencrypted, the row is updated once discovery is done
+				final boolean isEncrypted = backupDiscovery.getCached(file) == BackupDiscovery.Type.ENCRYPTED;
 
 				if (row == null)
 					row = inflater.inflate(R.layout.restore_wallet_file_row, null);
@@ -494,29 +521,19 @@ public final class WalletActivity extends AbstractWalletActivity
 	{
 		final AlertDialog alertDialog = (AlertDialog) dialog;
 
-		final List<File> files = new LinkedList<File>();
+		final List<File> externalFiles = new LinkedList<File>();
+		final List<File> internalFiles = new LinkedList<File>();
 
 		// external storage
 		if (Constants.Files.EXTERNAL_WALLET_BACKUP_DIR.exists() && Constants.Files.EXTERNAL_WALLET_BACKUP_DIR.isDirectory())
 			for (final File file : Constants.Files.EXTERNAL_WALLET_BACKUP_DIR.listFiles())
-				if (WalletUtils.BACKUP_FILE_FILTER.accept(file) || WalletUtils.KEYS_FILE_FILTER.accept(file)
-						|| Crypto.OPENSSL_FILE_FILTER.accept(file))
-					files.add(file);
+				if (file.isFile())
+					externalFiles.add(file);
 
 		// internal storage
 		for (final String filename : fileList())
 			if (filename.startsWith(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF + '.'))
-				files.add(new File(getFilesDir(), filename));
-
-		// sort
-		Collections.sort(files, new Comparator<File>()
-		{
-			@Override
-			public int compare(final File lhs, final File rhs)
-			{
-				return lhs.getName().compareToIgnoreCase(rhs.getName());
-			}
-		});
+				internalFiles.add(new File(getFilesDir(), filename));
 
 		final View replaceWarningView = alertDialog.findViewById(R.id.restore_wallet_from_storage_dialog_replace_warning);
 		final boolean hasCoins = wallet.getBalance(BalanceType.ESTIMATED).signum() > 0;
@@ -524,7 +541,16 @@ public final class WalletActivity extends AbstractWalletActivity
 
 		final Spinner fileView = (Spinner) alertDialog.findViewById(R.id.import_keys_from_storage_file);
 		final FileAdapter adapter = (FileAdapter) fileView.getAdapter();
-		adapter.setFiles(files);
+
+		// show what is known from last time right away, the rest follows once sniffed
+		final List<File> files = new LinkedList<File>(internalFiles);
+		for (final File file : externalFiles)
+		{
+			final BackupDiscovery.Type type = backupDiscovery.getCached(file);
+			if (type != null && type != BackupDiscovery.Type.UNKNOWN)
+				files.add(file);
+		}
+		adapter.setFiles(sortedByName(files));
 		fileView.setEnabled(!adapter.isEmpty());
 
 		final EditText passwordView = (EditText) alertDialog.findViewById(R.id.import_keys_from_storage_password);
@@ -542,7 +568,7 @@ public final class WalletActivity extends AbstractWalletActivity
 			protected boolean needsPassword()
 			{
 				final File selectedFile = (File) fileView.getSelectedItem();
-				return selectedFile != null ? Crypto.OPENSSL_FILE_FILTER.accept(selectedFile) : false;
+				return selectedFile != null ? backupDiscovery.getCached(selectedFile) == BackupDiscovery.Type.ENCRYPTED : false;
 			}
 		};
 		passwordView.addTextChangedListener(dialogButtonEnabler);
@@ -550,6 +576,60 @@ public final class WalletActivity extends AbstractWalletActivity
 
 		final CheckBox showView = (CheckBox) alertDialog.findViewById(R.id.import_keys_from_storage_show);
 		showView.setOnCheckedChangeListener(new ShowPasswordCheckListener(passwordView));
+
+		final List<File> candidates = new LinkedList<File>(externalFiles);
+		candidates.addAll(internalFiles);
+		try
+		{
+			backupDiscovery.discover(candidates, backgroundTasks.executor(Pool.IO, Priority.HIGH),
+					new BackupDiscovery.Listener()
+					{
+						@Override
+						public void onDiscovered(final Map<File, BackupDiscovery.Type> types)
+						{
+							final List<File> files = new LinkedList<File>(internalFiles);
+							for (final File file : externalFiles)
+								if (types.get(file) != BackupDiscovery.Type.UNKNOWN)
+									files.add(file);
+
+							handler.post(new Runnable()
+							{
+								@Override
+								public void run()
+								{
+									if (!alertDialog.isShowing())
+										return;
+
+									final File selectedFile = (File) fileView.getSelectedItem();
+									adapter.setFiles(sortedByName(files));
+									fileView.setEnabled(!adapter.isEmpty());
+									final int position = adapter.getPosition(selectedFile);
+									if (position >= 0)
+										fileView.setSelection(position);
+									dialogButtonEnabler.handle();
+								}
+							});
+						}
+					});
+		}
+		catch (final RejectedExecutionException x)
+		{
+			// keep showing what is cached
+			log.info("cannot discover backups: {}", x.getMessage());
+		}
+	}
+
+	private static List<File> sortedByName(final List<File> files)
+	{
+		Collections.sort(files, new Comparator<File>()
+		{
+			@Override
+			public int compare(final File lhs, final File rhs)
+			{
+				return lhs.getName().compareToIgnoreCase(rhs.getName());
+			}
+		});
+		return files;
 	}
 
 	private Dialog createBackupWalletDialog()
@@ -673,7 +753,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		final String base = Constants.VERSION_URL + (versionNameSplit >= 0 ? packageInfo.versionName.substring(versionNameSplit) : "");
 		final String url = base + "?package=" + packageInfo.packageName + "&current=" + packageInfo.versionCode;
 
-		new HttpGetThread(getAssets(), url, application.httpUserAgent())
+		application.getBackgroundExecutors().submit(Pool.NETWORK, Priority.LOW, new HttpGetTask(url, application.httpClient())
 		{
 			@Override
 			protected void handleLine(final String line, final long serverTime)
@@ -733,7 +813,7 @@ public final class WalletActivity extends AbstractWalletActivity
 					CrashReporter.saveBackgroundTrace(new RuntimeException(url, x), packageInfo);
 				}
 			}
-		}.start();
+		});
 
 		if (CrashReporter.hasSavedCrashTrace())
 		{
@@ -865,14 +945,18 @@ public final class WalletActivity extends AbstractWalletActivity
 		try
 		{
 			final BufferedReader cipherIn = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
-			final StringBuilder cipherText = new StringBuilder();
-			Io.copy(cipherIn, cipherText, Constants.BACKUP_MAX_CHARS);
-			cipherIn.close();
-
-			final byte[] plainText = Crypto.decryptBytes(cipherText.toString(), password.toCharArray());
-			final InputStream is = new ByteArrayInputStream(plainText);
+			final InputStream is = Crypto.decryptStream(cipherIn, password.toCharArray());
+			final Wallet wallet;
+			try
+			{
+				wallet = WalletUtils.restoreWalletFromProtobufOrBase58(is, newKeyImporter(), null);
+			}
+			finally
+			{
+				is.close();
+			}
 
-			restoreWallet(WalletUtils.restoreWalletFromProtobufOrBase58(is));
+			restoreWallet(wallet);
 
 			log.info("successfully restored encrypted wallet: {}", file);
 		}
@@ -938,43 +1022,114 @@ public final class WalletActivity extends AbstractWalletActivity
 
 	private void restorePrivateKeysFromBase58(@Nonnull final File file)
 	{
-		FileInputStream is = null;
-		try
-		{
-			is = new FileInputStream(file);
-			restoreWallet(WalletUtils.restorePrivateKeysFromBase58(is));
+		ProgressDialogFragment.showProgress(getFragmentManager(), getString(R.string.import_keys_dialog_progress, 0));
 
-			log.info("successfully restored unencrypted private keys: {}", file);
-		}
-		catch (final IOException x)
+		backgroundTasks.submit(Pool.IO, Priority.HIGH, new Runnable()
 		{
-			final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
-			dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
-			dialog.setPositiveButton(R.string.button_dismiss, null);
-			dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
+			@Override
+			public void run()
 			{
-				@Override
-				public void onClick(final DialogInterface dialog, final int id)
+				FileInputStream is = null;
+				try
 				{
-					showDialog(DIALOG_RESTORE_WALLET);
+					is = new FileInputStream(file);
+					final Wallet wallet = WalletUtils.restorePrivateKeysFromBase58(is, newKeyImporter(), new KeyImporter.ProgressListener()
+					{
+						@Override
+						public void onProgress(final int numKeys)
+						{
+							runOnUiThread(new Runnable()
+							{
+								@Override
+								public void run()
+								{
+									if (destroyed)
+										return;
+
+									ProgressDialogFragment.updateProgress(getFragmentManager(),
+											getString(R.string.import_keys_dialog_progress, numKeys));
+								}
+							});
+						}
+					});
+
+					runOnUiThread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (destroyed)
+								return;
+
+							ProgressDialogFragment.dismissProgress(getFragmentManager());
+							try
+							{
+								restoreWallet(wallet);
+
+								log.info("successfully restored unencrypted private keys: {}", file);
+							}
+							catch (final IOException x)
+							{
+								restorePrivateKeysFromBase58Failed(x);
+							}
+						}
+					});
 				}
-			});
-			dialog.show();
+				catch (final IOException x)
+				{
+					runOnUiThread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							if (destroyed)
+								return;
 
-			log.info("problem restoring private keys", x);
-		}
-		finally
-		{
-			try
-			{
-				if (is != null)
-					is.close();
+							ProgressDialogFragment.dismissProgress(getFragmentManager());
+							restorePrivateKeysFromBase58Failed(x);
+						}
+					});
+				}
+				finally
+				{
+					try
+					{
+						if (is != null)
+							is.close();
+					}
+					catch (final IOException x2)
+					{
+						// swallow
+					}
+				}
 			}
-			catch (final IOException x2)
+		});
+	}
+
+	private void restorePrivateKeysFromBase58Failed(final IOException x)
+	{
+		final DialogBuilder dialog = DialogBuilder.warn(this, R.string.import_export_keys_dialog_failure_title);
+		dialog.setMessage(getString(R.string.import_keys_dialog_failure, x.getMessage()));
+		dialog.setPositiveButton(R.string.button_dismiss, null);
+		dialog.setNegativeButton(R.string.button_retry, new DialogInterface.OnClickListener()
+		{
+			@Override
+			public void onClick(final DialogInterface dialog, final int id)
 			{
-				// swallow
+				showDialog(DIALOG_RESTORE_WALLET);
 			}
-		}
+		});
+		dialog.show();
+
+		log.info("problem restoring private keys", x);
+	}
+
+	/**
+	 * Derives public keys on all cores.
+	 */
+	private KeyImporter newKeyImporter()
+	{
+		return new KeyImporter(backgroundTasks.executor(Pool.CPU, Priority.HIGH), Runtime.getRuntime().availableProcessors());
 	}
 
 	private void restoreWallet(final Wallet wallet) throws IOException
@@ -1011,18 +1166,15 @@ public final class WalletActivity extends AbstractWalletActivity
 
 		final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
 
-		Writer cipherOut = null;
+		OutputStream cipherOut = null;
 
 		try
 		{
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			walletProto.writeTo(baos);
-			baos.close();
-			final byte[] plainBytes = baos.toByteArray();
-
-			cipherOut = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
-			cipherOut.write(Crypto.encrypt(plainBytes, password.toCharArray()));
-			cipherOut.flush();
+			cipherOut = Crypto.encryptStream(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8)),
+					password.toCharArray());
+			walletProto.writeTo(cipherOut);
+			cipherOut.close();
+			cipherOut = null;
 
 			final DialogBuilder dialog = new DialogBuilder(this);
 			dialog.setMessage(Html.fromHtml(getString(R.string.export_keys_dialog_success, file)));
@@ -1050,13 +1202,16 @@ public final class WalletActivity extends AbstractWalletActivity
 		}
 		finally
 		{
-			try
+			if (cipherOut != null)
 			{
-				cipherOut.close();
-			}
-			catch (final IOException x)
-			{
-				// swallow
+				try
+				{
+					cipherOut.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
 			}
 		}
 	}
@@ -57,6 +57,7 @@ import android.widget.ImageView;
 import de.langerhans.wallet.Constants;
 import de.langerhans.wallet.WalletApplication;
 import de.langerhans.wallet.util.BitmapFragment;
+import de.langerhans.wallet.util.MemoryPressure;
 import de.langerhans.wallet.util.Qr;
 import de.langerhans.wallet.util.ThrottlingWalletChangeListener;
 import de.langerhans.wallet.util.WalletUtils;
@@ -138,6 +139,20 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 		super.onPause();
 	}
 
+	@Override
+	public void onTrimMemory(final int level)
+	{
+		// bitmap is recreated by the address loader on resume
+		if (!isResumed() && currentAddressQrBitmap != null
+				&& MemoryPressure.Level.fromTrimLevel(level).atLeast(MemoryPressure.Level.LIGHT))
+		{
+			currentAddressQrBitmap = null;
+			if (currentAddressQrView != null)
+				currentAddressQrView.setImageBitmap(null);
+			application.getMemoryPressure().record(level, "dropped address qr bitmap");
+		}
+	}
+
 	private void updateView()
 	{
 		currentAddressQrView.setImageBitmap(currentAddressQrBitmap);
@@ -244,7 +259,7 @@ public final class WalletAddressFragment extends Fragment implements NfcAdapter.
 		@Override
 		public void onLoadFinished(final Loader<Address> loader, final Address currentAddress)
 		{
-			if (!currentAddress.equals(lastAddress))
+			if (!currentAddress.equals(lastAddress) || currentAddressQrBitmap == null)
 			{
 				lastAddress = currentAddress;
 
@@ -0,0 +1,604 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.ui.send;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.dogecoin.dogecoinj.core.Address;
+import com.dogecoin.dogecoinj.core.AddressFormatException;
+import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.core.DumpedPrivateKey;
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.dogecoin.dogecoinj.core.Transaction;
+import com.dogecoin.dogecoinj.core.TransactionOutput;
+import com.dogecoin.dogecoinj.core.VersionedChecksummedBytes;
+import com.dogecoin.dogecoinj.core.Wallet;
+import com.dogecoin.dogecoinj.crypto.BIP38PrivateKey;
+import com.dogecoin.dogecoinj.wallet.KeyChainGroup;
+import com.dogecoin.dogecoinj.wallet.WalletTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.langerhans.wallet.Constants;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
+import de.langerhans.wallet.util.HttpClient;
+import de.langerhans.wallet.R;
+
+/**
+ * Sweeps a list of private keys, e.g. a stack of paper wallets or tip cards. Keys are decrypted on all cores, and their
+ * balances looked up a few at a time. The coins found are then split into as few wallets as possible, each small enough
+ * to be emptied with a single standard transaction.
+ *
+ * Not thread safe; call from the thread that created it, which is also the one callbacks are made on.
+ *
+ * @author Andreas Schildbach
+ */
+public abstract class BatchSweep
+{
+	public enum Status
+	{
+		PENDING, DECODING, LOOKING_UP, EMPTY, FUNDED, FAILED, SWEPT
+	}
+
+	public static final class Entry
+	{
+		public final String input;
+		@CheckForNull
+		public final VersionedChecksummedBytes key;
+
+		public Status status;
+		@CheckForNull
+		public Address address;
+		public int messageResId;
+		public Object[] messageArgs;
+		public Coin balance = Coin.ZERO;
+
+		@CheckForNull
+		private ECKey decodedKey;
+		private Collection<Transaction> transactions = Collections.emptyList();
+		private int numUnswept = 0;
+
+		private Entry(final String input, @Nullable final VersionedChecksummedBytes key)
+		{
+			this.input = input;
+			this.key = key;
+			if (key != null)
+				this.status = Status.PENDING;
+			else
+				fail(R.string.sweep_wallet_fragment_batch_invalid_key);
+		}
+
+		void decoded(@Nonnull final ECKey key)
+		{
+			this.decodedKey = key;
+			this.address = key.toAddress(Constants.NETWORK_PARAMETERS);
+			this.status = Status.LOOKING_UP;
+		}
+
+		void lookedUp(@Nonnull final Collection<Transaction> transactions)
+		{
+			this.transactions = transactions;
+			this.balance = Coin.ZERO;
+			for (final Transaction tx : transactions)
+				for (final TransactionOutput output : tx.getOutputs())
+					if (output.getValue().signum() > 0)
+						this.balance = this.balance.add(output.getValue());
+			this.status = balance.signum() > 0 ? Status.FUNDED : Status.EMPTY;
+		}
+
+		private void fail(final int messageResId, final Object... messageArgs)
+		{
+			this.status = Status.FAILED;
+			this.messageResId = messageResId;
+			this.messageArgs = messageArgs;
+		}
+	}
+
+	private static final int MAX_CONCURRENT_LOOKUPS = 4;
+	/**
+	 * An uncompressed P2PKH input is about 180 bytes, so this stays well below the 100 kB limit for standard transactions.
+	 */
+	public static final int MAX_INPUTS_PER_TRANSACTION = 400;
+
+	private final List<Entry> entries;
+	private final BackgroundExecutors.Scope backgroundTasks;
+	private final HttpClient httpClient;
+
+	private final Queue<Entry> toLookUp = new LinkedList<Entry>();
+	private int numDecoding = 0;
+	private int numLookingUp = 0;
+	@CheckForNull
+	private DecodePrivateKeysTask decodeTask = null;
+	private final Map<Entry, RequestWalletBalanceTask> lookupTasks = new HashMap<Entry, RequestWalletBalanceTask>();
+
+	private static final Logger log = LoggerFactory.getLogger(BatchSweep.class);
+
+	/**
+	 * Reads keys in WIF or BIP38 format, one per line. Anything after the first whitespace or comma is ignored, as are empty
+	 * lines and lines starting with #. Lines that are not a key become failed entries.
+	 */
+	public static List<Entry> parse(@Nonnull final Reader reader) throws IOException
+	{
+		final BufferedReader in = new BufferedReader(reader);
+		final List<Entry> entries = new ArrayList<Entry>();
+		final Set<String> seen = new HashSet<String>();
+
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			final String input = line.split("[\\s,;]", 2)[0];
+			if (!seen.add(input))
+				continue;
+
+			entries.add(new Entry(input, parseKey(input)));
+		}
+
+		return entries;
+	}
+
+	@CheckForNull
+	private static VersionedChecksummedBytes parseKey(final String input)
+	{
+		try
+		{
+			return new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, input);
+		}
+		catch (final AddressFormatException x)
+		{
+			// try next
+		}
+
+		try
+		{
+			return new BIP38PrivateKey(Constants.NETWORK_PARAMETERS, input);
+		}
+		catch (final AddressFormatException x)
+		{
+			return null;
+		}
+	}
+
+	public BatchSweep(@Nonnull final List<Entry> entries, @Nonnull final BackgroundExecutors.Scope backgroundTasks,
+			@Nonnull final HttpClient httpClient)
+	{
+		this.entries = entries;
+		this.backgroundTasks = backgroundTasks;
+		this.httpClient = httpClient;
+	}
+
+	public List<Entry> getEntries()
+	{
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return true if there are BIP38 keys to decrypt, including ones that failed before, e.g. because of a mistyped passphrase
+	 */
+	public boolean needsPassphrase()
+	{
+		for (final Entry entry : entries)
+			if ((entry.status == Status.PENDING || entry.status == Status.FAILED) && entry.key instanceof BIP38PrivateKey
+					&& entry.decodedKey == null)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Decodes and looks up all pending keys, and retries those that failed. BIP38 keys are decrypted on all cores at once.
+	 *
+	 * @param passphrase
+	 *            for BIP38 keys; they fail without it
+	 */
+	public void start(@Nullable final String passphrase)
+	{
+		final List<Entry> toDecode = new ArrayList<Entry>();
+
+		for (final Entry entry : entries)
+		{
+			if (entry.key == null)
+				continue;
+
+			if (entry.status == Status.FAILED)
+				entry.status = entry.decodedKey != null ? Status.LOOKING_UP : Status.PENDING;
+			else if (entry.status != Status.PENDING)
+				continue;
+
+			if (entry.decodedKey != null)
+			{
+				toLookUp.add(entry);
+			}
+			else if (entry.key instanceof DumpedPrivateKey)
+			{
+				decoded(entry, ((DumpedPrivateKey) entry.key).getKey());
+			}
+			else
+			{
+				entry.status = Status.DECODING;
+				toDecode.add(entry);
+			}
+			onProgress(entry);
+		}
+
+		decode(toDecode, passphrase);
+		pump();
+	}
+
+	/**
+	 * Stops decoding and looking up keys, e.g. because the user left.
+	 */
+	public void cancel()
+	{
+		if (decodeTask != null)
+			decodeTask.cancel();
+		for (final RequestWalletBalanceTask task : lookupTasks.values())
+			task.cancel();
+		lookupTasks.clear();
+		toLookUp.clear();
+	}
+
+	public boolean isDone()
+	{
+		return numDecoding == 0 && numLookingUp == 0 && toLookUp.isEmpty();
+	}
+
+	public int count(@Nonnull final Status status)
+	{
+		int count = 0;
+		for (final Entry entry : entries)
+			if (entry.status == status)
+				count++;
+		return count;
+	}
+
+	public Coin getBalance()
+	{
+		Coin balance = Coin.ZERO;
+		for (final Entry entry : entries)
+			if (entry.status == Status.FUNDED)
+				balance = balance.add(entry.balance);
+		return balance;
+	}
+
+	/**
+	 * Splits the funded keys into wallets of at most {@link #MAX_INPUTS_PER_TRANSACTION} unspent outputs. Outputs of the same
+	 * transaction are merged into one, so a wallet never sees a transaction twice. Keys paid by the same transaction are kept
+	 * in the same wallet, unless together they have too many outputs; only then their transactions are spread over several
+	 * wallets.
+	 */
+	public List<SweepWallet> buildSweepWallets()
+	{
+		// payees of each transaction, and groups of keys linked by transactions paying more than one of them
+		final Map<Sha256Hash, List<Entry>> payees = new LinkedHashMap<Sha256Hash, List<Entry>>();
+		final Map<Sha256Hash, Group> groupByHash = new HashMap<Sha256Hash, Group>();
+		final Set<Group> groups = new LinkedHashSet<Group>();
+
+		for (final Entry entry : entries)
+		{
+			if (entry.status != Status.FUNDED)
+				continue;
+
+			entry.numUnswept = 0;
+			Group group = null;
+			for (final Transaction tx : entry.transactions)
+			{
+				final Sha256Hash hash = tx.getHash();
+				List<Entry> txPayees = payees.get(hash);
+				if (txPayees == null)
+				{
+					txPayees = new ArrayList<Entry>(1);
+					payees.put(hash, txPayees);
+				}
+				txPayees.add(entry);
+
+				final Group other = groupByHash.get(hash);
+				if (group == null)
+				{
+					group = other;
+				}
+				else if (other != null && other != group)
+				{
+					group.entries.addAll(other.entries);
+					for (final Sha256Hash otherHash : other.hashes)
+						groupByHash.put(otherHash, group);
+					group.hashes.addAll(other.hashes);
+					groups.remove(other);
+				}
+			}
+
+			if (group == null)
+			{
+				group = new Group();
+				groups.add(group);
+			}
+			group.entries.add(entry);
+			for (final Transaction tx : entry.transactions)
+			{
+				group.hashes.add(tx.getHash());
+				groupByHash.put(tx.getHash(), group);
+			}
+		}
+
+		final Map<Sha256Hash, Transaction> transactions = new HashMap<Sha256Hash, Transaction>(payees.size());
+		for (final Map.Entry<Sha256Hash, List<Entry>> txPayees : payees.entrySet())
+		{
+			final List<Transaction> parts = new ArrayList<Transaction>(txPayees.getValue().size());
+			for (final Entry entry : txPayees.getValue())
+				for (final Transaction tx : entry.transactions)
+					if (tx.getHash().equals(txPayees.getKey()))
+						parts.add(tx);
+			transactions.put(txPayees.getKey(), RequestWalletBalanceTask.mergeOutputs(parts));
+		}
+
+		final List<SweepWallet> wallets = new ArrayList<SweepWallet>();
+		Chunk chunk = new Chunk();
+
+		for (final Group group : groups)
+		{
+			int groupInputs = 0;
+			for (final Sha256Hash hash : group.hashes)
+				groupInputs += numRealOutputs(transactions.get(hash));
+
+			if (groupInputs <= MAX_INPUTS_PER_TRANSACTION)
+			{
+				if (chunk.numInputs > 0 && chunk.numInputs + groupInputs > MAX_INPUTS_PER_TRANSACTION)
+				{
+					wallets.add(chunk.toSweepWallet());
+					chunk = new Chunk();
+				}
+				for (final Sha256Hash hash : group.hashes)
+				{
+					final Transaction tx = transactions.get(hash);
+					chunk.add(payees.get(hash), tx, numRealOutputs(tx));
+				}
+			}
+			else
+			{
+				for (final Sha256Hash hash : group.hashes)
+				{
+					final Transaction tx = transactions.get(hash);
+					final int numInputs = numRealOutputs(tx);
+					if (chunk.numInputs > 0 && chunk.numInputs + numInputs > MAX_INPUTS_PER_TRANSACTION)
+					{
+						wallets.add(chunk.toSweepWallet());
+						chunk = new Chunk();
+					}
+					chunk.add(payees.get(hash), tx, numInputs);
+				}
+			}
+		}
+
+		if (chunk.numInputs > 0)
+			wallets.add(chunk.toSweepWallet());
+
+		log.info("sweeping {} keys in {} transactions", count(Status.FUNDED), wallets.size());
+		return wallets;
+	}
+
+	/**
+	 * Wallet holding some of the keys and unspent outputs, to be emptied in one go. A key only counts as swept once all wallets
+	 * holding it are, and as failed if any of them failed.
+	 */
+	public static final class SweepWallet
+	{
+		public final Wallet wallet;
+		public final List<Entry> entries;
+
+		private SweepWallet(final Wallet wallet, final List<Entry> entries)
+		{
+			this.wallet = wallet;
+			this.entries = entries;
+		}
+
+		public void swept()
+		{
+			for (final Entry entry : entries)
+				if (--entry.numUnswept == 0 && entry.status != Status.FAILED)
+					entry.status = Status.SWEPT;
+		}
+
+		public void failed(final int messageResId, final Object... messageArgs)
+		{
+			for (final Entry entry : entries)
+			{
+				entry.numUnswept--;
+				entry.fail(messageResId, messageArgs);
+			}
+		}
+	}
+
+	protected abstract void onProgress(@Nonnull Entry entry);
+
+	protected abstract void onDone();
+
+	private void pump()
+	{
+		while (numLookingUp < MAX_CONCURRENT_LOOKUPS && !toLookUp.isEmpty())
+			lookUp(toLookUp.remove());
+
+		if (isDone())
+		{
+			log.info("batch sweep: {} keys funded, {} empty, {} failed", count(Status.FUNDED), count(Status.EMPTY), count(Status.FAILED));
+			onDone();
+		}
+	}
+
+	private void decode(final List<Entry> toDecode, @Nullable final String passphrase)
+	{
+		if (toDecode.isEmpty())
+			return;
+
+		if (passphrase == null || passphrase.isEmpty())
+		{
+			for (final Entry entry : toDecode)
+			{
+				entry.fail(R.string.sweep_wallet_fragment_batch_password_needed);
+				onProgress(entry);
+			}
+			return;
+		}
+
+		final List<BIP38PrivateKey> keys = new ArrayList<BIP38PrivateKey>(toDecode.size());
+		for (final Entry entry : toDecode)
+			keys.add((BIP38PrivateKey) entry.key);
+
+		numDecoding += toDecode.size();
+		decodeTask = new DecodePrivateKeysTask(backgroundTasks.executor(Pool.CPU, Priority.HIGH))
+		{
+			@Override
+			protected void onSuccess(final int index, @Nonnull final ECKey decryptedKey)
+			{
+				final Entry entry = toDecode.get(index);
+				numDecoding--;
+				decoded(entry, decryptedKey);
+				onProgress(entry);
+				pump();
+			}
+
+			@Override
+			protected void onBadPassphrase(final int index)
+			{
+				final Entry entry = toDecode.get(index);
+				numDecoding--;
+				entry.fail(R.string.sweep_wallet_fragment_bad_password);
+				onProgress(entry);
+				pump();
+			}
+
+			@Override
+			protected void onFailure(final int index, @Nonnull final RuntimeException exception)
+			{
+				final Entry entry = toDecode.get(index);
+				numDecoding--;
+				entry.fail(R.string.sweep_wallet_fragment_batch_decrypt_failed, exception.getMessage());
+				onProgress(entry);
+				pump();
+			}
+		};
+		decodeTask.decodePrivateKeys(keys, passphrase);
+	}
+
+	private void decoded(final Entry entry, final ECKey key)
+	{
+		entry.decoded(key);
+		toLookUp.add(entry);
+	}
+
+	private void lookUp(final Entry entry)
+	{
+		numLookingUp++;
+		final RequestWalletBalanceTask task = new RequestWalletBalanceTask(backgroundTasks, new RequestWalletBalanceTask.ResultCallback()
+		{
+			@Override
+			public void onResult(final Collection<Transaction> transactions)
+			{
+				lookupTasks.remove(entry);
+				numLookingUp--;
+				entry.lookedUp(transactions);
+				onProgress(entry);
+				pump();
+			}
+
+			@Override
+			public void onFail(final int messageResId, final Object... messageArgs)
+			{
+				lookupTasks.remove(entry);
+				numLookingUp--;
+				entry.fail(messageResId, messageArgs);
+				onProgress(entry);
+				pump();
+			}
+		}, httpClient);
+		lookupTasks.put(entry, task);
+		task.requestWalletBalance(entry.address);
+	}
+
+	private static int numRealOutputs(final Transaction tx)
+	{
+		int count = 0;
+		for (final TransactionOutput output : tx.getOutputs())
+			if (output.getValue().signum() > 0)
+				count++;
+		return count;
+	}
+
+	private static final class Group
+	{
+		public final Set<Entry> entries = new LinkedHashSet<Entry>();
+		public final Set<Sha256Hash> hashes = new LinkedHashSet<Sha256Hash>();
+	}
+
+	private static final class Chunk
+	{
+		public final List<Entry> entries = new ArrayList<Entry>();
+		public final List<ECKey> keys = new ArrayList<ECKey>();
+		public final List<Transaction> transactions = new ArrayList<Transaction>();
+		public int numInputs = 0;
+
+		public void add(final List<Entry> payees, final Transaction tx, final int numInputs)
+		{
+			for (final Entry entry : payees)
+			{
+				if (!entries.contains(entry))
+				{
+					entries.add(entry);
+					keys.add(entry.decodedKey);
+				}
+			}
+			transactions.add(tx);
+			this.numInputs += numInputs;
+		}
+
+		public SweepWallet toSweepWallet()
+		{
+			final KeyChainGroup group = new KeyChainGroup(Constants.NETWORK_PARAMETERS);
+			group.importKeys(keys);
+			final Wallet wallet = new Wallet(Constants.NETWORK_PARAMETERS, group);
+			for (final Transaction tx : transactions)
+				wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+			for (final Entry entry : entries)
+				entry.numUnswept++;
+			return new SweepWallet(wallet, entries);
+		}
+	}
+}
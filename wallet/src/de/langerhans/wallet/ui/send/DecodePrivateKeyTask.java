@@ -17,6 +17,8 @@
 
 package de.langerhans.wallet.ui.send;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nonnull;
 
 import com.dogecoin.dogecoinj.core.ECKey;
@@ -30,18 +32,18 @@ import android.os.Looper;
  */
 public abstract class DecodePrivateKeyTask
 {
-	private final Handler backgroundHandler;
+	private final Executor backgroundExecutor;
 	private final Handler callbackHandler;
 
-	public DecodePrivateKeyTask(@Nonnull final Handler backgroundHandler)
+	public DecodePrivateKeyTask(@Nonnull final Executor backgroundExecutor)
 	{
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundExecutor = backgroundExecutor;
 		this.callbackHandler = new Handler(Looper.myLooper());
 	}
 
 	public final void decodePrivateKey(@Nonnull final BIP38PrivateKey encryptedKey, @Nonnull final String passphrase)
 	{
-		backgroundHandler.post(new Runnable()
+		backgroundExecutor.execute(new Runnable()
 		{
 			@Override
 			public void run()
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.ui.send;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.crypto.BIP38PrivateKey;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Decrypts a number of BIP38 keys with the same passphrase, several at once. Each worker takes the next key until none are
+ * left, so fast and slow keys even out. Results are posted back one by one as they complete, exactly one per key unless
+ * cancelled.
+ *
+ * @author Andreas Schildbach
+ */
+public abstract class DecodePrivateKeysTask
+{
+	/** Scrypt with the BIP38 parameters needs 16 MB; leave plenty of room for the rest of the app. */
+	private static final long MEMORY_PER_WORKER = 64 * 1024 * 1024;
+
+	private final Executor backgroundExecutor;
+	private final Handler callbackHandler;
+	private final int parallelism;
+
+	private volatile boolean cancelled = false;
+
+	private static final Logger log = LoggerFactory.getLogger(DecodePrivateKeysTask.class);
+
+	/**
+	 * @param backgroundExecutor
+	 *            should have at least as many threads as {@link #defaultParallelism()}
+	 */
+	public DecodePrivateKeysTask(@Nonnull final Executor backgroundExecutor)
+	{
+		this(backgroundExecutor, defaultParallelism());
+	}
+
+	public DecodePrivateKeysTask(@Nonnull final Executor backgroundExecutor, final int parallelism)
+	{
+		this.backgroundExecutor = backgroundExecutor;
+		this.callbackHandler = new Handler(Looper.myLooper());
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return one worker per core, as far as memory allows
+	 */
+	public static int defaultParallelism()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		return Math.max(1, Math.min(runtime.availableProcessors(), (int) (runtime.maxMemory() / MEMORY_PER_WORKER)));
+	}
+
+	public final void decodePrivateKeys(@Nonnull final List<BIP38PrivateKey> encryptedKeys, @Nonnull final String passphrase)
+	{
+		final List<BIP38PrivateKey> keys = new ArrayList<BIP38PrivateKey>(encryptedKeys);
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final int numWorkers = Math.min(parallelism, keys.size());
+		final AtomicInteger numWorkersLeft = new AtomicInteger(numWorkers);
+		final long start = System.currentTimeMillis();
+
+		if (numWorkers == 0)
+		{
+			postDone();
+			return;
+		}
+
+		for (int i = 0; i < numWorkers; i++)
+		{
+			backgroundExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					int index;
+					while (!cancelled && (index = nextIndex.getAndIncrement()) < keys.size())
+						decode(index, keys.get(index), passphrase);
+
+					if (numWorkersLeft.decrementAndGet() == 0)
+					{
+						log.info("decoded {} BIP38 keys with {} workers, took {} ms", keys.size(), numWorkers, System.currentTimeMillis()
+								- start);
+						postDone();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Keys that are being decrypted right now run to completion, but nothing more is started and no more callbacks are made.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	private void decode(final int index, final BIP38PrivateKey encryptedKey, final String passphrase)
+	{
+		try
+		{
+			final ECKey decryptedKey = encryptedKey.decrypt(passphrase); // takes time
+
+			callbackHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (!cancelled)
+						onSuccess(index, decryptedKey);
+				}
+			});
+		}
+		catch (final BIP38PrivateKey.BadPassphraseException x)
+		{
+			callbackHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (!cancelled)
+						onBadPassphrase(index);
+				}
+			});
+		}
+		catch (final RuntimeException x)
+		{
+			// a malformed key must not take down the worker, or the remaining keys would never be reported
+			log.info("problem decrypting key " + index, x);
+
+			callbackHandler.post(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (!cancelled)
+						onFailure(index, x);
+				}
+			});
+		}
+	}
+
+	private void postDone()
+	{
+		callbackHandler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!cancelled)
+					onDone();
+			}
+		});
+	}
+
+	protected abstract void onSuccess(int index, @Nonnull ECKey decryptedKey);
+
+	protected abstract void onBadPassphrase(int index);
+
+	protected abstract void onFailure(int index, @Nonnull RuntimeException exception);
+
+	protected void onDone()
+	{
+	}
+}
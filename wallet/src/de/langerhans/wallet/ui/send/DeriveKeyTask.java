@@ -17,6 +17,8 @@
 
 package de.langerhans.wallet.ui.send;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nonnull;
 
 import com.dogecoin.dogecoinj.crypto.KeyCrypter;
@@ -24,29 +26,38 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import android.os.Handler;
 import android.os.Looper;
+import de.langerhans.wallet.util.SessionKeyCache;
 
 /**
  * @author Andreas Schildbach
  */
 public abstract class DeriveKeyTask
 {
-	private final Handler backgroundHandler;
+	private final Executor backgroundExecutor;
 	private final Handler callbackHandler;
+	private final SessionKeyCache keyCache;
+	private final boolean useKeyCache;
 
-	public DeriveKeyTask(@Nonnull final Handler backgroundHandler)
+	/**
+	 * @param useKeyCache
+	 *            if the derived key may be kept for the session, and a key kept earlier may be used
+	 */
+	public DeriveKeyTask(@Nonnull final Executor backgroundExecutor, @Nonnull final SessionKeyCache keyCache, final boolean useKeyCache)
 	{
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundExecutor = backgroundExecutor;
 		this.callbackHandler = new Handler(Looper.myLooper());
+		this.keyCache = keyCache;
+		this.useKeyCache = useKeyCache;
 	}
 
 	public final void deriveKey(@Nonnull final KeyCrypter keyCrypter, @Nonnull final String password)
 	{
-		backgroundHandler.post(new Runnable()
+		backgroundExecutor.execute(new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				final KeyParameter encryptionKey = keyCrypter.deriveKey(password); // takes time
+				final KeyParameter encryptionKey = keyCache.deriveKey(keyCrypter, password, useKeyCache); // takes time on a miss
 
 				callbackHandler.post(new Runnable()
 				{
@@ -56,6 +67,20 @@ public abstract class DeriveKeyTask
 						onSuccess(encryptionKey);
 					}
 				});
+
+				// wipe the key on time, even if nobody asks for it again
+				final long remainingMs = keyCache.getRemainingMs(System.currentTimeMillis());
+				if (remainingMs >= 0)
+				{
+					callbackHandler.postDelayed(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							keyCache.clearIfExpired(System.currentTimeMillis());
+						}
+					}, remainingMs);
+				}
 			}
 		});
 	}
@@ -44,8 +44,6 @@ import android.content.DialogInterface.OnShowListener;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -60,6 +58,9 @@ import com.google.common.util.concurrent.ListenableFuture;
 import de.langerhans.wallet.WalletApplication;
 import de.langerhans.wallet.ui.AbstractWalletActivity;
 import de.langerhans.wallet.ui.DialogBuilder;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
 import de.langerhans.wallet.R;
 
 /**
@@ -92,8 +93,7 @@ public class MaintenanceDialogFragment extends DialogFragment
 	private Button positiveButton, negativeButton;
 
 	private Handler handler = new Handler();
-	private HandlerThread backgroundThread;
-	private Handler backgroundHandler;
+	private BackgroundExecutors.Scope backgroundTasks;
 
 	private enum State
 	{
@@ -119,9 +119,7 @@ public class MaintenanceDialogFragment extends DialogFragment
 	{
 		super.onCreate(savedInstanceState);
 
-		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-		backgroundThread.start();
-		backgroundHandler = new Handler(backgroundThread.getLooper());
+		backgroundTasks = application.getBackgroundExecutors().newScope();
 	}
 
 	@Override
@@ -218,7 +216,7 @@ public class MaintenanceDialogFragment extends DialogFragment
 	@Override
 	public void onDestroy()
 	{
-		backgroundThread.getLooper().quit();
+		backgroundTasks.cancel(false);
 
 		super.onDestroy();
 	}
@@ -230,7 +228,8 @@ public class MaintenanceDialogFragment extends DialogFragment
 
 		if (wallet.isEncrypted())
 		{
-			new DeriveKeyTask(backgroundHandler)
+			new DeriveKeyTask(backgroundTasks.executor(Pool.CPU, Priority.HIGH), application.getSessionKeyCache(),
+					application.getConfiguration().getSessionKeyCacheEnabled())
 			{
 				@Override
 				protected void onSuccess(@Nonnull KeyParameter encryptionKey)
@@ -249,7 +248,7 @@ public class MaintenanceDialogFragment extends DialogFragment
 
 	private void doMaintenance(final KeyParameter encryptionKey)
 	{
-		backgroundHandler.post(new Runnable()
+		backgroundTasks.submit(Pool.CPU, Priority.HIGH, new Runnable()
 		{
 			@Override
 			public void run()
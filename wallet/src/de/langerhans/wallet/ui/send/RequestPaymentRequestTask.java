@@ -22,10 +22,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import com.dogecoin.dogecoinj.protocols.payments.PaymentProtocol;
 import org.slf4j.Logger;
@@ -40,10 +39,10 @@ import android.os.Looper;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 
-import de.langerhans.wallet.Constants;
 import de.langerhans.wallet.data.PaymentIntent;
 import de.langerhans.wallet.ui.InputParser;
 import de.langerhans.wallet.util.Bluetooth;
+import de.langerhans.wallet.util.HttpClient;
 import de.langerhans.wallet.R;
 
 /**
@@ -51,7 +50,7 @@ import de.langerhans.wallet.R;
  */
 public abstract class RequestPaymentRequestTask
 {
-	private final Handler backgroundHandler;
+	private final Executor backgroundExecutor;
 	private final Handler callbackHandler;
 	private final ResultCallback resultCallback;
 
@@ -64,30 +63,29 @@ public abstract class RequestPaymentRequestTask
 		void onFail(int messageResId, Object... messageArgs);
 	}
 
-	public RequestPaymentRequestTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback)
+	public RequestPaymentRequestTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback)
 	{
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundExecutor = backgroundExecutor;
 		this.callbackHandler = new Handler(Looper.myLooper());
 		this.resultCallback = resultCallback;
 	}
 
 	public final static class HttpRequestTask extends RequestPaymentRequestTask
 	{
-		@CheckForNull
-		private final String userAgent;
+		private final HttpClient httpClient;
 
-		public HttpRequestTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback,
-				@Nullable final String userAgent)
+		public HttpRequestTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback,
+				@Nonnull final HttpClient httpClient)
 		{
-			super(backgroundHandler, resultCallback);
+			super(backgroundExecutor, resultCallback);
 
-			this.userAgent = userAgent;
+			this.httpClient = httpClient;
 		}
 
 		@Override
 		public void requestPaymentRequest(@Nonnull final String url)
 		{
-			super.backgroundHandler.post(new Runnable()
+			super.backgroundExecutor.execute(new Runnable()
 			{
 				@Override
 				public void run()
@@ -99,26 +97,17 @@ public abstract class RequestPaymentRequestTask
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
-
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+						connection = httpClient.open(new URL(url), false);
 						connection.setUseCaches(false);
-						connection.setDoInput(true);
 						connection.setDoOutput(false);
 
 						connection.setRequestMethod("GET");
 						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
 						connection.connect();
 
-						final int responseCode = connection.getResponseCode();
-						if (responseCode == HttpURLConnection.HTTP_OK)
+						is = httpClient.response(connection);
+						if (is != null)
 						{
-							is = connection.getInputStream();
-
 							new InputParser.StreamInputParser(connection.getContentType(), is)
 							{
 								@Override
@@ -138,6 +127,7 @@ public abstract class RequestPaymentRequestTask
 						}
 						else
 						{
+							final int responseCode = connection.getResponseCode();
 							final String responseMessage = connection.getResponseMessage();
 
 							log.info("got http error {}: {}", responseCode, responseMessage);
@@ -153,20 +143,7 @@ public abstract class RequestPaymentRequestTask
 					}
 					finally
 					{
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						httpClient.release(connection, is);
 					}
 				}
 			});
@@ -177,10 +154,10 @@ public abstract class RequestPaymentRequestTask
 	{
 		private final BluetoothAdapter bluetoothAdapter;
 
-		public BluetoothRequestTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback,
+		public BluetoothRequestTask(@Nonnull final Executor backgroundExecutor, @Nonnull final ResultCallback resultCallback,
 				@Nonnull final BluetoothAdapter bluetoothAdapter)
 		{
-			super(backgroundHandler, resultCallback);
+			super(backgroundExecutor, resultCallback);
 
 			this.bluetoothAdapter = bluetoothAdapter;
 		}
@@ -188,7 +165,7 @@ public abstract class RequestPaymentRequestTask
 		@Override
 		public void requestPaymentRequest(@Nonnull final String url)
 		{
-			super.backgroundHandler.post(new Runnable()
+			super.backgroundExecutor.execute(new Runnable()
 			{
 				@Override
 				public void run()
@@ -17,17 +17,16 @@
 
 package de.langerhans.wallet.ui.send;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import com.dogecoin.dogecoinj.core.Address;
 import com.dogecoin.dogecoinj.core.Coin;
@@ -36,9 +35,7 @@ import com.dogecoin.dogecoinj.core.Sha256Hash;
 import com.dogecoin.dogecoinj.core.Transaction;
 import com.dogecoin.dogecoinj.core.TransactionConfidence.ConfidenceType;
 import com.dogecoin.dogecoinj.core.TransactionOutput;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,27 +43,53 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.BaseEncoding;
 
 import de.langerhans.wallet.Constants;
-import de.langerhans.wallet.util.Io;
+import de.langerhans.wallet.exchangerate.SourceHealth;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
+import de.langerhans.wallet.util.HttpClient;
 import de.langerhans.wallet.R;
 
 /**
+ * Fetches the unspent outputs of an address. Requests are hedged: the API that has been faster lately is asked first, and if
+ * it hasn't answered after about its usual latency, or has failed, the other one is asked too. The first valid answer wins. If
+ * both answer, their outputs are compared.
+ *
  * @author Andreas Schildbach
  */
 public final class RequestWalletBalanceTask
 {
-	private final Handler backgroundHandler;
+	private static final String[] API_URLS = { Constants.DOGECHAIN_API_URL, Constants.CHAINSO_API_URL };
+
+	/** APIs that return long lists in pages, with the page number appended to the URL. */
+	private static final Set<String> PAGED_API_URLS = Collections.singleton(Constants.DOGECHAIN_API_URL);
+	/** Pages smaller than this are assumed to be complete lists. */
+	private static final int MIN_PAGE_SIZE = 100;
+	private static final int MAX_PAGES = 20;
+
+	private static final long HEDGE_DELAY_DEFAULT_MS = 2000;
+	private static final long HEDGE_DELAY_MIN_MS = 500;
+	private static final long HEDGE_DELAY_MAX_MS = 5000;
+
+	/** Latency and failures per API, shared by all tasks. */
+	private static final Map<String, SourceHealth> health = new HashMap<String, SourceHealth>();
+
+	static
+	{
+		for (final String apiUrl : API_URLS)
+			health.put(apiUrl, new SourceHealth());
+	}
+
+	private final BackgroundExecutors.Scope backgroundTasks;
 	private final Handler callbackHandler;
 	private final ResultCallback resultCallback;
-	@CheckForNull
-	private final String userAgent;
+	private final HttpClient httpClient;
+	private volatile boolean cancelled = false;
 
 	private static final Logger log = LoggerFactory.getLogger(RequestWalletBalanceTask.class);
 
-	private final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
-
 	public interface ResultCallback
 	{
 		void onResult(Collection<Transaction> transactions);
@@ -74,143 +97,497 @@ public final class RequestWalletBalanceTask
 		void onFail(int messageResId, Object... messageArgs);
 	}
 
-	public RequestWalletBalanceTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback,
-			@Nullable final String userAgent)
+	/**
+	 * @param backgroundTasks
+	 *            runs the requests on the network pool
+	 */
+	public RequestWalletBalanceTask(@Nonnull final BackgroundExecutors.Scope backgroundTasks, @Nonnull final ResultCallback resultCallback,
+			@Nonnull final HttpClient httpClient)
 	{
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundTasks = backgroundTasks;
 		this.callbackHandler = new Handler(Looper.myLooper());
 		this.resultCallback = resultCallback;
-		this.userAgent = userAgent;
+		this.httpClient = httpClient;
 	}
 
 	public void requestWalletBalance(final Address address)
 	{
-		backgroundHandler.post(new Runnable()
+		final String[] apiUrls = orderedApiUrls(API_URLS, health, System.currentTimeMillis());
+		final Hedge hedge = new Hedge(address, apiUrls)
+		{
+			@Override
+			protected boolean ask(final String apiUrl)
+			{
+				if (cancelled)
+					return false;
+
+				return backgroundTasks.submit(Pool.NETWORK, Priority.HIGH, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final long start = System.currentTimeMillis();
+						try
+						{
+							final Map<Sha256Hash, Transaction> transactions = fetch(apiUrl, address);
+							final long now = System.currentTimeMillis();
+							health.get(apiUrl).recordSuccess(now, now - start);
+							succeeded(apiUrl, transactions);
+						}
+						catch (final HttpStatusException x)
+						{
+							log.info("got http error '{}: {}' from {}", x.responseCode, x.responseMessage, apiUrl);
+							health.get(apiUrl).recordFailure(System.currentTimeMillis());
+							failed(R.string.error_http, x.responseCode, x.responseMessage);
+						}
+						catch (final JSONException x)
+						{
+							log.info("problem parsing json from " + apiUrl, x);
+							health.get(apiUrl).recordFailure(System.currentTimeMillis());
+							failed(R.string.error_parse, x.getMessage());
+						}
+						catch (final IOException x)
+						{
+							log.info("problem querying unspent outputs from " + apiUrl, x);
+							health.get(apiUrl).recordFailure(System.currentTimeMillis());
+							failed(R.string.error_io, x.getMessage());
+						}
+					}
+				}) != null;
+			}
+
+			@Override
+			protected void onResult(final Map<Sha256Hash, Transaction> transactions)
+			{
+				RequestWalletBalanceTask.this.onResult(transactions.values());
+			}
+
+			@Override
+			protected void onFail(final int messageResId, final Object... messageArgs)
+			{
+				RequestWalletBalanceTask.this.onFail(messageResId, messageArgs);
+			}
+		};
+
+		hedge.launch(0);
+		callbackHandler.postDelayed(new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				// Use either dogechain or chain.so
-				List<String> urls = new ArrayList<String>(2);
-				urls.add(Constants.DOGECHAIN_API_URL);
-				urls.add(Constants.CHAINSO_API_URL);
-				Collections.shuffle(urls, new Random(System.nanoTime()));
+				if (hedge.launch(1))
+					log.info("{} slow to answer, also asking {}", apiUrls[0], apiUrls[1]);
+			}
+		}, hedgeDelayMs(health.get(apiUrls[0])));
+	}
 
-				final StringBuilder url = new StringBuilder(urls.get(0));
-				url.append(address.toString());
+	/**
+	 * Asks no further API and drops the result, e.g. because whoever asked is being destroyed.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		callbackHandler.removeCallbacksAndMessages(null);
+	}
 
-				log.debug("trying to request wallet balance from {}", url);
+	/**
+	 * @return APIs with a closed circuit first, then the one with the lower median latency; ties are broken randomly to spread
+	 *         load
+	 */
+	static String[] orderedApiUrls(final String[] apiUrls, final Map<String, SourceHealth> health, final long now)
+	{
+		final List<String> ordered = new ArrayList<String>(Arrays.asList(apiUrls));
+		Collections.shuffle(ordered, new Random(System.nanoTime()));
 
-				HttpURLConnection connection = null;
-				Reader reader = null;
+		Collections.sort(ordered, new Comparator<String>()
+		{
+			@Override
+			public int compare(final String lhs, final String rhs)
+			{
+				final SourceHealth lhsHealth = health.get(lhs);
+				final SourceHealth rhsHealth = health.get(rhs);
 
-				try
-				{
-					connection = (HttpURLConnection) new URL(url.toString()).openConnection();
-
-					connection.setInstanceFollowRedirects(false);
-					connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-					connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-					connection.setUseCaches(false);
-					connection.setDoInput(true);
-					connection.setDoOutput(false);
-
-					connection.setRequestMethod("GET");
-					if (userAgent != null)
-						connection.addRequestProperty("User-Agent", userAgent);
-					connection.connect();
-
-					final int responseCode = connection.getResponseCode();
-					if (responseCode == HttpURLConnection.HTTP_OK)
-					{
-						reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024), Charsets.UTF_8);
-						final StringBuilder content = new StringBuilder();
-						Io.copy(reader, content);
+				final boolean lhsOpen = lhsHealth.getState(now) == SourceHealth.State.OPEN;
+				final boolean rhsOpen = rhsHealth.getState(now) == SourceHealth.State.OPEN;
+				if (lhsOpen != rhsOpen)
+					return lhsOpen ? 1 : -1;
 
-						final JSONObject json = new JSONObject(content.toString());
+				final long lhsLatency = expectedLatencyMs(lhsHealth);
+				final long rhsLatency = expectedLatencyMs(rhsHealth);
+				return lhsLatency < rhsLatency ? -1 : (lhsLatency > rhsLatency ? 1 : 0);
+			}
+		});
 
-						final int success = json.getInt("success");
-						if (success != 1)
-							throw new IOException("api status " + success + " when fetching unspent outputs");
+		return ordered.toArray(new String[ordered.size()]);
+	}
 
-						final JSONArray jsonOutputs = json.getJSONArray("unspent_outputs");
+	private static long expectedLatencyMs(final SourceHealth health)
+	{
+		final long p50 = health.getLatencyPercentile(50);
+		return p50 >= 0 ? p50 : HEDGE_DELAY_DEFAULT_MS;
+	}
 
-						final Map<Sha256Hash, Transaction> transactions = new HashMap<Sha256Hash, Transaction>(jsonOutputs.length());
+	/**
+	 * @return about the time the API takes for nine in ten answers, within sensible limits
+	 */
+	static long hedgeDelayMs(final SourceHealth health)
+	{
+		final long p90 = health.getLatencyPercentile(90);
+		if (p90 < 0)
+			return HEDGE_DELAY_DEFAULT_MS;
+		return Math.max(HEDGE_DELAY_MIN_MS, Math.min(p90, HEDGE_DELAY_MAX_MS));
+	}
 
-						for (int i = 0; i < jsonOutputs.length(); i++)
-						{
-							final JSONObject jsonOutput = jsonOutputs.getJSONObject(i);
-
-							final Sha256Hash uxtoHash = new Sha256Hash(jsonOutput.getString("tx_hash"));
-							final int uxtoIndex = jsonOutput.getInt("tx_output_n");
-							final byte[] uxtoScriptBytes = HEX.decode(jsonOutput.getString("script"));
-							final Coin uxtoValue = Coin.valueOf(Long.parseLong(jsonOutput.getString("value")));
-
-							Transaction tx = transactions.get(uxtoHash);
-							if (tx == null)
-							{
-								tx = new FakeTransaction(Constants.NETWORK_PARAMETERS, uxtoHash);
-								tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
-								transactions.put(uxtoHash, tx);
-							}
-
-							if (tx.getOutputs().size() > uxtoIndex)
-								throw new IllegalStateException("cannot reach index " + uxtoIndex + ", tx already has " + tx.getOutputs().size()
-										+ " outputs");
-
-							// fill with dummies
-							while (tx.getOutputs().size() < uxtoIndex)
-								tx.addOutput(new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
-
-							// add the real output
-							final TransactionOutput output = new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, uxtoValue, uxtoScriptBytes);
-							tx.addOutput(output);
-						}
+	/**
+	 * Race between the APIs for one address. The first answer is delivered, a later one is only cross-checked against it. The
+	 * hedge fails once every API has been asked and none has answered.
+	 */
+	abstract static class Hedge
+	{
+		private final Address address;
+		private final String[] apiUrls;
+
+		// guarded by this
+		private final boolean[] launched;
+		private int numPending = 0;
+		private boolean delivered = false;
+		@CheckForNull
+		private Map<Sha256Hash, Transaction> firstResult = null;
+		@CheckForNull
+		private String firstApiUrl = null;
+
+		public Hedge(final Address address, final String[] apiUrls)
+		{
+			this.address = address;
+			this.apiUrls = apiUrls;
+			this.launched = new boolean[apiUrls.length];
+		}
 
-						log.info("fetched unspent outputs from {}", url);
+		/**
+		 * Asks the API in the background, which then calls {@link #succeeded(String, Map)} or {@link #failed(int, Object...)}.
+		 *
+		 * @return false if it could not be submitted
+		 * @throws RejectedExecutionException
+		 *             if the executor is saturated
+		 */
+		protected abstract boolean ask(String apiUrl);
 
-						onResult(transactions.values());
-					}
-					else
-					{
-						final String responseMessage = connection.getResponseMessage();
+		protected abstract void onResult(Map<Sha256Hash, Transaction> transactions);
 
-						log.info("got http error '{}: {}' from {}", responseCode, responseMessage, url);
+		protected abstract void onFail(int messageResId, Object... messageArgs);
 
-						onFail(R.string.error_http, responseCode, responseMessage);
-					}
-				}
-				catch (final JSONException x)
-				{
-					log.info("problem parsing json from " + url, x);
+		/**
+		 * @return false if that API has already been asked or an answer has been delivered, or if it could not be asked, which
+		 *         counts as a failed attempt
+		 */
+		public synchronized boolean launch(final int index)
+		{
+			if (launched[index] || delivered)
+				return false;
+			launched[index] = true;
+			numPending++;
+
+			final String apiUrl = apiUrls[index];
+			final boolean asked;
+			try
+			{
+				asked = ask(apiUrl);
+			}
+			catch (final RejectedExecutionException x)
+			{
+				log.info("cannot ask {}, executor is saturated", apiUrl);
+				failed(R.string.error_io, x.getMessage());
+				return false;
+			}
 
-					onFail(R.string.error_parse, x.getMessage());
-				}
-				catch (final IOException x)
-				{
-					log.info("problem querying unspent outputs from " + url, x);
+			if (!asked)
+			{
+				log.info("cannot ask {}, cancelled", apiUrl);
+				failed(R.string.error_io, "cancelled");
+				return false;
+			}
 
-					onFail(R.string.error_io, x.getMessage());
-				}
-				finally
-				{
-					if (reader != null)
-					{
-						try
-						{
-							reader.close();
-						}
-						catch (final IOException x)
-						{
-							// swallow
-						}
-					}
+			return true;
+		}
 
-					if (connection != null)
-						connection.disconnect();
+		protected void succeeded(final String apiUrl, final Map<Sha256Hash, Transaction> transactions)
+		{
+			final boolean deliver;
+			synchronized (this)
+			{
+				numPending--;
+				deliver = !delivered;
+				if (deliver)
+				{
+					delivered = true;
+					firstResult = transactions;
+					firstApiUrl = apiUrl;
 				}
 			}
+
+			if (deliver)
+			{
+				log.info("fetched unspent outputs of {} from {}", address, apiUrl);
+				onResult(transactions);
+			}
+			else
+			{
+				crossCheck(address, firstApiUrl, firstResult, apiUrl, transactions);
+			}
+		}
+
+		protected void failed(final int messageResId, final Object... messageArgs)
+		{
+			final boolean fail;
+			synchronized (this)
+			{
+				numPending--;
+				if (delivered)
+					return;
+
+				// don't wait for the hedge delay if the other API hasn't been asked yet
+				for (int i = 0; i < apiUrls.length; i++)
+					if (launch(i))
+						return;
+
+				// a failed launch may already have failed the whole hedge
+				fail = numPending == 0 && !delivered;
+				if (fail)
+					delivered = true;
+			}
+
+			if (fail)
+				onFail(messageResId, messageArgs);
+		}
+	}
+
+	/**
+	 * Logs how two answers for the same address differ.
+	 *
+	 * @return true if they agree on the unspent outputs
+	 */
+	static boolean crossCheck(final Address address, final String firstApiUrl, final Map<Sha256Hash, Transaction> first,
+			final String secondApiUrl, final Map<Sha256Hash, Transaction> second)
+	{
+		final Set<String> firstOutputs = outpoints(first);
+		final Set<String> secondOutputs = outpoints(second);
+		if (firstOutputs.equals(secondOutputs))
+		{
+			log.info("{} and {} agree on {} unspent outputs", firstApiUrl, secondApiUrl, firstOutputs.size());
+			return true;
+		}
+		else
+		{
+			final Set<String> onlyFirst = new HashSet<String>(firstOutputs);
+			onlyFirst.removeAll(secondOutputs);
+			final Set<String> onlySecond = new HashSet<String>(secondOutputs);
+			onlySecond.removeAll(firstOutputs);
+			log.warn("{} and {} disagree on unspent outputs of {}: only in first {}, only in second {}", firstApiUrl, secondApiUrl,
+					address, onlyFirst, onlySecond);
+			return false;
+		}
+	}
+
+	/**
+	 * @return real outputs as "hash:index:value"
+	 */
+	private static Set<String> outpoints(final Map<Sha256Hash, Transaction> transactions)
+	{
+		final Set<String> outpoints = new HashSet<String>();
+		for (final Transaction tx : transactions.values())
+			for (final TransactionOutput output : tx.getOutputs())
+				if (!output.getValue().equals(Coin.NEGATIVE_SATOSHI))
+					outpoints.add(tx.getHash() + ":" + output.getIndex() + ":" + output.getValue().value);
+		return outpoints;
+	}
+
+	/**
+	 * Streams the unspent outputs of an address into a compact list, following further pages if the API pages, and only then
+	 * builds the transactions.
+	 */
+	private Map<Sha256Hash, Transaction> fetch(final String apiUrl, final Address address) throws IOException, JSONException
+	{
+		final List<Utxo> utxos = readPages(apiUrl, PAGED_API_URLS.contains(apiUrl), new PageSource()
+		{
+			@Override
+			public int readPage(final int page, final Set<String> seen, final List<Utxo> utxos) throws IOException, JSONException
+			{
+				final StringBuilder url = new StringBuilder(apiUrl);
+				url.append(address.toString());
+				if (page > 1)
+					url.append('/').append(page);
+
+				return fetchPage(new URL(url.toString()), page > 1, seen, utxos);
+			}
 		});
+
+		return toTransactions(utxos);
+	}
+
+	interface PageSource
+	{
+		/**
+		 * Appends the outputs on the page to the list, skipping those already seen.
+		 *
+		 * @return number of outputs on the page, or 0 if a page beyond the first does not exist
+		 */
+		int readPage(int page, Set<String> seen, List<Utxo> utxos) throws IOException, JSONException;
+	}
+
+	/**
+	 * Reads the first page, and further pages as long as they are full and bring new outputs. If a later page fails, the pages
+	 * read so far are kept.
+	 */
+	static List<Utxo> readPages(final String apiUrl, final boolean paged, final PageSource source) throws IOException, JSONException
+	{
+		final List<Utxo> utxos = new ArrayList<Utxo>();
+		final Set<String> seen = new HashSet<String>();
+
+		final int firstPageSize = source.readPage(1, seen, utxos);
+		if (!paged || firstPageSize < MIN_PAGE_SIZE)
+			return utxos;
+
+		for (int page = 2; page <= MAX_PAGES; page++)
+		{
+			log.info("{} returned a full page of {} unspent outputs, asking for page {}", apiUrl, firstPageSize, page);
+
+			final int numBefore = utxos.size();
+			final int pageSize;
+			try
+			{
+				pageSize = source.readPage(page, seen, utxos);
+			}
+			catch (final IOException x)
+			{
+				keepPages(apiUrl, page, utxos, numBefore, x);
+				break;
+			}
+			catch (final JSONException x)
+			{
+				keepPages(apiUrl, page, utxos, numBefore, x);
+				break;
+			}
+			final int numNew = utxos.size() - numBefore;
+
+			// a page that is short, or just repeats what we have, is the last one
+			if (pageSize < firstPageSize || numNew < pageSize)
+				break;
+		}
+
+		return utxos;
+	}
+
+	private static void keepPages(final String apiUrl, final int page, final List<Utxo> utxos, final int numBefore, final Exception x)
+	{
+		// drop what was read of the failed page, so only whole pages are kept
+		utxos.subList(numBefore, utxos.size()).clear();
+		log.warn("problem fetching page " + page + " from " + apiUrl + ", keeping the " + utxos.size()
+				+ " unspent outputs of the pages before", x);
+	}
+
+	/**
+	 * @return number of outputs on the page, or 0 if a page beyond the first does not exist
+	 */
+	private int fetchPage(final URL url, final boolean mayNotExist, final Set<String> seen, final List<Utxo> utxos) throws IOException,
+			JSONException
+	{
+		log.debug("trying to request wallet balance from {}", url);
+
+		HttpURLConnection connection = null;
+		InputStream is = null;
+
+		try
+		{
+			connection = httpClient.open(url, false);
+			connection.setDoOutput(false);
+			connection.setRequestMethod("GET");
+
+			is = httpClient.get(connection);
+			if (is == null)
+			{
+				if (mayNotExist && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND)
+					return 0;
+				throw new HttpStatusException(connection.getResponseCode(), connection.getResponseMessage());
+			}
+
+			return new UnspentOutputsParser(new InputStreamReader(is, Charsets.UTF_8)).parse(seen, utxos);
+		}
+		finally
+		{
+			httpClient.release(connection, is);
+		}
+	}
+
+	/**
+	 * Groups the outputs by transaction. Outputs must be at their index, because the wallet finds the output an input spends by
+	 * position in the list of outputs of the transaction, so gaps are filled with a single dummy repeated. A gap costs one
+	 * reference and no allocation, and the parser rejects indexes no transaction can reach.
+	 */
+	static Map<Sha256Hash, Transaction> toTransactions(final List<Utxo> utxos)
+	{
+		Collections.sort(utxos);
+
+		final Map<Sha256Hash, Transaction> transactions = new HashMap<Sha256Hash, Transaction>();
+		Transaction tx = null;
+		TransactionOutput dummy = null;
+
+		for (final Utxo utxo : utxos)
+		{
+			if (tx == null || !tx.getHash().equals(utxo.hash))
+			{
+				tx = new FakeTransaction(Constants.NETWORK_PARAMETERS, utxo.hash);
+				tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+				transactions.put(utxo.hash, tx);
+				dummy = null;
+			}
+
+			if (tx.getOutputs().size() < utxo.index)
+			{
+				if (dummy == null)
+					dummy = new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.NEGATIVE_SATOSHI, new byte[] {});
+				while (tx.getOutputs().size() < utxo.index)
+					tx.addOutput(dummy);
+			}
+
+			tx.addOutput(new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.valueOf(utxo.value), utxo.script));
+		}
+
+		return transactions;
+	}
+
+	/**
+	 * Combines the outputs of the same transaction as looked up for different addresses, each at its index.
+	 */
+	static Transaction mergeOutputs(@Nonnull final List<Transaction> transactions)
+	{
+		if (transactions.size() == 1)
+			return transactions.get(0);
+
+		final Transaction first = transactions.get(0);
+		final Transaction tx = new FakeTransaction(Constants.NETWORK_PARAMETERS, first.getHash());
+		tx.getConfidence().setConfidenceType(ConfidenceType.BUILDING);
+		final TransactionOutput dummy = new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.NEGATIVE_SATOSHI, new byte[] {});
+
+		int numOutputs = 0;
+		for (final Transaction t : transactions)
+			numOutputs = Math.max(numOutputs, t.getOutputs().size());
+
+		for (int i = 0; i < numOutputs; i++)
+		{
+			TransactionOutput output = dummy;
+			for (final Transaction t : transactions)
+			{
+				if (i < t.getOutputs().size() && !t.getOutput(i).getValue().equals(Coin.NEGATIVE_SATOSHI))
+				{
+					final TransactionOutput real = t.getOutput(i);
+					output = new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, real.getValue(), real.getScriptBytes());
+					break;
+				}
+			}
+			tx.addOutput(output);
+		}
+
+		return tx;
 	}
 
 	protected void onResult(final Collection<Transaction> transactions)
@@ -220,7 +597,8 @@ public final class RequestWalletBalanceTask
 			@Override
 			public void run()
 			{
-				resultCallback.onResult(transactions);
+				if (!cancelled)
+					resultCallback.onResult(transactions);
 			}
 		});
 	}
@@ -232,12 +610,58 @@ public final class RequestWalletBalanceTask
 			@Override
 			public void run()
 			{
-				resultCallback.onFail(messageResId, messageArgs);
+				if (!cancelled)
+					resultCallback.onFail(messageResId, messageArgs);
 			}
 		});
 	}
 
-	private static class FakeTransaction extends Transaction
+	static final class Utxo implements Comparable<Utxo>
+	{
+		public final Sha256Hash hash;
+		public final int index;
+		public final long value;
+		public final byte[] script;
+
+		public Utxo(final Sha256Hash hash, final int index, final long value, final byte[] script)
+		{
+			this.hash = hash;
+			this.index = index;
+			this.value = value;
+			this.script = script;
+		}
+
+		@Override
+		public int compareTo(final Utxo other)
+		{
+			// any order of transactions will do, as long as their outputs end up next to each other
+			if (!hash.equals(other.hash))
+			{
+				final int lhs = hash.hashCode();
+				final int rhs = other.hash.hashCode();
+				if (lhs != rhs)
+					return lhs < rhs ? -1 : 1;
+				return hash.toString().compareTo(other.hash.toString());
+			}
+			return index < other.index ? -1 : (index > other.index ? 1 : 0);
+		}
+	}
+
+	private static final class HttpStatusException extends IOException
+	{
+		public final int responseCode;
+		public final String responseMessage;
+
+		public HttpStatusException(final int responseCode, final String responseMessage)
+		{
+			super("http status " + responseCode + ": " + responseMessage);
+
+			this.responseCode = responseCode;
+			this.responseMessage = responseMessage;
+		}
+	}
+
+	static class FakeTransaction extends Transaction
 	{
 		private final Sha256Hash hash;
 
@@ -69,8 +69,6 @@ import android.nfc.NdefMessage;
 import android.nfc.NfcAdapter;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.ActionMode;
@@ -115,6 +113,9 @@ import de.langerhans.wallet.ui.InputParser.StringInputParser;
 import de.langerhans.wallet.ui.ProgressDialogFragment;
 import de.langerhans.wallet.ui.ScanActivity;
 import de.langerhans.wallet.ui.TransactionsListAdapter;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
 import de.langerhans.wallet.util.Bluetooth;
 import de.langerhans.wallet.util.Nfc;
 import de.langerhans.wallet.util.WalletUtils;
@@ -136,8 +137,7 @@ public final class SendCoinsFragment extends Fragment
 	private BluetoothAdapter bluetoothAdapter;
 
 	private final Handler handler = new Handler();
-	private HandlerThread backgroundThread;
-	private Handler backgroundHandler;
+	private BackgroundExecutors.Scope backgroundTasks;
 
 	private TextView payeeNameView;
 	private TextView payeeVerifiedByView;
@@ -504,9 +504,7 @@ public final class SendCoinsFragment extends Fragment
 
 		bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
-		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-		backgroundThread.start();
-		backgroundHandler = new Handler(backgroundThread.getLooper());
+		backgroundTasks = application.getBackgroundExecutors().newScope();
 
 		if (savedInstanceState != null)
 		{
@@ -709,7 +707,7 @@ public final class SendCoinsFragment extends Fragment
 	@Override
 	public void onDestroy()
 	{
-		backgroundThread.getLooper().quit();
+		backgroundTasks.cancel(false);
 
 		if (sentTransaction != null)
 			sentTransaction.getConfidence().removeEventListener(sentTransactionConfidenceListener);
@@ -932,7 +930,8 @@ public final class SendCoinsFragment extends Fragment
 
 		if (wallet.isEncrypted())
 		{
-			new DeriveKeyTask(backgroundHandler)
+			new DeriveKeyTask(backgroundTasks.executor(Pool.CPU, Priority.HIGH), application.getSessionKeyCache(),
+					config.getSessionKeyCacheEnabled())
 			{
 				@Override
 				protected void onSuccess(@Nonnull KeyParameter encryptionKey)
@@ -966,7 +965,7 @@ public final class SendCoinsFragment extends Fragment
 		sendRequest.exchangeRate = amountCalculatorLink.getExchangeRate();
 		sendRequest.aesKey = encryptionKey;
 
-		new SendCoinsOfflineTask(wallet, backgroundHandler)
+		new SendCoinsOfflineTask(wallet, backgroundTasks.executor(Pool.CPU, Priority.HIGH))
 		{
 			@Override
 			protected void onSuccess(final Transaction transaction)
@@ -1035,12 +1034,12 @@ public final class SendCoinsFragment extends Fragment
 
 				if (paymentIntent.isHttpPaymentUrl())
 				{
-					new DirectPaymentTask.HttpPaymentTask(backgroundHandler, callback, paymentIntent.paymentUrl, application.httpUserAgent())
-							.send(payment);
+					new DirectPaymentTask.HttpPaymentTask(backgroundTasks.executor(Pool.NETWORK, Priority.HIGH), callback,
+							paymentIntent.paymentUrl, application.httpClient()).send(payment);
 				}
 				else if (paymentIntent.isBluetoothPaymentUrl() && bluetoothAdapter != null && bluetoothAdapter.isEnabled())
 				{
-					new DirectPaymentTask.BluetoothPaymentTask(backgroundHandler, callback, bluetoothAdapter,
+					new DirectPaymentTask.BluetoothPaymentTask(backgroundTasks.executor(Pool.NETWORK, Priority.HIGH), callback, bluetoothAdapter,
 							Bluetooth.getBluetoothMac(paymentIntent.paymentUrl)).send(payment);
 				}
 			}
@@ -1579,10 +1578,10 @@ public final class SendCoinsFragment extends Fragment
 		};
 
 		if (!Bluetooth.isBluetoothUrl(paymentIntent.paymentRequestUrl))
-			new RequestPaymentRequestTask.HttpRequestTask(backgroundHandler, callback, application.httpUserAgent())
-					.requestPaymentRequest(paymentIntent.paymentRequestUrl);
+			new RequestPaymentRequestTask.HttpRequestTask(backgroundTasks.executor(Pool.NETWORK, Priority.HIGH), callback,
+					application.httpClient()).requestPaymentRequest(paymentIntent.paymentRequestUrl);
 		else
-			new RequestPaymentRequestTask.BluetoothRequestTask(backgroundHandler, callback, bluetoothAdapter)
+			new RequestPaymentRequestTask.BluetoothRequestTask(backgroundTasks.executor(Pool.NETWORK, Priority.HIGH), callback, bluetoothAdapter)
 					.requestPaymentRequest(paymentIntent.paymentRequestUrl);
 	}
 }
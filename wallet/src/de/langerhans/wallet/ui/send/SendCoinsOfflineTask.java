@@ -17,6 +17,8 @@
 
 package de.langerhans.wallet.ui.send;
 
+import java.util.concurrent.Executor;
+
 import javax.annotation.Nonnull;
 
 import com.dogecoin.dogecoinj.core.Coin;
@@ -37,19 +39,19 @@ import android.os.Looper;
 public abstract class SendCoinsOfflineTask
 {
 	private final Wallet wallet;
-	private final Handler backgroundHandler;
+	private final Executor backgroundExecutor;
 	private final Handler callbackHandler;
 
-	public SendCoinsOfflineTask(@Nonnull final Wallet wallet, @Nonnull final Handler backgroundHandler)
+	public SendCoinsOfflineTask(@Nonnull final Wallet wallet, @Nonnull final Executor backgroundExecutor)
 	{
 		this.wallet = wallet;
-		this.backgroundHandler = backgroundHandler;
+		this.backgroundExecutor = backgroundExecutor;
 		this.callbackHandler = new Handler(Looper.myLooper());
 	}
 
 	public final void sendCoinsOffline(@Nonnull final SendRequest sendRequest)
 	{
-		backgroundHandler.post(new Runnable()
+		backgroundExecutor.execute(new Runnable()
 		{
 			@Override
 			public void run()
@@ -19,7 +19,12 @@ package de.langerhans.wallet.ui.send;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -40,6 +45,7 @@ import com.dogecoin.dogecoinj.crypto.BIP38PrivateKey;
 import com.dogecoin.dogecoinj.utils.MonetaryFormat;
 import com.dogecoin.dogecoinj.wallet.KeyChainGroup;
 import com.dogecoin.dogecoinj.wallet.WalletTransaction;
+import com.google.common.base.Charsets;
 import com.dogecoin.dogecoinj.wallet.WalletTransaction.Pool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +53,7 @@ import org.slf4j.LoggerFactory;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
+import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -54,8 +61,6 @@ import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Process;
 import android.preference.PreferenceManager;
 import android.text.SpannableStringBuilder;
 import android.view.LayoutInflater;
@@ -64,6 +69,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ListView;
@@ -78,6 +84,8 @@ import de.langerhans.wallet.ui.InputParser.StringInputParser;
 import de.langerhans.wallet.ui.ProgressDialogFragment;
 import de.langerhans.wallet.ui.ScanActivity;
 import de.langerhans.wallet.ui.TransactionsListAdapter;
+import de.langerhans.wallet.util.BackgroundExecutors;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
 import de.langerhans.wallet.util.MonetarySpannable;
 import de.langerhans.wallet.util.WalletUtils;
 import de.langerhans.wallet.R;
@@ -93,13 +101,15 @@ public class SweepWalletFragment extends Fragment
 	private FragmentManager fragmentManager;
 
 	private final Handler handler = new Handler();
-	private HandlerThread backgroundThread;
-	private Handler backgroundHandler;
+	private BackgroundExecutors.Scope backgroundTasks;
 
 	private State state = State.DECODE_KEY;
 	private VersionedChecksummedBytes privateKeyToSweep = null;
 	private Wallet walletToSweep = null;
 	private Transaction sentTransaction = null;
+	private BatchSweep batchSweep = null;
+	private RequestWalletBalanceTask requestWalletBalanceTask = null;
+	private final List<BatchSweep.SweepWallet> batchSweepWallets = new LinkedList<BatchSweep.SweepWallet>();
 
 	private TextView messageView;
 	private View passwordViewGroup;
@@ -109,13 +119,18 @@ public class SweepWalletFragment extends Fragment
 	private TransactionsListAdapter sweepTransactionListAdapter;
 	private View hintView;
 	private ListView sweepTransactionView;
+	private ListView batchKeysView;
+	private ArrayAdapter<BatchSweep.Entry> batchKeysAdapter;
+	private View stretchView;
 	private Button viewGo;
 	private Button viewCancel;
 
 	private MenuItem reloadAction;
 	private MenuItem scanAction;
+	private MenuItem importKeysAction;
 
 	private static final int REQUEST_CODE_SCAN = 0;
+	private static final int REQUEST_CODE_KEY_LIST = 1;
 
 	private enum State
 	{
@@ -146,9 +161,7 @@ public class SweepWalletFragment extends Fragment
 		setRetainInstance(true);
 		setHasOptionsMenu(true);
 
-		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
-		backgroundThread.start();
-		backgroundHandler = new Handler(backgroundThread.getLooper());
+		backgroundTasks = application.getBackgroundExecutors().newScope();
 
 		if (savedInstanceState != null)
 		{
@@ -187,6 +200,25 @@ public class SweepWalletFragment extends Fragment
 		sweepTransactionListAdapter = new TransactionsListAdapter(activity, application.getWallet(), application.maxConnectedPeers(), false);
 		sweepTransactionView.setAdapter(sweepTransactionListAdapter);
 
+		batchKeysView = (ListView) view.findViewById(R.id.sweep_wallet_fragment_batch_keys);
+		batchKeysAdapter = new ArrayAdapter<BatchSweep.Entry>(activity, android.R.layout.simple_list_item_2, android.R.id.text1)
+		{
+			@Override
+			public View getView(final int position, final View convertView, final ViewGroup parent)
+			{
+				final View row = super.getView(position, convertView, parent);
+				final BatchSweep.Entry entry = getItem(position);
+				((TextView) row.findViewById(android.R.id.text1)).setText(entry.address != null ? entry.address.toString() : entry.input);
+				((TextView) row.findViewById(android.R.id.text2)).setText(batchEntryStatus(entry));
+				return row;
+			}
+		};
+		batchKeysView.setAdapter(batchKeysAdapter);
+		if (batchSweep != null)
+			batchKeysAdapter.addAll(batchSweep.getEntries());
+
+		stretchView = view.findViewById(R.id.sweep_wallet_fragment_stretch);
+
 		viewGo = (Button) view.findViewById(R.id.send_coins_go);
 		viewGo.setOnClickListener(new View.OnClickListener()
 		{
@@ -224,7 +256,11 @@ public class SweepWalletFragment extends Fragment
 	@Override
 	public void onDestroy()
 	{
-		backgroundThread.getLooper().quit();
+		if (batchSweep != null)
+			batchSweep.cancel();
+		if (requestWalletBalanceTask != null)
+			requestWalletBalanceTask.cancel();
+		backgroundTasks.cancel(false);
 
 		if (sentTransaction != null)
 			sentTransaction.getConfidence().removeEventListener(sentTransactionConfidenceListener);
@@ -300,6 +336,11 @@ public class SweepWalletFragment extends Fragment
 				}.parse();
 			}
 		}
+		else if (requestCode == REQUEST_CODE_KEY_LIST)
+		{
+			if (resultCode == Activity.RESULT_OK)
+				readKeyList(intent.getData());
+		}
 	}
 
 	@Override
@@ -309,6 +350,7 @@ public class SweepWalletFragment extends Fragment
 
 		reloadAction = menu.findItem(R.id.sweep_wallet_options_reload);
 		scanAction = menu.findItem(R.id.sweep_wallet_options_scan);
+		importKeysAction = menu.findItem(R.id.sweep_wallet_options_import_keys);
 
 		final PackageManager pm = activity.getPackageManager();
 		scanAction.setVisible(pm.hasSystemFeature(PackageManager.FEATURE_CAMERA) || pm.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT));
@@ -328,6 +370,10 @@ public class SweepWalletFragment extends Fragment
 			case R.id.sweep_wallet_options_scan:
 				handleScan();
 				return true;
+
+			case R.id.sweep_wallet_options_import_keys:
+				handleImportKeys();
+				return true;
 		}
 
 		return super.onOptionsItemSelected(item);
@@ -335,6 +381,21 @@ public class SweepWalletFragment extends Fragment
 
 	private void handleReload()
 	{
+		if (batchSweep != null)
+		{
+			// the passphrase is not kept, so ask again if any BIP38 keys are to be retried
+			if (batchSweep.needsPassphrase())
+			{
+				setState(State.DECODE_KEY);
+			}
+			else
+			{
+				batchSweep.start(null); // retries failed keys
+				updateView();
+			}
+			return;
+		}
+
 		if (walletToSweep == null)
 			return;
 
@@ -346,6 +407,138 @@ public class SweepWalletFragment extends Fragment
 		startActivityForResult(new Intent(activity, ScanActivity.class), REQUEST_CODE_SCAN);
 	}
 
+	private void handleImportKeys()
+	{
+		final Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+		intent.addCategory(Intent.CATEGORY_OPENABLE);
+		intent.setType("text/plain");
+		startActivityForResult(intent, REQUEST_CODE_KEY_LIST);
+	}
+
+	private void readKeyList(final Uri uri)
+	{
+		final ContentResolver contentResolver = activity.getContentResolver();
+
+		backgroundTasks.submit(BackgroundExecutors.Pool.IO, Priority.HIGH, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				InputStream is = null;
+
+				try
+				{
+					is = contentResolver.openInputStream(uri);
+					final List<BatchSweep.Entry> entries = BatchSweep.parse(new InputStreamReader(is, Charsets.UTF_8));
+
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							startBatchSweep(entries);
+						}
+					});
+				}
+				catch (final IOException x)
+				{
+					log.info("problem reading list of keys from " + uri, x);
+
+					handler.post(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							final DialogBuilder dialog = DialogBuilder.warn(activity, R.string.sweep_wallet_options_import_keys);
+							dialog.setMessage(getString(R.string.sweep_wallet_fragment_batch_read_failed, x.getMessage()));
+							dialog.setNeutralButton(R.string.button_dismiss, null);
+							dialog.show();
+						}
+					});
+				}
+				finally
+				{
+					if (is != null)
+					{
+						try
+						{
+							is.close();
+						}
+						catch (final IOException x)
+						{
+							// swallow
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void startBatchSweep(final List<BatchSweep.Entry> entries)
+	{
+		if (entries.isEmpty())
+		{
+			final DialogBuilder dialog = DialogBuilder.warn(activity, R.string.sweep_wallet_options_import_keys);
+			dialog.setMessage(R.string.sweep_wallet_fragment_batch_empty);
+			dialog.setNeutralButton(R.string.button_dismiss, null);
+			dialog.show();
+			return;
+		}
+
+		log.info("sweeping list of {} keys", entries.size());
+
+		privateKeyToSweep = null;
+		walletToSweep = null;
+		batchSweep = new BatchSweep(entries, backgroundTasks, application.httpClient())
+		{
+			@Override
+			protected void onProgress(final BatchSweep.Entry entry)
+			{
+				batchKeysAdapter.notifyDataSetChanged();
+				updateView();
+			}
+
+			@Override
+			protected void onDone()
+			{
+				updateView();
+			}
+		};
+		batchKeysAdapter.clear();
+		batchKeysAdapter.addAll(batchSweep.getEntries());
+
+		if (batchSweep.needsPassphrase())
+		{
+			setState(State.DECODE_KEY);
+		}
+		else
+		{
+			setState(State.CONFIRM_SWEEP);
+			batchSweep.start(null);
+		}
+	}
+
+	private String batchEntryStatus(final BatchSweep.Entry entry)
+	{
+		switch (entry.status)
+		{
+			case PENDING:
+				return getString(R.string.sweep_wallet_fragment_batch_status_pending);
+			case DECODING:
+				return getString(R.string.sweep_wallet_fragment_batch_status_decoding);
+			case LOOKING_UP:
+				return getString(R.string.sweep_wallet_fragment_batch_status_looking_up);
+			case EMPTY:
+				return getString(R.string.sweep_wallet_fragment_batch_status_empty);
+			case FUNDED:
+				return config.getFormat().format(entry.balance).toString();
+			case SWEPT:
+				return getString(R.string.sweep_wallet_fragment_batch_status_swept);
+			default:
+				return getString(R.string.sweep_wallet_fragment_batch_status_failed) + ": " + getString(entry.messageResId, entry.messageArgs);
+		}
+	}
+
 	private final TransactionConfidence.Listener sentTransactionConfidenceListener = new TransactionConfidence.Listener()
 	{
 		@Override
@@ -398,6 +591,17 @@ public class SweepWalletFragment extends Fragment
 	private void maybeDecodeKey()
 	{
 		checkState(state == State.DECODE_KEY);
+
+		if (batchSweep != null)
+		{
+			final String password = passwordView.getText().toString().trim();
+			passwordView.setText(null); // get rid of it asap
+
+			setState(State.CONFIRM_SWEEP);
+			batchSweep.start(password);
+			return;
+		}
+
 		checkState(privateKeyToSweep != null);
 
 		if (privateKeyToSweep instanceof DumpedPrivateKey)
@@ -416,7 +620,7 @@ public class SweepWalletFragment extends Fragment
 			{
 				ProgressDialogFragment.showProgress(fragmentManager, getString(R.string.sweep_wallet_fragment_decrypt_progress));
 
-				new DecodePrivateKeyTask(backgroundHandler)
+				new DecodePrivateKeyTask(backgroundTasks.executor(BackgroundExecutors.Pool.CPU, Priority.HIGH))
 				{
 					@Override
 					protected void onSuccess(@Nonnull ECKey decryptedKey)
@@ -508,7 +712,8 @@ public class SweepWalletFragment extends Fragment
 		};
 
 		final Address address = walletToSweep.getImportedKeys().iterator().next().toAddress(Constants.NETWORK_PARAMETERS);
-		new RequestWalletBalanceTask(backgroundHandler, callback, application.httpUserAgent()).requestWalletBalance(address);
+		requestWalletBalanceTask = new RequestWalletBalanceTask(backgroundTasks, callback, application.httpClient());
+		requestWalletBalanceTask.requestWalletBalance(address);
 	}
 
 	private void setState(final State state)
@@ -522,10 +727,11 @@ public class SweepWalletFragment extends Fragment
 	{
 		final MonetaryFormat btcFormat = config.getFormat();
 
-		if (walletToSweep != null)
+		if (walletToSweep != null || batchSweep != null)
 		{
 			balanceView.setVisibility(View.VISIBLE);
-			final MonetarySpannable balanceSpannable = new MonetarySpannable(btcFormat, walletToSweep.getBalance(BalanceType.ESTIMATED));
+			final MonetarySpannable balanceSpannable = new MonetarySpannable(btcFormat, batchSweep != null ? batchSweep.getBalance()
+					: walletToSweep.getBalance(BalanceType.ESTIMATED));
 			balanceSpannable.applyMarkup(null, null);
 			final SpannableStringBuilder balance = new SpannableStringBuilder(balanceSpannable);
 			balance.insert(0, ": ");
@@ -537,7 +743,21 @@ public class SweepWalletFragment extends Fragment
 			balanceView.setVisibility(View.GONE);
 		}
 
-		if (state == State.DECODE_KEY && privateKeyToSweep == null)
+		if (batchSweep != null)
+		{
+			final int numEntries = batchSweep.getEntries().size();
+			final int numFunded = batchSweep.count(BatchSweep.Status.FUNDED);
+			final int numEmpty = batchSweep.count(BatchSweep.Status.EMPTY);
+			final int numFailed = batchSweep.count(BatchSweep.Status.FAILED);
+			final int numSwept = batchSweep.count(BatchSweep.Status.SWEPT);
+			messageView.setVisibility(View.VISIBLE);
+			if (state == State.DECODE_KEY)
+				messageView.setText(R.string.sweep_wallet_fragment_batch_encrypted);
+			else
+				messageView.setText(getString(R.string.sweep_wallet_fragment_batch_progress, numFunded + numEmpty + numFailed + numSwept,
+						numEntries, numFunded + numSwept, numEmpty, numFailed));
+		}
+		else if (state == State.DECODE_KEY && privateKeyToSweep == null)
 		{
 			messageView.setVisibility(View.VISIBLE);
 			messageView.setText(R.string.sweep_wallet_fragment_wallet_unknown);
@@ -552,9 +772,14 @@ public class SweepWalletFragment extends Fragment
 			messageView.setVisibility(View.GONE);
 		}
 
-		passwordViewGroup.setVisibility(state == State.DECODE_KEY && privateKeyToSweep != null ? View.VISIBLE : View.GONE);
+		final boolean hasKeys = privateKeyToSweep != null || batchSweep != null;
+
+		passwordViewGroup.setVisibility(state == State.DECODE_KEY && hasKeys ? View.VISIBLE : View.GONE);
 
-		hintView.setVisibility(state == State.DECODE_KEY && privateKeyToSweep == null ? View.VISIBLE : View.GONE);
+		hintView.setVisibility(state == State.DECODE_KEY && !hasKeys ? View.VISIBLE : View.GONE);
+
+		batchKeysView.setVisibility(batchSweep != null ? View.VISIBLE : View.GONE);
+		stretchView.setVisibility(batchSweep != null ? View.GONE : View.VISIBLE);
 
 		if (sentTransaction != null)
 		{
@@ -572,13 +797,16 @@ public class SweepWalletFragment extends Fragment
 		{
 			viewCancel.setText(R.string.button_cancel);
 			viewGo.setText(R.string.sweep_wallet_fragment_button_decrypt);
-			viewGo.setEnabled(privateKeyToSweep != null);
+			viewGo.setEnabled(hasKeys);
 		}
 		else if (state == State.CONFIRM_SWEEP)
 		{
 			viewCancel.setText(R.string.button_cancel);
 			viewGo.setText(R.string.sweep_wallet_fragment_button_sweep);
-			viewGo.setEnabled(walletToSweep != null && walletToSweep.getBalance(BalanceType.ESTIMATED).signum() > 0);
+			if (batchSweep != null)
+				viewGo.setEnabled(batchSweep.isDone() && batchSweep.getBalance().signum() > 0);
+			else
+				viewGo.setEnabled(walletToSweep != null && walletToSweep.getBalance(BalanceType.ESTIMATED).signum() > 0);
 		}
 		else if (state == State.PREPARATION)
 		{
@@ -609,9 +837,11 @@ public class SweepWalletFragment extends Fragment
 
 		// enable actions
 		if (reloadAction != null)
-			reloadAction.setEnabled(state == State.CONFIRM_SWEEP && walletToSweep != null);
+			reloadAction.setEnabled(state == State.CONFIRM_SWEEP && (walletToSweep != null || (batchSweep != null && batchSweep.isDone())));
 		if (scanAction != null)
 			scanAction.setEnabled(state == State.DECODE_KEY || state == State.CONFIRM_SWEEP);
+		if (importKeysAction != null)
+			importKeysAction.setEnabled(state == State.DECODE_KEY || state == State.CONFIRM_SWEEP);
 	}
 
 	private void handleDecrypt()
@@ -621,11 +851,17 @@ public class SweepWalletFragment extends Fragment
 
 	private void handleSweep()
 	{
+		if (batchSweep != null)
+		{
+			handleBatchSweep();
+			return;
+		}
+
 		setState(State.PREPARATION);
 
 		final SendRequest sendRequest = SendRequest.emptyWallet(application.getWallet().freshReceiveAddress());
 
-		new SendCoinsOfflineTask(walletToSweep, backgroundHandler)
+		new SendCoinsOfflineTask(walletToSweep, backgroundTasks.executor(BackgroundExecutors.Pool.CPU, Priority.HIGH))
 		{
 			@Override
 			protected void onSuccess(final Transaction transaction)
@@ -681,4 +917,72 @@ public class SweepWalletFragment extends Fragment
 			}
 		}.sendCoinsOffline(sendRequest); // send asynchronously
 	}
+
+	private void handleBatchSweep()
+	{
+		setState(State.PREPARATION);
+
+		batchSweepWallets.clear();
+		batchSweepWallets.addAll(batchSweep.buildSweepWallets());
+		sweepNextBatch();
+	}
+
+	/**
+	 * Empties the sweep wallets one after the other. A failure only affects the keys of that wallet.
+	 */
+	private void sweepNextBatch()
+	{
+		batchKeysAdapter.notifyDataSetChanged();
+
+		if (batchSweepWallets.isEmpty())
+		{
+			setState(batchSweep.count(BatchSweep.Status.SWEPT) > 0 ? State.SENT : State.FAILED);
+			return;
+		}
+
+		final BatchSweep.SweepWallet sweepWallet = batchSweepWallets.remove(0);
+		final SendRequest sendRequest = SendRequest.emptyWallet(application.getWallet().freshReceiveAddress());
+
+		new SendCoinsOfflineTask(sweepWallet.wallet, backgroundTasks.executor(BackgroundExecutors.Pool.CPU, Priority.HIGH))
+		{
+			@Override
+			protected void onSuccess(final Transaction transaction)
+			{
+				log.info("swept {} keys with transaction {}", sweepWallet.entries.size(), transaction.getHashAsString());
+
+				sweepWallet.swept();
+				application.processDirectTransaction(transaction);
+				sweepNextBatch();
+			}
+
+			@Override
+			protected void onInsufficientMoney(@Nullable final Coin missing)
+			{
+				sweepWallet.failed(R.string.sweep_wallet_fragment_insufficient_money_msg);
+				sweepNextBatch();
+			}
+
+			@Override
+			protected void onEmptyWalletFailed()
+			{
+				sweepWallet.failed(R.string.sweep_wallet_fragment_insufficient_money_msg);
+				sweepNextBatch();
+			}
+
+			@Override
+			protected void onFailure(final Exception exception)
+			{
+				log.info("failed sweeping " + sweepWallet.entries.size() + " keys", exception);
+
+				sweepWallet.failed(R.string.send_coins_error_msg);
+				sweepNextBatch();
+			}
+
+			@Override
+			protected void onInvalidKey()
+			{
+				throw new RuntimeException(); // cannot happen
+			}
+		}.sendCoinsOffline(sendRequest);
+	}
 }
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.ui.send;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.json.JSONException;
+
+import com.dogecoin.dogecoinj.core.Block;
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Streaming parser for unspent outputs JSON like
+ * <code>{"success":1,"unspent_outputs":[{"tx_hash":…,"tx_output_n":…,"script":…,"value":…},…]}</code>, as returned by
+ * dogechain.info and the chain.so lite API. Reads straight from the reader into a reused buffer, without building a tree.
+ * Unknown fields are skipped.
+ *
+ * @author Andreas Schildbach
+ */
+final class UnspentOutputsParser
+{
+	private static final int BUFFER_SIZE = 4096;
+	private static final int MAX_DEPTH = 32;
+
+	/** Even a block full of the smallest possible outputs has no more than this. */
+	static final int MAX_OUTPUT_INDEX = Block.MAX_BLOCK_SIZE / 9;
+
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private final StringBuilder token = new StringBuilder(64);
+	private int pos = 0;
+	private int limit = 0;
+	private long charsRead = 0;
+
+	public UnspentOutputsParser(@Nonnull final Reader reader)
+	{
+		this.reader = reader;
+	}
+
+	/**
+	 * Appends the outputs to the list, skipping those already seen.
+	 *
+	 * @return number of outputs in the document, including those already seen
+	 */
+	public int parse(@Nonnull final Set<String> seen, @Nonnull final List<RequestWalletBalanceTask.Utxo> utxos) throws IOException,
+			JSONException
+	{
+		int success = 1;
+		int numOutputs = -1;
+
+		expect('{');
+		if (!next('}'))
+		{
+			while (true)
+			{
+				readString(token);
+				expect(':');
+
+				if (contentEquals(token, "success"))
+				{
+					readNumber(token);
+					success = parseInt(token);
+				}
+				else if (contentEquals(token, "unspent_outputs") && peek() == '[')
+				{
+					numOutputs = 0;
+					pos++;
+					if (!next(']'))
+					{
+						while (true)
+						{
+							final RequestWalletBalanceTask.Utxo utxo = readUtxo();
+							numOutputs++;
+							if (seen.add(utxo.hash + ":" + utxo.index))
+								utxos.add(utxo);
+
+							if (!next(','))
+								break;
+						}
+						expect(']');
+					}
+				}
+				else
+				{
+					skipValue(0);
+				}
+
+				if (!next(','))
+					break;
+			}
+			expect('}');
+		}
+
+		if (success != 1)
+			throw new IOException("api status " + success + " when fetching unspent outputs");
+		if (numOutputs < 0)
+			throw new IOException("no unspent outputs in response");
+
+		return numOutputs;
+	}
+
+	private RequestWalletBalanceTask.Utxo readUtxo() throws IOException, JSONException
+	{
+		Sha256Hash hash = null;
+		int index = -1;
+		byte[] script = null;
+		long value = -1;
+
+		expect('{');
+		if (!next('}'))
+		{
+			while (true)
+			{
+				readString(token);
+				expect(':');
+
+				try
+				{
+					if (contentEquals(token, "tx_hash"))
+					{
+						readString(token);
+						hash = new Sha256Hash(token.toString());
+					}
+					else if (contentEquals(token, "tx_output_n"))
+					{
+						readNumber(token);
+						index = parseInt(token);
+					}
+					else if (contentEquals(token, "script"))
+					{
+						readString(token);
+						script = HEX.decode(token);
+					}
+					else if (contentEquals(token, "value"))
+					{
+						readNumber(token);
+						value = Long.parseLong(token.toString());
+					}
+					else
+					{
+						skipValue(1);
+					}
+				}
+				catch (final IllegalArgumentException x)
+				{
+					// bad number or hex
+					throw new JSONException(x.getMessage());
+				}
+
+				if (!next(','))
+					break;
+			}
+			expect('}');
+		}
+
+		if (hash == null || index < 0 || script == null || value < 0)
+			throw new IOException("incomplete unspent output: " + hash + ":" + index);
+		if (index > MAX_OUTPUT_INDEX)
+			throw new IOException("implausible output index: " + hash + ":" + index);
+
+		return new RequestWalletBalanceTask.Utxo(hash, index, value, script);
+	}
+
+	private void skipValue(final int depth) throws IOException, JSONException
+	{
+		if (depth > MAX_DEPTH)
+			throw new JSONException("nesting too deep");
+
+		final char c = peek();
+		if (c == '"')
+		{
+			readString(null);
+		}
+		else if (c == '{' || c == '[')
+		{
+			final char close = c == '{' ? '}' : ']';
+			pos++;
+			if (next(close))
+				return;
+			while (true)
+			{
+				if (c == '{')
+				{
+					readString(null);
+					expect(':');
+				}
+				skipValue(depth + 1);
+				if (!next(','))
+					break;
+			}
+			expect(close);
+		}
+		else
+		{
+			readScalar(null);
+		}
+	}
+
+	/**
+	 * Reads a string into the builder, or just skips it if the builder is null. Escapes other than <code>\"</code> and
+	 * <code>\\</code> don't occur in the fields we read, so they are taken literally.
+	 */
+	private void readString(final StringBuilder builder) throws IOException, JSONException
+	{
+		expect('"');
+		if (builder != null)
+			builder.setLength(0);
+
+		while (true)
+		{
+			if (pos >= limit && !fill())
+				throw new JSONException("unterminated string");
+
+			char c = buffer[pos++];
+			if (c == '"')
+				return;
+
+			if (c == '\\')
+			{
+				if (pos >= limit && !fill())
+					throw new JSONException("unterminated escape");
+				c = buffer[pos++];
+			}
+
+			if (builder != null)
+				builder.append(c);
+		}
+	}
+
+	/**
+	 * Reads a number into the builder, whether it is quoted or not.
+	 */
+	private void readNumber(final StringBuilder builder) throws IOException, JSONException
+	{
+		if (peek() == '"')
+			readString(builder);
+		else
+			readScalar(builder);
+	}
+
+	/**
+	 * Reads a number or literal into the builder, or just skips it if the builder is null.
+	 */
+	private void readScalar(final StringBuilder builder) throws IOException, JSONException
+	{
+		if (builder != null)
+			builder.setLength(0);
+
+		boolean any = false;
+		while (pos < limit || fill())
+		{
+			final char c = buffer[pos];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || isWhitespace(c))
+				break;
+
+			if (builder != null)
+				builder.append(c);
+			pos++;
+			any = true;
+		}
+
+		if (!any)
+			throw new JSONException("value expected at " + position());
+	}
+
+	/**
+	 * @return next non-whitespace char, without consuming it
+	 */
+	private char peek() throws IOException, JSONException
+	{
+		while (true)
+		{
+			if (pos >= limit && !fill())
+				throw new JSONException("unexpected end of input");
+
+			final char c = buffer[pos];
+			if (!isWhitespace(c))
+				return c;
+			pos++;
+		}
+	}
+
+	/**
+	 * Consumes the next non-whitespace char if it is the given one.
+	 */
+	private boolean next(final char expected) throws IOException, JSONException
+	{
+		if (peek() != expected)
+			return false;
+
+		pos++;
+		return true;
+	}
+
+	private void expect(final char expected) throws IOException, JSONException
+	{
+		final char c = peek();
+		if (c != expected)
+			throw new JSONException("expected '" + expected + "' but got '" + c + "' at " + position());
+
+		pos++;
+	}
+
+	private boolean fill() throws IOException
+	{
+		final int n = reader.read(buffer, 0, buffer.length);
+		if (n <= 0)
+			return false;
+
+		pos = 0;
+		limit = n;
+		charsRead += n;
+		return true;
+	}
+
+	private long position()
+	{
+		return charsRead - limit + pos;
+	}
+
+	private static int parseInt(final CharSequence token) throws JSONException
+	{
+		try
+		{
+			return Integer.parseInt(token.toString());
+		}
+		catch (final NumberFormatException x)
+		{
+			throw new JSONException("not an integer: " + token);
+		}
+	}
+
+	private static boolean isWhitespace(final char c)
+	{
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private static boolean contentEquals(final CharSequence a, final String b)
+	{
+		final int length = a.length();
+		if (length != b.length())
+			return false;
+
+		for (int i = 0; i < length; i++)
+			if (a.charAt(i) != b.charAt(i))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide thread pools for background work, one per kind of work so that e.g. slow network requests cannot hold up key
+ * derivation. Each pool has a bounded queue ordered by {@link Priority}, then by submission order.
+ *
+ * UI components submit through a {@link Scope}, which they cancel when they go away.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BackgroundExecutors
+{
+	public enum Pool
+	{
+		/** Signing, key derivation and the like. */
+		CPU,
+		/** Local files and the wallet. */
+		IO,
+		/** Blocking network requests. */
+		NETWORK
+	}
+
+	public enum Priority
+	{
+		/** Something the user is waiting for. */
+		HIGH,
+		NORMAL,
+		/** Nice to have, like reverse lookups for display. */
+		LOW
+	}
+
+	private static final int QUEUE_CAPACITY = 64;
+	private static final long KEEP_ALIVE_S = 30;
+
+	private final PoolExecutor[] pools = new PoolExecutor[Pool.values().length];
+
+	private static final Logger log = LoggerFactory.getLogger(BackgroundExecutors.class);
+
+	public BackgroundExecutors()
+	{
+		this(Runtime.getRuntime().availableProcessors(), 2, 4);
+	}
+
+	public BackgroundExecutors(final int numCpuThreads, final int numIoThreads, final int numNetworkThreads)
+	{
+		pools[Pool.CPU.ordinal()] = new PoolExecutor("cpu", numCpuThreads);
+		pools[Pool.IO.ordinal()] = new PoolExecutor("io", numIoThreads);
+		pools[Pool.NETWORK.ordinal()] = new PoolExecutor("network", numNetworkThreads);
+	}
+
+	/**
+	 * @throws RejectedExecutionException
+	 *             if the queue of the pool is full
+	 */
+	public Future<?> submit(@Nonnull final Pool pool, @Nonnull final Priority priority, @Nonnull final Runnable runnable)
+	{
+		return submit(pool, priority, runnable, null);
+	}
+
+	public Scope newScope()
+	{
+		return new Scope();
+	}
+
+	public int getQueueDepth(@Nonnull final Pool pool)
+	{
+		return pools[pool.ordinal()].getQueue().size();
+	}
+
+	public void shutdown()
+	{
+		for (final PoolExecutor pool : pools)
+			pool.shutdownNow();
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (final PoolExecutor pool : pools)
+		{
+			if (builder.length() > 0)
+				builder.append("; ");
+			builder.append(pool);
+		}
+		return builder.toString();
+	}
+
+	private Task submit(final Pool pool, final Priority priority, final Runnable runnable, @Nullable final Scope scope)
+	{
+		final PoolExecutor executor = pools[pool.ordinal()];
+		final Task task = new Task(runnable, priority, executor.sequence.getAndIncrement(), scope);
+
+		synchronized (executor)
+		{
+			final int depth = executor.getQueue().size();
+			if (depth >= QUEUE_CAPACITY)
+			{
+				executor.numRejected.incrementAndGet();
+				throw new RejectedExecutionException(executor.name + " queue full");
+			}
+			if (depth + 1 > executor.maxQueueDepth)
+				executor.maxQueueDepth = depth + 1;
+		}
+
+		if (scope != null)
+			scope.add(task);
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Tasks submitted through a scope can all be cancelled at once, e.g. when the fragment that submitted them is destroyed.
+	 * Cancelling drops queued tasks; running tasks are only interrupted if asked to. Anything submitted after cancelling is
+	 * dropped.
+	 */
+	public final class Scope
+	{
+		private final Set<Task> tasks = Collections.synchronizedSet(new HashSet<Task>());
+		private volatile boolean cancelled = false;
+
+		private Scope()
+		{
+		}
+
+		/**
+		 * @return executor that submits to the given pool at the given priority, within this scope
+		 */
+		public Executor executor(@Nonnull final Pool pool, @Nonnull final Priority priority)
+		{
+			return new Executor()
+			{
+				@Override
+				public void execute(final Runnable runnable)
+				{
+					submit(pool, priority, runnable);
+				}
+			};
+		}
+
+		/**
+		 * @return future of the task, or null if this scope has already been cancelled
+		 * @throws RejectedExecutionException
+		 *             if the queue of the pool is full
+		 */
+		@CheckForNull
+		public Future<?> submit(@Nonnull final Pool pool, @Nonnull final Priority priority, @Nonnull final Runnable runnable)
+		{
+			if (cancelled)
+			{
+				log.info("scope cancelled, dropping {}", runnable);
+				return null;
+			}
+
+			return BackgroundExecutors.this.submit(pool, priority, runnable, this);
+		}
+
+		public void cancel(final boolean mayInterruptIfRunning)
+		{
+			cancelled = true;
+
+			final Task[] pending;
+			synchronized (tasks)
+			{
+				pending = tasks.toArray(new Task[tasks.size()]);
+				tasks.clear();
+			}
+			for (final Task task : pending)
+				task.cancel(mayInterruptIfRunning);
+
+			// cancelled tasks would otherwise stay queued until their turn
+			for (final PoolExecutor pool : pools)
+				pool.purge();
+		}
+
+		public int size()
+		{
+			return tasks.size();
+		}
+
+		private void add(final Task task)
+		{
+			tasks.add(task);
+			if (cancelled)
+				task.cancel(false);
+		}
+
+		private void remove(final Task task)
+		{
+			tasks.remove(task);
+		}
+	}
+
+	private static final class Task extends FutureTask<Void> implements Comparable<Task>
+	{
+		public final Priority priority;
+		public final long sequence;
+		public final long submitTime = System.currentTimeMillis();
+		public long startTime;
+		@CheckForNull
+		private final Scope scope;
+
+		public Task(final Runnable runnable, final Priority priority, final long sequence, @Nullable final Scope scope)
+		{
+			super(runnable, null);
+
+			this.priority = priority;
+			this.sequence = sequence;
+			this.scope = scope;
+		}
+
+		@Override
+		public int compareTo(final Task other)
+		{
+			final int priorityCompare = priority.compareTo(other.priority);
+			if (priorityCompare != 0)
+				return priorityCompare;
+			return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+		}
+
+		@Override
+		protected void done()
+		{
+			if (scope != null)
+				scope.remove(this);
+		}
+	}
+
+	private static final class PoolExecutor extends ThreadPoolExecutor
+	{
+		public final String name;
+		public final AtomicLong sequence = new AtomicLong();
+
+		public final AtomicLong numCompleted = new AtomicLong();
+		public final AtomicLong numFailed = new AtomicLong();
+		public final AtomicLong numRejected = new AtomicLong();
+		public final AtomicLong sumWaitMs = new AtomicLong();
+		public final AtomicLong sumRunMs = new AtomicLong();
+		// guarded by this
+		public int maxQueueDepth = 0;
+
+		public PoolExecutor(final String name, final int numThreads)
+		{
+			super(numThreads, numThreads, KEEP_ALIVE_S, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(QUEUE_CAPACITY),
+					new PoolThreadFactory(name));
+			allowCoreThreadTimeOut(true);
+
+			this.name = name;
+		}
+
+		@Override
+		protected void beforeExecute(final Thread thread, final Runnable runnable)
+		{
+			final Task task = (Task) runnable;
+			task.startTime = System.currentTimeMillis();
+			sumWaitMs.addAndGet(task.startTime - task.submitTime);
+		}
+
+		@Override
+		protected void afterExecute(final Runnable runnable, final Throwable throwable)
+		{
+			final Task task = (Task) runnable;
+			final long runMs = System.currentTimeMillis() - task.startTime;
+			sumRunMs.addAndGet(runMs);
+			numCompleted.incrementAndGet();
+
+			// FutureTask swallows exceptions, so look for them here
+			if (task.isDone() && !task.isCancelled())
+			{
+				try
+				{
+					task.get();
+				}
+				catch (final Exception x)
+				{
+					numFailed.incrementAndGet();
+					log.warn("background task failed on " + name, x.getCause() != null ? x.getCause() : x);
+				}
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			final long completed = numCompleted.get();
+			final int maxDepth;
+			synchronized (this)
+			{
+				maxDepth = maxQueueDepth;
+			}
+
+			final StringBuilder builder = new StringBuilder(name);
+			builder.append(": ").append(getPoolSize()).append('/').append(getMaximumPoolSize()).append(" threads");
+			builder.append(", queue ").append(getQueue().size()).append(" (max ").append(maxDepth).append(')');
+			builder.append(", ").append(completed).append(" done");
+			if (numFailed.get() > 0)
+				builder.append(", ").append(numFailed.get()).append(" failed");
+			if (numRejected.get() > 0)
+				builder.append(", ").append(numRejected.get()).append(" rejected");
+			if (completed > 0)
+				builder.append(", avg wait ").append(sumWaitMs.get() / completed).append(" ms, avg run ").append(sumRunMs.get() / completed)
+						.append(" ms");
+			return builder.toString();
+		}
+	}
+
+	private static final class PoolThreadFactory implements ThreadFactory
+	{
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public PoolThreadFactory(final String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable)
+		{
+			final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			// maps to Process.THREAD_PRIORITY_BACKGROUND on Android
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+}
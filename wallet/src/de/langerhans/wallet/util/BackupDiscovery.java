@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.AddressFormatException;
+import com.dogecoin.dogecoinj.core.DumpedPrivateKey;
+import com.dogecoin.dogecoinj.store.WalletProtobufSerializer;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * Finds out what kind of backup a file is by looking at its first few kilobytes only. Results are cached by path, size and
+ * modification time, so opening the restore dialog again costs a stat per file. Safe to use from any thread.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BackupDiscovery
+{
+	public enum Type
+	{
+		/** Unencrypted wallet protobuf. */
+		PROTOBUF,
+		/** Base58 private keys, one per line. */
+		KEYS,
+		/** Base64 OpenSSL cipher text, of either of the above. */
+		ENCRYPTED,
+		UNKNOWN
+	}
+
+	public interface Listener
+	{
+		/**
+		 * Called once on a background thread.
+		 * 
+		 * @param types
+		 *            type of each file, in the order given
+		 */
+		void onDiscovered(@Nonnull Map<File, Type> types);
+	}
+
+	/** Enough for the protobuf parser to look at the first field, and for a key after a few comment lines. */
+	private static final int SNIFF_LIMIT = 4096;
+
+	private static final int MAX_PARALLELISM = 4;
+
+	private final ConcurrentMap<String, Classification> cache = new ConcurrentHashMap<String, Classification>();
+
+	private final AtomicLong numHits = new AtomicLong();
+	private final AtomicLong numMisses = new AtomicLong();
+
+	private static final Logger log = LoggerFactory.getLogger(BackupDiscovery.class);
+
+	/**
+	 * Classifies the files with a few workers, each taking the next file until none are left.
+	 * 
+	 * @param executor
+	 *            runs the workers
+	 */
+	public void discover(@Nonnull final Collection<File> files, @Nonnull final Executor executor, @Nonnull final Listener listener)
+	{
+		final List<File> list = new ArrayList<File>(files);
+		final Type[] types = new Type[list.size()];
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final int numWorkers = Math.max(1, Math.min(MAX_PARALLELISM, list.size()));
+		final AtomicInteger numWorkersLeft = new AtomicInteger(numWorkers);
+		final long start = System.currentTimeMillis();
+
+		for (int i = 0; i < numWorkers; i++)
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					int index;
+					while ((index = nextIndex.getAndIncrement()) < list.size())
+						types[index] = classify(list.get(index));
+
+					if (numWorkersLeft.decrementAndGet() == 0)
+					{
+						// the counter makes the results of the other workers visible
+						final Map<File, Type> result = new LinkedHashMap<File, Type>(list.size());
+						for (int j = 0; j < list.size(); j++)
+							result.put(list.get(j), types[j]);
+
+						log.info("classified {} files with {} workers, took {} ms; {}", list.size(), numWorkers, System.currentTimeMillis()
+								- start, BackupDiscovery.this);
+						listener.onDiscovered(result);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Looks the file up in the cache, and sniffs it if it is not there or has changed.
+	 */
+	@Nonnull
+	public Type classify(@Nonnull final File file)
+	{
+		final String path = file.getAbsolutePath();
+		final long size = file.length();
+		final long lastModified = file.lastModified();
+
+		final Classification cached = cache.get(path);
+		if (cached != null && cached.size == size && cached.lastModified == lastModified)
+		{
+			numHits.incrementAndGet();
+			return cached.type;
+		}
+
+		numMisses.incrementAndGet();
+		final Type type = sniff(file);
+		cache.put(path, new Classification(size, lastModified, type));
+		return type;
+	}
+
+	/**
+	 * @return type of the file if it was classified before and hasn't changed since, or null
+	 */
+	@CheckForNull
+	public Type getCached(@Nonnull final File file)
+	{
+		final Classification cached = cache.get(file.getAbsolutePath());
+		if (cached != null && cached.size == file.length() && cached.lastModified == file.lastModified())
+			return cached.type;
+		return null;
+	}
+
+	public void clear()
+	{
+		cache.clear();
+	}
+
+	@Override
+	public String toString()
+	{
+		return cache.size() + " cached, " + numHits.get() + " hits, " + numMisses.get() + " misses";
+	}
+
+	/**
+	 * Reads the first few kilobytes of the file, bypassing the cache.
+	 */
+	@Nonnull
+	public static Type sniff(@Nonnull final File file)
+	{
+		if (!file.isFile())
+			return Type.UNKNOWN;
+
+		InputStream is = null;
+		try
+		{
+			is = new FileInputStream(file);
+			final byte[] header = new byte[SNIFF_LIMIT];
+			final int len = ByteStreams.read(is, header, 0, header.length);
+			return sniff(header, len);
+		}
+		catch (final IOException x)
+		{
+			return Type.UNKNOWN;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	@Nonnull
+	static Type sniff(@Nonnull final byte[] header, final int len)
+	{
+		if (len == 0)
+			return Type.UNKNOWN;
+
+		if (WalletProtobufSerializer.isWallet(new ByteArrayInputStream(header, 0, len)))
+			return Type.PROTOBUF;
+
+		final String text = new String(header, 0, len, Charsets.UTF_8);
+		if (text.startsWith(Crypto.OPENSSL_MAGIC_TEXT))
+			return Type.ENCRYPTED;
+
+		// first key, the rest of the file isn't looked at
+		for (final String line : text.split("\n"))
+		{
+			if (line.trim().isEmpty() || line.charAt(0) == '#')
+				continue; // skip comment
+
+			try
+			{
+				new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, line.trim().split(" ")[0]);
+				return Type.KEYS;
+			}
+			catch (final AddressFormatException x)
+			{
+				return Type.UNKNOWN;
+			}
+		}
+
+		return Type.UNKNOWN;
+	}
+
+	private static final class Classification
+	{
+		public final long size;
+		public final long lastModified;
+		public final Type type;
+
+		public Classification(final long size, final long lastModified, final Type type)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.AbstractWalletEventListener;
+import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.dogecoin.dogecoinj.core.Transaction;
+import com.dogecoin.dogecoinj.core.Wallet;
+import com.dogecoin.dogecoinj.core.WalletEventListener;
+import com.dogecoin.dogecoinj.utils.Threading;
+
+/**
+ * Maps block hashes to the wallet transactions that appear in them. The index is built lazily by {@link #ensureBuilt()} and
+ * kept up to date from wallet events afterwards, so looking up the transactions of a block is a hash lookup.
+ *
+ * @author Andreas Schildbach
+ */
+public final class BlockTransactionIndex
+{
+	private enum State
+	{
+		NONE, BUILDING, BUILT
+	}
+
+	@CheckForNull
+	private Wallet wallet;
+	private State state = State.NONE;
+	private final Map<Sha256Hash, List<Transaction>> transactionsByBlock = new HashMap<Sha256Hash, List<Transaction>>();
+	private final Map<Sha256Hash, Set<Sha256Hash>> blocksByTransaction = new HashMap<Sha256Hash, Set<Sha256Hash>>();
+	/** Transactions that changed while the index was being built. */
+	private final Set<Transaction> pending = new HashSet<Transaction>();
+
+	private static final Logger log = LoggerFactory.getLogger(BlockTransactionIndex.class);
+
+	/**
+	 * Follows the given wallet from now on, forgetting everything about the previous one.
+	 */
+	public void attach(@Nonnull final Wallet wallet)
+	{
+		final Wallet previousWallet;
+		synchronized (this)
+		{
+			previousWallet = this.wallet;
+			this.wallet = wallet;
+			clear();
+		}
+
+		if (previousWallet != null)
+			previousWallet.removeEventListener(walletEventListener);
+		wallet.addEventListener(walletEventListener, Threading.SAME_THREAD);
+	}
+
+	/**
+	 * Builds the index if needed. Scans all wallet transactions, so don't call on the main thread.
+	 */
+	public void ensureBuilt()
+	{
+		final Wallet wallet;
+		synchronized (this)
+		{
+			if (state != State.NONE || this.wallet == null)
+				return;
+
+			wallet = this.wallet;
+			state = State.BUILDING;
+		}
+
+		final long start = System.currentTimeMillis();
+
+		// must not hold our lock while acquiring the wallet lock, wallet events are delivered the other way round
+		final Set<Transaction> transactions = wallet.getTransactions(true);
+
+		synchronized (this)
+		{
+			if (state != State.BUILDING || this.wallet != wallet)
+				return; // invalidated meanwhile
+
+			for (final Transaction tx : transactions)
+				index(tx);
+			for (final Transaction tx : pending)
+				index(tx);
+			pending.clear();
+
+			state = State.BUILT;
+
+			log.info("indexed {} transactions in {} blocks, took {}ms", blocksByTransaction.size(), transactionsByBlock.size(),
+					System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * @return transactions appearing in the given block, or an empty list if there are none or the index is not built yet
+	 */
+	@Nonnull
+	public synchronized List<Transaction> get(@Nonnull final Sha256Hash blockHash)
+	{
+		final List<Transaction> transactions = transactionsByBlock.get(blockHash);
+		if (transactions == null)
+			return Collections.emptyList();
+
+		return new ArrayList<Transaction>(transactions);
+	}
+
+	private synchronized void update(@Nonnull final Transaction tx)
+	{
+		if (state == State.BUILT)
+			index(tx);
+		else if (state == State.BUILDING)
+			pending.add(tx);
+	}
+
+	private synchronized void invalidate()
+	{
+		clear();
+	}
+
+	private void clear()
+	{
+		state = State.NONE;
+		transactionsByBlock.clear();
+		blocksByTransaction.clear();
+		pending.clear();
+	}
+
+	private void index(final Transaction tx)
+	{
+		final Sha256Hash txHash = tx.getHash();
+		final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
+		final Set<Sha256Hash> blocks = appearsIn != null ? appearsIn.keySet() : Collections.<Sha256Hash> emptySet();
+
+		// confidence changes with every block, appearances rarely do
+		final Set<Sha256Hash> previousBlocks = blocksByTransaction.get(txHash);
+		if (previousBlocks != null ? previousBlocks.equals(blocks) : blocks.isEmpty())
+			return;
+
+		if (previousBlocks != null)
+		{
+			blocksByTransaction.remove(txHash);
+
+			for (final Sha256Hash blockHash : previousBlocks)
+			{
+				final List<Transaction> transactions = transactionsByBlock.get(blockHash);
+				if (transactions != null)
+				{
+					transactions.remove(tx);
+					if (transactions.isEmpty())
+						transactionsByBlock.remove(blockHash);
+				}
+			}
+		}
+
+		if (blocks.isEmpty())
+			return;
+
+		blocksByTransaction.put(txHash, new HashSet<Sha256Hash>(blocks));
+		for (final Sha256Hash blockHash : blocks)
+		{
+			List<Transaction> transactions = transactionsByBlock.get(blockHash);
+			if (transactions == null)
+			{
+				transactions = new ArrayList<Transaction>(1);
+				transactionsByBlock.put(blockHash, transactions);
+			}
+			transactions.add(tx);
+		}
+	}
+
+	private final WalletEventListener walletEventListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			update(tx);
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			update(tx);
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			update(tx);
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			// appearances may have moved to blocks of the new chain, just rebuild on next use
+			invalidate();
+		}
+	};
+}
@@ -235,6 +235,15 @@ public class CrashReporter
 		report.append("Outputs: " + numOutputs + " (spent: " + numSpentOutputs + ")\n");
 		report.append("Last block seen: " + wallet.getLastBlockSeenHeight() + " (" + wallet.getLastBlockSeenHash() + ")\n");
 
+		report.append("HTTP: " + application.httpClient() + "\n");
+		report.append("Background: " + application.getBackgroundExecutors() + "\n");
+		report.append("Key derivation: " + application.getSessionKeyCache() + "\n");
+		report.append("Key backup: " + application.getKeyBackup() + "\n");
+
+		report.append("\nMemory trims:\n");
+		application.getMemoryPressure().appendHistory(report);
+		report.append("\n");
+
 		report.append("Databases:");
 		for (final String db : application.databaseList())
 			report.append(" " + db);
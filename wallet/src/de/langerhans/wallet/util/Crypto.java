@@ -16,12 +16,11 @@
 
 package de.langerhans.wallet.util;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -34,12 +33,15 @@ import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.PBEParametersGenerator;
 import org.spongycastle.crypto.engines.AESFastEngine;
 import org.spongycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 
 /**
  * This class encrypts and decrypts a string in a manner that is compatible with OpenSSL.
@@ -79,6 +81,16 @@ public class Crypto
 	 */
 	private static final int SALT_LENGTH = 8;
 
+	/**
+	 * AES block length.
+	 */
+	private static final int BLOCK_LENGTH = 16;
+
+	/**
+	 * Length of the OpenSSL salted prefix plus the salt.
+	 */
+	public static final int HEADER_LENGTH = 16;
+
 	/**
 	 * OpenSSL salted prefix text.
 	 */
@@ -93,7 +105,7 @@ public class Crypto
 	 * Magic text that appears at the beginning of every OpenSSL encrypted file. Used in identifying encrypted key
 	 * files.
 	 */
-	private static final String OPENSSL_MAGIC_TEXT = BASE64_ENCRYPT.encode(Crypto.OPENSSL_SALTED_BYTES).substring(0,
+	static final String OPENSSL_MAGIC_TEXT = BASE64_ENCRYPT.encode(Crypto.OPENSSL_SALTED_BYTES).substring(0,
 			Crypto.NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT);
 
 	private static final int NUMBER_OF_CHARACTERS_TO_MATCH_IN_OPENSSL_MAGIC_TEXT = 10;
@@ -148,43 +160,68 @@ public class Crypto
 	 */
 	public static String encrypt(@Nonnull final byte[] plainTextAsBytes, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] encryptedBytes = encryptRaw(plainTextAsBytes, password);
+		final byte[] buf = new byte[encryptedLength(plainTextAsBytes.length)];
+		System.arraycopy(plainTextAsBytes, 0, buf, HEADER_LENGTH, plainTextAsBytes.length);
 
-		// OpenSSL prefixes the salt bytes + encryptedBytes with Salted___ and then base64 encodes it
-		final byte[] encryptedBytesPlusSaltedText = concat(OPENSSL_SALTED_BYTES, encryptedBytes);
+		final int len = encrypt(buf, 0, plainTextAsBytes.length, password);
 
-		return BASE64_ENCRYPT.encode(encryptedBytesPlusSaltedText);
+		return BASE64_ENCRYPT.encode(buf, 0, len);
 	}
 
 	/**
-	 * Password based encryption using AES - CBC 256 bits.
+	 * @return number of bytes {@link #encrypt(byte[], int, int, char[])} needs for the given number of plain bytes
+	 */
+	public static int encryptedLength(final int plainLength)
+	{
+		return HEADER_LENGTH + (plainLength / BLOCK_LENGTH + 1) * BLOCK_LENGTH;
+	}
+
+	/**
+	 * Password based encryption using AES - CBC 256 bits, in place. The result is what <code>openssl enc -aes-256-cbc -md md5</code>
+	 * writes: "Salted__", the salt and the cipher text.
 	 * 
-	 * @param plainBytes
-	 *            The bytes to encrypt
+	 * @param buf
+	 *            holds the plain bytes at off + {@link #HEADER_LENGTH}, and must have room for
+	 *            {@link #encryptedLength(int)} bytes from off
+	 * @param off
+	 *            where the result will start
+	 * @param len
+	 *            number of plain bytes
 	 * @param password
 	 *            The password to use for encryption
-	 * @return SALT_LENGTH bytes of salt followed by the encrypted bytes.
+	 * @return number of bytes written from off
 	 * @throws IOException
 	 */
-	private static byte[] encryptRaw(final byte[] plainTextAsBytes, final char[] password) throws IOException
+	public static int encrypt(@Nonnull final byte[] buf, final int off, final int len, @Nonnull final char[] password) throws IOException
 	{
+		// Generate salt - each encryption call has a different salt.
+		final byte[] salt = new byte[SALT_LENGTH];
+		secureRandom.nextBytes(salt);
+
+		return encrypt(buf, off, len, password, salt);
+	}
+
+	static int encrypt(final byte[] buf, final int off, final int len, final char[] password, final byte[] salt) throws IOException
+	{
+		if (off < 0 || len < 0 || buf.length - off < encryptedLength(len))
+			throw new IllegalArgumentException("no room for " + encryptedLength(len) + " bytes at " + off);
+
 		try
 		{
-			// Generate salt - each encryption call has a different salt.
-			final byte[] salt = new byte[SALT_LENGTH];
-			secureRandom.nextBytes(salt);
-
 			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
 
-			// The following code uses an AES cipher to encrypt the message.
+			// The cipher holds back a block, so the output never overtakes the input.
 			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
 			cipher.init(true, key);
-			final byte[] encryptedBytes = new byte[cipher.getOutputSize(plainTextAsBytes.length)];
-			final int processLen = cipher.processBytes(plainTextAsBytes, 0, plainTextAsBytes.length, encryptedBytes, 0);
-			final int doFinalLen = cipher.doFinal(encryptedBytes, processLen);
+			final int cipherOff = off + HEADER_LENGTH;
+			final int processLen = cipher.processBytes(buf, cipherOff, len, buf, cipherOff);
+			final int doFinalLen = cipher.doFinal(buf, cipherOff + processLen);
 
-			// The result bytes are the SALT_LENGTH bytes followed by the encrypted bytes.
-			return concat(salt, Arrays.copyOf(encryptedBytes, processLen + doFinalLen));
+			// OpenSSL prefixes the cipher text with Salted__ and the salt
+			System.arraycopy(OPENSSL_SALTED_BYTES, 0, buf, off, OPENSSL_SALTED_BYTES.length);
+			System.arraycopy(salt, 0, buf, off + OPENSSL_SALTED_BYTES.length, SALT_LENGTH);
+
+			return HEADER_LENGTH + processLen + doFinalLen;
 		}
 		catch (final InvalidCipherTextException x)
 		{
@@ -196,6 +233,69 @@ public class Crypto
 		}
 	}
 
+	/**
+	 * Password based encryption using AES - CBC 256 bits, as a stream. Writes the same format as
+	 * {@link #encrypt(byte[], char[])}, but only holds a few blocks in memory. Closing the returned stream writes the final
+	 * block and closes the writer.
+	 * 
+	 * @param cipherOut
+	 *            where the base64 encoded cipher text goes
+	 * @param password
+	 *            The password to use for encryption
+	 * @return stream to write the plain bytes to
+	 * @throws IOException
+	 */
+	public static OutputStream encryptStream(@Nonnull final Writer cipherOut, @Nonnull final char[] password) throws IOException
+	{
+		final byte[] salt = new byte[SALT_LENGTH];
+		secureRandom.nextBytes(salt);
+
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(true, getAESPasswordKey(password, salt));
+
+		final OutputStream base64Out = BASE64_ENCRYPT.encodingStream(cipherOut);
+		base64Out.write(OPENSSL_SALTED_BYTES);
+		base64Out.write(salt);
+
+		return new CipherOutputStream(base64Out, cipher);
+	}
+
+	/**
+	 * Decrypt a stream previously encrypted with this class or OpenSSL, holding only a few blocks in memory. Closing the returned
+	 * stream closes the reader.
+	 * 
+	 * @param cipherIn
+	 *            base64 encoded cipher text
+	 * @param password
+	 *            password to use for decryption
+	 * @return stream of decrypted bytes
+	 * @throws IOException
+	 */
+	public static InputStream decryptStream(@Nonnull final Reader cipherIn, @Nonnull final char[] password) throws IOException
+	{
+		final InputStream base64In = BASE64_DECRYPT.decodingStream(cipherIn);
+
+		final byte[] header = new byte[OPENSSL_SALTED_BYTES.length + SALT_LENGTH];
+		try
+		{
+			ByteStreams.readFully(base64In, header);
+		}
+		catch (final IOException x)
+		{
+			throw new IOException("out of salt", x);
+		}
+
+		if (!Arrays.equals(OPENSSL_SALTED_BYTES, Arrays.copyOf(header, OPENSSL_SALTED_BYTES.length)))
+			throw new IOException("not salted");
+
+		final byte[] salt = Arrays.copyOfRange(header, OPENSSL_SALTED_BYTES.length, header.length);
+
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(false, getAESPasswordKey(password, salt));
+
+		return new CipherInputStream(base64In, cipher);
+	}
+
 	/**
 	 * Decrypt text previously encrypted with this class.
 	 * 
@@ -225,60 +325,56 @@ public class Crypto
 	 */
 	public static byte[] decryptBytes(@Nonnull final String textToDecode, @Nonnull final char[] password) throws IOException
 	{
-		final byte[] decodeTextAsBytes;
+		final byte[] buf;
 		try
 		{
-			decodeTextAsBytes = BASE64_DECRYPT.decode(textToDecode);
+			buf = BASE64_DECRYPT.decode(textToDecode);
 		}
 		catch (final IllegalArgumentException x)
 		{
 			throw new IOException("invalid base64 encoding");
 		}
 
-		if (decodeTextAsBytes.length < OPENSSL_SALTED_BYTES.length)
-			throw new IOException("out of salt");
+		final int len = decrypt(buf, 0, buf.length, password);
 
-		final byte[] cipherBytes = new byte[decodeTextAsBytes.length - OPENSSL_SALTED_BYTES.length];
-		System.arraycopy(decodeTextAsBytes, OPENSSL_SALTED_BYTES.length, cipherBytes, 0, decodeTextAsBytes.length - OPENSSL_SALTED_BYTES.length);
-
-		final byte[] decryptedBytes = decryptRaw(cipherBytes, password);
-
-		return decryptedBytes;
+		return Arrays.copyOf(buf, len);
 	}
 
 	/**
-	 * Decrypt bytes previously encrypted with this class.
+	 * Decrypt bytes previously encrypted with this class or OpenSSL, in place.
 	 * 
-	 * @param bytesToDecode
-	 *            The bytes to decrypt
-	 * @param passwordbThe
+	 * @param buf
+	 *            holds "Salted__", the salt and the cipher text at off; the decrypted bytes replace them
+	 * @param off
+	 *            where the encrypted bytes start
+	 * @param len
+	 *            number of encrypted bytes
+	 * @param password
 	 *            password to use for decryption
-	 * @return The decrypted bytes
+	 * @return number of decrypted bytes from off
 	 * @throws IOException
 	 */
-	private static byte[] decryptRaw(final byte[] bytesToDecode, final char[] password) throws IOException
+	public static int decrypt(@Nonnull final byte[] buf, final int off, final int len, @Nonnull final char[] password) throws IOException
 	{
-		try
-		{
-			// separate the salt and bytes to decrypt
-			final byte[] salt = new byte[SALT_LENGTH];
+		if (off < 0 || len < 0 || off + len > buf.length)
+			throw new IllegalArgumentException("bad range " + off + "+" + len + " of " + buf.length);
 
-			System.arraycopy(bytesToDecode, 0, salt, 0, SALT_LENGTH);
-
-			final byte[] cipherBytes = new byte[bytesToDecode.length - SALT_LENGTH];
-			System.arraycopy(bytesToDecode, SALT_LENGTH, cipherBytes, 0, bytesToDecode.length - SALT_LENGTH);
+		if (len < HEADER_LENGTH)
+			throw new IOException("out of salt");
 
+		try
+		{
+			final byte[] salt = Arrays.copyOfRange(buf, off + OPENSSL_SALTED_BYTES.length, off + HEADER_LENGTH);
 			final ParametersWithIV key = (ParametersWithIV) getAESPasswordKey(password, salt);
 
-			// decrypt the message
+			// decrypt the message, the output trails the input by at least the header
 			final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
 			cipher.init(false, key);
 
-			final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherBytes.length)];
-			final int processLen = cipher.processBytes(cipherBytes, 0, cipherBytes.length, decryptedBytes, 0);
-			final int doFinalLen = cipher.doFinal(decryptedBytes, processLen);
+			final int processLen = cipher.processBytes(buf, off + HEADER_LENGTH, len - HEADER_LENGTH, buf, off);
+			final int doFinalLen = cipher.doFinal(buf, off + processLen);
 
-			return Arrays.copyOf(decryptedBytes, processLen + doFinalLen);
+			return processLen + doFinalLen;
 		}
 		catch (final InvalidCipherTextException x)
 		{
@@ -289,54 +385,4 @@ public class Crypto
 			throw new IOException("Could not decrypt bytes", x);
 		}
 	}
-
-	/**
-	 * Concatenate two byte arrays.
-	 */
-	private static byte[] concat(final byte[] arrayA, final byte[] arrayB)
-	{
-		final byte[] result = new byte[arrayA.length + arrayB.length];
-		System.arraycopy(arrayA, 0, result, 0, arrayA.length);
-		System.arraycopy(arrayB, 0, result, arrayA.length, arrayB.length);
-
-		return result;
-	}
-
-	public final static FileFilter OPENSSL_FILE_FILTER = new FileFilter()
-	{
-		private final char[] buf = new char[OPENSSL_MAGIC_TEXT.length()];
-
-		@Override
-		public boolean accept(final File file)
-		{
-			Reader in = null;
-			try
-			{
-				in = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
-				if (in.read(buf) == -1)
-					return false;
-				final String str = new String(buf);
-				if (!str.toString().equals(OPENSSL_MAGIC_TEXT))
-					return false;
-				return true;
-			}
-			catch (final IOException x)
-			{
-				return false;
-			}
-			finally
-			{
-				if (in != null)
-				{
-					try
-					{
-						in.close();
-					}
-					catch (final IOException x2)
-					{
-					}
-				}
-			}
-		}
-	};
 }
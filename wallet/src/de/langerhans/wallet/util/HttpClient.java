@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * Process-wide HTTP client on top of {@link HttpURLConnection}. It sets the usual timeouts and headers and asks for gzip,
+ * decoding it transparently. GET responses go through the {@link HttpResponseCache}. Connections are released rather than
+ * disconnected, so the socket goes back into the keep-alive pool. TLS contexts are built once and shared. The socket factory
+ * stays the same instance, otherwise pooled connections could not be reused.
+ *
+ * Each request is timed: TCP connect and TLS handshake for new connections, and time to first byte.
+ *
+ * @author Andreas Schildbach
+ */
+public final class HttpClient
+{
+	public interface TrustStoreLoader
+	{
+		@Nonnull
+		KeyStore load() throws IOException, GeneralSecurityException;
+	}
+
+	private static final int MAX_DRAIN_BYTES = 8 * 1024;
+
+	@CheckForNull
+	private final String userAgent;
+	private final HttpResponseCache responseCache;
+	@CheckForNull
+	private final TrustStoreLoader pinnedTrustStoreLoader;
+
+	// guarded by this
+	@CheckForNull
+	private SSLSocketFactory defaultSocketFactory = null;
+	@CheckForNull
+	private SSLSocketFactory pinnedSocketFactory = null;
+
+	private final ThreadLocal<Timings> currentTimings = new ThreadLocal<Timings>();
+
+	private final AtomicLong numRequests = new AtomicLong();
+	private final AtomicLong numHandshakes = new AtomicLong();
+	private final AtomicLong sumConnectMs = new AtomicLong();
+	private final AtomicLong sumTlsMs = new AtomicLong();
+	private final AtomicLong sumTtfbMs = new AtomicLong();
+
+	private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
+
+	/**
+	 * @param pinnedTrustStoreLoader
+	 *            trust store for requests that ask for it, or null to use the system trust store for those too
+	 */
+	public HttpClient(@Nullable final String userAgent, @Nonnull final HttpResponseCache responseCache,
+			@Nullable final TrustStoreLoader pinnedTrustStoreLoader)
+	{
+		this.userAgent = userAgent;
+		this.responseCache = responseCache;
+		this.pinnedTrustStoreLoader = pinnedTrustStoreLoader;
+	}
+
+	/**
+	 * Prepares a connection, not yet connected. Every opened connection must be {@link #release(HttpURLConnection, InputStream)}d.
+	 *
+	 * @param pinned
+	 *            only trust the pinned trust store
+	 */
+	public HttpURLConnection open(@Nonnull final URL url, final boolean pinned) throws IOException
+	{
+		currentTimings.set(new Timings(url, System.currentTimeMillis()));
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		if (connection instanceof HttpsURLConnection)
+			((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory(pinned));
+
+		connection.setInstanceFollowRedirects(false);
+		connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
+		connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+		connection.setDoInput(true);
+		connection.addRequestProperty("Accept-Encoding", "gzip");
+		if (userAgent != null)
+			connection.addRequestProperty("User-Agent", userAgent);
+
+		return connection;
+	}
+
+	/**
+	 * Connects and fetches through the response cache. Only for GET.
+	 *
+	 * @return decoded body of a fresh or revalidated response, or null if the status was something else
+	 */
+	@CheckForNull
+	public InputStream get(@Nonnull final HttpURLConnection connection) throws IOException
+	{
+		final InputStream is = responseCache.open(connection);
+		firstByte();
+		return is;
+	}
+
+	/**
+	 * Waits for the response of a request whose body, if any, has been written, bypassing the cache.
+	 *
+	 * @return decoded body if the status was 200, or null
+	 */
+	@CheckForNull
+	public InputStream response(@Nonnull final HttpURLConnection connection) throws IOException
+	{
+		final int responseCode = connection.getResponseCode();
+		firstByte();
+		if (responseCode != HttpURLConnection.HTTP_OK)
+			return null;
+
+		final InputStream is = connection.getInputStream();
+		if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+			return new GZIPInputStream(is);
+		return is;
+	}
+
+	/**
+	 * Closes the body, reading up what is left if it is small, so the connection can be reused. If no response was obtained, e.g.
+	 * because connecting or writing the request failed, the connection is disconnected instead, as asking for the response would
+	 * start the request over.
+	 */
+	public void release(@Nullable final HttpURLConnection connection, @Nullable final InputStream is)
+	{
+		final Timings timings = currentTimings.get();
+		currentTimings.remove();
+
+		if (connection != null && is == null && (timings == null || timings.ttfbMs < 0))
+		{
+			connection.disconnect();
+		}
+		else if (connection != null)
+		{
+			try
+			{
+				final InputStream body = is != null ? is : (connection.getResponseCode() == HttpURLConnection.HTTP_OK ? connection
+						.getInputStream() : connection.getErrorStream());
+				if (body != null)
+				{
+					final byte[] buffer = new byte[1024];
+					int drained = 0;
+					int n;
+					while (drained < MAX_DRAIN_BYTES && (n = body.read(buffer)) != -1)
+						drained += n;
+					body.close();
+				}
+			}
+			catch (final IOException x)
+			{
+				// connection is unusable anyway
+				connection.disconnect();
+			}
+		}
+		else if (is != null)
+		{
+			try
+			{
+				is.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+
+		if (timings != null)
+		{
+			numRequests.incrementAndGet();
+			sumTtfbMs.addAndGet(Math.max(timings.ttfbMs, 0));
+			if (timings.tlsMs >= 0)
+			{
+				numHandshakes.incrementAndGet();
+				sumConnectMs.addAndGet(timings.connectMs);
+				sumTlsMs.addAndGet(timings.tlsMs);
+			}
+			log.debug("{}", timings);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		final long requests = numRequests.get();
+		final long handshakes = numHandshakes.get();
+
+		final StringBuilder builder = new StringBuilder();
+		builder.append(requests).append(" requests, ").append(handshakes).append(" tls handshakes");
+		if (requests > 0)
+			builder.append(", avg ttfb=").append(sumTtfbMs.get() / requests);
+		if (handshakes > 0)
+			builder.append(" connect=").append(sumConnectMs.get() / handshakes).append(" tls=").append(sumTlsMs.get() / handshakes);
+		builder.append(" ms; cache ").append(responseCache);
+		return builder.toString();
+	}
+
+	private void firstByte()
+	{
+		final Timings timings = currentTimings.get();
+		if (timings != null)
+			timings.ttfbMs = System.currentTimeMillis() - timings.start;
+	}
+
+	private synchronized SSLSocketFactory socketFactory(final boolean pinned) throws IOException
+	{
+		if (pinned && pinnedTrustStoreLoader != null)
+		{
+			if (pinnedSocketFactory == null)
+			{
+				final long start = System.currentTimeMillis();
+				try
+				{
+					final TrustManagerFactory tmf = TrustManagerFactory.getInstance("X509");
+					tmf.init(pinnedTrustStoreLoader.load());
+
+					final SSLContext sslContext = SSLContext.getInstance("TLS");
+					sslContext.init(null, tmf.getTrustManagers(), null);
+
+					pinnedSocketFactory = new TimingSocketFactory(sslContext.getSocketFactory());
+					log.info("built pinned tls context, took {} ms", System.currentTimeMillis() - start);
+				}
+				catch (final GeneralSecurityException x)
+				{
+					throw new IOException("cannot build pinned tls context: " + x.getMessage());
+				}
+			}
+			return pinnedSocketFactory;
+		}
+		else
+		{
+			if (defaultSocketFactory == null)
+				defaultSocketFactory = new TimingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+			return defaultSocketFactory;
+		}
+	}
+
+	private static final class Timings
+	{
+		public final URL url;
+		public final long start;
+		/** Stays -1 if a pooled connection was used. */
+		public volatile long connectMs = -1;
+		public volatile long tlsMs = -1;
+		/** Stays -1 until a response was obtained. */
+		public long ttfbMs = -1;
+
+		public Timings(final URL url, final long start)
+		{
+			this.url = url;
+			this.start = start;
+		}
+
+		@Override
+		public String toString()
+		{
+			return url.getProtocol() + "://" + url.getHost() + " connect=" + connectMs + " tls=" + tlsMs + " ttfb=" + ttfbMs + " ms";
+		}
+	}
+
+	/**
+	 * Notes when a connected socket gets layered with TLS and when its handshake completes.
+	 */
+	private final class TimingSocketFactory extends SSLSocketFactory
+	{
+		private final SSLSocketFactory delegate;
+
+		public TimingSocketFactory(final SSLSocketFactory delegate)
+		{
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Socket createSocket(final Socket s, final String host, final int port, final boolean autoClose) throws IOException
+		{
+			return timed(delegate.createSocket(s, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port) throws IOException
+		{
+			return timed(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException
+		{
+			return timed(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress host, final int port) throws IOException
+		{
+			return timed(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort)
+				throws IOException
+		{
+			return timed(delegate.createSocket(address, port, localAddress, localPort));
+		}
+
+		@Override
+		public Socket createSocket() throws IOException
+		{
+			return timed(delegate.createSocket());
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites()
+		{
+			return delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites()
+		{
+			return delegate.getSupportedCipherSuites();
+		}
+
+		private Socket timed(final Socket socket)
+		{
+			final Timings timings = currentTimings.get();
+			if (timings != null && socket instanceof SSLSocket)
+			{
+				final long connected = System.currentTimeMillis();
+				timings.connectMs = connected - timings.start;
+				((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener()
+				{
+					@Override
+					public void handshakeCompleted(final HandshakeCompletedEvent event)
+					{
+						timings.tlsMs = System.currentTimeMillis() - connected;
+						event.getSocket().removeHandshakeCompletedListener(this);
+					}
+				});
+			}
+			return socket;
+		}
+	}
+}
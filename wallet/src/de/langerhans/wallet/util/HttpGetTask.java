@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013-2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author Andreas Schildbach
+ */
+public abstract class HttpGetTask implements Runnable
+{
+	private final String url;
+	private final HttpClient httpClient;
+
+	private static final int MAX_CHARS = 4096;
+
+	private static final Logger log = LoggerFactory.getLogger(HttpGetTask.class);
+
+	public HttpGetTask(@Nonnull final String url, @Nonnull final HttpClient httpClient)
+	{
+		this.url = url;
+		this.httpClient = httpClient;
+	}
+
+	@Override
+	public void run()
+	{
+		HttpURLConnection connection = null;
+		InputStream is = null;
+
+		log.debug("querying \"" + url + "\"...");
+
+		try
+		{
+			connection = httpClient.open(new URL(url), true);
+			connection.setRequestProperty("Accept-Charset", "utf-8");
+
+			is = httpClient.get(connection);
+			if (is != null)
+			{
+				// also set on 304, so the clock skew check keeps working
+				final long serverTime = connection.getDate();
+				// TODO parse connection.getContentType() for charset
+
+				// read to the end, otherwise the response does not get cached
+				final BufferedReader reader = new BufferedReader(new InputStreamReader(is, Charsets.UTF_8), 64);
+				final StringBuilder content = new StringBuilder();
+				Io.copy(reader, content, MAX_CHARS);
+				final String line = new BufferedReader(new StringReader(content.toString())).readLine().trim();
+
+				handleLine(line, serverTime);
+			}
+		}
+		catch (final Exception x)
+		{
+			handleException(x);
+		}
+		finally
+		{
+			httpClient.release(connection, is);
+		}
+	}
+
+	protected abstract void handleLine(@Nonnull String line, long serverTime);
+
+	protected abstract void handleException(@Nonnull Exception x);
+}
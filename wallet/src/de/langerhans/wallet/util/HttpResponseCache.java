@@ -0,0 +1,471 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Disk cache for HTTP GET responses that carry an <code>ETag</code> or <code>Last-Modified</code> validator. Cached responses
+ * are revalidated with a conditional request, and if the server answers <code>304 Not Modified</code> the body is served from
+ * disk. The least recently used entries are evicted to keep the cache directory below a size limit.
+ *
+ * Bodies are stored decoded, so callers never see a <code>Content-Encoding</code>.
+ *
+ * @author Andreas Schildbach
+ */
+public final class HttpResponseCache
+{
+	private static final int MAGIC = 0x48545043;
+	private static final int VERSION = 1;
+	/** Offset of the body length in an entry file, patched after the body has been written. */
+	private static final int LENGTH_OFFSET = 8;
+
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long STALE_TEMP_MS = 60 * 60 * 1000;
+
+	private final File dir;
+	private final long maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	private static final Logger log = LoggerFactory.getLogger(HttpResponseCache.class);
+
+	public HttpResponseCache(@Nonnull final File dir, final long maxSize)
+	{
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Connects, revalidating a cached response if there is one. Set timeouts and request headers before calling.
+	 *
+	 * @return body of a fresh or revalidated response, or null if the status was something else; in that case, look at
+	 *         {@link HttpURLConnection#getResponseCode()}
+	 */
+	@CheckForNull
+	public InputStream open(@Nonnull final HttpURLConnection connection) throws IOException
+	{
+		final String url = connection.getURL().toString();
+		final File file = new File(dir, Hashing.sha1().hashString(url, Charsets.UTF_8).toString() + ENTRY_SUFFIX);
+
+		// keep the entry open, so it can still be served if it is evicted while we wait for the server
+		DataInputStream cached = null;
+		Entry entry = null;
+		try
+		{
+			cached = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			entry = Entry.read(cached);
+			if (!url.equals(entry.url))
+				entry = null;
+		}
+		catch (final FileNotFoundException x)
+		{
+			// not cached
+		}
+		catch (final IOException x)
+		{
+			log.info("discarding unreadable cache entry for {}: {}", url, x.getMessage());
+			file.delete();
+		}
+		if (entry == null)
+			cached = closeQuietly(cached);
+
+		boolean returnedCached = false;
+
+		try
+		{
+			connection.setUseCaches(false);
+			if (entry != null)
+			{
+				if (entry.etag != null)
+					connection.setRequestProperty("If-None-Match", entry.etag);
+				if (entry.lastModified > 0)
+					connection.setIfModifiedSince(entry.lastModified);
+			}
+			connection.connect();
+
+			final int responseCode = connection.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null)
+			{
+				hits.incrementAndGet();
+				bytesSaved.addAndGet(entry.length);
+				file.setLastModified(System.currentTimeMillis());
+				log.debug("{} not modified, serving {} bytes from cache; {}", url, entry.length, this);
+
+				returnedCached = true;
+				return cached;
+			}
+			else if (responseCode == HttpURLConnection.HTTP_OK)
+			{
+				misses.incrementAndGet();
+
+				InputStream is = connection.getInputStream();
+				if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+					is = new GZIPInputStream(is);
+
+				final String etag = connection.getHeaderField("ETag");
+				final long lastModified = connection.getLastModified();
+				if (etag == null && lastModified <= 0)
+					return is;
+
+				return new CachingInputStream(is, file, new Entry(url, etag, lastModified, -1));
+			}
+			else
+			{
+				return null;
+			}
+		}
+		finally
+		{
+			if (!returnedCached)
+				closeQuietly(cached);
+		}
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public long getBytesSaved()
+	{
+		return bytesSaved.get();
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear()
+	{
+		final File[] files = dir.listFiles();
+		if (files != null)
+			for (final File file : files)
+				file.delete();
+	}
+
+	@Override
+	public String toString()
+	{
+		return hits.get() + " hits, " + misses.get() + " misses, " + bytesSaved.get() / 1024 + " kB saved";
+	}
+
+	private synchronized void commit(final File temp, final File file)
+	{
+		if (!temp.renameTo(file))
+		{
+			log.info("cannot rename {} to {}", temp, file);
+			temp.delete();
+			return;
+		}
+
+		trim();
+	}
+
+	private void trim()
+	{
+		final long now = System.currentTimeMillis();
+
+		final File[] entries = dir.listFiles(new FileFilter()
+		{
+			@Override
+			public boolean accept(final File file)
+			{
+				final String name = file.getName();
+				if (name.endsWith(TEMP_SUFFIX) && file.lastModified() < now - STALE_TEMP_MS)
+					file.delete();
+				return name.endsWith(ENTRY_SUFFIX);
+			}
+		});
+		if (entries == null)
+			return;
+
+		long size = 0;
+		for (final File entry : entries)
+			size += entry.length();
+		if (size <= maxSize)
+			return;
+
+		Arrays.sort(entries, new Comparator<File>()
+		{
+			@Override
+			public int compare(final File lhs, final File rhs)
+			{
+				final long lhsTime = lhs.lastModified();
+				final long rhsTime = rhs.lastModified();
+				return lhsTime < rhsTime ? -1 : (lhsTime > rhsTime ? 1 : 0);
+			}
+		});
+
+		for (final File entry : entries)
+		{
+			if (size <= maxSize)
+				break;
+			final long length = entry.length();
+			if (entry.delete())
+			{
+				size -= length;
+				log.debug("evicted {}, {} bytes", entry.getName(), length);
+			}
+		}
+	}
+
+	private static DataInputStream closeQuietly(@Nullable final DataInputStream is)
+	{
+		if (is != null)
+		{
+			try
+			{
+				is.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+		return null;
+	}
+
+	private static final class Entry
+	{
+		public final String url;
+		@CheckForNull
+		public final String etag;
+		public final long lastModified;
+		public final long length;
+
+		public Entry(final String url, @Nullable final String etag, final long lastModified, final long length)
+		{
+			this.url = url;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+
+		public void write(final DataOutputStream os) throws IOException
+		{
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.writeLong(length);
+			os.writeUTF(url);
+			os.writeBoolean(etag != null);
+			if (etag != null)
+				os.writeUTF(etag);
+			os.writeLong(lastModified);
+		}
+
+		public static Entry read(final DataInputStream is) throws IOException
+		{
+			if (is.readInt() != MAGIC)
+				throw new IOException("bad magic");
+			if (is.readInt() != VERSION)
+				throw new IOException("unknown version");
+			final long length = is.readLong();
+			if (length < 0)
+				throw new IOException("incomplete");
+			final String url = is.readUTF();
+			final String etag = is.readBoolean() ? is.readUTF() : null;
+			final long lastModified = is.readLong();
+
+			return new Entry(url, etag, lastModified, length);
+		}
+	}
+
+	/**
+	 * Copies the body into a temporary file while it is read, and commits it as an entry once it has been read completely.
+	 */
+	private final class CachingInputStream extends FilterInputStream
+	{
+		private final File file;
+		private final File temp;
+		@CheckForNull
+		private DataOutputStream os;
+		private long length = 0;
+		private boolean complete = false;
+
+		public CachingInputStream(final InputStream in, final File file, final Entry entry)
+		{
+			super(in);
+
+			this.file = file;
+			this.temp = new File(dir, file.getName() + '-' + Thread.currentThread().getId() + TEMP_SUFFIX);
+
+			try
+			{
+				dir.mkdirs();
+				os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+				entry.write(os);
+			}
+			catch (final IOException x)
+			{
+				abort(x);
+			}
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if (b >= 0)
+				write(new byte[] { (byte) b }, 0, 1);
+			else
+				complete = true;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int count) throws IOException
+		{
+			final int read = super.read(buffer, offset, count);
+			if (read > 0)
+				write(buffer, offset, read);
+			else if (read < 0)
+				complete = true;
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException
+		{
+			// skipped bytes would be missing from the entry
+			abort(null);
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			super.close();
+
+			if (os == null)
+				return;
+
+			try
+			{
+				os.close();
+				os = null;
+
+				if (complete)
+				{
+					final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+					try
+					{
+						raf.seek(LENGTH_OFFSET);
+						raf.writeLong(length);
+					}
+					finally
+					{
+						raf.close();
+					}
+
+					commit(temp, file);
+				}
+				else
+				{
+					temp.delete();
+				}
+			}
+			catch (final IOException x)
+			{
+				abort(x);
+			}
+		}
+
+		private void write(final byte[] buffer, final int offset, final int count)
+		{
+			if (os == null)
+				return;
+
+			length += count;
+			if (length > maxSize / 2)
+			{
+				abort(null);
+				return;
+			}
+
+			try
+			{
+				os.write(buffer, offset, count);
+			}
+			catch (final IOException x)
+			{
+				abort(x);
+			}
+		}
+
+		private void abort(@Nullable final IOException x)
+		{
+			if (x != null)
+				log.info("cannot cache " + file.getName(), x);
+
+			if (os != null)
+			{
+				try
+				{
+					os.close();
+				}
+				catch (final IOException x2)
+				{
+					// swallow
+				}
+				os = null;
+			}
+			temp.delete();
+		}
+	}
+}
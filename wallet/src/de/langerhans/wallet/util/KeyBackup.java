@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.Wallet;
+import com.dogecoin.dogecoinj.core.WalletExtension;
+import com.dogecoin.dogecoinj.crypto.KeyCrypter;
+import com.dogecoin.dogecoinj.crypto.KeyCrypterScrypt;
+import com.dogecoin.dogecoinj.script.Script;
+import com.dogecoin.dogecoinj.signers.LocalTransactionSigner;
+import com.dogecoin.dogecoinj.signers.TransactionSigner;
+import com.dogecoin.dogecoinj.wallet.Protos;
+import com.google.protobuf.ByteString;
+
+/**
+ * Automatic backup of the keys of a wallet, in wallet protobuf format so it can be restored like any wallet. Transactions and
+ * the last seen block are left out, the block chain is replayed after restoring anyway. The protobuf is built from the keys
+ * directly, rather than serializing the whole wallet and stripping it down.
+ *
+ * @author Andreas Schildbach
+ */
+public final class KeyBackup
+{
+	private final File file;
+
+	// separate from this, so that preparing doesn't wait for a write in progress
+	private final Object pendingLock = new Object();
+	private Protos.Wallet pending = null; // guarded by pendingLock
+	private long pendingProtoMs; // guarded by pendingLock
+
+	// guarded by this
+	private int numWrites = 0;
+	private long sumProtoMs = 0;
+	private long sumWriteMs = 0;
+	private long lastSize = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(KeyBackup.class);
+
+	public KeyBackup(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Builds the protobuf to back up. Call this on the thread that changes the wallet, so the keys and their encryption are taken
+	 * from the same state.
+	 */
+	public void prepare(@Nonnull final Wallet wallet)
+	{
+		final long start = System.currentTimeMillis();
+		final Protos.Wallet walletProto = keysToProto(wallet);
+		final long protoMs = System.currentTimeMillis() - start;
+
+		synchronized (pendingLock)
+		{
+			pending = walletProto;
+			pendingProtoMs = protoMs;
+		}
+	}
+
+	/**
+	 * Replaces the backup with the most recently prepared protobuf, so that there is always either the old or the new one. Does
+	 * nothing if that has already been written.
+	 */
+	public synchronized void write() throws IOException
+	{
+		final Protos.Wallet walletProto;
+		final long protoMs;
+		synchronized (pendingLock)
+		{
+			walletProto = pending;
+			protoMs = pendingProtoMs;
+			pending = null;
+		}
+		if (walletProto == null)
+			return;
+
+		final long start = System.currentTimeMillis();
+
+		// named so that the cleanup of stale files at startup leaves it alone, a leftover gets overwritten next time
+		final File tempFile = new File(file.getParentFile(), "tmp-" + file.getName());
+		FileOutputStream fos = null;
+
+		try
+		{
+			fos = new FileOutputStream(tempFile);
+			final OutputStream os = new BufferedOutputStream(fos);
+			walletProto.writeTo(os);
+			os.flush();
+			fos.getFD().sync();
+			fos.close();
+			fos = null;
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			tempFile.delete();
+			throw x;
+		}
+		finally
+		{
+			if (fos != null)
+			{
+				try
+				{
+					fos.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		final long writeMs = System.currentTimeMillis() - start;
+		numWrites++;
+		sumProtoMs += protoMs;
+		sumWriteMs += writeMs;
+		lastSize = file.length();
+
+		log.info("key backup written to {}, {} keys, {} bytes, took {} ms (proto {} ms)", file, walletProto.getKeyCount(), lastSize,
+				protoMs + writeMs, protoMs);
+	}
+
+	/**
+	 * @return what {@link com.dogecoin.dogecoinj.store.WalletProtobufSerializer#walletToProto(Wallet)} returns, minus
+	 *         transactions and the last seen block
+	 */
+	public static Protos.Wallet keysToProto(@Nonnull final Wallet wallet)
+	{
+		final Protos.Wallet.Builder builder = Protos.Wallet.newBuilder();
+		builder.setNetworkIdentifier(wallet.getNetworkParameters().getId());
+		if (wallet.getDescription() != null)
+			builder.setDescription(wallet.getDescription());
+
+		builder.addAllKey(wallet.serializeKeychainToProtobuf());
+
+		for (final Script script : wallet.getWatchedScripts())
+		{
+			builder.addWatchedScript(Protos.Script.newBuilder().setProgram(ByteString.copyFrom(script.getProgram()))
+					.setCreationTimestamp(script.getCreationTimeSeconds() * 1000));
+		}
+
+		builder.setLastSeenBlockHeight(-1);
+
+		final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+		if (keyCrypter == null)
+		{
+			builder.setEncryptionType(Protos.Wallet.EncryptionType.UNENCRYPTED);
+		}
+		else
+		{
+			builder.setEncryptionType(keyCrypter.getUnderstoodEncryptionType());
+			if (keyCrypter instanceof KeyCrypterScrypt)
+				builder.setEncryptionParameters(((KeyCrypterScrypt) keyCrypter).getScryptParameters());
+			else
+				throw new IllegalStateException("unknown key crypter: " + keyCrypter.getClass().getName());
+		}
+
+		if (wallet.getKeyRotationTime() != null)
+			builder.setKeyRotationTime(wallet.getKeyRotationTime().getTime() / 1000);
+
+		for (final WalletExtension extension : wallet.getExtensions().values())
+		{
+			builder.addExtension(Protos.Extension.newBuilder().setId(extension.getWalletExtensionID())
+					.setData(ByteString.copyFrom(extension.serializeWalletExtension())).setMandatory(extension.isWalletExtensionMandatory()));
+		}
+
+		for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+			builder.addTags(Protos.Tag.newBuilder().setTag(tag.getKey()).setData(tag.getValue()));
+
+		for (final TransactionSigner signer : wallet.getTransactionSigners())
+		{
+			// added implicitly when loading
+			if (signer instanceof LocalTransactionSigner)
+				continue;
+
+			builder.addTransactionSigners(Protos.TransactionSigner.newBuilder().setClassName(signer.getClass().getName())
+					.setData(ByteString.copyFrom(signer.serialize())));
+		}
+
+		builder.setVersion(wallet.getVersion());
+
+		return builder.build();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		builder.append(numWrites).append(" writes");
+		if (numWrites > 0)
+			builder.append(", avg proto=").append(sumProtoMs / numWrites).append(" write=").append(sumWriteMs / numWrites).append(" ms, last ")
+					.append(lastSize).append(" bytes");
+		return builder.toString();
+	}
+}
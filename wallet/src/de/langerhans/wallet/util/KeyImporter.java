@@ -0,0 +1,308 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dogecoin.dogecoinj.core.AddressFormatException;
+import com.dogecoin.dogecoinj.core.DumpedPrivateKey;
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.wallet.KeyChainGroup;
+
+import android.text.format.DateUtils;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * Reads base58 private keys, one per line with an optional creation time, as written by
+ * {@link WalletUtils#writeKeys(java.io.Writer, List)}. Lines are parsed as they are read. Deriving the public keys, which is
+ * most of the work, is spread over a few workers while the next batch of lines is read. The reading thread helps out, so
+ * the import also completes if no worker gets to run.
+ *
+ * @author Andreas Schildbach
+ */
+public final class KeyImporter
+{
+	public interface ProgressListener
+	{
+		/**
+		 * Called on the reading thread after each batch.
+		 */
+		void onProgress(int numKeys);
+	}
+
+	private static final int BATCH_SIZE = 512;
+	private static final int CHUNK_SIZE = 32;
+
+	@CheckForNull
+	private final Executor executor;
+	private final int parallelism;
+
+	private static final Logger log = LoggerFactory.getLogger(KeyImporter.class);
+
+	/**
+	 * Derives on the reading thread only.
+	 */
+	public KeyImporter()
+	{
+		this(null, 0);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the workers
+	 * @param parallelism
+	 *            number of workers, besides the reading thread
+	 */
+	public KeyImporter(@Nullable final Executor executor, final int parallelism)
+	{
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return number of keys imported
+	 */
+	public int importKeys(@Nonnull final BufferedReader in, @Nonnull final KeyChainGroup group, @Nullable final ProgressListener listener)
+			throws IOException
+	{
+		final long start = System.currentTimeMillis();
+		final int numKeys = read(in, new Sink()
+		{
+			@Override
+			public void accept(final List<ECKey> keys, final int numKeys)
+			{
+				group.importKeys(keys);
+				if (listener != null)
+					listener.onProgress(numKeys);
+			}
+		});
+
+		log.info("imported {} keys with {} workers, took {} ms", numKeys, parallelism, System.currentTimeMillis() - start);
+		return numKeys;
+	}
+
+	public List<ECKey> readKeys(@Nonnull final BufferedReader in) throws IOException
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>();
+		read(in, new Sink()
+		{
+			@Override
+			public void accept(final List<ECKey> batch, final int numKeys)
+			{
+				keys.addAll(batch);
+			}
+		});
+		return keys;
+	}
+
+	private interface Sink
+	{
+		void accept(List<ECKey> keys, int numKeys);
+	}
+
+	private int read(final BufferedReader in, final Sink sink) throws IOException
+	{
+		final DateFormat format = Iso8601Format.newDateTimeFormatT();
+
+		int numKeys = 0;
+		long charCount = 0;
+		Batch pending = null;
+		Batch batch = new Batch();
+
+		try
+		{
+			while (true)
+			{
+				final String line = in.readLine();
+				if (line != null)
+				{
+					charCount += line.length();
+					if (charCount > Constants.BACKUP_MAX_CHARS)
+						throw new IOException("read more than the limit of " + Constants.BACKUP_MAX_CHARS + " characters");
+					if (line.trim().isEmpty() || line.charAt(0) == '#')
+						continue; // skip comment
+
+					final int space = line.indexOf(' ');
+					final String encoded = space >= 0 ? line.substring(0, space) : line;
+					long creationTimeSeconds = 0;
+					if (space >= 0)
+					{
+						final int end = line.indexOf(' ', space + 1);
+						final String date = end >= 0 ? line.substring(space + 1, end) : line.substring(space + 1);
+						creationTimeSeconds = format.parse(date).getTime() / DateUtils.SECOND_IN_MILLIS;
+					}
+					batch.add(encoded, creationTimeSeconds);
+
+					if (!batch.isFull())
+						continue;
+				}
+
+				// derive this batch while reading the next
+				if (batch.size > 0)
+					batch.start();
+				if (pending != null)
+				{
+					numKeys += pending.finish();
+					sink.accept(pending.keys(), numKeys);
+				}
+				pending = batch.size > 0 ? batch : null;
+
+				if (line == null && pending == null)
+					return numKeys;
+
+				batch = new Batch();
+			}
+		}
+		catch (final ParseException x)
+		{
+			throw new IOException("cannot read keys", x);
+		}
+		finally
+		{
+			if (pending != null)
+				pending.cancel();
+			batch.cancel();
+		}
+	}
+
+	private final class Batch implements Runnable
+	{
+		private final String[] encoded = new String[BATCH_SIZE];
+		private final long[] creationTimesSeconds = new long[BATCH_SIZE];
+		private final ECKey[] keys = new ECKey[BATCH_SIZE];
+		public int size = 0;
+
+		private int numChunks;
+		private final AtomicInteger nextChunk = new AtomicInteger();
+		private CountDownLatch chunksLeft;
+		private volatile AddressFormatException failure = null;
+
+		public void add(final String encoded, final long creationTimeSeconds)
+		{
+			this.encoded[size] = encoded;
+			this.creationTimesSeconds[size] = creationTimeSeconds;
+			size++;
+		}
+
+		public boolean isFull()
+		{
+			return size == BATCH_SIZE;
+		}
+
+		public void start()
+		{
+			numChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			chunksLeft = new CountDownLatch(numChunks);
+
+			if (executor != null)
+			{
+				try
+				{
+					for (int i = 0; i < Math.min(parallelism, numChunks); i++)
+						executor.execute(this);
+				}
+				catch (final RejectedExecutionException x)
+				{
+					// the reading thread will do it
+				}
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			int chunk;
+			while ((chunk = nextChunk.getAndIncrement()) < numChunks)
+			{
+				try
+				{
+					for (int i = chunk * CHUNK_SIZE; i < Math.min((chunk + 1) * CHUNK_SIZE, size) && failure == null; i++)
+					{
+						final ECKey key = new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, encoded[i]).getKey(); // takes time
+						key.setCreationTimeSeconds(creationTimesSeconds[i]);
+						keys[i] = key;
+					}
+				}
+				catch (final AddressFormatException x)
+				{
+					failure = x;
+				}
+				finally
+				{
+					chunksLeft.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Helps deriving and waits for the workers.
+		 * 
+		 * @return number of keys
+		 */
+		public int finish() throws IOException
+		{
+			run();
+
+			try
+			{
+				chunksLeft.await();
+			}
+			catch (final InterruptedException x)
+			{
+				throw new InterruptedIOException("interrupted while deriving keys");
+			}
+
+			if (failure != null)
+				throw new IOException("cannot read keys", failure);
+
+			return size;
+		}
+
+		public List<ECKey> keys()
+		{
+			return Arrays.asList(keys).subList(0, size);
+		}
+
+		/**
+		 * Chunks that are being derived run to completion, but nothing more is started.
+		 */
+		public void cancel()
+		{
+			nextChunk.set(numChunks);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Graded policy for reacting to {@link ComponentCallbacks2#onTrimMemory(int)}, and a record of what was shed.
+ *
+ * @author Andreas Schildbach
+ */
+public final class MemoryPressure
+{
+	public enum Level
+	{
+		/** Nothing to do. */
+		NONE,
+		/** Drop caches that are cheap to rebuild, e.g. transaction and label caches, and bitmaps that are not on screen. */
+		LIGHT,
+		/** Also drop block caches. */
+		MODERATE,
+		/** Also reduce network footprint, e.g. the number of connected peers. */
+		SEVERE,
+		/** Process is about to be killed, stop the blockchain service. */
+		CRITICAL;
+
+		public static Level fromTrimLevel(final int trimLevel)
+		{
+			if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+				return CRITICAL;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+				return SEVERE;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+				return MODERATE;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+				return LIGHT;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+				return SEVERE;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+				return MODERATE;
+			else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+				return LIGHT;
+			else
+				return NONE;
+		}
+
+		public boolean atLeast(@Nonnull final Level level)
+		{
+			return compareTo(level) >= 0;
+		}
+	}
+
+	private static final int MAX_HISTORY_SIZE = 32;
+
+	private final long[] historyTimes = new long[MAX_HISTORY_SIZE];
+	private final int[] historyTrimLevels = new int[MAX_HISTORY_SIZE];
+	private final String[] historyActions = new String[MAX_HISTORY_SIZE];
+	private int historyHead = 0;
+	private int historySize = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(MemoryPressure.class);
+
+	/**
+	 * Records that something was shed because of memory pressure.
+	 */
+	public synchronized void record(final int trimLevel, @Nonnull final String action)
+	{
+		log.info("memory pressure {} ({}): {}", Level.fromTrimLevel(trimLevel), trimLevel, action);
+
+		historyTimes[historyHead] = System.currentTimeMillis();
+		historyTrimLevels[historyHead] = trimLevel;
+		historyActions[historyHead] = action;
+		historyHead = (historyHead + 1) % MAX_HISTORY_SIZE;
+		if (historySize < MAX_HISTORY_SIZE)
+			historySize++;
+	}
+
+	public synchronized void appendHistory(@Nonnull final Appendable report) throws IOException
+	{
+		if (historySize == 0)
+			report.append("none\n");
+
+		for (int i = historySize; i > 0; i--)
+		{
+			final int index = (historyHead - i + MAX_HISTORY_SIZE) % MAX_HISTORY_SIZE;
+			final long time = historyTimes[index];
+			final int trimLevel = historyTrimLevels[index];
+			report.append(String.format("%tF %tT %s (%d): %s\n", time, time, Level.fromTrimLevel(trimLevel), trimLevel, historyActions[index]));
+		}
+	}
+}
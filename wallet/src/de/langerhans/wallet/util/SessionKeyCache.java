@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import com.dogecoin.dogecoinj.crypto.KeyCrypter;
+import com.google.common.base.Charsets;
+
+/**
+ * Remembers the key derived from the spending password for a few minutes, so back to back payments don't pay for scrypt each
+ * time. The password itself is not kept, only a salted hash of it to recognize it again. Only one key is cached; a different
+ * password or key crypter replaces it. The key bytes are zeroed when the cache is cleared or expires.
+ *
+ * @author Andreas Schildbach
+ */
+public final class SessionKeyCache
+{
+	public static final long DEFAULT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+	private final long timeoutMs;
+	private final byte[] salt = new byte[16];
+
+	// guarded by this
+	@CheckForNull
+	private KeyCrypter keyCrypter = null;
+	@CheckForNull
+	private byte[] passwordHash = null;
+	@CheckForNull
+	private byte[] key = null;
+	private long expiresAt = 0;
+
+	private long numDerivations = 0;
+	private long sumDeriveMs = 0;
+	private long numHits = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(SessionKeyCache.class);
+
+	public SessionKeyCache()
+	{
+		this(DEFAULT_TIMEOUT_MS);
+	}
+
+	public SessionKeyCache(final long timeoutMs)
+	{
+		this.timeoutMs = timeoutMs;
+		new SecureRandom().nextBytes(salt);
+	}
+
+	/**
+	 * @return key derived earlier from the same password by the same key crypter, or null
+	 */
+	@CheckForNull
+	public synchronized KeyParameter get(@Nonnull final KeyCrypter keyCrypter, @Nonnull final String password, final long now)
+	{
+		clearIfExpired(now);
+
+		if (key == null || !keyCrypter.equals(this.keyCrypter) || !MessageDigest.isEqual(hash(password), passwordHash))
+			return null;
+
+		numHits++;
+		return new KeyParameter(key);
+	}
+
+	/**
+	 * Derives the key, unless it is cached. Takes time on a miss.
+	 *
+	 * @param useCache
+	 *            if false, the key is always derived and not kept; only the metrics are updated
+	 */
+	@Nonnull
+	public KeyParameter deriveKey(@Nonnull final KeyCrypter keyCrypter, @Nonnull final String password, final boolean useCache)
+	{
+		if (useCache)
+		{
+			final KeyParameter cachedKey = get(keyCrypter, password, System.currentTimeMillis());
+			if (cachedKey != null)
+				return cachedKey;
+		}
+		else
+		{
+			clear();
+		}
+
+		final long start = System.currentTimeMillis();
+		final KeyParameter derivedKey = keyCrypter.deriveKey(password); // takes time
+		final long now = System.currentTimeMillis();
+		recordDerivation(now - start);
+		if (useCache)
+			put(keyCrypter, password, derivedKey, now);
+
+		return derivedKey;
+	}
+
+	public synchronized void put(@Nonnull final KeyCrypter keyCrypter, @Nonnull final String password, @Nonnull final KeyParameter key,
+			final long now)
+	{
+		clear();
+
+		this.keyCrypter = keyCrypter;
+		this.passwordHash = hash(password);
+		this.key = key.getKey().clone();
+		this.expiresAt = now + timeoutMs;
+	}
+
+	private synchronized void recordDerivation(final long durationMs)
+	{
+		numDerivations++;
+		sumDeriveMs += durationMs;
+	}
+
+	/**
+	 * @return time until the cached key expires, or -1 if there is none
+	 */
+	public synchronized long getRemainingMs(final long now)
+	{
+		clearIfExpired(now);
+		return key != null ? expiresAt - now : -1;
+	}
+
+	public synchronized void clearIfExpired(final long now)
+	{
+		if (key != null && now >= expiresAt)
+		{
+			log.info("session key expired");
+			clear();
+		}
+	}
+
+	/**
+	 * @return true if there was a key to wipe
+	 */
+	public synchronized boolean clear()
+	{
+		final boolean hadKey = key != null;
+
+		if (key != null)
+			Arrays.fill(key, (byte) 0);
+		key = null;
+		passwordHash = null;
+		keyCrypter = null;
+		expiresAt = 0;
+
+		return hadKey;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		builder.append(numDerivations).append(" derivations");
+		if (numDerivations > 0)
+			builder.append(" (avg ").append(sumDeriveMs / numDerivations).append(" ms)");
+		builder.append(", ").append(numHits).append(" saved by cache");
+		builder.append(key != null ? ", key cached" : ", empty");
+		return builder.toString();
+	}
+
+	private byte[] hash(final String password)
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			return digest.digest(password.getBytes(Charsets.UTF_8));
+		}
+		catch (final NoSuchAlgorithmException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+}
@@ -17,20 +17,16 @@
 
 package de.langerhans.wallet.util;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Writer;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
 import javax.annotation.CheckForNull;
@@ -38,8 +34,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.dogecoin.dogecoinj.core.Address;
-import com.dogecoin.dogecoinj.core.AddressFormatException;
-import com.dogecoin.dogecoinj.core.DumpedPrivateKey;
 import com.dogecoin.dogecoinj.core.ECKey;
 import com.dogecoin.dogecoinj.core.ScriptException;
 import com.dogecoin.dogecoinj.core.Sha256Hash;
@@ -157,25 +151,47 @@ public class WalletUtils
 		}
 	}
 
+	/** Enough for the protobuf parser to look at the first field. */
+	private static final int SNIFF_LIMIT = 8192;
+
+	/**
+	 * Tells the formats apart by looking at the beginning, so the stream is read only once and needn't fit in memory.
+	 */
 	public static Wallet restoreWalletFromProtobufOrBase58(final InputStream is) throws IOException
 	{
-		is.mark((int) Constants.BACKUP_MAX_CHARS);
+		return restoreWalletFromProtobufOrBase58(is, new KeyImporter(), null);
+	}
+
+	public static Wallet restoreWalletFromProtobufOrBase58(final InputStream is, @Nonnull final KeyImporter keyImporter,
+			@Nullable final KeyImporter.ProgressListener listener) throws IOException
+	{
+		final BufferedInputStream bis = new BufferedInputStream(is, SNIFF_LIMIT);
+		bis.mark(SNIFF_LIMIT);
+		final boolean isProtobuf = WalletProtobufSerializer.isWallet(bis);
+		bis.reset();
+
+		if (isProtobuf)
+			return restoreWalletFromProtobuf(bis);
 
 		try
 		{
-			return restoreWalletFromProtobuf(is);
+			return restorePrivateKeysFromBase58(bis, keyImporter, listener);
 		}
 		catch (final IOException x)
 		{
+			// a wrong password decrypts to garbage keys, but the cipher only notices at the end of the stream
 			try
 			{
-				is.reset();
-				return restorePrivateKeysFromBase58(is);
+				final byte[] buf = new byte[4096];
+				while (bis.read(buf) != -1)
+					;
 			}
 			catch (final IOException x2)
 			{
-				throw new IOException("cannot read protobuf (" + x.getMessage() + ") or base58 (" + x2.getMessage() + ")", x);
+				throw new IOException("cannot decrypt (" + x2.getMessage() + ")", x2);
 			}
+
+			throw new IOException("cannot read protobuf or base58 (" + x.getMessage() + ")", x);
 		}
 	}
 
@@ -197,12 +213,18 @@ public class WalletUtils
 	}
 
 	public static Wallet restorePrivateKeysFromBase58(final InputStream is) throws IOException
+	{
+		return restorePrivateKeysFromBase58(is, new KeyImporter(), null);
+	}
+
+	public static Wallet restorePrivateKeysFromBase58(final InputStream is, @Nonnull final KeyImporter keyImporter,
+			@Nullable final KeyImporter.ProgressListener listener) throws IOException
 	{
 		final BufferedReader keyReader = new BufferedReader(new InputStreamReader(is, Charsets.UTF_8));
 
 		// create non-HD wallet
 		final KeyChainGroup group = new KeyChainGroup(Constants.NETWORK_PARAMETERS);
-		group.importKeys(WalletUtils.readKeys(keyReader));
+		keyImporter.importKeys(keyReader, group, listener);
 		return new Wallet(Constants.NETWORK_PARAMETERS, group);
 	}
 
@@ -226,112 +248,9 @@ public class WalletUtils
 
 	public static List<ECKey> readKeys(@Nonnull final BufferedReader in) throws IOException
 	{
-		try
-		{
-			final DateFormat format = Iso8601Format.newDateTimeFormatT();
-
-			final List<ECKey> keys = new LinkedList<ECKey>();
-
-			long charCount = 0;
-			while (true)
-			{
-				final String line = in.readLine();
-				if (line == null)
-					break; // eof
-				charCount += line.length();
-				if (charCount > Constants.BACKUP_MAX_CHARS)
-					throw new IOException("read more than the limit of " + Constants.BACKUP_MAX_CHARS + " characters");
-				if (line.trim().isEmpty() || line.charAt(0) == '#')
-					continue; // skip comment
-
-				final String[] parts = line.split(" ");
-
-				final ECKey key = new DumpedPrivateKey(Constants.NETWORK_PARAMETERS, parts[0]).getKey();
-				key.setCreationTimeSeconds(parts.length >= 2 ? format.parse(parts[1]).getTime() / DateUtils.SECOND_IN_MILLIS : 0);
-
-				keys.add(key);
-			}
-
-			return keys;
-		}
-		catch (final AddressFormatException x)
-		{
-			throw new IOException("cannot read keys", x);
-		}
-		catch (final ParseException x)
-		{
-			throw new IOException("cannot read keys", x);
-		}
+		return new KeyImporter().readKeys(in);
 	}
 
-	public static final FileFilter KEYS_FILE_FILTER = new FileFilter()
-	{
-		@Override
-		public boolean accept(final File file)
-		{
-			BufferedReader reader = null;
-
-			try
-			{
-				reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
-				WalletUtils.readKeys(reader);
-
-				return true;
-			}
-			catch (final IOException x)
-			{
-				return false;
-			}
-			finally
-			{
-				if (reader != null)
-				{
-					try
-					{
-						reader.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
-			}
-		}
-	};
-
-	public static final FileFilter BACKUP_FILE_FILTER = new FileFilter()
-	{
-		@Override
-		public boolean accept(final File file)
-		{
-			InputStream is = null;
-
-			try
-			{
-				is = new FileInputStream(file);
-				return WalletProtobufSerializer.isWallet(is);
-			}
-			catch (final IOException x)
-			{
-				return false;
-			}
-			finally
-			{
-				if (is != null)
-				{
-					try
-					{
-						is.close();
-					}
-					catch (final IOException x)
-					{
-						// swallow
-					}
-				}
-			}
-		}
-	};
-
 	public static byte[] walletToByteArray(@Nonnull final Wallet wallet)
 	{
 		try
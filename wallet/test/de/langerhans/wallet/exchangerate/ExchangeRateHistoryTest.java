@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.utils.Fiat;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRateHistoryTest
+{
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+	private static final long T0 = 1429272000000l; // 2015-04-17
+
+	private File file;
+	private ExchangeRateHistory history;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile("exchange-rate-history", null);
+		file.delete();
+		history = new ExchangeRateHistory(file);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertNull(history.getRate("USD", T0));
+		assertEquals(0, history.getSamples("USD", 0, Long.MAX_VALUE, new long[10], new long[10]));
+	}
+
+	@Test
+	public void recentLookup() throws Exception
+	{
+		for (int i = 0; i < 12; i++)
+			history.record(T0 + i * 5 * MINUTE, Fiat.valueOf("USD", 100 + i));
+
+		assertEquals(100, history.getRate("USD", T0).value);
+		assertEquals(102, history.getRate("USD", T0 + 12 * MINUTE).value);
+		assertEquals(111, history.getRate("USD", T0 + 57 * MINUTE).value);
+		assertNull(history.getRate("USD", T0 - 13 * HOUR));
+		assertNull(history.getRate("EUR", T0));
+	}
+
+	@Test
+	public void coarseTiers() throws Exception
+	{
+		// one sample per hour for 30 days, the fine tier only keeps the last 2 days
+		for (int i = 0; i < 30 * 24; i++)
+			history.record(T0 + i * HOUR, Fiat.valueOf("USD", i));
+
+		assertEquals(24, history.getRate("USD", T0 + DAY + 30 * MINUTE).value);
+		assertEquals(30 * 24 - 1, history.getRate("USD", T0 + 30 * DAY).value);
+
+		final long[] times = new long[100];
+		final long[] values = new long[100];
+		final int count = history.getSamples("USD", T0, T0 + 30 * DAY, times, values);
+		assertTrue(count > 50 && count <= 100);
+		assertEquals(T0, times[0]);
+		assertEquals(0, values[0]);
+	}
+
+	@Test
+	public void gapTooLarge() throws Exception
+	{
+		history.record(T0, Fiat.valueOf("USD", 100));
+
+		assertEquals(100, history.getRate("USD", T0 + DAY).value);
+		assertNull(history.getRate("USD", T0 + 3 * DAY));
+	}
+
+	@Test
+	public void keepsLatestPerInterval() throws Exception
+	{
+		history.record(T0, Fiat.valueOf("USD", 100));
+		history.record(T0 + MINUTE, Fiat.valueOf("USD", 101));
+		history.record(T0 - MINUTE, Fiat.valueOf("USD", 99)); // out of order, ignored
+
+		assertEquals(101, history.getRate("USD", T0 + 2 * MINUTE).value);
+		assertEquals(1, history.getSamples("USD", T0 - HOUR, T0 + HOUR, new long[10], new long[10]));
+	}
+
+	@Test
+	public void dropsLeastRecentlyRecorded() throws Exception
+	{
+		for (final String currencyCode : new String[] { "USD", "EUR", "GBP", "CNY", "JPY" })
+			history.record(T0, Fiat.valueOf(currencyCode, 100));
+
+		assertNull(history.getRate("USD", T0));
+		assertEquals(100, history.getRate("JPY", T0).value);
+	}
+
+	@Test
+	public void saveAndLoad() throws Exception
+	{
+		for (int i = 0; i < 1000; i++)
+			history.record(T0 + i * 5 * MINUTE, Fiat.valueOf("USD", 1000 + (i % 7) - 3));
+		history.record(T0, Fiat.valueOf("EUR", 90));
+
+		assertTrue(history.save());
+		assertTrue(!history.save());
+		// delta encoding keeps this at a few bytes per sample
+		assertTrue(file.length() < 2000 * 4);
+
+		final ExchangeRateHistory loaded = new ExchangeRateHistory(file);
+		loaded.load();
+		for (final long time : new long[] { T0 + 17 * MINUTE, T0 + 3 * DAY + 2 * MINUTE, T0 + 50 * HOUR })
+			assertEquals(history.getRate("USD", time).value, loaded.getRate("USD", time).value);
+		assertEquals(90, loaded.getRate("EUR", T0).value);
+	}
+
+	@Test
+	public void loadKeepsRatesRecordedMeanwhile() throws Exception
+	{
+		history.record(T0, Fiat.valueOf("USD", 1000));
+		assertTrue(history.save());
+
+		final ExchangeRateHistory loading = new ExchangeRateHistory(file);
+		loading.record(T0 + DAY, Fiat.valueOf("USD", 1100));
+		assertTrue(!loading.save()); // would overwrite what is on disk
+		loading.load();
+
+		assertEquals(1000, loading.getRate("USD", T0).value);
+		assertEquals(1100, loading.getRate("USD", T0 + DAY).value);
+		assertTrue(loading.save());
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.dogecoin.dogecoinj.utils.Fiat;
+import com.google.common.base.Charsets;
+
+import de.langerhans.wallet.util.Io;
+
+/**
+ * Compares the old exchange rate parsing, which buffered the whole response, built a {@link JSONObject} and went through
+ * {@link DecimalFormat} for every rate, with {@link ExchangeRatesParser} and {@link FixedPoint}. Both convert the 170 currencies
+ * of a BitcoinAverage ticker to DOGE rates. Run with <code>-prof gc</code> to compare allocations.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExchangeRatesParserBenchmark
+{
+	private static final String[] FIELDS = new String[] { "24h_avg", "last" };
+	private static final double DOGE_BTC = 0.000000604;
+
+	private String payload;
+	private ExchangeRatesParser parser;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		final InputStream is = getClass().getResourceAsStream("bitcoinaverage-ticker-170.json");
+		final StringBuilder content = new StringBuilder();
+		Io.copy(new InputStreamReader(is, Charsets.UTF_8), content);
+		is.close();
+		payload = content.toString();
+
+		parser = new ExchangeRatesParser(Fiat.SMALLEST_UNIT_EXPONENT, FIELDS);
+	}
+
+	@Benchmark
+	public Map<String, Fiat> legacy() throws IOException, JSONException
+	{
+		final Reader reader = new StringReader(payload);
+		final StringBuilder content = new StringBuilder();
+		Io.copy(reader, content);
+
+		final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+		final JSONObject head = new JSONObject(content.toString());
+		for (final Iterator<String> i = head.keys(); i.hasNext();)
+		{
+			final String currencyCode = i.next();
+			if ("timestamp".equals(currencyCode))
+				continue;
+
+			final JSONObject o = head.getJSONObject(currencyCode);
+			for (final String field : FIELDS)
+			{
+				final String rate = o.optString(field, null);
+				if (rate == null)
+					continue;
+
+				try
+				{
+					final double btcRate = Double.parseDouble(Fiat.parseFiat(currencyCode, rate).toPlainString());
+					final DecimalFormat df = new DecimalFormat("#.########");
+					df.setRoundingMode(RoundingMode.HALF_UP);
+					final DecimalFormatSymbols dfs = new DecimalFormatSymbols();
+					dfs.setDecimalSeparator('.');
+					dfs.setGroupingSeparator(',');
+					df.setDecimalFormatSymbols(dfs);
+					final Fiat dogeRate = Fiat.parseFiat(currencyCode, df.format(btcRate * DOGE_BTC));
+					if (dogeRate.signum() > 0)
+					{
+						rates.put(currencyCode, dogeRate);
+						break;
+					}
+				}
+				catch (final RuntimeException x)
+				{
+					// try next field
+				}
+			}
+		}
+
+		return rates;
+	}
+
+	@Benchmark
+	public Map<String, Fiat> streaming() throws IOException
+	{
+		final long dogeBtc = FixedPoint.fromDouble(DOGE_BTC, 12);
+
+		final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+		for (final Map.Entry<String, Long> entry : parser.parse(new StringReader(payload)).entrySet())
+		{
+			final String currencyCode = entry.getKey();
+			final long units = FixedPoint.multiply(entry.getValue(), Fiat.SMALLEST_UNIT_EXPONENT, dogeBtc, 12, Fiat.SMALLEST_UNIT_EXPONENT);
+			if (units > 0)
+				rates.put(currencyCode, Fiat.valueOf(currencyCode, units));
+		}
+
+		return rates;
+	}
+
+	public static void main(final String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(ExchangeRatesParserBenchmark.class.getSimpleName()).build()).run();
+	}
+}
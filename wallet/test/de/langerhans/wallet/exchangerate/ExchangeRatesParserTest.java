@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class ExchangeRatesParserTest
+{
+	private final ExchangeRatesParser parser = new ExchangeRatesParser(4, "24h_avg", "last");
+
+	@Test
+	public void bitcoinAverage() throws Exception
+	{
+		final Reader reader = new InputStreamReader(getClass().getResourceAsStream("bitcoinaverage-ticker-170.json"), Charsets.UTF_8);
+		final Map<String, Long> rates = parser.parse(reader);
+		reader.close();
+
+		assertEquals(170, rates.size());
+		assertEquals(2231400, (long) rates.get("USD"));
+		assertNull(rates.get("timestamp"));
+		assertTrue(parser.getCharsRead() > 4096);
+	}
+
+	@Test
+	public void fieldPreference() throws Exception
+	{
+		final Map<String, Long> rates = parser.parse(new StringReader(
+				"{\"USD\":{\"last\":2,\"24h_avg\":1},\"EUR\":{\"24h_avg\":0,\"last\":\"3.5\"},\"GBP\":{\"bid\":1},\"timestamp\":\"x\"}"));
+
+		assertEquals(2, rates.size());
+		assertEquals(10000, (long) rates.get("USD"));
+		assertEquals(35000, (long) rates.get("EUR"));
+	}
+
+	@Test
+	public void skipsUnknownValues() throws Exception
+	{
+		final Map<String, Long> rates = parser.parse(new StringReader(
+				" { \"X\\\"Y\" : [1, {\"a\": [true, null]}, \"\\u00e4\"] , \"USD\" : { \"ask\" : null, \"last\" : 1e2 } , \"n\" : null } "));
+
+		assertEquals(1, rates.size());
+		assertEquals(1000000, (long) rates.get("USD"));
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertTrue(parser.parse(new StringReader("{}")).isEmpty());
+	}
+
+	@Test(expected = IOException.class)
+	public void truncated() throws Exception
+	{
+		parser.parse(new StringReader("{\"USD\":{\"last\":1"));
+	}
+}
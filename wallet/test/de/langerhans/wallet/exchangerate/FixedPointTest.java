@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class FixedPointTest
+{
+	@Test
+	public void parse() throws Exception
+	{
+		assertEquals(2231400, FixedPoint.parse("223.14", 4));
+		assertEquals(12346, FixedPoint.parse("1.23455", 4));
+		assertEquals(-12346, FixedPoint.parse("-1.23455", 4));
+		assertEquals(50000000, FixedPoint.parse("5E3", 4));
+		assertEquals(0, FixedPoint.parse("1e-5", 4));
+		assertEquals(1, FixedPoint.parse("0.00005", 4));
+		assertEquals(0, FixedPoint.parse("0", 4));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void parseGarbage() throws Exception
+	{
+		FixedPoint.parse("1.2.3", 4);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void parseEmpty() throws Exception
+	{
+		FixedPoint.parse("", 4);
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void parseOverflow() throws Exception
+	{
+		FixedPoint.parse("1e30", 4);
+	}
+
+	@Test
+	public void multiply() throws Exception
+	{
+		// 223.14 USD/BTC * 0.0000604 BTC/DOGE
+		assertEquals(135, FixedPoint.multiply(2231400, 4, 60400000, 12, 4));
+		assertEquals(-135, FixedPoint.multiply(-2231400, 4, 60400000, 12, 4));
+		// intermediate product overflows a long
+		assertEquals(50000000, FixedPoint.multiply(50000000000L, 4, 1000000000L, 12, 4));
+		// mBTC per DOGE
+		assertEquals(6040, FixedPoint.multiply(604000000, 12, 1000, 0, 4));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void multiplyOverflow() throws Exception
+	{
+		FixedPoint.multiply(Long.MAX_VALUE, 0, 10, 0, 0);
+	}
+
+	@Test
+	public void fromDouble() throws Exception
+	{
+		assertEquals(60400000, FixedPoint.fromDouble(0.0000604, 12));
+		assertEquals(2231400, FixedPoint.fromDouble(223.14, 4));
+	}
+}
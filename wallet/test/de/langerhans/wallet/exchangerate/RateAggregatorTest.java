@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import de.langerhans.wallet.exchangerate.RateAggregator.Result;
+import de.langerhans.wallet.exchangerate.RateAggregator.Sample;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class RateAggregatorTest
+{
+	@Test
+	public void empty() throws Exception
+	{
+		assertNull(RateAggregator.aggregate(Collections.<Sample> emptyList(), null));
+		assertNull(RateAggregator.aggregate(Arrays.asList(new Sample("a", 0), new Sample("b", Double.NaN)), null));
+	}
+
+	@Test
+	public void single() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(Arrays.asList(new Sample("a", 1.5)), null);
+		assertEquals(1.5, result.value, 0);
+		assertEquals(Arrays.asList("a"), result.sources);
+		assertTrue(result.rejected.isEmpty());
+	}
+
+	@Test
+	public void twoAgreeing() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(Arrays.asList(new Sample("a", 100), new Sample("b", 102)), "b");
+		assertEquals(101, result.value, 0);
+		assertEquals(Arrays.asList("a", "b"), result.sources);
+	}
+
+	@Test
+	public void twoDisagreeingPreferred() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(Arrays.asList(new Sample("a", 100), new Sample("b", 200)), "b");
+		assertEquals(200, result.value, 0);
+		assertEquals(Arrays.asList("b"), result.sources);
+		assertEquals(Arrays.asList("a"), result.rejected);
+	}
+
+	@Test
+	public void twoDisagreeingNoPreference() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(Arrays.asList(new Sample("a", 100), new Sample("b", 200)), null);
+		assertEquals(150, result.value, 0);
+		assertEquals(2, result.sources.size());
+	}
+
+	@Test
+	public void outlierRejected() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(
+				Arrays.asList(new Sample("a", 100), new Sample("b", 104), new Sample("c", 1000), new Sample("d", 102)), "c");
+		assertEquals(102, result.value, 0);
+		assertEquals(Arrays.asList("a", "b", "d"), result.sources);
+		assertEquals(Arrays.asList("c"), result.rejected);
+	}
+
+	@Test
+	public void wideSpread() throws Exception
+	{
+		final Result result = RateAggregator.aggregate(Arrays.asList(new Sample("a", 1), new Sample("b", 10), new Sample("c", 100)), null);
+		assertEquals(10, result.value, 0);
+		assertEquals(Arrays.asList("b"), result.sources);
+		assertEquals(Arrays.asList("a", "c"), result.rejected);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.exchangerate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.langerhans.wallet.exchangerate.SourceHealth.State;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SourceHealthTest
+{
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+	private final SourceHealth health = new SourceHealth();
+
+	@Test
+	public void opensAfterRepeatedFailures() throws Exception
+	{
+		health.recordFailure(0);
+		health.recordFailure(0);
+		assertTrue(health.allowRequest(0));
+		health.recordFailure(0);
+
+		assertEquals(State.OPEN, health.getState(0));
+		assertFalse(health.allowRequest(MINUTE));
+	}
+
+	@Test
+	public void successResetsFailures() throws Exception
+	{
+		health.recordFailure(0);
+		health.recordFailure(0);
+		health.recordSuccess(0, 100);
+		health.recordFailure(0);
+
+		assertEquals(State.CLOSED, health.getState(0));
+	}
+
+	@Test
+	public void halfOpenTrial() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+			health.recordFailure(0);
+
+		// one trial after the cooldown
+		assertTrue(health.allowRequest(2 * MINUTE));
+		assertFalse(health.allowRequest(2 * MINUTE));
+
+		// failed trial doubles the cooldown
+		health.recordFailure(2 * MINUTE);
+		assertFalse(health.allowRequest(5 * MINUTE));
+		assertTrue(health.allowRequest(6 * MINUTE));
+
+		health.recordSuccess(6 * MINUTE, 100);
+		assertEquals(State.CLOSED, health.getState(6 * MINUTE));
+		assertTrue(health.allowRequest(6 * MINUTE));
+	}
+
+	@Test
+	public void cancelledTrialIsRetried() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+			health.recordFailure(0);
+
+		assertTrue(health.allowRequest(2 * MINUTE));
+		health.recordCancelled();
+		assertTrue(health.allowRequest(2 * MINUTE));
+	}
+
+	@Test
+	public void stats() throws Exception
+	{
+		assertTrue(Double.isNaN(health.getSuccessRate()));
+		assertEquals(-1, health.getLatencyPercentile(50));
+		assertEquals(-1, health.getStalenessMs(0));
+
+		for (int i = 1; i <= 10; i++)
+			health.recordSuccess(i * MINUTE, i * 100);
+		health.recordFailure(11 * MINUTE);
+		health.recordFailure(11 * MINUTE);
+
+		assertEquals(10.0 / 12, health.getSuccessRate(), 0.001);
+		assertEquals(500, health.getLatencyPercentile(50));
+		assertEquals(900, health.getLatencyPercentile(90));
+		assertEquals(1000, health.getLatencyPercentile(100));
+		assertEquals(2 * MINUTE, health.getStalenessMs(12 * MINUTE));
+	}
+}
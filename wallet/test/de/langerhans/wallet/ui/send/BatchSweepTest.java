@@ -0,0 +1,234 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.core.DumpedPrivateKey;
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.dogecoin.dogecoinj.core.Transaction;
+import com.dogecoin.dogecoinj.core.TransactionOutput;
+import com.dogecoin.dogecoinj.script.ScriptBuilder;
+
+import de.langerhans.wallet.Constants;
+import de.langerhans.wallet.R;
+import de.langerhans.wallet.util.BackgroundExecutors;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BatchSweepTest
+{
+	private BackgroundExecutors executors;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		executors = new BackgroundExecutors(1, 1, 1);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		executors.shutdown();
+	}
+
+	@Test
+	public void parse() throws Exception
+	{
+		final String key1 = wif(new ECKey());
+		final String key2 = wif(new ECKey());
+		final List<BatchSweep.Entry> entries = BatchSweep.parse(new StringReader("# tip cards\r\n\r\n" + key1 + ",label\r\n  " + key2
+				+ " 12.5\n" + key1 + "\nnonsense\n"));
+
+		assertEquals(3, entries.size());
+		assertEquals(key1, entries.get(0).input);
+		assertEquals(BatchSweep.Status.PENDING, entries.get(0).status);
+		assertTrue(entries.get(0).key instanceof DumpedPrivateKey);
+		assertEquals(key2, entries.get(1).input);
+		assertEquals(BatchSweep.Status.PENDING, entries.get(1).status);
+		assertEquals("nonsense", entries.get(2).input);
+		assertNull(entries.get(2).key);
+		assertEquals(BatchSweep.Status.FAILED, entries.get(2).status);
+		assertEquals(R.string.sweep_wallet_fragment_batch_invalid_key, entries.get(2).messageResId);
+	}
+
+	@Test
+	public void mergeOutputs() throws Exception
+	{
+		final ECKey key1 = new ECKey();
+		final ECKey key2 = new ECKey();
+		final Sha256Hash hash = hash(1);
+
+		final Transaction merged = RequestWalletBalanceTask.mergeOutputs(Arrays.asList(tx(hash, key1, 0, 3), tx(hash, key2, 1)));
+
+		assertEquals(hash, merged.getHash());
+		assertEquals(4, merged.getOutputs().size());
+		assertPays(key1, merged.getOutput(0));
+		assertPays(key2, merged.getOutput(1));
+		assertEquals(Coin.NEGATIVE_SATOSHI, merged.getOutput(2).getValue());
+		assertPays(key1, merged.getOutput(3));
+	}
+
+	@Test
+	public void sharedTransactionKeepsKeysTogether() throws Exception
+	{
+		final List<BatchSweep.Entry> entries = entries(3);
+		final ECKey key0 = ((DumpedPrivateKey) entries.get(0).key).getKey();
+		final ECKey key1 = ((DumpedPrivateKey) entries.get(1).key).getKey();
+		final ECKey key2 = ((DumpedPrivateKey) entries.get(2).key).getKey();
+		final Sha256Hash shared = hash(2);
+
+		funded(entries.get(0), tx(hash(1), key0, range(0, 300, 1)));
+		funded(entries.get(1), tx(shared, key1, range(0, 120, 2)));
+		funded(entries.get(2), tx(shared, key2, range(1, 120, 2)));
+
+		final List<BatchSweep.SweepWallet> wallets = batchSweep(entries).buildSweepWallets();
+
+		// the shared transaction doesn't fit next to the first key, so both its payees move on together
+		assertEquals(2, wallets.size());
+		assertEquals(Collections.singletonList(entries.get(0)), wallets.get(0).entries);
+		assertEquals(Arrays.asList(entries.get(1), entries.get(2)), wallets.get(1).entries);
+		assertEquals(1, wallets.get(1).wallet.getTransactions(false).size());
+		assertEquals(120, wallets.get(1).wallet.getTransaction(shared).getOutputs().size());
+	}
+
+	@Test
+	public void oversizedKeySpreadsOverWallets() throws Exception
+	{
+		final List<BatchSweep.Entry> entries = entries(1);
+		final BatchSweep.Entry entry = entries.get(0);
+		final ECKey key = ((DumpedPrivateKey) entry.key).getKey();
+
+		funded(entry, tx(hash(1), key, range(0, 200, 1)), tx(hash(2), key, range(0, 200, 1)), tx(hash(3), key, range(0, 200, 1)));
+
+		final List<BatchSweep.SweepWallet> wallets = batchSweep(entries).buildSweepWallets();
+
+		assertEquals(2, wallets.size());
+		assertEquals(2, wallets.get(0).wallet.getTransactions(false).size());
+		assertEquals(1, wallets.get(1).wallet.getTransactions(false).size());
+
+		// only swept once all of its wallets are
+		wallets.get(0).swept();
+		assertEquals(BatchSweep.Status.FUNDED, entry.status);
+		wallets.get(1).swept();
+		assertEquals(BatchSweep.Status.SWEPT, entry.status);
+	}
+
+	@Test
+	public void partlyFailedKeyStaysFailed() throws Exception
+	{
+		final List<BatchSweep.Entry> entries = entries(1);
+		final BatchSweep.Entry entry = entries.get(0);
+		final ECKey key = ((DumpedPrivateKey) entry.key).getKey();
+
+		funded(entry, tx(hash(1), key, range(0, 300, 1)), tx(hash(2), key, range(0, 300, 1)));
+
+		final List<BatchSweep.SweepWallet> wallets = batchSweep(entries).buildSweepWallets();
+		assertEquals(2, wallets.size());
+
+		wallets.get(0).failed(R.string.send_coins_error_msg);
+		wallets.get(1).swept();
+		assertEquals(BatchSweep.Status.FAILED, entry.status);
+	}
+
+	private BatchSweep batchSweep(final List<BatchSweep.Entry> entries)
+	{
+		return new BatchSweep(entries, executors.newScope(), null)
+		{
+			@Override
+			protected void onProgress(final BatchSweep.Entry entry)
+			{
+			}
+
+			@Override
+			protected void onDone()
+			{
+			}
+		};
+	}
+
+	private static List<BatchSweep.Entry> entries(final int numKeys) throws Exception
+	{
+		final StringBuilder keys = new StringBuilder();
+		for (int i = 0; i < numKeys; i++)
+			keys.append(wif(new ECKey())).append('\n');
+		return BatchSweep.parse(new StringReader(keys.toString()));
+	}
+
+	private static void funded(final BatchSweep.Entry entry, final Transaction... transactions)
+	{
+		entry.decoded(((DumpedPrivateKey) entry.key).getKey());
+		entry.lookedUp(Arrays.asList(transactions));
+		assertEquals(BatchSweep.Status.FUNDED, entry.status);
+	}
+
+	/**
+	 * @return transaction as looked up for one key, with its outputs at the given ascending indexes
+	 */
+	private static Transaction tx(final Sha256Hash hash, final ECKey key, final int... indexes)
+	{
+		final Transaction tx = new RequestWalletBalanceTask.FakeTransaction(Constants.NETWORK_PARAMETERS, hash);
+		final TransactionOutput dummy = new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.NEGATIVE_SATOSHI, new byte[] {});
+		final byte[] script = ScriptBuilder.createOutputScript(key.toAddress(Constants.NETWORK_PARAMETERS)).getProgram();
+		for (final int index : indexes)
+		{
+			while (tx.getOutputs().size() < index)
+				tx.addOutput(dummy);
+			tx.addOutput(new TransactionOutput(Constants.NETWORK_PARAMETERS, tx, Coin.COIN, script));
+		}
+		return tx;
+	}
+
+	private static void assertPays(final ECKey key, final TransactionOutput output)
+	{
+		assertEquals(Coin.COIN, output.getValue());
+		assertEquals(key.toAddress(Constants.NETWORK_PARAMETERS), output.getScriptPubKey().getToAddress(Constants.NETWORK_PARAMETERS));
+	}
+
+	private static int[] range(final int start, final int end, final int step)
+	{
+		final int[] range = new int[(end - start + step - 1) / step];
+		for (int i = 0; i < range.length; i++)
+			range[i] = start + i * step;
+		return range;
+	}
+
+	private static Sha256Hash hash(final int n)
+	{
+		return Sha256Hash.create(new byte[] { (byte) n });
+	}
+
+	private static String wif(final ECKey key)
+	{
+		return key.getPrivateKeyEncoded(Constants.NETWORK_PARAMETERS).toString();
+	}
+}
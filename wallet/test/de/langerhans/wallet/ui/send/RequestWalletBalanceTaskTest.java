@@ -0,0 +1,415 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.ui.send;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.Coin;
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.dogecoin.dogecoinj.core.Transaction;
+import com.google.common.base.Charsets;
+
+import de.langerhans.wallet.R;
+import de.langerhans.wallet.exchangerate.SourceHealth;
+import de.langerhans.wallet.ui.send.RequestWalletBalanceTask.Utxo;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class RequestWalletBalanceTaskTest
+{
+	private static final String API_URL = "https://api.example.com/unspent/";
+	private static final String OTHER_API_URL = "https://other.example.com/unspent/";
+
+	@Test
+	public void toTransactions() throws Exception
+	{
+		final List<Utxo> utxos = RequestWalletBalanceTask.readPages(API_URL, false, new Pages()
+		{
+			@Override
+			protected Reader page(final int page) throws IOException
+			{
+				return new InputStreamReader(getClass().getResourceAsStream("dogechain-unspent.json"), Charsets.UTF_8);
+			}
+		});
+		final Map<Sha256Hash, Transaction> transactions = RequestWalletBalanceTask.toTransactions(utxos);
+
+		assertEquals(2, transactions.size());
+		final Transaction tx = transactions.get(new Sha256Hash("e5d6e7a3ab14e10b74b5a1b8a2d5bb3b5a5b9e6bf9b0a7b83e5d7a9e3c2f1a0b"));
+		assertEquals(5, tx.getOutputs().size());
+		assertEquals(Coin.valueOf(150000000000l), tx.getOutput(1).getValue());
+		assertEquals(Coin.valueOf(2500000000l), tx.getOutput(4).getValue());
+		assertEquals(Coin.NEGATIVE_SATOSHI, tx.getOutput(0).getValue());
+		assertSame(tx.getOutput(0), tx.getOutput(2));
+		assertSame(tx.getOutput(0), tx.getOutput(3));
+	}
+
+	@Test
+	public void unpagedApiIsAskedOnce() throws Exception
+	{
+		final Pages pages = new Pages(100, 100);
+
+		assertEquals(100, RequestWalletBalanceTask.readPages(API_URL, false, pages).size());
+		assertEquals(1, pages.numRead);
+	}
+
+	@Test
+	public void pagingStopsAtShortPage() throws Exception
+	{
+		final Pages pages = new Pages(100, 100, 30, 100);
+
+		assertEquals(230, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+		assertEquals(3, pages.numRead);
+	}
+
+	@Test
+	public void pagingStopsAtMissingPage() throws Exception
+	{
+		final Pages pages = new Pages(100, 100);
+
+		assertEquals(200, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+		assertEquals(3, pages.numRead);
+	}
+
+	@Test
+	public void pagingStopsAtRepeatedPage() throws Exception
+	{
+		final Pages pages = new Pages(100, 100)
+		{
+			@Override
+			protected Reader page(final int page) throws IOException
+			{
+				// ignores the page number
+				return super.page(1);
+			}
+		};
+
+		assertEquals(100, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+		assertEquals(2, pages.numRead);
+	}
+
+	@Test
+	public void smallFirstPageIsComplete() throws Exception
+	{
+		final Pages pages = new Pages(99, 100);
+
+		assertEquals(99, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+		assertEquals(1, pages.numRead);
+	}
+
+	@Test
+	public void failedPageKeepsPagesBefore() throws Exception
+	{
+		final Pages pages = new Pages(100, 100, 100)
+		{
+			@Override
+			protected Reader page(final int page) throws IOException
+			{
+				if (page == 3)
+					throw new IOException("http status 500: Internal Server Error");
+				return super.page(page);
+			}
+		};
+
+		assertEquals(200, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+	}
+
+	@Test
+	public void truncatedPageIsDropped() throws Exception
+	{
+		final Pages pages = new Pages(100, 100)
+		{
+			@Override
+			protected Reader page(final int page) throws IOException
+			{
+				if (page == 2)
+				{
+					final String json = json(page, 100);
+					return new StringReader(json.substring(0, json.length() / 2));
+				}
+				return super.page(page);
+			}
+		};
+
+		assertEquals(100, RequestWalletBalanceTask.readPages(API_URL, true, pages).size());
+	}
+
+	@Test(expected = IOException.class)
+	public void failedFirstPageFails() throws Exception
+	{
+		RequestWalletBalanceTask.readPages(API_URL, true, new Pages()
+		{
+			@Override
+			protected Reader page(final int page) throws IOException
+			{
+				throw new IOException("http status 503: Service Unavailable");
+			}
+		});
+	}
+
+	@Test
+	public void hedgeDelayFollowsP90WithinLimits() throws Exception
+	{
+		assertEquals(2000, RequestWalletBalanceTask.hedgeDelayMs(new SourceHealth()));
+		assertEquals(500, RequestWalletBalanceTask.hedgeDelayMs(health(100)));
+		assertEquals(1500, RequestWalletBalanceTask.hedgeDelayMs(health(1500)));
+		assertEquals(5000, RequestWalletBalanceTask.hedgeDelayMs(health(20000)));
+	}
+
+	@Test
+	public void fasterApiFirst() throws Exception
+	{
+		final Map<String, SourceHealth> health = new HashMap<String, SourceHealth>();
+		health.put(API_URL, health(3000));
+		health.put(OTHER_API_URL, health(200));
+
+		for (int i = 0; i < 10; i++)
+			assertArrayEquals(new String[] { OTHER_API_URL, API_URL },
+					RequestWalletBalanceTask.orderedApiUrls(new String[] { API_URL, OTHER_API_URL }, health, 0));
+	}
+
+	@Test
+	public void openCircuitLast() throws Exception
+	{
+		final Map<String, SourceHealth> health = new HashMap<String, SourceHealth>();
+		health.put(API_URL, health(3000));
+		final SourceHealth failing = health(200);
+		for (int i = 0; i < 3; i++)
+			failing.recordFailure(0);
+		health.put(OTHER_API_URL, failing);
+
+		for (int i = 0; i < 10; i++)
+			assertArrayEquals(new String[] { API_URL, OTHER_API_URL },
+					RequestWalletBalanceTask.orderedApiUrls(new String[] { API_URL, OTHER_API_URL }, health, 0));
+	}
+
+	@Test
+	public void hedgeAsksEachApiOnce() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+
+		assertTrue(hedge.launch(0));
+		assertFalse(hedge.launch(0));
+		assertTrue(hedge.launch(1));
+		assertEquals(Arrays.asList(API_URL, OTHER_API_URL), hedge.asked);
+	}
+
+	@Test
+	public void firstAnswerWins() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+		final Map<Sha256Hash, Transaction> first = transactions(utxo(1, 0, 100));
+		final Map<Sha256Hash, Transaction> second = transactions(utxo(1, 0, 100));
+
+		hedge.launch(0);
+		hedge.launch(1);
+		hedge.succeeded(OTHER_API_URL, first);
+		hedge.succeeded(API_URL, second);
+		hedge.failed(R.string.error_io, "late");
+
+		assertEquals(1, hedge.results.size());
+		assertSame(first, hedge.results.get(0));
+		assertEquals(0, hedge.numFailed);
+		assertFalse(hedge.launch(0));
+	}
+
+	@Test
+	public void failureAsksOtherApiRightAway() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+
+		hedge.launch(0);
+		hedge.failed(R.string.error_io, "timeout");
+		assertEquals(Arrays.asList(API_URL, OTHER_API_URL), hedge.asked);
+		assertEquals(0, hedge.numFailed);
+
+		hedge.succeeded(OTHER_API_URL, transactions());
+		assertEquals(1, hedge.results.size());
+	}
+
+	@Test
+	public void failsOnceAllApisFailed() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+
+		hedge.launch(0);
+		hedge.failed(R.string.error_io, "timeout");
+		hedge.failed(R.string.error_io, "timeout");
+
+		assertEquals(1, hedge.numFailed);
+		assertEquals(0, hedge.results.size());
+	}
+
+	@Test
+	public void launchThatCannotBeSubmittedCountsAsFailed() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+
+		hedge.launch(0);
+		hedge.submittable = false;
+		assertFalse(hedge.launch(1));
+		assertEquals(0, hedge.numFailed);
+
+		hedge.failed(R.string.error_io, "timeout");
+		assertEquals(1, hedge.numFailed);
+	}
+
+	@Test
+	public void rejectedLaunchCountsAsFailed() throws Exception
+	{
+		final TestHedge hedge = new TestHedge();
+		hedge.saturated = true;
+
+		assertFalse(hedge.launch(0));
+		assertEquals(Arrays.asList(API_URL, OTHER_API_URL), hedge.asked);
+		assertEquals(1, hedge.numFailed);
+	}
+
+	@Test
+	public void crossCheck() throws Exception
+	{
+		final Map<Sha256Hash, Transaction> transactions = transactions(utxo(1, 0, 100), utxo(1, 2, 200), utxo(2, 1, 300));
+
+		assertTrue(RequestWalletBalanceTask.crossCheck(null, API_URL, transactions, OTHER_API_URL,
+				transactions(utxo(2, 1, 300), utxo(1, 2, 200), utxo(1, 0, 100))));
+		assertFalse(RequestWalletBalanceTask.crossCheck(null, API_URL, transactions, OTHER_API_URL,
+				transactions(utxo(1, 0, 100), utxo(1, 2, 200))));
+		assertFalse(RequestWalletBalanceTask.crossCheck(null, API_URL, transactions, OTHER_API_URL,
+				transactions(utxo(1, 0, 100), utxo(1, 2, 201), utxo(2, 1, 300))));
+	}
+
+	private static SourceHealth health(final long latencyMs)
+	{
+		final SourceHealth health = new SourceHealth();
+		for (int i = 0; i < 10; i++)
+			health.recordSuccess(0, latencyMs);
+		return health;
+	}
+
+	private static Map<Sha256Hash, Transaction> transactions(final Utxo... utxos)
+	{
+		return RequestWalletBalanceTask.toTransactions(new ArrayList<Utxo>(Arrays.asList(utxos)));
+	}
+
+	private static Utxo utxo(final int n, final int index, final long value)
+	{
+		return new Utxo(new Sha256Hash(String.format("%064x", n)), index, value, new byte[] { 0x51 });
+	}
+
+	private static class TestHedge extends RequestWalletBalanceTask.Hedge
+	{
+		public final List<String> asked = new ArrayList<String>();
+		public final List<Map<Sha256Hash, Transaction>> results = new ArrayList<Map<Sha256Hash, Transaction>>();
+		public int numFailed = 0;
+		public boolean submittable = true;
+		public boolean saturated = false;
+
+		public TestHedge()
+		{
+			super(null, new String[] { API_URL, OTHER_API_URL });
+		}
+
+		@Override
+		protected boolean ask(final String apiUrl)
+		{
+			asked.add(apiUrl);
+			if (saturated)
+				throw new RejectedExecutionException("saturated");
+			return submittable;
+		}
+
+		@Override
+		protected void onResult(final Map<Sha256Hash, Transaction> transactions)
+		{
+			results.add(transactions);
+		}
+
+		@Override
+		protected void onFail(final int messageResId, final Object... messageArgs)
+		{
+			numFailed++;
+		}
+	}
+
+	/**
+	 * Serves pages of the given sizes, each with outputs of its own; pages beyond those don't exist.
+	 */
+	private static class Pages implements RequestWalletBalanceTask.PageSource
+	{
+		private final int[] pageSizes;
+		public int numRead = 0;
+
+		public Pages(final int... pageSizes)
+		{
+			this.pageSizes = pageSizes;
+		}
+
+		@Override
+		public int readPage(final int page, final Set<String> seen, final List<Utxo> utxos) throws IOException,
+				JSONException
+		{
+			numRead++;
+			final Reader reader = page(page);
+			if (reader == null)
+				return 0;
+			return new UnspentOutputsParser(reader).parse(seen, utxos);
+		}
+
+		/**
+		 * @return page, or null if it doesn't exist
+		 */
+		protected Reader page(final int page) throws IOException
+		{
+			if (page > pageSizes.length)
+				return null;
+			return new StringReader(json(page, pageSizes[page - 1]));
+		}
+
+		protected static String json(final int page, final int pageSize)
+		{
+			final StringBuilder json = new StringBuilder("{\"success\":1,\"unspent_outputs\":[");
+			for (int i = 0; i < pageSize; i++)
+			{
+				if (i > 0)
+					json.append(',');
+				json.append("{\"tx_hash\":\"").append(String.format("%064x", page)).append("\",\"tx_output_n\":").append(i)
+						.append(",\"script\":\"51\",\"value\":\"100000000\"}");
+			}
+			return json.append("]}").toString();
+		}
+	}
+}
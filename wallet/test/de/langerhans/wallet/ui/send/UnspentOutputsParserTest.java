@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.ui.send;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.Sha256Hash;
+import com.google.common.base.Charsets;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class UnspentOutputsParserTest
+{
+	private static final Sha256Hash HASH = new Sha256Hash("e5d6e7a3ab14e10b74b5a1b8a2d5bb3b5a5b9e6bf9b0a7b83e5d7a9e3c2f1a0b");
+
+	private final Set<String> seen = new HashSet<String>();
+	private final List<RequestWalletBalanceTask.Utxo> utxos = new ArrayList<RequestWalletBalanceTask.Utxo>();
+
+	@Test
+	public void dogechain() throws Exception
+	{
+		assertEquals(3, parse("dogechain-unspent.json"));
+
+		assertEquals(3, utxos.size());
+		assertEquals(HASH, utxos.get(0).hash);
+		assertEquals(1, utxos.get(0).index);
+		assertEquals(150000000000l, utxos.get(0).value);
+		assertEquals(25, utxos.get(0).script.length);
+		assertEquals(0, utxos.get(1).index);
+		assertEquals(100000000l, utxos.get(1).value);
+		assertEquals(4, utxos.get(2).index);
+	}
+
+	@Test
+	public void chainSo() throws Exception
+	{
+		// numeric value and nested fields that are skipped
+		assertEquals(1, parse("chainso-unspent.json"));
+
+		assertEquals(1, utxos.size());
+		assertEquals(HASH, utxos.get(0).hash);
+		assertEquals(150000000000l, utxos.get(0).value);
+	}
+
+	@Test
+	public void skipsSeen() throws Exception
+	{
+		parse("dogechain-unspent.json");
+		assertEquals(1, parse("chainso-unspent.json"));
+
+		assertEquals(3, utxos.size());
+	}
+
+	@Test
+	public void empty() throws Exception
+	{
+		assertEquals(0, parse(new StringReader("{\"success\":1,\"unspent_outputs\":[]}")));
+	}
+
+	@Test(expected = IOException.class)
+	public void failedStatus() throws Exception
+	{
+		parse(new StringReader("{\"success\":0,\"error\":\"address invalid\"}"));
+	}
+
+	@Test(expected = IOException.class)
+	public void implausibleIndex() throws Exception
+	{
+		parse(new StringReader("{\"unspent_outputs\":[{\"tx_hash\":\"" + HASH
+				+ "\",\"tx_output_n\":2147483647,\"script\":\"51\",\"value\":1}]}"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void badHex() throws Exception
+	{
+		parse(new StringReader("{\"unspent_outputs\":[{\"tx_hash\":\"" + HASH + "\",\"tx_output_n\":0,\"script\":\"xy\",\"value\":1}]}"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void truncated() throws Exception
+	{
+		parse(new StringReader("{\"unspent_outputs\":[{\"tx_hash\":\"" + HASH + "\",\"tx_output_n\":0,"));
+	}
+
+	private int parse(final String resource) throws Exception
+	{
+		final Reader reader = new InputStreamReader(getClass().getResourceAsStream(resource), Charsets.UTF_8);
+		try
+		{
+			return parse(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private int parse(final Reader reader) throws Exception
+	{
+		return new UnspentOutputsParser(reader).parse(seen, utxos);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.langerhans.wallet.util.BackgroundExecutors.Pool;
+import de.langerhans.wallet.util.BackgroundExecutors.Priority;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BackgroundExecutorsTest
+{
+	private BackgroundExecutors executors;
+	private final CountDownLatch blocker = new CountDownLatch(1);
+	private final List<String> log = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		executors = new BackgroundExecutors(1, 1, 1);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		blocker.countDown();
+		executors.shutdown();
+	}
+
+	@Test
+	public void priorityOrder() throws Exception
+	{
+		block(Pool.CPU);
+		executors.submit(Pool.CPU, Priority.LOW, logging("low"));
+		executors.submit(Pool.CPU, Priority.NORMAL, logging("normal1"));
+		executors.submit(Pool.CPU, Priority.HIGH, logging("high"));
+		executors.submit(Pool.CPU, Priority.NORMAL, logging("normal2"));
+		assertEquals(4, executors.getQueueDepth(Pool.CPU));
+
+		blocker.countDown();
+		executors.submit(Pool.CPU, Priority.LOW, logging("last")).get(5, TimeUnit.SECONDS);
+
+		assertEquals("[high, normal1, normal2, low, last]", log.toString());
+	}
+
+	@Test
+	public void poolsAreIndependent() throws Exception
+	{
+		block(Pool.NETWORK);
+		executors.submit(Pool.CPU, Priority.NORMAL, logging("cpu")).get(5, TimeUnit.SECONDS);
+		assertEquals("[cpu]", log.toString());
+	}
+
+	@Test
+	public void scopeCancel() throws Exception
+	{
+		block(Pool.IO);
+		final BackgroundExecutors.Scope scope = executors.newScope();
+		scope.executor(Pool.IO, Priority.NORMAL).execute(logging("a"));
+		scope.submit(Pool.IO, Priority.NORMAL, logging("b"));
+		assertEquals(2, scope.size());
+
+		scope.cancel(false);
+		assertEquals(0, scope.size());
+		assertEquals(0, executors.getQueueDepth(Pool.IO));
+		assertNull(scope.submit(Pool.IO, Priority.NORMAL, logging("c")));
+
+		blocker.countDown();
+		executors.submit(Pool.IO, Priority.NORMAL, logging("d")).get(5, TimeUnit.SECONDS);
+		assertEquals("[d]", log.toString());
+	}
+
+	@Test
+	public void boundedQueue() throws Exception
+	{
+		block(Pool.NETWORK);
+		int numAccepted = 0;
+		try
+		{
+			for (int i = 0; i < 1000; i++)
+			{
+				executors.submit(Pool.NETWORK, Priority.NORMAL, logging("x"));
+				numAccepted++;
+			}
+		}
+		catch (final RejectedExecutionException x)
+		{
+			// expected
+		}
+		assertTrue(numAccepted > 0 && numAccepted < 1000);
+		assertTrue(executors.toString().contains("1 rejected"));
+	}
+
+	private void block(final Pool pool) throws InterruptedException
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		executors.submit(pool, Priority.HIGH, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				started.countDown();
+				try
+				{
+					blocker.await();
+				}
+				catch (final InterruptedException x)
+				{
+					// finish
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	private Runnable logging(final String name)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				log.add(name);
+			}
+		};
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class BackupDiscoveryTest
+{
+	private static final char[] PASSWORD = "password".toCharArray();
+
+	private File dir;
+	private BackupDiscovery discovery;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		dir = Files.createTempDir();
+		discovery = new BackupDiscovery();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void sniff() throws Exception
+	{
+		final byte[] encrypted = readResource("bitcoin-wallet-backup-testnet-3.50");
+		final byte[] protobuf = Crypto.decryptBytes(new String(encrypted, Charsets.UTF_8), PASSWORD);
+
+		assertEquals(BackupDiscovery.Type.ENCRYPTED, BackupDiscovery.sniff(write("encrypted", encrypted)));
+		assertEquals(BackupDiscovery.Type.PROTOBUF, BackupDiscovery.sniff(write("protobuf", protobuf)));
+		final String key = new ECKey().getPrivateKeyEncoded(Constants.NETWORK_PARAMETERS).toString();
+		assertEquals(BackupDiscovery.Type.KEYS,
+				BackupDiscovery.sniff(write("keys", ("# KEEP YOUR PRIVATE KEYS SAFE!\r\n#\r\n\r\n" + key + " 2015-01-01T00:00:00Z\r\n").getBytes(Charsets.UTF_8))));
+		assertEquals(BackupDiscovery.Type.UNKNOWN, BackupDiscovery.sniff(write("text", "# nothing here\n\nhello".getBytes(Charsets.UTF_8))));
+		assertEquals(BackupDiscovery.Type.UNKNOWN, BackupDiscovery.sniff(write("empty", new byte[0])));
+		assertEquals(BackupDiscovery.Type.UNKNOWN, BackupDiscovery.sniff(new File(dir, "missing")));
+		assertEquals(BackupDiscovery.Type.UNKNOWN, BackupDiscovery.sniff(dir));
+	}
+
+	@Test
+	public void cached() throws Exception
+	{
+		final File file = write("encrypted", readResource("bitcoin-wallet-backup-testnet-3.50"));
+		assertNull(discovery.getCached(file));
+
+		assertEquals(BackupDiscovery.Type.ENCRYPTED, discovery.classify(file));
+		assertEquals(BackupDiscovery.Type.ENCRYPTED, discovery.classify(file));
+		assertEquals(BackupDiscovery.Type.ENCRYPTED, discovery.getCached(file));
+		assertEquals("1 cached, 1 hits, 1 misses", discovery.toString());
+
+		// changed size invalidates
+		write("encrypted", "hello".getBytes(Charsets.UTF_8));
+		assertNull(discovery.getCached(file));
+		assertEquals(BackupDiscovery.Type.UNKNOWN, discovery.classify(file));
+	}
+
+	@Test
+	public void discover() throws Exception
+	{
+		final byte[] encrypted = readResource("bitcoin-wallet-backup-testnet-3.50");
+		final List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 20; i++)
+			files.add(write("file" + i, i % 2 == 0 ? encrypted : "hello".getBytes(Charsets.UTF_8)));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Map<File, BackupDiscovery.Type>> result = new AtomicReference<Map<File, BackupDiscovery.Type>>();
+		discovery.discover(files, executor, new BackupDiscovery.Listener()
+		{
+			@Override
+			public void onDiscovered(final Map<File, BackupDiscovery.Type> types)
+			{
+				result.set(types);
+				latch.countDown();
+			}
+		});
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		executor.shutdown();
+
+		final Map<File, BackupDiscovery.Type> types = result.get();
+		assertEquals(files, new ArrayList<File>(types.keySet()));
+		for (int i = 0; i < 20; i++)
+			assertEquals(i % 2 == 0 ? BackupDiscovery.Type.ENCRYPTED : BackupDiscovery.Type.UNKNOWN, types.get(files.get(i)));
+		assertEquals(BackupDiscovery.Type.ENCRYPTED, discovery.getCached(files.get(0)));
+	}
+
+	private File write(final String name, final byte[] bytes) throws Exception
+	{
+		final File file = new File(dir, name);
+		Files.write(bytes, file);
+		return file;
+	}
+
+	private byte[] readResource(final String filename) throws Exception
+	{
+		final InputStream is = getClass().getResourceAsStream(filename);
+		final byte[] bytes = ByteStreams.toByteArray(is);
+		is.close();
+		return bytes;
+	}
+}
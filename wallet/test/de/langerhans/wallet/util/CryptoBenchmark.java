@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.PBEParametersGenerator;
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.generators.OpenSSLPBEParametersGenerator;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
+
+/**
+ * Compares the old decryption of a backup, which copied the cipher bytes out of the decoded buffer, the salt out of those and
+ * finally the plain bytes out of an oversized output array, with {@link Crypto#decrypt(byte[], int, int, char[])} working in
+ * place. Base64 is left out, it costs the same for both. Both variants first refill their work buffer, since decryption
+ * overwrites it. Run with <code>-prof gc</code> to compare allocations.
+ *
+ * @author Andreas Schildbach
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CryptoBenchmark
+{
+	private static final char[] PASSWORD = "password".toCharArray();
+
+	@Param({ "1024", "102400", "1048576", "10485760" })
+	public int size;
+
+	private byte[] plainBytes;
+	private byte[] cipherBytes;
+	private byte[] buf;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		plainBytes = new byte[size];
+		new Random(0).nextBytes(plainBytes);
+
+		cipherBytes = new byte[Crypto.encryptedLength(size)];
+		System.arraycopy(plainBytes, 0, cipherBytes, Crypto.HEADER_LENGTH, size);
+		cipherBytes = Arrays.copyOf(cipherBytes, Crypto.encrypt(cipherBytes, 0, size, PASSWORD));
+
+		buf = new byte[Crypto.encryptedLength(size)];
+	}
+
+	@Benchmark
+	public byte[] legacyDecrypt() throws IOException, InvalidCipherTextException
+	{
+		System.arraycopy(cipherBytes, 0, buf, 0, cipherBytes.length);
+		final byte[] decoded = Arrays.copyOf(buf, cipherBytes.length);
+
+		final byte[] saltAndCipherBytes = Arrays.copyOfRange(decoded, 8, decoded.length);
+		final byte[] salt = Arrays.copyOf(saltAndCipherBytes, 8);
+		final byte[] cipherOnlyBytes = Arrays.copyOfRange(saltAndCipherBytes, 8, saltAndCipherBytes.length);
+
+		final PBEParametersGenerator generator = new OpenSSLPBEParametersGenerator();
+		generator.init(PBEParametersGenerator.PKCS5PasswordToBytes(PASSWORD), salt, 1024);
+		final BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+		cipher.init(false, generator.generateDerivedParameters(256, 128));
+
+		final byte[] decryptedBytes = new byte[cipher.getOutputSize(cipherOnlyBytes.length)];
+		final int processLen = cipher.processBytes(cipherOnlyBytes, 0, cipherOnlyBytes.length, decryptedBytes, 0);
+		final int doFinalLen = cipher.doFinal(decryptedBytes, processLen);
+		return Arrays.copyOf(decryptedBytes, processLen + doFinalLen);
+	}
+
+	@Benchmark
+	public int inPlaceDecrypt() throws IOException
+	{
+		System.arraycopy(cipherBytes, 0, buf, 0, cipherBytes.length);
+		return Crypto.decrypt(buf, 0, cipherBytes.length, PASSWORD);
+	}
+
+	@Benchmark
+	public int inPlaceEncrypt() throws IOException
+	{
+		System.arraycopy(plainBytes, 0, buf, Crypto.HEADER_LENGTH, size);
+		return Crypto.encrypt(buf, 0, size, PASSWORD);
+	}
+
+	public static void main(final String[] args) throws Exception
+	{
+		new Runner(new OptionsBuilder().include(CryptoBenchmark.class.getSimpleName()).build()).run();
+	}
+}
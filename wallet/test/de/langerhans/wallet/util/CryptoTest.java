@@ -20,17 +20,27 @@ package de.langerhans.wallet.util;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
 
 import com.dogecoin.dogecoinj.store.WalletProtobufSerializer;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 /**
  * @author Andreas Schildbach
@@ -97,6 +107,132 @@ public class CryptoTest
 		}
 	}
 
+	@Test
+	public void roundtripStreamDifferentSizes() throws Exception
+	{
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream(4096);
+		while (stream.size() < 4096)
+		{
+			final byte[] plainBytes = stream.toByteArray();
+
+			final StringWriter cipherText = new StringWriter();
+			final OutputStream cipherOut = Crypto.encryptStream(cipherText, PASSWORD);
+			cipherOut.write(plainBytes);
+			cipherOut.close();
+
+			// same format as the non-streaming variant, in both directions
+			assertArrayEquals(plainBytes, Crypto.decryptBytes(cipherText.toString(), PASSWORD));
+			assertArrayEquals(plainBytes, decryptStream(Crypto.encrypt(plainBytes, PASSWORD)));
+
+			stream.write(stream.size());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void streamBadPassword() throws Exception
+	{
+		// with a random salt, the wrong key yields valid padding about once in 256 runs
+		final byte[] salt = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+		final byte[] buf = new byte[Crypto.encryptedLength(1000)];
+		final int len = Crypto.encrypt(buf, 0, 1000, PASSWORD, salt);
+		decryptStream(BaseEncoding.base64().encode(buf, 0, len), "wrong".toCharArray());
+	}
+
+	@Test
+	public void roundtripInPlace() throws Exception
+	{
+		for (int plainLength = 0; plainLength < 100; plainLength++)
+		{
+			final int off = plainLength % 7;
+			final byte[] plainBytes = new byte[plainLength];
+			Arrays.fill(plainBytes, (byte) plainLength);
+
+			final byte[] buf = new byte[off + Crypto.encryptedLength(plainLength) + 3];
+			System.arraycopy(plainBytes, 0, buf, off + Crypto.HEADER_LENGTH, plainLength);
+			final int cipherLength = Crypto.encrypt(buf, off, plainLength, PASSWORD);
+			assertTrue(cipherLength <= Crypto.encryptedLength(plainLength));
+
+			final int decryptedLength = Crypto.decrypt(buf, off, cipherLength, PASSWORD);
+			assertArrayEquals(plainBytes, Arrays.copyOfRange(buf, off, off + decryptedLength));
+		}
+	}
+
+	@Test
+	public void sameAsOpenssl() throws Exception
+	{
+		final byte[] salt = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+		final File dir = Files.createTempDir();
+		final File plainFile = new File(dir, "plain");
+		final File cipherFile = new File(dir, "cipher");
+
+		try
+		{
+			for (final int plainLength : new int[] { 0, 1, 15, 16, 17, 1000, 65536 })
+			{
+				final byte[] plainBytes = new byte[plainLength];
+				for (int i = 0; i < plainLength; i++)
+					plainBytes[i] = (byte) (i * 31);
+				Files.write(plainBytes, plainFile);
+
+				final byte[] buf = new byte[Crypto.encryptedLength(plainLength)];
+				System.arraycopy(plainBytes, 0, buf, Crypto.HEADER_LENGTH, plainLength);
+				final int cipherLength = Crypto.encrypt(buf, 0, plainLength, PASSWORD, salt);
+
+				// newer openssl leaves out the header if the salt is given explicitly
+				assumeTrue(openssl("enc", "-aes-256-cbc", "-md", "md5", "-S", "0102030405060708", "-pass", "pass:password", "-in",
+						plainFile.getPath(), "-out", cipherFile.getPath()));
+				byte[] opensslBytes = Files.toByteArray(cipherFile);
+				final int skip = cipherLength - opensslBytes.length;
+				assertTrue(skip == 0 || skip == Crypto.HEADER_LENGTH);
+				assertArrayEquals(opensslBytes, Arrays.copyOfRange(buf, skip, cipherLength));
+
+				assumeTrue(openssl("enc", "-aes-256-cbc", "-md", "md5", "-pass", "pass:password", "-in", plainFile.getPath(), "-out",
+						cipherFile.getPath()));
+				opensslBytes = Files.toByteArray(cipherFile);
+				final int decryptedLength = Crypto.decrypt(opensslBytes, 0, opensslBytes.length, PASSWORD);
+				assertArrayEquals(plainBytes, Arrays.copyOf(opensslBytes, decryptedLength));
+			}
+		}
+		finally
+		{
+			plainFile.delete();
+			cipherFile.delete();
+			dir.delete();
+		}
+	}
+
+	private static boolean openssl(final String... args)
+	{
+		final String[] command = new String[args.length + 1];
+		command[0] = "openssl";
+		System.arraycopy(args, 0, command, 1, args.length);
+
+		try
+		{
+			final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			ByteStreams.toByteArray(process.getInputStream());
+			return process.waitFor() == 0;
+		}
+		catch (final IOException x)
+		{
+			return false; // not installed
+		}
+		catch (final InterruptedException x)
+		{
+			return false;
+		}
+	}
+
+	@Test
+	public void backupsStream() throws Exception
+	{
+		final byte[] backup = decryptStream(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50"));
+		assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backup)));
+
+		final byte[] backupCrLf = decryptStream(readBackupFromResource("bitcoin-wallet-backup-testnet-3.50-crlf"));
+		assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backupCrLf)));
+	}
+
 	@Test
 	public void backups() throws Exception
 	{
@@ -107,6 +243,19 @@ public class CryptoTest
 		assertTrue(WalletProtobufSerializer.isWallet(new ByteArrayInputStream(backupCrLf)));
 	}
 
+	private byte[] decryptStream(final String cipherText) throws IOException
+	{
+		return decryptStream(cipherText, PASSWORD);
+	}
+
+	private byte[] decryptStream(final String cipherText, final char[] password) throws IOException
+	{
+		final InputStream plainIn = Crypto.decryptStream(new StringReader(cipherText), password);
+		final byte[] plainBytes = ByteStreams.toByteArray(plainIn);
+		plainIn.close();
+		return plainBytes;
+	}
+
 	private String readBackupFromResource(final String filename) throws IOException
 	{
 		final BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream(filename), Charsets.UTF_8));
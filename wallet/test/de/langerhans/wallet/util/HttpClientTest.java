@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class HttpClientTest
+{
+	private static final String BODY = "{\"USD\":{\"last\":223.14}}";
+
+	private HttpServer server;
+	private File dir;
+	private HttpClient client;
+	private final Set<Integer> remotePorts = new CopyOnWriteArraySet<Integer>();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				remotePorts.add(exchange.getRemoteAddress().getPort());
+
+				final boolean gzip = exchange.getRequestURI().getPath().equals("/gzip");
+				final boolean notFound = exchange.getRequestURI().getPath().equals("/missing");
+				final byte[] body = BODY.getBytes(Charsets.UTF_8);
+				if (gzip)
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.sendResponseHeaders(notFound ? 404 : 200, 0);
+				final OutputStream os = gzip ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody();
+				os.write(body);
+				os.close();
+			}
+		});
+		server.start();
+
+		dir = Files.createTempDir();
+		client = new HttpClient("test", new HttpResponseCache(dir, 1024), null);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop(0);
+		dir.delete();
+	}
+
+	@Test
+	public void reusesConnection() throws Exception
+	{
+		for (int i = 0; i < 5; i++)
+			assertEquals(BODY, get("/plain"));
+
+		assertEquals(1, remotePorts.size());
+		assertTrue(client.toString().startsWith("5 requests, 0 tls handshakes"));
+	}
+
+	@Test
+	public void reusesConnectionAfterError() throws Exception
+	{
+		final HttpURLConnection connection = client.open(url("/missing"), false);
+		final InputStream is = client.response(connection);
+		assertNull(is);
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connection.getResponseCode());
+		client.release(connection, is);
+
+		assertEquals(BODY, get("/plain"));
+		assertEquals(1, remotePorts.size());
+	}
+
+	@Test
+	public void decodesGzip() throws Exception
+	{
+		final HttpURLConnection connection = client.open(url("/gzip"), false);
+		final InputStream is = client.response(connection);
+		try
+		{
+			assertEquals(BODY, read(is));
+		}
+		finally
+		{
+			client.release(connection, is);
+		}
+	}
+
+	private URL url(final String path) throws IOException
+	{
+		return new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+	}
+
+	private String get(final String path) throws IOException
+	{
+		final HttpURLConnection connection = client.open(url(path), false);
+		final InputStream is = client.get(connection);
+		try
+		{
+			return read(is);
+		}
+		finally
+		{
+			client.release(connection, is);
+		}
+	}
+
+	private static String read(final InputStream is) throws IOException
+	{
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Io.copy(is, os);
+		return new String(os.toByteArray(), Charsets.UTF_8);
+	}
+}
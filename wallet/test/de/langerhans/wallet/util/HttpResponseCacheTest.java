@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class HttpResponseCacheTest
+{
+	private static final String BODY = "{\"USD\":{\"last\":223.14}}";
+
+	private HttpServer server;
+	private File dir;
+	private HttpResponseCache cache;
+	private final AtomicInteger numOk = new AtomicInteger();
+	private final AtomicInteger numNotModified = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/etag", new Handler("\"v1\"", null, false));
+		server.createContext("/gzip", new Handler("\"v1\"", null, true));
+		server.createContext("/modified", new Handler(null, "Fri, 17 Apr 2015 12:00:00 GMT", false));
+		server.createContext("/plain", new Handler(null, null, false));
+		server.start();
+
+		dir = Files.createTempDir();
+		cache = new HttpResponseCache(dir, 1024);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop(0);
+		cache.clear();
+		dir.delete();
+	}
+
+	@Test
+	public void revalidateETag() throws Exception
+	{
+		assertEquals(BODY, get("/etag"));
+		assertEquals(BODY, get("/etag"));
+		assertEquals(BODY, get("/etag"));
+
+		assertEquals(1, numOk.get());
+		assertEquals(2, numNotModified.get());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2 * BODY.length(), cache.getBytesSaved());
+	}
+
+	@Test
+	public void revalidateLastModified() throws Exception
+	{
+		assertEquals(BODY, get("/modified"));
+		assertEquals(BODY, get("/modified"));
+
+		assertEquals(1, numOk.get());
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void storesDecoded() throws Exception
+	{
+		assertEquals(BODY, get("/gzip"));
+		assertEquals(BODY, get("/gzip"));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(BODY.length(), cache.getBytesSaved());
+	}
+
+	@Test
+	public void noValidator() throws Exception
+	{
+		assertEquals(BODY, get("/plain"));
+		assertEquals(BODY, get("/plain"));
+
+		assertEquals(2, numOk.get());
+		assertEquals(0, cache.getHitCount());
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void incompleteReadNotCached() throws Exception
+	{
+		final HttpURLConnection connection = connection("/etag");
+		final InputStream is = cache.open(connection);
+		is.read();
+		is.close();
+		connection.disconnect();
+
+		assertEquals(BODY, get("/etag"));
+		assertEquals(2, numOk.get());
+	}
+
+	@Test
+	public void evict() throws Exception
+	{
+		// each entry is roughly 100 bytes
+		for (int i = 0; i < 20; i++)
+			get("/etag?" + i);
+
+		long size = 0;
+		for (final File file : dir.listFiles())
+			size += file.length();
+		assertEquals(true, size <= 1024);
+		assertEquals(true, dir.list().length < 20);
+	}
+
+	@Test
+	public void notFound() throws Exception
+	{
+		final HttpURLConnection connection = connection("/missing");
+		assertNull(cache.open(connection));
+		assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connection.getResponseCode());
+		connection.disconnect();
+	}
+
+	private HttpURLConnection connection(final String path) throws IOException
+	{
+		final URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.addRequestProperty("Accept-Encoding", "gzip");
+		return connection;
+	}
+
+	private String get(final String path) throws IOException
+	{
+		final HttpURLConnection connection = connection(path);
+		try
+		{
+			final InputStream is = cache.open(connection);
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			Io.copy(is, os);
+			is.close();
+			return new String(os.toByteArray(), Charsets.UTF_8);
+		}
+		finally
+		{
+			connection.disconnect();
+		}
+	}
+
+	private class Handler implements HttpHandler
+	{
+		private final String etag;
+		private final String lastModified;
+		private final boolean gzip;
+
+		public Handler(final String etag, final String lastModified, final boolean gzip)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.gzip = gzip;
+		}
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException
+		{
+			if ((etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+					|| (lastModified != null && exchange.getRequestHeaders().getFirst("If-Modified-Since") != null))
+			{
+				numNotModified.incrementAndGet();
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+				exchange.close();
+				return;
+			}
+
+			numOk.incrementAndGet();
+			if (etag != null)
+				exchange.getResponseHeaders().add("ETag", etag);
+			if (lastModified != null)
+				exchange.getResponseHeaders().add("Last-Modified", lastModified);
+
+			byte[] body = BODY.getBytes(Charsets.UTF_8);
+			if (gzip)
+			{
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final OutputStream os = new GZIPOutputStream(bytes);
+				os.write(body);
+				os.close();
+				body = bytes.toByteArray();
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+			final OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+	}
+}
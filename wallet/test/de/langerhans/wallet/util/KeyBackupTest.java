@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.core.Wallet;
+import com.dogecoin.dogecoinj.crypto.KeyCrypter;
+import com.dogecoin.dogecoinj.crypto.KeyCrypterScrypt;
+import com.dogecoin.dogecoinj.store.WalletProtobufSerializer;
+import com.dogecoin.dogecoinj.wallet.Protos;
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class KeyBackupTest
+{
+	private File dir;
+	private Wallet wallet;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		dir = Files.createTempDir();
+
+		wallet = new Wallet(Constants.NETWORK_PARAMETERS);
+		wallet.freshReceiveKey();
+		wallet.importKey(new ECKey());
+		wallet.setDescription("test");
+		wallet.setTag("tag", ByteString.copyFromUtf8("data"));
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		for (final File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void sameAsStrippedWalletProto() throws Exception
+	{
+		assertSameAsStrippedWalletProto();
+	}
+
+	@Test
+	public void sameAsStrippedWalletProtoEncrypted() throws Exception
+	{
+		final KeyCrypter keyCrypter = new KeyCrypterScrypt(Protos.ScryptParameters.newBuilder()
+				.setSalt(ByteString.copyFrom(new byte[KeyCrypterScrypt.SALT_LENGTH])).setN(2).build());
+		wallet.encrypt(keyCrypter, keyCrypter.deriveKey("password"));
+
+		assertSameAsStrippedWalletProto();
+	}
+
+	private void assertSameAsStrippedWalletProto()
+	{
+		final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
+		builder.clearTransaction();
+		builder.clearLastSeenBlockHash();
+		builder.setLastSeenBlockHeight(-1);
+		builder.clearLastSeenBlockTimeSecs();
+
+		assertEquals(builder.build(), KeyBackup.keysToProto(wallet));
+	}
+
+	@Test
+	public void writeAndRestore() throws Exception
+	{
+		final File file = new File(dir, "key-backup");
+		final KeyBackup keyBackup = new KeyBackup(file);
+		keyBackup.prepare(wallet);
+		keyBackup.write();
+		keyBackup.prepare(wallet);
+		keyBackup.write();
+		keyBackup.write();
+
+		final InputStream is = new FileInputStream(file);
+		final Wallet restored = new WalletProtobufSerializer().readWallet(is);
+		is.close();
+
+		assertEquals(wallet.getImportedKeys(), restored.getImportedKeys());
+		assertEquals(wallet.currentReceiveAddress(), restored.currentReceiveAddress());
+		assertEquals(1, dir.list().length);
+		assertEquals(true, keyBackup.toString().startsWith("2 writes"));
+	}
+}
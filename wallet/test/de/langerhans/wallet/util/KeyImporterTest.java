@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dogecoin.dogecoinj.core.ECKey;
+import com.dogecoin.dogecoinj.wallet.KeyChainGroup;
+
+import de.langerhans.wallet.Constants;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class KeyImporterTest
+{
+	private static final long T0 = 1429272000; // 2015-04-17
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void readKeys() throws Exception
+	{
+		final List<ECKey> keys = newKeys(1500);
+
+		final List<ECKey> readKeys = new KeyImporter(executor, 4).readKeys(reader(keys));
+		assertEquals(keys.size(), readKeys.size());
+		for (int i = 0; i < keys.size(); i++)
+		{
+			assertArrayEquals(keys.get(i).getPubKey(), readKeys.get(i).getPubKey());
+			assertEquals(keys.get(i).getCreationTimeSeconds(), readKeys.get(i).getCreationTimeSeconds());
+		}
+	}
+
+	@Test
+	public void sameThread() throws Exception
+	{
+		final List<ECKey> keys = newKeys(10);
+
+		final List<ECKey> readKeys = new KeyImporter().readKeys(reader(keys));
+		assertEquals(keys.size(), readKeys.size());
+		assertArrayEquals(keys.get(9).getPubKey(), readKeys.get(9).getPubKey());
+	}
+
+	@Test
+	public void importKeys() throws Exception
+	{
+		final List<ECKey> keys = newKeys(1100);
+		final KeyChainGroup group = new KeyChainGroup(Constants.NETWORK_PARAMETERS);
+		final List<Integer> progress = new ArrayList<Integer>();
+
+		final int numKeys = new KeyImporter(executor, 4).importKeys(reader(keys), group, new KeyImporter.ProgressListener()
+		{
+			@Override
+			public void onProgress(final int numKeys)
+			{
+				progress.add(numKeys);
+			}
+		});
+
+		assertEquals(keys.size(), numKeys);
+		assertEquals(keys.size(), group.getImportedKeys().size());
+		assertEquals(3, progress.size());
+		assertEquals(keys.size(), (int) progress.get(progress.size() - 1));
+	}
+
+	@Test
+	public void commentsAndBlankLines() throws Exception
+	{
+		final ECKey key = new ECKey();
+		final String text = "# comment\n\n" + key.getPrivateKeyEncoded(Constants.NETWORK_PARAMETERS) + "\n   \n";
+
+		final List<ECKey> readKeys = new KeyImporter(executor, 4).readKeys(new BufferedReader(new StringReader(text)));
+		assertEquals(1, readKeys.size());
+		assertEquals(0, readKeys.get(0).getCreationTimeSeconds());
+	}
+
+	@Test(expected = IOException.class)
+	public void badKey() throws Exception
+	{
+		final List<ECKey> keys = newKeys(700);
+		final StringBuilder text = new StringBuilder(toText(keys));
+		text.append("notakey\n");
+
+		new KeyImporter(executor, 4).readKeys(new BufferedReader(new StringReader(text.toString())));
+	}
+
+	@Test(expected = IOException.class)
+	public void badDate() throws Exception
+	{
+		final ECKey key = new ECKey();
+		final String text = key.getPrivateKeyEncoded(Constants.NETWORK_PARAMETERS) + " yesterday\n";
+
+		new KeyImporter(executor, 4).readKeys(new BufferedReader(new StringReader(text)));
+	}
+
+	private static List<ECKey> newKeys(final int numKeys)
+	{
+		final List<ECKey> keys = new ArrayList<ECKey>(numKeys);
+		for (int i = 0; i < numKeys; i++)
+		{
+			final ECKey key = new ECKey();
+			key.setCreationTimeSeconds(i % 3 == 0 ? 0 : T0 + i);
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	private static BufferedReader reader(final List<ECKey> keys)
+	{
+		return new BufferedReader(new StringReader(toText(keys)));
+	}
+
+	private static String toText(final List<ECKey> keys)
+	{
+		final StringBuilder text = new StringBuilder("# KEEP YOUR PRIVATE KEYS SAFE!\n");
+		for (final ECKey key : keys)
+		{
+			text.append(key.getPrivateKeyEncoded(Constants.NETWORK_PARAMETERS));
+			if (key.getCreationTimeSeconds() != 0)
+				text.append(' ').append(Iso8601Format.formatDateTimeT(new Date(key.getCreationTimeSeconds() * 1000)));
+			text.append('\n');
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package de.langerhans.wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import com.dogecoin.dogecoinj.crypto.KeyCrypter;
+import com.dogecoin.dogecoinj.crypto.KeyCrypterScrypt;
+
+/**
+ * @author Andreas Schildbach
+ */
+public class SessionKeyCacheTest
+{
+	private static final long T0 = 1429272000000l;
+
+	private KeyCrypter keyCrypter;
+	private SessionKeyCache cache;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		keyCrypter = new KeyCrypterScrypt();
+		cache = new SessionKeyCache(1000);
+	}
+
+	@Test
+	public void hit() throws Exception
+	{
+		final KeyParameter key = cache.deriveKey(keyCrypter, "password", true);
+		final KeyParameter cachedKey = cache.deriveKey(keyCrypter, "password", true);
+
+		assertArrayEquals(key.getKey(), cachedKey.getKey());
+		assertTrue(cache.toString().startsWith("1 derivations"));
+		assertTrue(cache.toString().contains("1 saved by cache"));
+	}
+
+	@Test
+	public void otherPasswordOrCrypter() throws Exception
+	{
+		cache.put(keyCrypter, "password", keyCrypter.deriveKey("password"), T0);
+
+		assertNull(cache.get(keyCrypter, "other", T0));
+		assertNull(cache.get(new KeyCrypterScrypt(), "password", T0));
+	}
+
+	@Test
+	public void expires() throws Exception
+	{
+		cache.put(keyCrypter, "password", keyCrypter.deriveKey("password"), T0);
+
+		assertEquals(1000, cache.getRemainingMs(T0));
+		assertArrayEquals(keyCrypter.deriveKey("password").getKey(), cache.get(keyCrypter, "password", T0 + 999).getKey());
+		assertNull(cache.get(keyCrypter, "password", T0 + 1000));
+		assertEquals(-1, cache.getRemainingMs(T0 + 1000));
+	}
+
+	@Test
+	public void clearWipesKey() throws Exception
+	{
+		final KeyParameter key = keyCrypter.deriveKey("password");
+		cache.put(keyCrypter, "password", key, T0);
+
+		assertTrue(cache.clear());
+		assertFalse(cache.clear());
+		assertNull(cache.get(keyCrypter, "password", T0));
+		// the caller's copy is untouched
+		assertArrayEquals(keyCrypter.deriveKey("password").getKey(), key.getKey());
+	}
+
+	@Test
+	public void disabled() throws Exception
+	{
+		cache.deriveKey(keyCrypter, "password", true);
+		cache.deriveKey(keyCrypter, "password", false);
+
+		assertEquals(-1, cache.getRemainingMs(System.currentTimeMillis()));
+		assertTrue(cache.toString().startsWith("2 derivations"));
+	}
+}